@@ -91,6 +91,7 @@ yugi.Config.ServletPath = {
   DECK_COPY: '/deck/copy',
   DECK_DELETE: '/deck/delete',
   DECK_EDITOR: '/deck/editor',
+  DECK_UPDATE: '/deck/update',
   DECK_MANAGER: '/deck/manager',
   DECK_VIEWER: '/deck/viewer',
   DECKS: '/decks',
@@ -110,6 +111,7 @@ yugi.Config.ServletPath = {
 yugi.Config.UrlParameter = {
   CARD_KEY: 'card_key',       // The key of the card.
   CARD_NAME: 'card_name',     // The name of a card.
+  CURSOR: 'cursor',           // Where the previous page of results left off.
   DATA: 'data',               // The data part of the message.
   DECK_KEY: 'deck_key',       // The key of the deck.
   ERROR: 'error',             // The error that occurred.
@@ -119,6 +121,7 @@ yugi.Config.UrlParameter = {
   MODE: 'mode',               // The mode (such as "dev" mode)
   PLAYER_NAME: 'player_name', // The name of the player.
   READ_ONLY: 'read_only',     // True if this screen is read only.
+  SINCE: 'since',             // The lobby version the client last saw.
   STRUCTURE: 'structure'      // True if this is for structure decks.
 };
 
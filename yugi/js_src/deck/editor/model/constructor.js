@@ -78,6 +78,9 @@ yugi.deck.editor.model.Constructor = function(notifier, deckService) {
   handler.listen(this.deckService_,
       yugi.service.DeckService.EventType.SAVE_ERROR,
       this.onSaveError_);
+  handler.listen(this.deckService_,
+      yugi.service.DeckService.EventType.SAVE_CONFLICT,
+      this.onSaveConflict_);
 };
 goog.inherits(yugi.deck.editor.model.Constructor, goog.events.EventTarget);
 
@@ -158,8 +161,8 @@ yugi.deck.editor.model.Constructor.prototype.addCard = function(card) {
   this.deck_.add(card, this.deckType_);
   this.deck_.sort();
 
-  // Save the deck.
-  this.save_();
+  // Save the change.
+  this.update_('add', card);
 };
 
 
@@ -177,11 +180,20 @@ yugi.deck.editor.model.Constructor.prototype.removeCard = function(card) {
   this.logger.info('Removed ' + card.getName() + ' from the ' +
       this.deckType_ + ' deck.');
 
+  // Removing the cover card also clears the cover, which only a full save
+  // carries.
+  var mainCard = this.deck_.getMainCard();
+  var wasCover = !!mainCard && mainCard.equals(card);
+
   // Remove the card and dispatch the event.
   this.deck_.remove(card, this.deckType_);
 
-  // Save the deck.
-  this.save_();
+  // Save the change.
+  if (wasCover) {
+    this.save_();
+  } else {
+    this.update_('remove', card);
+  }
 };
 
 
@@ -268,6 +280,22 @@ yugi.deck.editor.model.Constructor.prototype.onSaveError_ = function() {
 };
 
 
+/**
+ * Called if the deck was saved somewhere else since it was loaded.  The
+ * changes made here are lost, so the saved deck is loaded in its place.
+ * @private
+ */
+yugi.deck.editor.model.Constructor.prototype.onSaveConflict_ = function() {
+  this.setStatus_(yugi.deck.editor.model.Constructor.Status.FAILED_TO_SAVE);
+  this.notifier_.post('The deck was changed somewhere else, so the latest ' +
+      'version was loaded.  Make your changes again.', true);
+  var key = this.deck_.getKey();
+  if (key) {
+    this.deckService_.load(key);
+  }
+};
+
+
 /**
  * Saves the deck.
  * @private
@@ -278,6 +306,23 @@ yugi.deck.editor.model.Constructor.prototype.save_ = function() {
 };
 
 
+/**
+ * Saves one card change without sending the whole deck.  A deck that was
+ * never saved has nothing to change yet, so it is saved whole.
+ * @param {string} op The change, either 'add' or 'remove'.
+ * @param {!yugi.model.Card} card The card that was added or removed.
+ * @private
+ */
+yugi.deck.editor.model.Constructor.prototype.update_ = function(op, card) {
+  if (!this.deck_.getKey()) {
+    this.save_();
+    return;
+  }
+  this.setStatus_(yugi.deck.editor.model.Constructor.Status.SAVING);
+  this.deckService_.update(this.getDeck(), op, card, this.deckType_);
+};
+
+
 /**
  * Sets the status to the new value and maybe dispatches an event.
  * @param {!yugi.deck.editor.model.Constructor.Status} status The new status.
@@ -98,6 +98,16 @@ yugi.deck.manager.model.Decks.prototype.setDecks = function(decks) {
 };
 
 
+/**
+ * Adds another page of decks to the ones already loaded.
+ * @param {!Array.<!yugi.model.Deck>} decks The decks to add.
+ */
+yugi.deck.manager.model.Decks.prototype.addDecks = function(decks) {
+  goog.array.extend(this.decks_, decks);
+  this.dispatchEvent(yugi.deck.manager.model.Decks.EventType.DECKS_CHANGED);
+};
+
+
 /**
  * @return {!Array.<!yugi.model.Deck>} The decks.
  */
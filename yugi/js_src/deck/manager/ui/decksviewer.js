@@ -9,6 +9,7 @@ goog.require('goog.array');
 goog.require('goog.debug.Logger');
 goog.require('goog.dom');
 goog.require('goog.dom.classes');
+goog.require('goog.events.EventType');
 goog.require('goog.soy');
 goog.require('goog.string');
 goog.require('goog.ui.Component');
@@ -77,6 +78,21 @@ yugi.deck.manager.ui.DecksViewer = function(readOnly) {
    * @private
    */
   this.menus_ = new Array();
+
+  /**
+   * The ID of the load with more decks to show or null if every deck is
+   * showing.
+   * @type {?string}
+   * @private
+   */
+  this.moreRequestId_ = null;
+
+  /**
+   * The element the user clicks to see more decks, if it is showing.
+   * @type {Element}
+   * @private
+   */
+  this.moreElement_ = null;
 };
 goog.inherits(yugi.deck.manager.ui.DecksViewer, goog.ui.Component);
 
@@ -112,7 +128,7 @@ yugi.deck.manager.ui.DecksViewer.prototype.createDom = function() {
 yugi.deck.manager.ui.DecksViewer.prototype.enterDocument = function() {
   goog.base(this, 'enterDocument');
 
-  // Listen to the decks service for when all decks have been loaded.
+  // Listen to the decks service for when a page of decks has been loaded.
   this.getHandler().listen(this.decksService_,
       yugi.service.DecksService.EventType.LOADED,
       this.onDecksLoaded_);
@@ -136,13 +152,27 @@ yugi.deck.manager.ui.DecksViewer.prototype.enterDocument = function() {
 
 
 /**
- * Called when all of the decks have loaded.
+ * Called when a page of decks has loaded.
  * @param {!yugi.service.DecksService.LoadEvent} e The load event.
  * @private
  */
 yugi.deck.manager.ui.DecksViewer.prototype.onDecksLoaded_ = function(e) {
-  this.logger.info('Setting the decks on the decks model.');
-  this.decks_.setDecks(e.decks);
+  this.logger.info('Adding the decks to the decks model.');
+  this.moreRequestId_ = e.more ? e.requestId : null;
+  this.decks_.addDecks(e.decks);
+};
+
+
+/**
+ * Called when the user asks for more decks.
+ * @private
+ */
+yugi.deck.manager.ui.DecksViewer.prototype.onMoreClick_ = function() {
+  if (this.moreRequestId_ &&
+      this.decksService_.loadMore(this.moreRequestId_)) {
+    goog.dom.setTextContent(
+        goog.dom.getFirstElementChild(this.moreElement_), 'Loading...');
+  }
 };
 
 
@@ -169,6 +199,12 @@ yugi.deck.manager.ui.DecksViewer.prototype.renderDecks_ = function() {
     goog.dispose(menu);
   });
   this.menus_ = new Array();
+  if (this.moreElement_) {
+    this.getHandler().unlisten(this.moreElement_,
+        goog.events.EventType.CLICK,
+        this.onMoreClick_);
+    this.moreElement_ = null;
+  }
 
   // Sort the decks by name.
   var decks = this.decks_.getDecks();
@@ -202,6 +238,16 @@ yugi.deck.manager.ui.DecksViewer.prototype.renderDecks_ = function() {
 
   }, this);
 
+  // Let the user load the next page of decks if there is one.
+  if (this.moreRequestId_) {
+    this.moreElement_ = goog.soy.renderAsElement(
+        yugi.deck.manager.ui.deck.soy.MORE_DECKS);
+    goog.dom.appendChild(element, this.moreElement_);
+    this.getHandler().listen(this.moreElement_,
+        goog.events.EventType.CLICK,
+        this.onMoreClick_);
+  }
+
   // Don't create the "new deck" deck if in read only mode.
   if (!this.readOnly_) {
 
@@ -245,6 +291,10 @@ yugi.deck.manager.ui.DecksViewer.prototype.createActions_ = function(deck) {
  * @private
  */
 yugi.deck.manager.ui.DecksViewer.prototype.onLoadError_ = function() {
+  if (this.moreElement_) {
+    goog.dom.setTextContent(
+        goog.dom.getFirstElementChild(this.moreElement_), 'More Decks');
+  }
   this.notifier_.post('Failed to load any decks.  Try refreshing the page.',
       true);
 };
@@ -8,6 +8,7 @@ goog.provide('yugi.game.Main');
 goog.require('goog.array');
 goog.require('goog.debug.Logger');
 goog.require('goog.dom');
+goog.require('goog.string');
 goog.require('yugi.Main');
 goog.require('yugi.game.handler.CardTransfer');
 goog.require('yugi.game.handler.Connection');
@@ -51,13 +52,16 @@ goog.require('yugi.service.DecksService');
  * @param {string} channelToken The token for this clients access to the
  *     appengine channel.
  * @param {string} playerName The name of the player.
+ * @param {string} readOnly 'true' if the player is only watching the game.
  * @constructor
  * @extends {yugi.Main}
  */
 yugi.game.Main = function(signInOutUrl, deckManagerUrl, userJson,
-    gameKey, channelToken, playerName) {
+    gameKey, channelToken, playerName, readOnly) {
   goog.base(this);
 
+  var isReadOnly = goog.string.caseInsensitiveCompare('true', readOnly) == 0;
+
   this.logger.info('Game key = ' + gameKey);
   this.logger.info('Channel token = ' + channelToken);
   this.logger.info('Player name = ' + playerName);
@@ -70,7 +74,7 @@ yugi.game.Main = function(signInOutUrl, deckManagerUrl, userJson,
    * @private
    */
   this.channel_ = yugi.game.net.Channel.register(channelToken, gameKey,
-      playerName);
+      playerName, isReadOnly);
 
   // Register generic models.
   var user = yugi.model.User.register(userJson);
@@ -177,11 +181,12 @@ yugi.game.Main.prototype.logger = goog.debug.Logger.getLogger('yugi.game.Main');
  * @param {string} channelToken The token for this clients access to the
  *     appengine channel.
  * @param {string} playerName The name of the player.
+ * @param {string} readOnly 'true' if the player is only watching the game.
  */
 yugi.game.bootstrap = function(signInOutUrl, deckManagerUrl, userJson,
-    gameKey, channelToken, playerName) {
+    gameKey, channelToken, playerName, readOnly) {
   new yugi.game.Main(signInOutUrl, deckManagerUrl, userJson, gameKey,
-      channelToken, playerName);
+      channelToken, playerName, readOnly);
 };
 
 
@@ -0,0 +1,60 @@
+/**
+ * The message used to tell the server the last message this client received.
+ */
+
+goog.provide('yugi.game.message.Ack');
+
+goog.require('yugi.game.message.Message');
+goog.require('yugi.game.message.MessageType');
+
+
+
+/**
+ * The message used to tell the server the sequence number of the last message
+ * this client received, so a reconnect only replays what the client missed.
+ * @constructor
+ * @extends {yugi.game.message.Message}
+ */
+yugi.game.message.Ack = function() {
+  goog.base(this, yugi.game.message.MessageType.ACK);
+};
+goog.inherits(yugi.game.message.Ack, yugi.game.message.Message);
+
+
+/**
+ * @type {number}
+ * @private
+ */
+yugi.game.message.Ack.prototype.sequence_ = 0;
+
+
+/**
+ * @param {number} sequence The sequence number to set.
+ */
+yugi.game.message.Ack.prototype.setSequence = function(sequence) {
+  this.sequence_ = sequence;
+};
+
+
+/**
+ * @return {number} The sequence number of the last message received.
+ */
+yugi.game.message.Ack.prototype.getSequence = function() {
+  return this.sequence_;
+};
+
+
+/** @override */
+yugi.game.message.Ack.prototype.toJson = function() {
+  var message = goog.base(this, 'toJson');
+  message['sequence'] = this.getSequence();
+  return message;
+};
+
+
+/** @override */
+yugi.game.message.Ack.prototype.setFromJson = function(json) {
+  goog.base(this, 'setFromJson', json);
+
+  this.sequence_ = json['sequence'];
+};
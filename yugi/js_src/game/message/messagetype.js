@@ -14,6 +14,7 @@ goog.provide('yugi.game.message.MessageType');
  * @enum {string}
  */
 yugi.game.message.MessageType = {
+  ACK: 'ack',
   CARD_TRANSFER: 'card_transfer',
   CHAT: 'chat',
   CONNECTED: 'connected',
@@ -4,6 +4,7 @@
 
 goog.provide('yugi.game.model.Decks');
 
+goog.require('goog.array');
 goog.require('goog.debug.Logger');
 goog.require('goog.events');
 goog.require('goog.events.EventHandler');
@@ -58,6 +59,18 @@ yugi.game.model.Decks = function(decksService, user) {
    */
   this.userDecks_ = null;
 
+  /**
+   * @type {boolean}
+   * @private
+   */
+  this.moreStructureDecks_ = false;
+
+  /**
+   * @type {boolean}
+   * @private
+   */
+  this.moreUserDecks_ = false;
+
   var handler = new goog.events.EventHandler(this);
   this.registerDisposable(handler);
 
@@ -118,12 +131,14 @@ yugi.game.model.Decks.get = function() {
 
 
 /**
- * Loads all the decks for the user and all the structure decks.  This is a
- * shallow query which should be just enough to show the user which decks to
- * choose from.  A deeper query needs to be made once the user selects.
+ * Loads the first page of the user's decks and of the structure decks.  This
+ * is a shallow query which should be just enough to show the user which decks
+ * to choose from.  A deeper query needs to be made once the user selects.
  * Note that if the user is not signed in, their decks will not be queried.
  */
 yugi.game.model.Decks.prototype.load = function() {
+  this.structureDecks_ = null;
+  this.userDecks_ = null;
   this.structureDecksRequestId_ = this.decksService_.loadStructureDecks();
   if (this.user_.isSignedIn()) {
     this.userDecksRequestId_ = this.decksService_.loadUserDecks();
@@ -131,6 +146,42 @@ yugi.game.model.Decks.prototype.load = function() {
 };
 
 
+/**
+ * Loads the next page of structure decks, if there is one.
+ */
+yugi.game.model.Decks.prototype.loadMoreStructureDecks = function() {
+  if (this.structureDecksRequestId_) {
+    this.decksService_.loadMore(this.structureDecksRequestId_);
+  }
+};
+
+
+/**
+ * Loads the next page of the user's decks, if there is one.
+ */
+yugi.game.model.Decks.prototype.loadMoreUserDecks = function() {
+  if (this.userDecksRequestId_) {
+    this.decksService_.loadMore(this.userDecksRequestId_);
+  }
+};
+
+
+/**
+ * @return {boolean} True if there are more structure decks to load.
+ */
+yugi.game.model.Decks.prototype.hasMoreStructureDecks = function() {
+  return this.moreStructureDecks_;
+};
+
+
+/**
+ * @return {boolean} True if there are more user decks to load.
+ */
+yugi.game.model.Decks.prototype.hasMoreUserDecks = function() {
+  return this.moreUserDecks_;
+};
+
+
 /**
  * @return {Array.<!yugi.model.Deck>} The structure decks.  Will be null until
  *     the request completes successfully.
@@ -150,18 +201,22 @@ yugi.game.model.Decks.prototype.getUserDecks = function() {
 
 
 /**
- * Called when a request succeeds.
+ * Called when a page of decks loads.  The page is added to the decks already
+ * loaded.
  * @param {!yugi.service.DecksService.LoadEvent} e The load event.
  * @private
  */
 yugi.game.model.Decks.prototype.onLoad_ = function(e) {
   if (e.requestId == this.structureDecksRequestId_) {
     this.logger.info('The structure decks loaded.');
-    this.structureDecks_ = e.decks;
+    this.structureDecks_ =
+        goog.array.concat(this.structureDecks_ || [], e.decks);
+    this.moreStructureDecks_ = e.more;
     this.dispatchEvent(yugi.game.model.Decks.EventType.STRUCTURE_DECKS_LOADED);
   } else if (e.requestId == this.userDecksRequestId_) {
     this.logger.info('The user\'s decks loaded.');
-    this.userDecks_ = e.decks;
+    this.userDecks_ = goog.array.concat(this.userDecks_ || [], e.decks);
+    this.moreUserDecks_ = e.more;
     this.dispatchEvent(yugi.game.model.Decks.EventType.USER_DECKS_LOADED);
   } else {
     this.logger.info(
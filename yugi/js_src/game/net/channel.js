@@ -5,7 +5,9 @@
 goog.provide('yugi.game.net.Channel');
 goog.provide('yugi.game.net.Channel.MessageEvent');
 
+goog.require('goog.Timer');
 goog.require('goog.Uri');
+goog.require('goog.array');
 goog.require('goog.debug.Logger');
 goog.require('goog.events');
 goog.require('goog.events.Event');
@@ -14,8 +16,10 @@ goog.require('goog.events.EventTarget');
 goog.require('goog.json');
 goog.require('goog.net.EventType');
 goog.require('goog.net.XhrIo');
+goog.require('goog.object');
 goog.require('goog.structs.Queue');
 goog.require('yugi.Config');
+goog.require('yugi.game.message.Ack');
 goog.require('yugi.game.message.CardTransfer');
 goog.require('yugi.game.message.Chat');
 goog.require('yugi.game.message.Connected');
@@ -38,12 +42,31 @@ goog.require('yugi.game.net.WrappedMessage');
  *     appengine channel.
  * @param {string} gameKey The game's key.
  * @param {string} playerName The name of the player.
+ * @param {boolean} isSpectator True if this client only watches the game.
  * @constructor
  * @extends {goog.events.EventTarget}
  */
-yugi.game.net.Channel = function(channelToken, gameKey, playerName) {
+yugi.game.net.Channel = function(channelToken, gameKey, playerName,
+    isSpectator) {
   goog.base(this);
 
+  /**
+   * Spectators get every relayed message through a task queue, which can
+   * deliver them out of order or more than once, so they're put back in
+   * sequence order before they're dispatched.
+   * @type {boolean}
+   * @private
+   */
+  this.isSpectator_ = isSpectator;
+
+  /**
+   * The relayed messages that arrived ahead of a message still missing, by
+   * sequence number.
+   * @type {!Object.<number, !Object>}
+   * @private
+   */
+  this.heldMessages_ = {};
+
   /**
    * The key for the game.  This is passed along in every post to the server.
    * @type {string}
@@ -141,6 +164,69 @@ yugi.game.net.Channel.prototype.logger = goog.debug.Logger.getLogger(
 yugi.game.net.Channel.prototype.isOpen_ = false;
 
 
+/**
+ * The highest sequence number the server stamped on a message this client
+ * received.
+ * @type {number}
+ * @private
+ */
+yugi.game.net.Channel.prototype.lastSequence_ = 0;
+
+
+/**
+ * The timer for the pending acknowledgement or null if there isn't one.
+ * @type {?number}
+ * @private
+ */
+yugi.game.net.Channel.prototype.ackTimerId_ = null;
+
+
+/**
+ * The sequence number of the next relayed message a spectator dispatches or
+ * null until the first one arrives.
+ * @type {?number}
+ * @private
+ */
+yugi.game.net.Channel.prototype.nextSequence_ = null;
+
+
+/**
+ * The timer that gives up on a missing message or null if nothing is held.
+ * @type {?number}
+ * @private
+ */
+yugi.game.net.Channel.prototype.gapTimerId_ = null;
+
+
+/**
+ * How long, in milliseconds, a spectator waits for a missing message before
+ * it skips ahead to the messages it holds.
+ * @type {number}
+ * @const
+ * @private
+ */
+yugi.game.net.Channel.GAP_TIMEOUT_ = 3000;
+
+
+/**
+ * The most messages a spectator holds while waiting for a missing one.
+ * @type {number}
+ * @const
+ * @private
+ */
+yugi.game.net.Channel.MAX_HELD_ = 64;
+
+
+/**
+ * How long, in milliseconds, received messages are collected before they're
+ * acknowledged in one post.
+ * @type {number}
+ * @const
+ * @private
+ */
+yugi.game.net.Channel.ACK_DELAY_ = 2000;
+
+
 /**
  * @type {!yugi.game.net.Channel}
  * @private
@@ -154,11 +240,13 @@ yugi.game.net.Channel.instance_;
  *     appengine channel.
  * @param {string} gameKey The game's key.
  * @param {string} playerName The name of the player.
+ * @param {boolean} isSpectator True if this client only watches the game.
  * @return {!yugi.game.net.Channel} The registered instance.
  */
-yugi.game.net.Channel.register = function(channelToken, gameKey, playerName) {
+yugi.game.net.Channel.register = function(channelToken, gameKey, playerName,
+    isSpectator) {
   yugi.game.net.Channel.instance_ = new yugi.game.net.Channel(channelToken,
-      gameKey, playerName);
+      gameKey, playerName, isSpectator);
   return yugi.game.net.Channel.get();
 };
 
@@ -303,6 +391,97 @@ yugi.game.net.Channel.prototype.onMessage_ = function(channelMessage) {
     return;
   }
 
+  // Spectators put relayed messages back in order.  Players get theirs
+  // straight from the server in order, and let it know they arrived.
+  var sequence = json['sq'];
+  if (this.isSpectator_ && goog.isNumber(sequence)) {
+    this.reorder_(sequence, json);
+  } else {
+    this.maybeAcknowledge_(json);
+    this.dispatchJson_(json, type);
+  }
+};
+
+
+/**
+ * Dispatches the relayed message if it's the next one in sequence, otherwise
+ * holds it until the messages before it arrive.  Messages already dispatched
+ * are dropped.
+ * @param {number} sequence The sequence number stamped on the message.
+ * @param {!Object} json The message JSON.
+ * @private
+ */
+yugi.game.net.Channel.prototype.reorder_ = function(sequence, json) {
+  if (goog.isNull(this.nextSequence_)) {
+    this.nextSequence_ = sequence;
+  }
+  if (sequence < this.nextSequence_ || sequence in this.heldMessages_) {
+    this.logger.fine('Dropped a duplicate message: ' + sequence);
+    return;
+  }
+
+  this.heldMessages_[sequence] = json;
+  this.dispatchHeld_();
+
+  // Don't wait forever on a message that may never come.
+  if (goog.object.getCount(this.heldMessages_) > yugi.game.net.Channel.MAX_HELD_) {
+    this.skipGap_();
+  } else if (!goog.object.isEmpty(this.heldMessages_) &&
+      goog.isNull(this.gapTimerId_)) {
+    this.gapTimerId_ = goog.Timer.callOnce(this.skipGap_,
+        yugi.game.net.Channel.GAP_TIMEOUT_, this);
+  }
+};
+
+
+/**
+ * Dispatches the held messages that are next in sequence.
+ * @private
+ */
+yugi.game.net.Channel.prototype.dispatchHeld_ = function() {
+  while (this.nextSequence_ in this.heldMessages_) {
+    var json = this.heldMessages_[this.nextSequence_];
+    delete this.heldMessages_[this.nextSequence_];
+    this.nextSequence_++;
+    this.dispatchJson_(json, yugi.game.message.Message.getTypeFromJson(json));
+  }
+};
+
+
+/**
+ * Gives up on the missing message and continues from the oldest held one.
+ * @private
+ */
+yugi.game.net.Channel.prototype.skipGap_ = function() {
+  if (!goog.isNull(this.gapTimerId_)) {
+    goog.Timer.clear(this.gapTimerId_);
+    this.gapTimerId_ = null;
+  }
+
+  var held = goog.array.map(goog.object.getKeys(this.heldMessages_), Number);
+  if (held.length == 0) {
+    return;
+  }
+  this.logger.warning('Skipped missing messages before ' +
+      Math.min.apply(null, held));
+  this.nextSequence_ = Math.min.apply(null, held);
+  this.dispatchHeld_();
+
+  if (!goog.object.isEmpty(this.heldMessages_)) {
+    this.gapTimerId_ = goog.Timer.callOnce(this.skipGap_,
+        yugi.game.net.Channel.GAP_TIMEOUT_, this);
+  }
+};
+
+
+/**
+ * Builds the message object for the JSON and dispatches it.
+ * @param {!Object} json The message JSON.
+ * @param {?yugi.game.message.MessageType} type The type of message.
+ * @private
+ */
+yugi.game.net.Channel.prototype.dispatchJson_ = function(json, type) {
+
   // Construct the appropriate message object.
   var message = null;
   switch (type) {
@@ -352,6 +531,40 @@ yugi.game.net.Channel.prototype.onMessage_ = function(channelMessage) {
 };
 
 
+/**
+ * Remembers the sequence number the server stamped on the message and
+ * schedules an acknowledgement.  Acknowledgements are batched so a burst of
+ * messages only costs one post.
+ * @param {!Object} json The message JSON.
+ * @private
+ */
+yugi.game.net.Channel.prototype.maybeAcknowledge_ = function(json) {
+  var sequence = json['sq'];
+  if (!goog.isNumber(sequence)) {
+    return;
+  }
+
+  this.lastSequence_ = Math.max(this.lastSequence_, sequence);
+  if (goog.isNull(this.ackTimerId_)) {
+    this.ackTimerId_ = goog.Timer.callOnce(this.sendAck_,
+        yugi.game.net.Channel.ACK_DELAY_, this);
+  }
+};
+
+
+/**
+ * Sends the acknowledgement for every message received so far.
+ * @private
+ */
+yugi.game.net.Channel.prototype.sendAck_ = function() {
+  this.ackTimerId_ = null;
+
+  var ack = new yugi.game.message.Ack();
+  ack.setSequence(this.lastSequence_);
+  this.send(ack);
+};
+
+
 /**
  * Called when the channel has an error.
  * @param {*} e The error object.
@@ -430,6 +643,12 @@ yugi.game.net.Channel.prototype.maybeSendNextMessage_ = function() {
 yugi.game.net.Channel.prototype.disposeInternal = function() {
   goog.base(this, 'disposeInternal');
 
+  if (!goog.isNull(this.ackTimerId_)) {
+    goog.Timer.clear(this.ackTimerId_);
+  }
+  if (!goog.isNull(this.gapTimerId_)) {
+    goog.Timer.clear(this.gapTimerId_);
+  }
   this.sendQueue_.clear();
   goog.dispose(this.sendQueue_);
   goog.dispose(this.socket_);
@@ -49,7 +49,8 @@ function setUp() {
   yugi.test.expectAnyListeners(mockXhrIo);
 
   yugi.test.verify(mc, function() {
-    channel = new yugi.game.net.Channel(channelToken, gameKey, playerName);
+    channel = new yugi.game.net.Channel(channelToken, gameKey, playerName,
+        false);
   });
 }
 
@@ -125,7 +125,10 @@ yugi.game.ui.deck.Select.prototype.renderStructureDecks_ = function() {
       yugi.game.ui.deck.Select.Id_.STRUCTURE_DECKS);
   element = goog.asserts.assert(element);
   var decks = goog.asserts.assert(this.decksModel_.getStructureDecks());
-  this.renderDecks_(element, decks);
+  this.renderDecks_(element, decks,
+      this.decksModel_.hasMoreStructureDecks() ?
+          goog.bind(this.decksModel_.loadMoreStructureDecks, this.decksModel_) :
+          null);
 };
 
 
@@ -138,7 +141,10 @@ yugi.game.ui.deck.Select.prototype.renderUserDecks_ = function() {
       yugi.game.ui.deck.Select.Id_.PLAYER_DECKS);
   element = goog.asserts.assert(element);
   var decks = goog.asserts.assert(this.decksModel_.getUserDecks());
-  this.renderDecks_(element, decks);
+  this.renderDecks_(element, decks,
+      this.decksModel_.hasMoreUserDecks() ?
+          goog.bind(this.decksModel_.loadMoreUserDecks, this.decksModel_) :
+          null);
 };
 
 
@@ -146,9 +152,12 @@ yugi.game.ui.deck.Select.prototype.renderUserDecks_ = function() {
  * Render all the decks into the given element.
  * @param {!Element} element The element into which to render the decks.
  * @param {!Array.<!yugi.model.Deck>} decks The decks to render.
+ * @param {?function()} loadMore Loads the next page of decks, or null if
+ *     there are no more.
  * @private
  */
-yugi.game.ui.deck.Select.prototype.renderDecks_ = function(element, decks) {
+yugi.game.ui.deck.Select.prototype.renderDecks_ = function(
+    element, decks, loadMore) {
 
   // Clear the children, then render.
   goog.dom.removeChildren(element);
@@ -180,6 +189,29 @@ yugi.game.ui.deck.Select.prototype.renderDecks_ = function(element, decks) {
 
     }, this);
   }
+
+  // Let the user load the next page of decks if there is one.
+  if (loadMore) {
+    var moreElement = goog.soy.renderAsElement(
+        yugi.game.ui.deck.select.soy.MORE_DECKS);
+    goog.dom.appendChild(element, moreElement);
+    this.getHandler().listen(moreElement,
+        goog.events.EventType.CLICK,
+        goog.bind(this.onMoreClick_, this, moreElement, loadMore));
+  }
+};
+
+
+/**
+ * Called when the user asks for more decks.
+ * @param {!Element} moreElement The element that was clicked.
+ * @param {function()} loadMore Loads the next page of decks.
+ * @private
+ */
+yugi.game.ui.deck.Select.prototype.onMoreClick_ = function(
+    moreElement, loadMore) {
+  goog.dom.setTextContent(moreElement, 'Loading...');
+  loadMore();
 };
 
 
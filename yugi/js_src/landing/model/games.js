@@ -6,6 +6,7 @@ goog.provide('yugi.landing.model.Games');
 goog.provide('yugi.landing.model.Games.EventType');
 goog.provide('yugi.landing.model.Games.UpdateEvent');
 
+goog.require('goog.Timer');
 goog.require('goog.Uri');
 goog.require('goog.array');
 goog.require('goog.debug.Logger');
@@ -34,6 +35,13 @@ yugi.landing.model.Games = function() {
    */
   this.gameList_ = [];
 
+  /**
+   * The games read so far by a refresh that has more pages coming.
+   * @type {!Array.<!yugi.landing.model.Game>}
+   * @private
+   */
+  this.pendingList_ = [];
+
   /**
    * This is used to make queries to the server.
    * @type {!goog.net.XhrIo}
@@ -85,6 +93,24 @@ yugi.landing.model.Games.EventType = {
 yugi.landing.model.Games.prototype.waiting_ = false;
 
 
+/**
+ * The lobby version of the game list, used to ask the server only for what
+ * changed since.  Null until the whole list has been loaded.
+ * @type {?number}
+ * @private
+ */
+yugi.landing.model.Games.prototype.version_ = null;
+
+
+/**
+ * The lobby version of the first page read by a reload that has more pages
+ * coming.
+ * @type {?number}
+ * @private
+ */
+yugi.landing.model.Games.prototype.pendingVersion_ = null;
+
+
 /**
  * @return {boolean} Whether this model is waiting for a response or not.
  */
@@ -103,18 +129,66 @@ yugi.landing.model.Games.prototype.getList = function() {
 
 
 /**
- * Refreshes the list of games by querying the server.
+ * Refreshes the list of games by querying the server.  Once the whole list has
+ * been loaded, only the changes since then are asked for.
  */
 yugi.landing.model.Games.prototype.refresh = function() {
+  if (this.waiting_) {
+    this.logger.info('Already refreshing the game list.');
+    return;
+  }
   this.logger.info('Refreshing game list.');
 
-  // Send the query and wait for the response.
+  if (goog.isNull(this.version_)) {
+    this.reload_();
+  } else {
+    this.queryChanges_(this.version_);
+  }
+
+  this.waiting_ = true;
+  this.dispatchEvent(yugi.landing.model.Games.EventType.WAITING);
+};
+
+
+/**
+ * Starts loading the whole game list from the first page.
+ * @private
+ */
+yugi.landing.model.Games.prototype.reload_ = function() {
+  goog.disposeAll(this.pendingList_);
+  this.pendingList_ = [];
+  this.pendingVersion_ = null;
+  this.queryPage_(null);
+};
+
+
+/**
+ * Queries the server for the games added and removed since the version.
+ * @param {number} version The version of the current game list.
+ * @private
+ */
+yugi.landing.model.Games.prototype.queryChanges_ = function(version) {
   var uri = new goog.Uri();
   uri.setPath(yugi.Config.ServletPath.JOIN_QUERY);
+  uri.setParameterValue(yugi.Config.UrlParameter.SINCE, version);
   this.xhrio_.send(uri);
+};
 
-  this.waiting_ = true;
-  this.dispatchEvent(yugi.landing.model.Games.EventType.WAITING);
+
+/**
+ * Queries the server for one page of games.  The server returns the games a
+ * page at a time, so a refresh keeps asking until it has all of them.
+ * @param {?string} cursor The cursor from the previous page or null for the
+ *     first page.
+ * @private
+ */
+yugi.landing.model.Games.prototype.queryPage_ = function(cursor) {
+  var uri = new goog.Uri();
+  uri.setPath(yugi.Config.ServletPath.JOIN_QUERY);
+  if (cursor) {
+    uri.setParameterValue(yugi.Config.UrlParameter.CURSOR, cursor);
+  }
+  this.xhrio_.send(uri);
 };
 
 
@@ -124,6 +198,7 @@ yugi.landing.model.Games.prototype.refresh = function() {
  */
 yugi.landing.model.Games.prototype.onQueryError_ = function() {
   this.logger.severe('Querying for games to join failed.');
+  this.waiting_ = false;
 };
 
 
@@ -132,21 +207,84 @@ yugi.landing.model.Games.prototype.onQueryError_ = function() {
  * @private
  */
 yugi.landing.model.Games.prototype.onQueryComplete_ = function() {
+  if (!this.xhrio_.isSuccess()) {
+    return;
+  }
   this.logger.info('Query complete');
-  this.waiting_ = false;
 
-  // Grab the games out of the response.
   var response = this.xhrio_.getResponseJson();
-  var games = response['games'];
 
-  // Reset the game list.
-  goog.disposeAll(this.gameList_);
-  this.gameList_ = new Array();
+  // The server no longer has the changes since our version, so start over.
+  // The XHR object can't be reused until this event is done.
+  if (response['reset']) {
+    this.version_ = null;
+    goog.Timer.callOnce(this.reload_, 0, this);
+    return;
+  }
+
+  if (response['added']) {
+    this.applyChanges_(response);
+    return;
+  }
+
+  // Grab the games out of the response.
+  var games = response['games'];
+  if (goog.isNull(this.pendingVersion_)) {
+    this.pendingVersion_ = response['version'];
+  }
 
   // Add all the games to the list.
   goog.array.forEach(games, function(game) {
-    this.gameList_.push(new yugi.landing.model.Game(game['key'], game['name']));
+    this.pendingList_.push(
+        new yugi.landing.model.Game(game['key'], game['name']));
+  }, this);
+
+  // Ask for the next page if there is one.  The XHR object can't be reused
+  // until this event is done.
+  var cursor = response['cursor'];
+  if (cursor) {
+    goog.Timer.callOnce(goog.bind(this.queryPage_, this, cursor));
+    return;
+  }
+  this.waiting_ = false;
+
+  // Replace the game list.  The version comes from the first page, so changes
+  // made while the pages were read are asked for again next time.
+  goog.disposeAll(this.gameList_);
+  this.gameList_ = this.pendingList_;
+  this.pendingList_ = [];
+  this.version_ = this.pendingVersion_;
+
+  // Notify everyone that the list has been updated.
+  this.dispatchEvent(new yugi.landing.model.Games.UpdateEvent(this.gameList_));
+};
+
+
+/**
+ * Applies the games added and removed since the last refresh to the list.
+ * @param {!Object} response The change response from the server.
+ * @private
+ */
+yugi.landing.model.Games.prototype.applyChanges_ = function(response) {
+  this.waiting_ = false;
+
+  // A game that changed is removed and then added back as it is now.
+  var changedKeys = goog.array.concat(response['removed'],
+      goog.array.map(response['added'], function(game) {
+        return game['key'];
+      }));
+  this.gameList_ = goog.array.filter(this.gameList_, function(game) {
+    if (goog.array.contains(changedKeys, game.getKey())) {
+      goog.dispose(game);
+      return false;
+    }
+    return true;
+  });
+  goog.array.forEach(response['added'], function(game) {
+    this.gameList_.push(
+        new yugi.landing.model.Game(game['key'], game['name']));
   }, this);
+  this.version_ = response['version'];
 
   // Notify everyone that the list has been updated.
   this.dispatchEvent(new yugi.landing.model.Games.UpdateEvent(this.gameList_));
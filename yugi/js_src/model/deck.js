@@ -41,6 +41,14 @@ yugi.model.Deck = function(opt_isOpponent) {
    */
   this.key_ = '';
 
+  /**
+   * The version of the deck on the server this copy was read at.  A save has
+   * to be made against the current version.
+   * @type {number}
+   * @private
+   */
+  this.version_ = 0;
+
   /**
    * The name given to the deck by the user.
    * @type {string}
@@ -123,6 +131,7 @@ yugi.model.Deck.EventType = {
 yugi.model.Deck.prototype.clone = function() {
   var deck = new yugi.model.Deck();
   deck.setKey(this.key_);
+  deck.setVersion(this.version_);
   deck.setName(this.name_);
 
   if (this.mainCard_) {
@@ -153,6 +162,22 @@ yugi.model.Deck.prototype.setKey = function(key) {
 };
 
 
+/**
+ * @return {number} The version of the deck on the server.
+ */
+yugi.model.Deck.prototype.getVersion = function() {
+  return this.version_;
+};
+
+
+/**
+ * @param {number} version The version to set.
+ */
+yugi.model.Deck.prototype.setVersion = function(version) {
+  this.version_ = version;
+};
+
+
 /**
  * @return {string} The name of the deck.
  */
@@ -455,6 +480,7 @@ yugi.model.Deck.prototype.toJson = function() {
 
   return {
     'key': this.getKey(),
+    'version': this.getVersion(),
     'name': this.getName(),
     'is-structure': this.isStructure(),
     'main-card': mainCardJson,
@@ -468,6 +494,7 @@ yugi.model.Deck.prototype.toJson = function() {
 /** @override */
 yugi.model.Deck.prototype.setFromJson = function(json) {
   this.setKey(json['key']);
+  this.setVersion(json['version'] || 0);
   this.setName(json['name']);
 
   this.setStructure(
@@ -537,6 +564,7 @@ yugi.model.Deck.prototype.addCardsFromJson_ = function(cardJsonArr, cardList,
  */
 yugi.model.Deck.prototype.setFromDeck = function(deck) {
   this.key_ = deck.getKey();
+  this.version_ = deck.getVersion();
   this.name_ = deck.getName();
   this.mainCard_ = deck.getMainCard();
   this.mainCardList_.setFromCardList(deck.getMainCardList());
@@ -62,6 +62,43 @@ yugi.service.DeckService = function() {
   this.saveXhrIo_ = new goog.net.XhrIo();
   this.registerDisposable(this.saveXhrIo_);
 
+  /**
+   * Used for sending card changes to the deck.
+   * @type {!goog.net.XhrIo}
+   * @private
+   */
+  this.updateXhrIo_ = new goog.net.XhrIo();
+  this.registerDisposable(this.updateXhrIo_);
+
+  /**
+   * The deck being saved, which gets the new version once the save is done.
+   * @type {yugi.model.Deck}
+   * @private
+   */
+  this.savingDeck_ = null;
+
+  /**
+   * True if the whole deck needs saving.  A full save carries every change,
+   * so pending card changes are dropped when one is queued.
+   * @type {boolean}
+   * @private
+   */
+  this.pendingSave_ = false;
+
+  /**
+   * Card changes waiting for the request in flight to finish.
+   * @type {!Array.<!Object>}
+   * @private
+   */
+  this.pendingChanges_ = [];
+
+  /**
+   * True if sending changes failed, so the next change saves the whole deck.
+   * @type {boolean}
+   * @private
+   */
+  this.changesLost_ = false;
+
   /**
    * @type {!goog.events.EventHandler}
    * @private
@@ -95,6 +132,24 @@ yugi.service.DeckService = function() {
   this.handler_.listen(this.saveXhrIo_,
       goog.net.EventType.COMPLETE,
       this.onSaveComplete_);
+
+  // Listen to the update XHR.
+  this.handler_.listen(this.updateXhrIo_,
+      goog.net.EventType.ERROR,
+      this.onUpdateError_);
+  this.handler_.listen(this.updateXhrIo_,
+      goog.net.EventType.COMPLETE,
+      this.onUpdateComplete_);
+
+  // Saves and updates go one at a time, so each is made against the version
+  // the one before it returned.  The next one can only be sent once an XHR is
+  // ready again.
+  this.handler_.listen(this.saveXhrIo_,
+      goog.net.EventType.READY,
+      this.sendNext_);
+  this.handler_.listen(this.updateXhrIo_,
+      goog.net.EventType.READY,
+      this.sendNext_);
 };
 goog.inherits(yugi.service.DeckService, goog.events.EventTarget);
 
@@ -123,6 +178,7 @@ yugi.service.DeckService.EventType = {
   DELETED: goog.events.getUniqueId('deleted'),
   LOAD_ERROR: goog.events.getUniqueId('load-error'),
   LOADED: goog.events.getUniqueId('loaded'),
+  SAVE_CONFLICT: goog.events.getUniqueId('save-conflict'),
   SAVE_ERROR: goog.events.getUniqueId('save-error'),
   SAVED: goog.events.getUniqueId('saved')
 };
@@ -173,13 +229,83 @@ yugi.service.DeckService.prototype.load = function(deckKey) {
  * @param {!yugi.model.Deck} deck The deck to save.
  */
 yugi.service.DeckService.prototype.save = function(deck) {
-  this.logger.info('Saving this deck: ' + deck.getName());
+  this.savingDeck_ = deck;
+  this.pendingSave_ = true;
+  this.pendingChanges_ = [];
+  this.changesLost_ = false;
+  this.sendNext_();
+};
 
-  // Post the deck as JSON back to the server.
-  var uri = new goog.Uri();
-  uri.setPath(yugi.Config.ServletPath.DECK);
-  var json = goog.json.serialize(deck.toJson());
-  this.saveXhrIo_.send(uri, 'POST', json, {'Content-type': 'text/json'});
+
+/**
+ * Sends a card change to the deck without sending the whole deck.
+ * @param {!yugi.model.Deck} deck The deck, which already has the change.
+ * @param {string} op The change, either 'add' or 'remove'.
+ * @param {!yugi.model.Card} card The card that was added or removed.
+ * @param {!yugi.model.Deck.Type} deckType The list the card was added to or
+ *     removed from.
+ */
+yugi.service.DeckService.prototype.update = function(deck, op, card,
+    deckType) {
+  if (this.changesLost_) {
+    this.save(deck);
+    return;
+  }
+  this.savingDeck_ = deck;
+  if (!this.pendingSave_) {
+    this.pendingChanges_.push({
+      'op': op,
+      'list': deckType,
+      'card': card.getKey()
+    });
+  }
+  this.sendNext_();
+};
+
+
+/**
+ * Sends whatever is pending unless a request is already in flight.
+ * @private
+ */
+yugi.service.DeckService.prototype.sendNext_ = function() {
+  var deck = this.savingDeck_;
+  if (!deck || this.saveXhrIo_.isActive() || this.updateXhrIo_.isActive()) {
+    return;
+  }
+
+  if (this.pendingSave_) {
+    this.pendingSave_ = false;
+    this.logger.info('Saving this deck: ' + deck.getName());
+
+    // Post the deck as JSON back to the server.
+    var uri = new goog.Uri();
+    uri.setPath(yugi.Config.ServletPath.DECK);
+    var json = goog.json.serialize(deck.toJson());
+    this.saveXhrIo_.send(uri, 'POST', json, {'Content-type': 'text/json'});
+  } else if (this.pendingChanges_.length > 0) {
+    var changes = this.pendingChanges_;
+    this.pendingChanges_ = [];
+    this.logger.info('Sending ' + changes.length + ' changes to this deck: ' +
+        deck.getName());
+
+    var uri = new goog.Uri();
+    uri.setPath(yugi.Config.ServletPath.DECK_UPDATE);
+    var json = goog.json.serialize({
+      'key': deck.getKey(),
+      'version': deck.getVersion(),
+      'changes': changes
+    });
+    this.updateXhrIo_.send(uri, 'POST', json, {'Content-type': 'text/json'});
+  }
+};
+
+
+/**
+ * @return {boolean} True if nothing is waiting to be sent.
+ * @private
+ */
+yugi.service.DeckService.prototype.isIdle_ = function() {
+  return !this.pendingSave_ && this.pendingChanges_.length == 0;
 };
 
 
@@ -242,6 +368,10 @@ yugi.service.DeckService.prototype.onLoadComplete_ = function(e) {
  * @private
  */
 yugi.service.DeckService.prototype.onSaveError_ = function() {
+  if (this.saveXhrIo_.getStatus() == 409) {
+    this.onConflict_();
+    return;
+  }
   this.logger.severe('Failed to save the deck.');
   this.dispatchEvent(yugi.service.DeckService.EventType.SAVE_ERROR);
 };
@@ -252,8 +382,77 @@ yugi.service.DeckService.prototype.onSaveError_ = function() {
  * @private
  */
 yugi.service.DeckService.prototype.onSaveComplete_ = function() {
+  if (!this.saveXhrIo_.isSuccess()) {
+    return;
+  }
   this.logger.info('Deck successfully saved.');
-  this.dispatchEvent(yugi.service.DeckService.EventType.SAVED);
+
+  // Later saves are made against the new version.
+  var json = this.saveXhrIo_.getResponseJson();
+  if (this.savingDeck_ && json) {
+    this.savingDeck_.setVersion(json['version']);
+  }
+  if (this.isIdle_()) {
+    this.dispatchEvent(yugi.service.DeckService.EventType.SAVED);
+  }
+};
+
+
+/**
+ * Called when sending card changes fails.  The server applies all of the
+ * changes or none, so on a conflict the deck is stale and has to be reloaded.
+ * Otherwise the next save sends the whole deck, which carries the lost
+ * changes.
+ * @private
+ */
+yugi.service.DeckService.prototype.onUpdateError_ = function() {
+  if (this.updateXhrIo_.getStatus() == 409) {
+    this.onConflict_();
+    return;
+  }
+  this.logger.severe('Failed to send the changes to the deck.');
+  if (!this.pendingSave_) {
+    this.changesLost_ = true;
+    this.pendingChanges_ = [];
+  }
+  this.dispatchEvent(yugi.service.DeckService.EventType.SAVE_ERROR);
+};
+
+
+/**
+ * Called when the card changes were saved.
+ * @private
+ */
+yugi.service.DeckService.prototype.onUpdateComplete_ = function() {
+  if (!this.updateXhrIo_.isSuccess()) {
+    return;
+  }
+  this.logger.info('Deck changes successfully saved.');
+
+  // Later changes are made against the new version.
+  var json = this.updateXhrIo_.getResponseJson();
+  if (this.savingDeck_ && json) {
+    this.savingDeck_.setVersion(json['version']);
+  }
+  if (this.isIdle_()) {
+    this.dispatchEvent(yugi.service.DeckService.EventType.SAVED);
+  }
+};
+
+
+/**
+ * Called when the deck was saved somewhere else since it was loaded.  What's
+ * pending was made against the old version, so it's dropped.
+ * @private
+ */
+yugi.service.DeckService.prototype.onConflict_ = function() {
+  this.logger.severe('The deck was saved somewhere else since it was ' +
+      'loaded.  Reload it before saving again.');
+  this.pendingSave_ = false;
+  this.pendingChanges_ = [];
+  this.changesLost_ = false;
+  this.savingDeck_ = null;
+  this.dispatchEvent(yugi.service.DeckService.EventType.SAVE_CONFLICT);
 };
 
 
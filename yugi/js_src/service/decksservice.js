@@ -46,6 +46,22 @@ yugi.service.DecksService = function() {
   this.xhrManager_ = new goog.net.XhrManager();
   this.registerDisposable(this.xhrManager_);
 
+  /**
+   * The loads still in progress, keyed by the ID of the request for their
+   * next page.
+   * @type {!Object.<string, !yugi.service.DecksService.Load_>}
+   * @private
+   */
+  this.loads_ = {};
+
+  /**
+   * The loads with more pages to come, keyed by the ID returned when they
+   * started.  A load is taken out while its next page is requested.
+   * @type {!Object.<string, !yugi.service.DecksService.Load_>}
+   * @private
+   */
+  this.nextPages_ = {};
+
   var handler = new goog.events.EventHandler(this);
   this.registerDisposable(handler);
 
@@ -104,7 +120,7 @@ yugi.service.DecksService.get = function() {
 
 
 /**
- * Loads all the structure decks.
+ * Loads the first page of structure decks.
  * @return {string} The ID of the request used.
  */
 yugi.service.DecksService.prototype.loadStructureDecks = function() {
@@ -113,7 +129,7 @@ yugi.service.DecksService.prototype.loadStructureDecks = function() {
 
 
 /**
- * Loads all the user's decks.
+ * Loads the first page of the user's decks.
  * @return {string} The ID of the request used.
  */
 yugi.service.DecksService.prototype.loadUserDecks = function() {
@@ -121,32 +137,76 @@ yugi.service.DecksService.prototype.loadUserDecks = function() {
 };
 
 
+/**
+ * Loads the next page of decks for an earlier load.
+ * @param {string} requestId The ID returned when the load started.
+ * @return {boolean} True if the page was requested, false if the load has no
+ *     more pages or its next page is already being requested.
+ */
+yugi.service.DecksService.prototype.loadMore = function(requestId) {
+  var load = this.nextPages_[requestId];
+  if (!load) {
+    return false;
+  }
+  delete this.nextPages_[requestId];
+
+  this.logger.info('Requesting the next page of decks.');
+  this.sendPageRequest_(this.idGenerator_.getNextUniqueId(), load);
+  return true;
+};
+
+
 /**
  * Queries the server for decks.  This does a shallow query.  All the card
- * information is not fetched.
+ * information is not fetched.  The server returns the decks a page at a time,
+ * and only the first page is requested here.  Call {@link #loadMore} for the
+ * next one.
  * @param {boolean} structureDecks True if the structure decks should be
  *     fetched, false if the user's decks should be fetched.
  * @return {string} The ID of the request used.
  * @private
  */
 yugi.service.DecksService.prototype.load_ = function(structureDecks) {
+  if (structureDecks) {
+    this.logger.info('Requesting structure decks.');
+  } else {
+    this.logger.info('Requesting user decks.');
+  }
+
+  var requestId = this.idGenerator_.getNextUniqueId();
+  var load = {
+    requestId: requestId,
+    structureDecks: structureDecks,
+    cursor: null
+  };
+  this.sendPageRequest_(requestId, load);
+  return requestId;
+};
+
+
+/**
+ * Requests one page of decks for the load.
+ * @param {string} id The ID to send the request with.
+ * @param {!yugi.service.DecksService.Load_} load The load.
+ * @private
+ */
+yugi.service.DecksService.prototype.sendPageRequest_ = function(id, load) {
 
   // Create the request URL.
   var uri = new goog.Uri();
   uri.setPath(yugi.Config.ServletPath.DECKS);
 
   // Tweak the request depending on the set of decks desired.
-  if (structureDecks) {
-    this.logger.info('Requesting structure decks.');
+  if (load.structureDecks) {
     yugi.util.deck.setStructureDeckRequest(uri, true);
-  } else {
-    this.logger.info('Requesting user decks.');
+  }
+  if (load.cursor) {
+    uri.setParameterValue(yugi.Config.UrlParameter.CURSOR, load.cursor);
   }
 
   // Send the request.
-  var requestId = this.idGenerator_.getNextUniqueId();
-  this.xhrManager_.send(requestId, uri.toString());
-  return requestId;
+  this.loads_[id] = load;
+  this.xhrManager_.send(id, uri.toString());
 };
 
 
@@ -157,7 +217,15 @@ yugi.service.DecksService.prototype.load_ = function(structureDecks) {
  */
 yugi.service.DecksService.prototype.onLoadError_ = function(e) {
   this.logger.severe('Failed to load decks.');
-  this.dispatchEvent(new yugi.service.DecksService.LoadErrorEvent(e.id));
+  var load = this.loads_[e.id];
+  delete this.loads_[e.id];
+
+  // The cursor is still good, so a later page can be asked for again.
+  if (load && load.cursor) {
+    this.nextPages_[load.requestId] = load;
+  }
+  var requestId = load ? load.requestId : e.id;
+  this.dispatchEvent(new yugi.service.DecksService.LoadErrorEvent(requestId));
 };
 
 
@@ -176,20 +244,41 @@ yugi.service.DecksService.prototype.onLoadSuccess_ = function(e) {
     return;
   }
 
+  var load = this.loads_[e.id];
+  delete this.loads_[e.id];
+  if (!load) {
+    return;
+  }
+
   // Parse each deck's info.
-  var decks = new Array();
-  goog.array.forEach(json['decks'], function(deckJson) {
+  var decks = goog.array.map(json['decks'], function(deckJson) {
     var deck = new yugi.model.Deck();
     deck.setFromJson(deckJson);
-    decks.push(deck);
+    return deck;
   });
+
+  // Keep the cursor for when the next page is asked for.
+  load.cursor = json['cursor'] || null;
+  if (load.cursor) {
+    this.nextPages_[load.requestId] = load;
+  }
   this.logger.info(decks.length + ' deck(s) finished loading.');
 
   // Notify the decks have been loaded.
-  this.dispatchEvent(new yugi.service.DecksService.LoadEvent(e.id, decks));
+  this.dispatchEvent(new yugi.service.DecksService.LoadEvent(
+      load.requestId, decks, !!load.cursor));
 };
 
 
+/**
+ * A load of decks, which may span several pages.  The cursor is where the
+ * last page left off, or null before the first page.
+ * @typedef {{requestId: string, structureDecks: boolean, cursor: ?string}}
+ * @private
+ */
+yugi.service.DecksService.Load_;
+
+
 
 /**
  * The event that gets dispatched when a load request fails.
@@ -212,11 +301,13 @@ goog.inherits(yugi.service.DecksService.LoadErrorEvent, goog.events.Event);
 /**
  * The event that gets dispatched when the mode changes.
  * @param {string} requestId The ID of the request.
- * @param {!Array.<!yugi.model.Deck>} decks The decks that just got loaded.
+ * @param {!Array.<!yugi.model.Deck>} decks The decks in the page that just
+ *     got loaded.
+ * @param {boolean} more True if there are more pages to load.
  * @constructor
  * @extends {goog.events.Event}
  */
-yugi.service.DecksService.LoadEvent = function(requestId, decks) {
+yugi.service.DecksService.LoadEvent = function(requestId, decks, more) {
   goog.base(this, yugi.service.DecksService.EventType.LOADED);
 
   /**
@@ -228,5 +319,10 @@ yugi.service.DecksService.LoadEvent = function(requestId, decks) {
    * @type {!Array.<!yugi.model.Deck>}
    */
   this.decks = decks;
+
+  /**
+   * @type {boolean}
+   */
+  this.more = more;
 };
 goog.inherits(yugi.service.DecksService.LoadEvent, goog.events.Event);
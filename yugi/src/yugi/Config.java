@@ -25,6 +25,7 @@ public class Config {
 	public enum Servlet {
 		ADMIN_CARD("/admin/card"),
 		ADMIN_CARD_DELETE("/admin/card/delete"),
+		ADMIN_CARD_IMPORT("/admin/card/import"),
 		CARD("/card"),
 		CARD_IMAGE("/card/image"),
 		CREATE_GAME("/game/create"),
@@ -33,6 +34,8 @@ public class Config {
 		DECK_DELETE("/deck/delete"),
 		DECK_EDITOR("/deck/editor"),
 		DECK_MANAGER("/deck/manager"),
+		DECK_STATS("/deck/stats"),
+		DECK_UPDATE("/deck/update"),
 		DECK_VIEWER("/deck/viewer"),
 		DECKS("/decks"),
 		FILE("/file"),
@@ -58,6 +61,7 @@ public class Config {
 	public enum UrlParameter {
 		CARD_KEY,     // The key for a card.
 		CARD_NAME,    // The name of a card.
+		CURSOR,       // Where the previous page of results left off.
 		DATA,         // Any data that might be a part of a request or post.
 		DECK_KEY,     // The key for a deck.
 		ERROR,        // The parameter used to identify the kind of error.
@@ -66,6 +70,8 @@ public class Config {
 		IMAGE_FILE,   // The image file (used in card uploading).
 		MODE,         // The mode (such as "dev" for development)
 		PLAYER_NAME,  // The player's name.
+		SINCE,        // The last version of a change feed the client saw.
+		SPECTATE,     // True to watch a game instead of playing in it.
 		STRUCTURE     // Distinguishes normal decks from structure decks.
 	}
 	
@@ -174,6 +180,18 @@ public class Config {
 		return false;
 	}
 	
+	/**
+	 * @param req The request to check.
+	 * @return True if the request is to watch a game rather than play it.
+	 */
+	public static boolean isSpectateRequest(HttpServletRequest req) {
+		String param = getParam(req, UrlParameter.SPECTATE);
+		if (param != null) {
+			return Boolean.parseBoolean(param);
+		}
+		return false;
+	}
+	
 	/**
 	 * Gets the desired parameter from the request object.
 	 * @param req The http servlet request.
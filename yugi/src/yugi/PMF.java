@@ -5,18 +5,24 @@ import javax.jdo.PersistenceManagerFactory;
 
 /**
  * Encapsulates the PersistenceManagerFactory and exposes a singleton getter.
+ * The factory is built the first time it is needed rather than when the class
+ * loads, so requests that never touch JDO don't pay for DataNucleus starting
+ * up.  The warmup request builds it before any user traffic arrives.
  */
 public class PMF {
 
-	// Instantiate the singleton.
-	private static final PersistenceManagerFactory PMF_INSTANCE =
-			JDOHelper.getPersistenceManagerFactory("transactions-optional");
+	// Holds the singleton so it is built on first use.  The JVM makes the
+	// class initialization thread safe.
+	private static class Holder {
+		private static final PersistenceManagerFactory PMF_INSTANCE =
+				JDOHelper.getPersistenceManagerFactory("transactions-optional");
+	}
 	
 	// No state is kept by this wrapper class.
 	private PMF() { }
 	
 	// Return the singleton.
 	public static PersistenceManagerFactory get() {
-		return PMF_INSTANCE;
+		return Holder.PMF_INSTANCE;
 	}
 }
@@ -0,0 +1,215 @@
+package yugi.crawl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.text.ParseException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONObject;
+
+import yugi.model.Card;
+
+/**
+ * The file the offline importer writes and the bulk import task reads.  It is
+ * gzipped UTF-8 with one card per line as a JSON object.  The fields match
+ * {@link Card#toJson()}, minus the key and image source which only exist once
+ * the card is saved, plus the URL of the card image.
+ *
+ * A line per card lets the task stream the file and pick up again at any
+ * card without holding the whole file in memory, and lets the file be split
+ * into smaller files without parsing the cards.
+ */
+public class CardImportFile {
+
+	private static final String CHARSET = "UTF-8";
+	private static final String IMAGE_URL = "image-url";
+
+	private CardImportFile() {
+
+	}
+
+	/**
+	 * A card and where to get its image.
+	 */
+	public static class Entry {
+
+		private final Card card;
+		private final String imageUrl;
+
+		public Entry(Card card, String imageUrl) {
+			this.card = card;
+			this.imageUrl = imageUrl;
+		}
+
+		public Card getCard() {
+			return card;
+		}
+
+		public String getImageUrl() {
+			return imageUrl;
+		}
+
+		/**
+		 * Checks the parts of the card the file carries.  The image is only
+		 * copied by the server, so {@link Card#isValid()} can't be used until
+		 * then.
+		 * @return True if the entry is worth writing.
+		 */
+		public boolean isComplete() {
+			return card.getName() != null && card.getType() != null &&
+					card.getDescription() != null && imageUrl != null;
+		}
+	}
+
+	/**
+	 * Writes entries to an import file.  Writes are synchronized so several
+	 * parsing threads can share one writer.
+	 */
+	public static class Writer {
+
+		private final GZIPOutputStream gzip;
+		private final BufferedWriter out;
+		private int count = 0;
+
+		public Writer(OutputStream stream) throws IOException {
+			this.gzip = new GZIPOutputStream(stream);
+			this.out = new BufferedWriter(new OutputStreamWriter(gzip, CHARSET));
+		}
+
+		public synchronized void write(Entry entry) throws IOException {
+			Card card = entry.getCard();
+			JSONObject json = new JSONObject();
+			json.put("name", card.getName());
+			json.put("description", card.getDescription());
+			json.put("type", card.getTypeAsString());
+			json.put("spell-type", card.getSpellTypeAsString());
+			json.put("trap-type", card.getTrapTypeAsString());
+			json.put("monster-type", card.getMonsterTypeAsString());
+			json.put("monster-extra-type", card.getExtraMonsterTypeAsString());
+			json.put("attribute", card.getAttributeAsString());
+			json.put("level", card.getLevelAsString());
+			json.put("attack", card.getAttackAsString());
+			json.put("defense", card.getDefenseAsString());
+			json.put("effect", card.getEffectAsString());
+			json.put(IMAGE_URL, entry.getImageUrl());
+
+			// JSON escapes new lines, so each card stays on its own line.
+			writeLine(json.toString());
+		}
+
+		/**
+		 * Writes an entry exactly as another file had it.
+		 * @param line The line from {@link Reader#nextLine()}.
+		 */
+		public synchronized void writeLine(String line) throws IOException {
+			out.write(line);
+			out.write('\n');
+			count++;
+		}
+
+		public synchronized int getCount() {
+			return count;
+		}
+
+		/**
+		 * Finishes the gzip stream without closing the stream under it, for
+		 * files that are finished some other way.
+		 */
+		public synchronized void finish() throws IOException {
+			out.flush();
+			gzip.finish();
+		}
+
+		/**
+		 * Finishes the gzip stream and closes the file.
+		 */
+		public synchronized void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads entries from an import file one at a time.
+	 */
+	public static class Reader {
+
+		private final BufferedReader in;
+
+		public Reader(InputStream stream) throws IOException {
+			this.in = new BufferedReader(new InputStreamReader(
+					new GZIPInputStream(stream), CHARSET));
+		}
+
+		/**
+		 * Skips entries without parsing them.
+		 * @param entries The number of entries to skip.
+		 * @return The number actually skipped, which is less at the end of the
+		 *     file.
+		 */
+		public int skip(int entries) throws IOException {
+			int skipped = 0;
+			while (skipped < entries && in.readLine() != null) {
+				skipped++;
+			}
+			return skipped;
+		}
+
+		/**
+		 * @return The next entry as it is in the file, without parsing it, or
+		 *     null at the end of the file.
+		 */
+		public String nextLine() throws IOException {
+			return in.readLine();
+		}
+
+		/**
+		 * @return The next entry or null at the end of the file.
+		 */
+		public Entry next() throws IOException {
+			String line = in.readLine();
+			if (line == null) {
+				return null;
+			}
+			JSONObject json;
+			try {
+				json = new JSONObject(line);
+			} catch (ParseException e) {
+				throw new IOException("Failed to parse this import line: " + line);
+			}
+
+			Card card = new Card();
+			card.setName(json.getString("name"));
+			card.setUpperName(card.getName().toUpperCase());
+			card.setDescription(json.getString("description"));
+			card.setType(json.getString("type"));
+			switch (card.getType()) {
+			case MONSTER:
+				card.setMonsterType(json.optString("monster-type", null));
+				card.setExtraMonsterType(json.optString("monster-extra-type", null));
+				card.setAttribute(json.getString("attribute"));
+				card.setLevel(json.optString("level", ""));
+				card.setAttack(json.optString("attack", ""));
+				card.setDefense(json.optString("defense", ""));
+				card.setEffect(json.optString("effect", "false"));
+				break;
+			case SPELL:
+				card.setSpellType(json.getString("spell-type"));
+				break;
+			case TRAP:
+				card.setTrapType(json.getString("trap-type"));
+				break;
+			}
+			return new Entry(card, json.getString(IMAGE_URL));
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -1,5 +1,12 @@
 package yugi.crawl;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
+import java.security.MessageDigest;
 import java.util.logging.Logger;
 
 import yugi.model.Card;
@@ -29,91 +36,119 @@ public class CardPage {
 		return parsedImageUrl;
 	}
 	
+	/**
+	 * Streams the page from the URL and parses it.  The connection is closed
+	 * as soon as the card table has been read.
+	 */
 	public void requestAndParse() throws ParseException {
 		logger.info("Requesting and parsing this URL: " + url);
-		String contents = PageUtil.get(url);
-		if (contents == null) {
+		Reader reader;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new URL(url).openStream()));
+		} catch (IOException e) {
 			throw new ParseException("Failed to get the page contents.");
 		}
-		
-		parse(contents);
+		try {
+			parse(reader);
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// Nothing more to read anyway.
+			}
+		}
 	}
 	
 	public void parse(String contents) throws ParseException {
+		parse(new StringReader(contents));
+	}
+	
+	/**
+	 * Parses the card from the page contents in a single pass.
+	 * @param reader The page contents.  The reader is not closed.
+	 */
+	public void parse(Reader reader) throws ParseException {
+		parse(reader, null);
+	}
+	
+	/**
+	 * Parses the card from the page contents in a single pass.
+	 * @param reader The page contents.  The reader is not closed.
+	 * @param digest Updated with the part of the contents that was read, or
+	 *     null.
+	 */
+	public void parse(Reader reader, MessageDigest digest) throws ParseException {
+		CardTableScanner scanner = new CardTableScanner(digest);
+		try {
+			scanner.scan(reader);
+		} catch (IOException e) {
+			throw new ParseException("Failed to read the page contents.");
+		}
+		
 		parsedCard = new Card();
 		
 		// General
-		findCardName(contents);
-		findCardImageUrl(contents);
-		int descIndex = findDescription(contents);
+		findCardName(scanner);
+		findCardImageUrl(scanner);
+		int descIndex = findDescription(scanner);
 		
 		// Spell/Trap only
-		findType(contents, descIndex);
-		findProperty(contents, descIndex);
+		findType(scanner, descIndex);
+		findProperty(scanner, descIndex);
 		
 		// Monster only
-		findAttribute(contents, descIndex);
-		findTypes(contents, descIndex);
-		findLevel(contents, descIndex);
-		findRank(contents, descIndex); // No level should exist (XYZ only)
-		findAttackDefense(contents, descIndex);
+		findAttribute(scanner, descIndex);
+		findTypes(scanner, descIndex);
+		findLevel(scanner, descIndex);
+		findRank(scanner, descIndex); // No level should exist (XYZ only)
+		findAttackDefense(scanner, descIndex);
+	}
+	
+	/**
+	 * Gets a captured value if it started before the description.
+	 * @param capture The capture.
+	 * @param descIndex Where the description starts.
+	 * @return The value or null if it was missing or came too late.
+	 */
+	private String getValue(CardTableScanner.Capture capture, int descIndex) {
+		if (!capture.isDone() || capture.getValueOffset() >= descIndex) {
+			return null;
+		}
+		return capture.getValue();
 	}
 	
-	private void findCardName(String contents) {
-		String str = "<th class=\"cardtable-header\"";
-		int i = contents.indexOf(str);
-		int start = contents.indexOf(">", i) + 1;
-		int finish = contents.indexOf("<", start);
-		parsedCard.setName(contents.substring(start, finish));
+	private void findCardName(CardTableScanner scanner) throws ParseException {
+		String name = scanner.name.getValue();
+		if (name == null) {
+			throw new ParseException("Failed to find the card name.");
+		}
+		parsedCard.setName(name);
 		parsedCard.setUpperName(parsedCard.getName().toUpperCase());
 	}
 	
-	private void findCardImageUrl(String contents) {
-		String str = "class=\"cardtable-cardimage\"";
-		int i = contents.indexOf(str);
-		str = "<a href=\"";
-		int start = contents.indexOf(str, i) + str.length();
-		int finish = contents.indexOf("\"", start);
-		parsedImageUrl = contents.substring(start, finish);
+	private void findCardImageUrl(CardTableScanner scanner) {
+		parsedImageUrl = scanner.imageUrl.getValue();
 	}
 	
-	private int findDescription(String contents) {
-		String str = "Card description";
-		int i = contents.indexOf(str);
-		i = contents.indexOf("class=\"navbox-list\"", i);
-		int start = contents.indexOf(">", i) + 1;
-		int finish = contents.indexOf("</td>", start);
-		String rawDescription = contents.substring(start, finish);
+	private int findDescription(CardTableScanner scanner) throws ParseException {
+		String rawDescription = scanner.description.getValue();
+		if (rawDescription == null) {
+			throw new ParseException("Failed to find the card description.");
+		}
 		
-		String desc = rawDescription
-				// Convert all <br> to new lines.
-				.replaceAll("<br>", "\n")
-				// Convert all tags to nothing.
-				.replaceAll("<.+?>", "")
-				// Convert all unicode to a new line and a dash.  This is really
-				// just for the black circles that are found on cards that have
-				// multiple scenarios or options.
-				.replaceAll("\\p{C}", "UNICODE_REPLACED")
-				.replaceAll("UNICODE_REPLACED.{3}", "\n-");
-
+		// Convert breaks to new lines, strip tags and turn the black circles
+		// found on cards with multiple options into a new line and a dash.
+		String desc = DescriptionNormalizer.normalize(rawDescription);
 		parsedCard.setDescription(desc);
-		return start;
+		return scanner.description.getValueOffset();
 	}
 	
-	private void findType(String contents, int descIndex) throws ParseException {
-		String str = "Type</th>";
-		int i = contents.indexOf(str);
-		if (i < 0) {
+	private void findType(CardTableScanner scanner, int descIndex) throws ParseException {
+		String value = getValue(scanner.type, descIndex);
+		if (value == null) {
 			return;
 		}
-		str = "<a href=\"";
-		i = contents.indexOf(str, i);
-		int start = contents.indexOf(">", i) + 1;
-		if (start >= descIndex) {
-			return;
-		}
-		int finish = contents.indexOf("<", start);
-		String spellOrTrap = contents.substring(start, finish).toLowerCase();
+		String spellOrTrap = value.toLowerCase();
 		if (spellOrTrap.equals("spell card")) {
 			setCardType(Type.SPELL);
 		} else if (spellOrTrap.equals("trap card")) {
@@ -121,20 +156,12 @@ public class CardPage {
 		}
 	}
 	
-	private void findProperty(String contents, int descIndex) throws ParseException {
-		String str = "Property</a>";
-		int i = contents.indexOf(str);
-		if (i < 0) {
-			return;
-		}
-		str = "<a href=\"";
-		i = contents.indexOf(str, i);
-		int start = contents.indexOf(">", i) + 1;
-		if (start >= descIndex) {
+	private void findProperty(CardTableScanner scanner, int descIndex) throws ParseException {
+		String value = getValue(scanner.property, descIndex);
+		if (value == null) {
 			return;
 		}
-		int finish = contents.indexOf("<", start);
-		String propertyString = contents.substring(start, finish).toUpperCase();
+		String propertyString = value.toUpperCase();
 		if (parsedCard.getType() == Type.SPELL) {
 			if (propertyString.equals("QUICK-PLAY")) {
 				propertyString = "QUICKPLAY";
@@ -155,39 +182,34 @@ public class CardPage {
 		}
 	}
 	
-	private void findAttribute(String contents, int descIndex) throws ParseException {
-		String str = "Attribute</a>";
-		int i = contents.indexOf(str);
-		if (i < 0) {
+	private void findAttribute(CardTableScanner scanner, int descIndex) throws ParseException {
+		String value = getValue(scanner.attribute, descIndex);
+		if (value == null) {
 			return;
 		}
-		str = "<a href=\"";
-		i = contents.indexOf(str, i);
-		int start = contents.indexOf(">", i) + 1;
-		if (start >= descIndex) {
-			return;
-		}
-		int finish = contents.indexOf("<", start);
-		parsedCard.setAttribute(contents.substring(start, finish));
+		parsedCard.setAttribute(value);
 		setCardType(Type.MONSTER);
 	}
 	
-	private void findTypes(String contents, int descIndex) throws ParseException {
-		String str = "Types</a>";
-		int i = contents.indexOf(str);
-		if (i < 0) {
-			// No "Types" found, so search for "Type".
-			i = contents.indexOf("Type</a>");
-			if (i < 0) {
+	private void findTypes(CardTableScanner scanner, int descIndex) throws ParseException {
+		// Use "Types" if it was found, otherwise "Type".
+		CardTableScanner.Capture capture = scanner.types;
+		if (capture.getMarkerOffset() < 0) {
+			capture = scanner.singleType;
+			if (capture.getMarkerOffset() < 0) {
 				return; // Nothing found at this point means there is no type.
 			}
 		}
-		if (i >= descIndex) {
+		if (capture.getMarkerOffset() >= descIndex || !capture.isDone()) {
 			return;
 		}
-		int end = contents.indexOf("</td>", i);
-		while (i > 0 && i < end) {
-			str = "<a href=\"";
+		
+		// The value is everything up to the end of the table cell.
+		String contents = capture.getValue();
+		int end = contents.length();
+		int i = 0;
+		while (i >= 0 && i < end) {
+			String str = "<a href=\"";
 			i = contents.indexOf(str, i);
 			if (i < 0 || i >= end) {
 				i = end;
@@ -195,6 +217,9 @@ public class CardPage {
 			}
 			int start = contents.indexOf(">", i) + 1;
 			int finish = contents.indexOf("<", start);
+			if (finish < 0) {
+				break;
+			}
 			String typeString = contents.substring(start, finish).toUpperCase();
 			
 			if (typeString.equals("EFFECT")) {
@@ -217,65 +242,35 @@ public class CardPage {
 		setCardType(Type.MONSTER);
 	}
 	
-	private void findLevel(String contents, int descIndex) throws ParseException {
-		String str = "Level</a>";
-		int i = contents.indexOf(str);
-		if (i < 0) {
+	private void findLevel(CardTableScanner scanner, int descIndex) throws ParseException {
+		String value = getValue(scanner.level, descIndex);
+		if (value == null) {
 			return;
 		}
-		str = "<a href=\"";
-		i = contents.indexOf(str, i);
-		int start = contents.indexOf(">", i) + 1;
-		if (start >= descIndex) {
-			return;
-		}
-		int finish = contents.indexOf("<", start);
-		parsedCard.setLevel(contents.substring(start, finish));
+		parsedCard.setLevel(value);
 		setCardType(Type.MONSTER);
 	}
 	
-	private void findRank(String contents, int descIndex) throws ParseException {
-		String str = "Rank</a>";
-		int i = contents.indexOf(str);
-		if (i < 0) {
-			return;
-		}
-		str = "<a href=\"";
-		i = contents.indexOf(str, i);
-		int start = contents.indexOf(">", i) + 1;
-		if (start >= descIndex) {
+	private void findRank(CardTableScanner scanner, int descIndex) throws ParseException {
+		String value = getValue(scanner.rank, descIndex);
+		if (value == null) {
 			return;
 		}
-		int finish = contents.indexOf("<", start);
 		if (parsedCard.getLevel() != null) {
 			throw new ParseException(
 					"Found both a level and a rank for this card.");
 		}
-		parsedCard.setLevel(contents.substring(start, finish));
+		parsedCard.setLevel(value);
 		setCardType(Type.MONSTER);
 	}
 	
-	private void findAttackDefense(String contents, int descIndex) throws ParseException {
-		String str = ">DEF</a>";
-		int i = contents.indexOf(str);
-		if (i < 0) {
+	private void findAttackDefense(CardTableScanner scanner, int descIndex) throws ParseException {
+		String attack = getValue(scanner.attack, descIndex);
+		if (attack == null) {
 			return;
 		}
-		
-		str = "<a href=\"";
-		i = contents.indexOf(str, i);
-		int start = contents.indexOf(">", i) + 1;
-		if (start >= descIndex) {
-			return;
-		}
-		int finish = contents.indexOf("<", start);
-		parsedCard.setAttack(contents.substring(start, finish));
-		
-		str = "<a href=\"";
-		i = contents.indexOf(str, finish);
-		start = contents.indexOf(">", i) + 1;
-		finish = contents.indexOf("<", start);
-		parsedCard.setDefense(contents.substring(start, finish));
+		parsedCard.setAttack(attack);
+		parsedCard.setDefense(scanner.defense.getValue());
 		
 		setCardType(Type.MONSTER);
 	}
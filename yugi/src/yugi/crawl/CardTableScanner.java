@@ -0,0 +1,289 @@
+package yugi.crawl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+/**
+ * Reads a card page once from front to back and captures the raw values from
+ * the card table.  Reading stops as soon as the card description has been
+ * read and no other value is half way through being captured, so the rest of
+ * the page is never downloaded.
+ *
+ * Line breaks are dropped while reading, which matches what
+ * {@link PageUtil#get} does, so character offsets line up with the ones the
+ * string based parsing used.
+ */
+class CardTableScanner {
+
+	private static final int BUFFER_SIZE = 4096;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	final Capture name = new Capture(new String[] {
+			"<th class=\"cardtable-header\"", ">" }, "<");
+	final Capture imageUrl = new Capture(new String[] {
+			"class=\"cardtable-cardimage\"", "<a href=\"" }, "\"");
+	final Capture description = new Capture(new String[] {
+			"Card description", "class=\"navbox-list\"", ">" }, "</td>");
+	final Capture type = new Capture(new String[] {
+			"Type</th>", "<a href=\"", ">" }, "<");
+	final Capture property = new Capture(new String[] {
+			"Property</a>", "<a href=\"", ">" }, "<");
+	final Capture attribute = new Capture(new String[] {
+			"Attribute</a>", "<a href=\"", ">" }, "<");
+	final Capture types = new Capture(new String[] { "Types</a>" }, "</td>");
+	final Capture singleType = new Capture(new String[] { "Type</a>" }, "</td>");
+	final Capture level = new Capture(new String[] {
+			"Level</a>", "<a href=\"", ">" }, "<");
+	final Capture rank = new Capture(new String[] {
+			"Rank</a>", "<a href=\"", ">" }, "<");
+	final Capture attack = new Capture(new String[] {
+			">DEF</a>", "<a href=\"", ">" }, "<");
+	final Capture defense = new Capture(new String[] {
+			"<a href=\"", ">" }, "<", false);
+
+	/**
+	 * Every capture except the defense, which only starts once the attack is
+	 * done.
+	 */
+	private final Capture[] captures = new Capture[] {
+			name, imageUrl, description, type, property, attribute, types,
+			singleType, level, rank, attack };
+
+	private final MessageDigest digest;
+
+	CardTableScanner() {
+		this(null);
+	}
+
+	/**
+	 * @param digest Updated with every character the scan reads, up to where
+	 *     it stops, or null.
+	 */
+	CardTableScanner(MessageDigest digest) {
+		this.digest = digest;
+	}
+
+	/**
+	 * Scans the page.
+	 * @param reader The page contents.  The reader is not closed.
+	 * @throws IOException Thrown if reading fails.
+	 */
+	void scan(Reader reader) throws IOException {
+		char[] buffer = new char[BUFFER_SIZE];
+		int offset = 0;
+		int read;
+		while ((read = reader.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				char c = buffer[i];
+				if (c == '\n' || c == '\r') {
+					continue;
+				}
+				feed(c, offset++);
+				if (isFinished()) {
+					digest(buffer, i + 1);
+					return;
+				}
+			}
+			digest(buffer, read);
+		}
+	}
+
+	/**
+	 * Adds the characters to the digest.  Only characters the scan reached
+	 * are added, so the hash doesn't depend on how the reads were split.
+	 * @param chars The characters.
+	 * @param length The number of characters to add.
+	 */
+	private void digest(char[] chars, int length) {
+		if (digest != null) {
+			digest.update(UTF_8.encode(CharBuffer.wrap(chars, 0, length)));
+		}
+	}
+
+	/**
+	 * Feeds one character to every capture.
+	 * @param c The character.
+	 * @param offset The character's offset in the page.
+	 */
+	private void feed(char c, int offset) {
+		// Anything first found after the description is ignored, so don't
+		// start looking for new values once the description is done.
+		boolean allowStart = !description.isDone();
+		for (Capture capture : captures) {
+			capture.feed(c, offset, allowStart);
+		}
+		if (defense.isStarted()) {
+			defense.feed(c, offset, true);
+		} else if (attack.isDone()) {
+			// The defense search starts at the character that ended the attack.
+			defense.start();
+			defense.feed(c, offset, true);
+		}
+	}
+
+	/**
+	 * @return True once the description is read and nothing else is waiting
+	 *     on the rest of the page.
+	 */
+	private boolean isFinished() {
+		if (!description.isDone()) {
+			return false;
+		}
+		for (Capture capture : captures) {
+			if (capture.isInProgress()) {
+				return false;
+			}
+		}
+		return !attack.isDone() || defense.isDone();
+	}
+
+	/**
+	 * A string to look for in the stream.  It is matched a character at a
+	 * time with a KMP failure table so overlapping text isn't missed.
+	 */
+	private static class Marker {
+
+		private final String text;
+		private final int[] failure;
+		private int matched;
+
+		Marker(String text) {
+			this.text = text;
+			this.failure = new int[text.length()];
+			int k = 0;
+			for (int i = 1; i < text.length(); i++) {
+				while (k > 0 && text.charAt(i) != text.charAt(k)) {
+					k = failure[k - 1];
+				}
+				if (text.charAt(i) == text.charAt(k)) {
+					k++;
+				}
+				failure[i] = k;
+			}
+		}
+
+		int length() {
+			return text.length();
+		}
+
+		/**
+		 * @param c The next character.
+		 * @return True if the character completed the marker.
+		 */
+		boolean feed(char c) {
+			while (matched > 0 && c != text.charAt(matched)) {
+				matched = failure[matched - 1];
+			}
+			if (c == text.charAt(matched)) {
+				matched++;
+			}
+			if (matched == text.length()) {
+				matched = 0;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A value found by looking for a sequence of markers, each after the one
+	 * before it, and then reading until the terminator.
+	 */
+	static class Capture {
+
+		private final Marker[] steps;
+		private final Marker terminator;
+		private final StringBuilder value = new StringBuilder();
+		private boolean started;
+		private int step = 0;
+		private int markerOffset = -1;
+		private int valueOffset = -1;
+		private boolean done = false;
+
+		Capture(String[] steps, String terminator) {
+			this(steps, terminator, true);
+		}
+
+		/**
+		 * @param steps The markers to find, in order.
+		 * @param terminator The text that ends the value.
+		 * @param started False if the capture waits until started.
+		 */
+		Capture(String[] steps, String terminator, boolean started) {
+			this.started = started;
+			this.steps = new Marker[steps.length];
+			for (int i = 0; i < steps.length; i++) {
+				this.steps[i] = new Marker(steps[i]);
+			}
+			this.terminator = new Marker(terminator);
+		}
+
+		/**
+		 * @return True once the whole value was read.
+		 */
+		boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * @return The raw value without the terminator or null if it was not
+		 *     found.
+		 */
+		String getValue() {
+			return done ? value.toString() : null;
+		}
+
+		/**
+		 * @return The offset where the first marker started.
+		 */
+		int getMarkerOffset() {
+			return markerOffset;
+		}
+
+		/**
+		 * @return The offset of the first character of the value.
+		 */
+		int getValueOffset() {
+			return valueOffset;
+		}
+
+		private boolean isStarted() {
+			return started;
+		}
+
+		private void start() {
+			started = true;
+		}
+
+		/**
+		 * @return True if the first marker was found but the value isn't done.
+		 */
+		private boolean isInProgress() {
+			return started && step > 0 && !done;
+		}
+
+		private void feed(char c, int offset, boolean allowStart) {
+			if (!started || done || (step == 0 && !allowStart)) {
+				return;
+			}
+			if (step < steps.length) {
+				if (steps[step].feed(c)) {
+					if (step == 0) {
+						markerOffset = offset - steps[0].length() + 1;
+					}
+					step++;
+					valueOffset = offset + 1;
+				}
+				return;
+			}
+			value.append(c);
+			if (terminator.feed(c)) {
+				value.setLength(value.length() - terminator.length());
+				done = true;
+			}
+		}
+	}
+}
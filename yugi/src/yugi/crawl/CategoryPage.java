@@ -1,5 +1,7 @@
 package yugi.crawl;
 
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -11,6 +13,7 @@ public class CategoryPage {
 	private static final String URL_PREFIX = "http://yugioh.wikia.com";
 
 	private String url;
+	private String urlPrefix;
 	private Set<String> cardUrls;
 	private CategoryPage nextPage;
 	
@@ -20,9 +23,25 @@ public class CategoryPage {
 	 */
 	public CategoryPage(String url) {
 		this.url = url;
+		this.urlPrefix = getUrlPrefix(url);
 		cardUrls = new HashSet<String>();
 	}
 	
+	/**
+	 * Links on the page are relative to the host that served it.
+	 * @param url The URL for the page.
+	 * @return The scheme and host of the URL, or the wiki's if it can't be
+	 *     parsed.
+	 */
+	private static String getUrlPrefix(String url) {
+		try {
+			URL parsed = new URL(url);
+			return parsed.getProtocol() + "://" + parsed.getAuthority();
+		} catch (MalformedURLException e) {
+			return URL_PREFIX;
+		}
+	}
+	
 	public String getUrl() {
 		return url;
 	}
@@ -44,8 +63,33 @@ public class CategoryPage {
 		if (contents == null) {
 			throw new ParseException("Failed to get the page contents.");
 		}
-		
-		int cardStartPoint = findNextPage(contents);
+		parse(contents);
+	}
+	
+	/**
+	 * Parses the next page and the card URLs from the page contents.
+	 * @param contents The page contents.
+	 */
+	public void parse(String contents) throws ParseException {
+		parseCardUrls(contents, parseNextPage(contents));
+	}
+	
+	/**
+	 * Parses only the link to the next page.  This is separate so a crawler
+	 * can start on the next page before scanning this one for cards.
+	 * @param contents The page contents.
+	 * @return The index in contents at which the card URLs start.
+	 */
+	public int parseNextPage(String contents) {
+		return findNextPage(contents);
+	}
+	
+	/**
+	 * Parses the card URLs out of the page contents.
+	 * @param contents The page contents.
+	 * @param cardStartPoint The index returned by {@link #parseNextPage}.
+	 */
+	public void parseCardUrls(String contents, int cardStartPoint) throws ParseException {
 		int cardEndPoint = findCardEndPoint(contents, cardStartPoint);
 		if (cardEndPoint < 0) {
 			throw new ParseException("Failed to find the card end point.");
@@ -79,7 +123,7 @@ public class CategoryPage {
 			// There's a next page, so set it.
 			int start = i + str.length();
 			int finish = contents.indexOf("\"", start);
-			String nextPageUrl = URL_PREFIX + contents.substring(start, finish);
+			String nextPageUrl = urlPrefix + contents.substring(start, finish);
 			nextPage = new CategoryPage(nextPageUrl);
 			return finish + 1;			
 		}
@@ -115,7 +159,7 @@ public class CategoryPage {
 		}
 		int start = i + str.length();
 		int finish = contents.indexOf("\"", start);
-		String cardUrl = URL_PREFIX + contents.substring(start, finish);
+		String cardUrl = urlPrefix + contents.substring(start, finish);
 		cardUrls.add(cardUrl);
 		return finish + 1;
 	}
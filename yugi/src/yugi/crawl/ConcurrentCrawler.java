@@ -0,0 +1,120 @@
+package yugi.crawl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Crawls the category pages with the next request in flight while the current
+ * page is parsed.
+ *
+ * Category pages are pipelined: as soon as the link to page N+1 is parsed,
+ * page N+1 is requested while page N is scanned for card URLs.  Every request
+ * goes through a per-host rate limit.  The card pages themselves are fetched
+ * by the auto upload batch task, which checks each one against its validator.
+ */
+public class ConcurrentCrawler {
+
+	private static final Logger logger = Logger.getLogger(ConcurrentCrawler.class.getName());
+
+	/**
+	 * Receives the category pages as they are parsed, in order.
+	 */
+	public interface CategoryPageListener {
+
+		/**
+		 * Called when a category page was parsed.
+		 * @param page The parsed page with its card URLs and next page.
+		 * @return True to keep crawling, false to stop after this page.
+		 */
+		boolean onParsed(CategoryPage page);
+	}
+
+	private final ThreadFactory threadFactory;
+	private final HostRateLimiter rateLimiter;
+
+	/**
+	 * Constructs the crawler.
+	 * @param threadFactory The factory for the thread that fetches ahead.  On
+	 *     App Engine this must be the current request's thread factory.
+	 * @param minHostInterval The minimum time, in milliseconds, between the
+	 *     start of two requests to the same host.
+	 */
+	public ConcurrentCrawler(ThreadFactory threadFactory, long minHostInterval) {
+		this.threadFactory = threadFactory;
+		this.rateLimiter = new HostRateLimiter(minHostInterval);
+	}
+
+	/**
+	 * Walks the category pages from the start page and hands each one to the
+	 * listener, until the last page or until the listener says to stop.
+	 * @param startUrl The first category page.
+	 * @param listener The listener for the parsed pages.
+	 * @return True if the last page was reached.
+	 */
+	public boolean crawlCategories(String startUrl, CategoryPageListener listener) {
+		logger.info("Starting the category crawl at " + startUrl);
+
+		// One thread fetches ahead while this one parses.
+		ExecutorService fetcher = Executors.newSingleThreadExecutor(threadFactory);
+		try {
+			CategoryPage page = new CategoryPage(startUrl);
+			Future<String> pending = fetcher.submit(fetch(page.getUrl()));
+			while (page != null) {
+				String contents = pending.get();
+				if (contents == null) {
+					logger.severe("Failed to get this category page\n" + page.getUrl());
+					return false;
+				}
+
+				// Start on the next page before scanning this one.
+				int cardStartPoint = page.parseNextPage(contents);
+				CategoryPage nextPage = page.getNextPage();
+				if (nextPage != null) {
+					pending = fetcher.submit(fetch(nextPage.getUrl()));
+				}
+
+				try {
+					page.parseCardUrls(contents, cardStartPoint);
+				} catch (ParseException e) {
+					logger.log(Level.SEVERE,
+							"Failed to parse this category page\n" + page.getUrl(), e);
+					return false;
+				}
+				if (!listener.onParsed(page)) {
+					return false;
+				}
+				page = nextPage;
+			}
+			return true;
+		} catch (InterruptedException e) {
+			logger.warning("Interrupted while crawling categories.");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.log(Level.SEVERE, "Failed to fetch a category page.", e.getCause());
+		} finally {
+			fetcher.shutdownNow();
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the job that fetches a page under the rate limit.
+	 * @param url The URL of the page.
+	 * @return The job that returns the page contents or null on failure.
+	 */
+	private Callable<String> fetch(final String url) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				rateLimiter.acquire(url);
+				return PageUtil.get(url);
+			}
+		};
+	}
+}
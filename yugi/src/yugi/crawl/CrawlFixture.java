@@ -0,0 +1,214 @@
+package yugi.crawl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs {@link ConcurrentCrawler} against a local HTTP server that serves
+ * generated category pages, each after a fixed delay, and checks what the
+ * crawl found.  Run it with no arguments; it exits with a failure status if
+ * any check fails.
+ */
+public class CrawlFixture {
+
+	private static final int PAGES = 8;
+	private static final int CARDS_PER_PAGE = 40;
+
+	/**
+	 * How long, in milliseconds, the server takes to answer each page.  The
+	 * listener takes as long again with each page, so a crawl that overlaps
+	 * the two takes about half as long as one that doesn't.
+	 */
+	private static final long PAGE_DELAY = 200;
+
+	private static final long MIN_HOST_INTERVAL = 50;
+	private static final String CATEGORY_PATH = "/category/";
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext(CATEGORY_PATH, new CategoryHandler());
+		server.start();
+		try {
+			String prefix = "http://localhost:" + server.getAddress().getPort();
+			// The first crawl warms up the connections, so time a later one.
+			checkStop(prefix);
+			checkMissingPage(prefix);
+			checkFullCrawl(prefix);
+		} finally {
+			server.stop(0);
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+		System.exit(0);
+	}
+
+	/**
+	 * Crawls every page and checks the order, the cards and the overlap.
+	 */
+	private static void checkFullCrawl(String prefix) {
+		final List<String> pageUrls = new ArrayList<String>();
+		final Set<String> cardUrls = new HashSet<String>();
+		long start = System.currentTimeMillis();
+		boolean finished = newCrawler().crawlCategories(prefix + CATEGORY_PATH + 1,
+				new ConcurrentCrawler.CategoryPageListener() {
+			@Override
+			public boolean onParsed(CategoryPage page) {
+				pageUrls.add(page.getUrl());
+				cardUrls.addAll(page.getCardUrls());
+				pause(PAGE_DELAY);
+				return true;
+			}
+		});
+		long elapsed = System.currentTimeMillis() - start;
+
+		check("full crawl reached the last page", finished);
+		check("full crawl parsed " + PAGES + " pages", pageUrls.size() == PAGES);
+		boolean inOrder = true;
+		for (int i = 0; i < pageUrls.size(); i++) {
+			inOrder &= pageUrls.get(i).equals(prefix + CATEGORY_PATH + (i + 1));
+		}
+		check("full crawl handed the pages over in order", inOrder);
+		check("full crawl found " + (PAGES * CARDS_PER_PAGE) + " cards",
+				cardUrls.size() == PAGES * CARDS_PER_PAGE);
+		check("full crawl found the cards on the fixture host",
+				cardUrls.contains(prefix + "/wiki/Card_1_1"));
+
+		// Done one after the other, fetching and handling take 2 * PAGE_DELAY a
+		// page.  Overlapped, it's a little over PAGE_DELAY.
+		long sequential = 2 * PAGES * PAGE_DELAY;
+		System.out.println("Full crawl took " + elapsed + " ms, " + sequential +
+				" ms without overlap.");
+		check("full crawl fetched ahead", elapsed < sequential * 7 / 8);
+	}
+
+	/**
+	 * Stops the crawl from the listener and checks nothing more is handed over.
+	 */
+	private static void checkStop(String prefix) {
+		final int stopAfter = 3;
+		final List<String> pageUrls = new ArrayList<String>();
+		boolean finished = newCrawler().crawlCategories(prefix + CATEGORY_PATH + 1,
+				new ConcurrentCrawler.CategoryPageListener() {
+			@Override
+			public boolean onParsed(CategoryPage page) {
+				pageUrls.add(page.getUrl());
+				return pageUrls.size() < stopAfter;
+			}
+		});
+
+		check("stopped crawl did not finish", !finished);
+		check("stopped crawl parsed " + stopAfter + " pages", pageUrls.size() == stopAfter);
+	}
+
+	/**
+	 * Starts from a page the server doesn't have.
+	 */
+	private static void checkMissingPage(String prefix) {
+		final List<String> pageUrls = new ArrayList<String>();
+		boolean finished = newCrawler().crawlCategories(prefix + CATEGORY_PATH + (PAGES + 1),
+				new ConcurrentCrawler.CategoryPageListener() {
+			@Override
+			public boolean onParsed(CategoryPage page) {
+				pageUrls.add(page.getUrl());
+				return true;
+			}
+		});
+
+		check("missing page failed the crawl", !finished);
+		check("missing page parsed nothing", pageUrls.isEmpty());
+	}
+
+	private static ConcurrentCrawler newCrawler() {
+		return new ConcurrentCrawler(Executors.defaultThreadFactory(), MIN_HOST_INTERVAL);
+	}
+
+	private static void check(String name, boolean passed) {
+		System.out.println((passed ? "PASS " : "FAIL ") + name);
+		if (!passed) {
+			failures++;
+		}
+	}
+
+	private static void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Serves category pages laid out like the wiki's: the navigation links
+	 * above and below a list of card links.
+	 */
+	private static class CategoryHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			pause(PAGE_DELAY);
+
+			String path = exchange.getRequestURI().getPath();
+			int number;
+			try {
+				number = Integer.parseInt(path.substring(CATEGORY_PATH.length()));
+			} catch (NumberFormatException e) {
+				number = 0;
+			}
+			if (number < 1 || number > PAGES) {
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+				return;
+			}
+
+			byte[] body = getPage(number).getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+			}
+		}
+
+		private static String getPage(int number) {
+			StringBuilder html = new StringBuilder("<html><body>\n");
+			html.append("<p>").append(getNavigation(number)).append("</p>\n<ul>\n");
+			for (int i = 1; i <= CARDS_PER_PAGE; i++) {
+				String name = "Card_" + number + "_" + i;
+				html.append("<li><a href=\"/wiki/").append(name).append("\" title=\"")
+						.append(name).append("\">").append(name).append("</a></li>\n");
+			}
+			html.append("</ul>\n<p>").append(getNavigation(number)).append("</p>\n");
+			html.append("</body></html>\n");
+			return html.toString();
+		}
+
+		private static String getNavigation(int number) {
+			String previous = number > 1 ?
+					"(<a href=\"" + CATEGORY_PATH + (number - 1) + "\">previous 200</a>)" :
+					"(previous 200)";
+			String next = number < PAGES ?
+					"(<a href=\"" + CATEGORY_PATH + (number + 1) + "\">next 200</a>)" :
+					"(next 200)";
+			return previous + " " + next;
+		}
+	}
+}
@@ -1,46 +1,47 @@
 package yugi.crawl;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This class knows how to crawl to create auto upload card entries.
  */
 public class Crawler {
 
-	private static final Logger logger = Logger.getLogger(Crawler.class.getName());
-
-	private final String START_POINT = "http://yugioh.wikia.com/wiki/Category:TCG_cards";
+	/**
+	 * The first category page of a crawl.
+	 */
+	public static final String START_POINT = "http://yugioh.wikia.com/wiki/Category:TCG_cards";
+	
+	/**
+	 * The minimum time, in milliseconds, between requests to the wiki.
+	 */
+	private static final long MIN_HOST_INTERVAL = 100;
 	
-	private Set<String> cardUrls;
+	private final ThreadFactory threadFactory;
 	
 	public Crawler() {
-		cardUrls = new HashSet<String>();
+		this(Executors.defaultThreadFactory());
 	}
 	
 	/**
-	 * Starts the crawl.
+	 * Constructs the crawler.
+	 * @param threadFactory The factory for the threads that fetch ahead.  On
+	 *     App Engine this must be the current request's thread factory.
 	 */
-	public void start() {
-		logger.info("Starting crawl.");
-		
-		CategoryPage page = new CategoryPage(START_POINT);
-		while (page != null) {
-			try {
-				page.requestAndParse();
-				cardUrls.addAll(page.getCardUrls());
-				page = page.getNextPage();
-			} catch (Exception e) {
-				logger.log(Level.SEVERE,
-						"Failed to parse this category page\n" + page.getUrl(), e);
-				break;
-			}
-		}
+	public Crawler(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
 	}
 	
-	public Set<String> getCardUrls() {
-		return cardUrls;
+	/**
+	 * Crawls the category pages from the given page, handing each one to the
+	 * listener, so a crawl can be stopped and picked up again later.
+	 * @param pageUrl The category page to start from.
+	 * @param listener The listener for the parsed pages.
+	 * @return True if the last page was reached.
+	 */
+	public boolean crawlFrom(String pageUrl, ConcurrentCrawler.CategoryPageListener listener) {
+		ConcurrentCrawler crawler = new ConcurrentCrawler(threadFactory, MIN_HOST_INTERVAL);
+		return crawler.crawlCategories(pageUrl, listener);
 	}
 }
@@ -0,0 +1,109 @@
+package yugi.crawl;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares {@link DescriptionNormalizer} with the regular expression chain it
+ * replaced.  Pass the paths of saved card pages to benchmark real
+ * descriptions; otherwise a few built in samples are used.
+ */
+public class DescriptionBenchmark {
+
+	private static final int WARMUP_ROUNDS = 20000;
+	private static final int MEASURED_ROUNDS = 200000;
+
+	private static final String[] SAMPLES = new String[] {
+		"This legendary dragon is a powerful engine of destruction. Virtually " +
+				"invincible, very few have faced this awesome creature and lived " +
+				"to tell the tale.",
+		"Draw 2 cards.",
+		"Activate only by paying 1000 <a href=\"/wiki/Life_Points\" title=\"Life " +
+				"Points\">Life Points</a>.<br>Choose 1 of these effects:<br>" +
+				"â\u0097\u008f <a href=\"/wiki/Destroy\">Destroy</a> 1 " +
+				"<a href=\"/wiki/Spell_Card\">Spell Card</a> on the field.<br>" +
+				"â\u0097\u008f <a href=\"/wiki/Special_Summon\">Special " +
+				"Summon</a> 1 monster from your <a href=\"/wiki/Graveyard\">" +
+				"Graveyard</a>.",
+		"<i>This card is also always treated as a \"Blackwing\" card.</i><br>" +
+				"<b>2 Level 4 monsters</b><br>Once per turn, you can detach 1 " +
+				"<a href=\"/wiki/Xyz_Material\">Xyz Material</a> from this card " +
+				"to target 1 face-up monster your opponent controls; its ATK " +
+				"becomes 0 until the End Phase."
+	};
+
+	public static void main(String[] args) throws Exception {
+		List<String> descriptions = new ArrayList<String>();
+		for (String path : args) {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(path)));
+			try {
+				CardTableScanner scanner = new CardTableScanner();
+				scanner.scan(reader);
+				String raw = scanner.description.getValue();
+				if (raw != null) {
+					descriptions.add(raw);
+				} else {
+					System.out.println("No description in " + path);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		if (descriptions.isEmpty()) {
+			for (String sample : SAMPLES) {
+				descriptions.add(sample);
+			}
+		}
+
+		// Make sure the two agree before timing anything.
+		for (String raw : descriptions) {
+			if (!regex(raw).equals(DescriptionNormalizer.normalize(raw))) {
+				System.out.println("Mismatch for:\n" + raw);
+				return;
+			}
+		}
+
+		System.out.println(descriptions.size() + " descriptions.");
+		run("regex", descriptions, WARMUP_ROUNDS, true);
+		run("normalizer", descriptions, WARMUP_ROUNDS, false);
+		System.out.println("regex:      " + run("regex", descriptions, MEASURED_ROUNDS, true) + " ns/op");
+		System.out.println("normalizer: " + run("normalizer", descriptions, MEASURED_ROUNDS, false) + " ns/op");
+	}
+
+	/**
+	 * Times the rounds.
+	 * @return The average nanoseconds per description.
+	 */
+	private static long run(String name, List<String> descriptions, int rounds, boolean regex) {
+		int size = descriptions.size();
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			String raw = descriptions.get(i % size);
+			String desc = regex ? regex(raw) : DescriptionNormalizer.normalize(raw);
+			checksum += desc.length();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		// Use the checksum so the work can't be optimized away.
+		if (checksum == 42) {
+			System.out.println(name);
+		}
+		return elapsed / rounds;
+	}
+
+	/**
+	 * The original description cleanup.
+	 */
+	private static String regex(String raw) {
+		return raw
+				.replaceAll("<br>", "\n")
+				.replaceAll("<.+?>", "")
+				.replaceAll("\\p{C}", "UNICODE_REPLACED")
+				.replaceAll("UNICODE_REPLACED.{3}", "\n-");
+	}
+}
@@ -0,0 +1,222 @@
+package yugi.crawl;
+
+/**
+ * Turns the raw HTML of a card description into card text without regular
+ * expressions.  The output matches this chain exactly:
+ *
+ * <pre>
+ * raw.replaceAll("&lt;br&gt;", "\n")
+ *    .replaceAll("&lt;.+?&gt;", "")
+ *    .replaceAll("\\p{C}", "UNICODE_REPLACED")
+ *    .replaceAll("UNICODE_REPLACED.{3}", "\n-");
+ * </pre>
+ *
+ * The first pass converts breaks and strips tags into a single char buffer.
+ * The second pass handles the control characters, which is how the bullets on
+ * multi-option cards come through.  It works on the text as if each control
+ * character had been replaced by the marker, without building that text.
+ */
+public class DescriptionNormalizer {
+
+	private static final String BREAK = "<br>";
+	private static final String MARKER = "UNICODE_REPLACED";
+
+	/**
+	 * The number of characters swallowed after each marker.
+	 */
+	private static final int SWALLOWED = 3;
+
+	private DescriptionNormalizer() { }
+
+	/**
+	 * Normalizes the raw description.
+	 * @param raw The raw HTML of the description.
+	 * @return The card text.
+	 */
+	public static String normalize(String raw) {
+		char[] text = new char[raw.length()];
+		int length = stripTags(raw, text);
+		return replaceControls(text, length);
+	}
+
+	/**
+	 * Converts each break to a new line and removes every other tag.
+	 * @param raw The raw HTML.
+	 * @param out The buffer to write to.  It must be as long as the raw HTML.
+	 * @return The number of characters written.
+	 */
+	private static int stripTags(String raw, char[] out) {
+		int length = raw.length();
+		int written = 0;
+		int i = 0;
+		while (i < length) {
+			char c = raw.charAt(i);
+			if (c != '<') {
+				out[written++] = c;
+				i++;
+			} else if (raw.startsWith(BREAK, i)) {
+				out[written++] = '\n';
+				i += BREAK.length();
+			} else {
+				int end = findTagEnd(raw, i);
+				if (end < 0) {
+					// Not a tag, so keep the bracket.
+					out[written++] = c;
+					i++;
+				} else {
+					i = end + 1;
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Finds the end of a tag the way the lazy pattern &lt;.+?&gt; would, where a
+	 * break counts as a new line.
+	 * @param raw The raw HTML.
+	 * @param start The index of the opening bracket.
+	 * @return The index of the closing bracket or -1 if this isn't a tag.
+	 */
+	private static int findTagEnd(String raw, int start) {
+		int length = raw.length();
+
+		// At least one character has to come before the closing bracket.
+		int i = start + 1;
+		if (i >= length || raw.startsWith(BREAK, i) || isLineTerminator(raw.charAt(i))) {
+			return -1;
+		}
+		i++;
+
+		while (i < length) {
+			if (raw.startsWith(BREAK, i)) {
+				return -1;
+			}
+			char c = raw.charAt(i);
+			if (c == '>') {
+				return i;
+			}
+			if (isLineTerminator(c)) {
+				return -1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Replaces each control character, and the three characters after it, with
+	 * a new line and a dash.  A control character without three more
+	 * characters after it becomes the marker itself, just like the regular
+	 * expression chain.
+	 * @param text The text with tags stripped.
+	 * @param length The length of the text.
+	 * @return The final text.
+	 */
+	private static String replaceControls(char[] text, int length) {
+		StringBuilder out = new StringBuilder(length + 16);
+
+		// The number of characters still to swallow after the last marker.
+		int swallow = 0;
+
+		int i = 0;
+		while (i < length) {
+			int cp = Character.codePointAt(text, i, length);
+			int next = i + Character.charCount(cp);
+
+			if (isControl(cp)) {
+				if (swallow > 0) {
+					// The marker gets partly swallowed and the rest stays.
+					int swallowed = Math.min(swallow, MARKER.length());
+					out.append(MARKER, swallowed, MARKER.length());
+					swallow -= swallowed;
+				} else if (canSwallow(text, next, length)) {
+					out.append("\n-");
+					swallow = SWALLOWED;
+				} else {
+					out.append(MARKER);
+				}
+				i = next;
+			} else if (swallow > 0) {
+				swallow--;
+				i = next;
+			} else if (cp == 'U' && startsWith(text, i, length, MARKER) &&
+					canSwallow(text, i + MARKER.length(), length)) {
+				// The marker text itself was in the description.
+				out.append("\n-");
+				swallow = SWALLOWED;
+				i += MARKER.length();
+			} else {
+				out.appendCodePoint(cp);
+				i = next;
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Checks to see if three characters follow the position once control
+	 * characters are counted as the marker, without any line terminators.
+	 * @param text The text.
+	 * @param start The position after the marker.
+	 * @param length The length of the text.
+	 * @return True if there is enough to swallow.
+	 */
+	private static boolean canSwallow(char[] text, int start, int length) {
+		int needed = SWALLOWED;
+		int i = start;
+		while (needed > 0) {
+			if (i >= length) {
+				return false;
+			}
+			int cp = Character.codePointAt(text, i, length);
+			if (isControl(cp)) {
+				// The marker has plenty of characters.
+				return true;
+			}
+			if (isLineTerminator(cp)) {
+				return false;
+			}
+			needed--;
+			i += Character.charCount(cp);
+		}
+		return true;
+	}
+
+	private static boolean startsWith(char[] text, int start, int length, String prefix) {
+		if (start + prefix.length() > length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (text[start + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return True if the code point is in the \p{C} category.
+	 */
+	private static boolean isControl(int cp) {
+		switch (Character.getType(cp)) {
+		case Character.CONTROL:
+		case Character.FORMAT:
+		case Character.PRIVATE_USE:
+		case Character.SURROGATE:
+		case Character.UNASSIGNED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return True if the code point is a line terminator, which the regular
+	 *     expression dot doesn't match.
+	 */
+	private static boolean isLineTerminator(int cp) {
+		return cp == '\n' || cp == '\r' || cp == '\u0085' ||
+				cp == '\u2028' || cp == '\u2029';
+	}
+}
@@ -0,0 +1,77 @@
+package yugi.crawl;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spaces out requests to the same host so a parallel crawl doesn't hammer
+ * any one site.  Requests to different hosts don't wait on each other.
+ */
+public class HostRateLimiter {
+
+	private final long minInterval;
+	private final ConcurrentMap<String, AtomicLong> nextSlots;
+
+	/**
+	 * Constructs the rate limiter.
+	 * @param minInterval The minimum time, in milliseconds, between the start
+	 *     of two requests to the same host.
+	 */
+	public HostRateLimiter(long minInterval) {
+		this.minInterval = minInterval;
+		this.nextSlots = new ConcurrentHashMap<String, AtomicLong>();
+	}
+
+	/**
+	 * Blocks until a request to the URL's host is allowed.
+	 * @param url The URL about to be requested.
+	 * @throws InterruptedException Thrown if interrupted while waiting.
+	 */
+	public void acquire(String url) throws InterruptedException {
+		if (minInterval <= 0) {
+			return;
+		}
+
+		AtomicLong nextSlot = getNextSlot(getHost(url));
+
+		// Claim the next free slot for this host.
+		long slot;
+		while (true) {
+			long now = System.currentTimeMillis();
+			long next = nextSlot.get();
+			slot = Math.max(now, next);
+			if (nextSlot.compareAndSet(next, slot + minInterval)) {
+				break;
+			}
+		}
+
+		long wait = slot - System.currentTimeMillis();
+		if (wait > 0) {
+			Thread.sleep(wait);
+		}
+	}
+
+	private AtomicLong getNextSlot(String host) {
+		AtomicLong nextSlot = nextSlots.get(host);
+		if (nextSlot == null) {
+			AtomicLong newSlot = new AtomicLong();
+			nextSlot = nextSlots.putIfAbsent(host, newSlot);
+			if (nextSlot == null) {
+				nextSlot = newSlot;
+			}
+		}
+		return nextSlot;
+	}
+
+	private String getHost(String url) {
+		try {
+			return new URL(url).getHost();
+		} catch (MalformedURLException e) {
+			// Let the request itself fail later.
+			return url;
+		}
+	}
+}
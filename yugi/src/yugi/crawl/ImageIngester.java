@@ -0,0 +1,71 @@
+package yugi.crawl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import yugi.model.ImageBlob;
+
+/**
+ * Copies card images into blob store in the background so the caller can
+ * keep parsing pages while the images download.
+ *
+ * Each worker streams its image through the one buffer it owns, so the
+ * memory used is bounded by the number of workers no matter how big the
+ * images are.  When every worker is busy and the queue is full the caller
+ * copies the image itself, which keeps the caller from getting too far ahead.
+ */
+public class ImageIngester {
+
+	private static final Logger logger = Logger.getLogger(ImageIngester.class.getName());
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Constructs the ingester.
+	 * @param threadFactory The factory for the worker threads.  On App Engine
+	 *     this must be the current request's thread factory.
+	 * @param workers The number of images copied at once.
+	 */
+	public ImageIngester(ThreadFactory threadFactory, int workers) {
+		this.executor = new ThreadPoolExecutor(
+				workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(workers),
+				threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * Starts copying the image into blob store.
+	 * @param imageUrl The URL of the image.
+	 * @return The future image blob, which is null if the image couldn't be
+	 *     copied.
+	 */
+	public Future<ImageBlob> submit(final String imageUrl) {
+		return executor.submit(new Callable<ImageBlob>() {
+			@Override
+			public ImageBlob call() {
+				return ImageUtil.createImage(imageUrl);
+			}
+		});
+	}
+
+	/**
+	 * Waits for the images already submitted and stops the workers.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// Keep waiting for the workers.
+			}
+		} catch (InterruptedException e) {
+			logger.warning("Interrupted while copying images.");
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
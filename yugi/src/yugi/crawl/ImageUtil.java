@@ -1,14 +1,25 @@
 package yugi.crawl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import yugi.model.ImageBlob;
+import yugi.service.ImageBlobService;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.files.AppEngineFile;
 import com.google.appengine.api.files.FileService;
 import com.google.appengine.api.files.FileServiceFactory;
@@ -21,25 +32,58 @@ public class ImageUtil {
 	private static final String MIME_TYPE_JPEG = "image/jpeg";
 	private static final String MIME_TYPE_PNG = "image/png";
 
+	/**
+	 * The size of the buffer each thread streams images through.  This is all
+	 * the memory an image holds while it is copied into blob store.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	private static final FileService fileService = FileServiceFactory.getFileService();
+	private static final BlobstoreService blobstoreService =
+			BlobstoreServiceFactory.getBlobstoreService();
+	private static final ImageBlobService imageBlobService = ImageBlobService.getInstance();
+
+	/**
+	 * One direct buffer per thread, reused for every image the thread copies.
+	 */
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
 	
 	/**
-	 * Reads the image in from the URL and stores it in blob store.  The key to
-	 * the new blob is returned.
+	 * Reads the image in from the URL and stores it in blob store.  An image
+	 * that was downloaded from the same URL before isn't downloaded again.
+	 * Otherwise the image is streamed straight into the blob through a
+	 * reusable buffer rather than being read into memory first, and it is
+	 * hashed on the way through.  If the same image was stored before from
+	 * another URL, the new blob is deleted and the existing blob is returned
+	 * instead.
 	 * @param imageUrl The URL from which to read the image.
-	 * @return The blob key for the image.
+	 * @return The image blob or null if the image couldn't be stored.
 	 */
-	public static BlobKey createImage(String imageUrl) {
+	public static ImageBlob createImage(String imageUrl) {
+		
+		ImageBlob stored = imageBlobService.acquireBySource(imageUrl);
+		if (stored != null) {
+			logger.info("The image was already stored from this URL: " + imageUrl);
+			return stored;
+		}
 		
 		// Figure out the mime type so the image is served properly.
 		String imageMimeType = getImageMimeType(imageUrl);
 		
-		// Read in the bytes and make sure it succeede.
-		byte[] imageBytes = getImageBytes(imageUrl);
-		if (imageBytes == null) {
+		InputStream is;
+		try {
+			is = new URL(imageUrl).openStream();
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to get this URL: " + imageUrl, e);
 			return null;
 		}
 		
+		BlobKey blobKey = null;
 		try {
 			// Now for the trick.  Write the image using the file service while
 			// giving it the correct mime type.  Then return the blob key for
@@ -47,15 +91,111 @@ public class ImageUtil {
 			AppEngineFile imageFile = fileService.createNewBlobFile(imageMimeType);
 			FileWriteChannel writeChannel = fileService.openWriteChannel(
 					imageFile, true);
-			writeChannel.write(ByteBuffer.wrap(imageBytes));
+			MessageDigest digest = newDigest();
+			copy(Channels.newChannel(is), writeChannel, digest);
+			String hash = toHex(digest.digest());
+			
 			writeChannel.closeFinally();
-			return fileService.getBlobKey(imageFile);
+			blobKey = fileService.getBlobKey(imageFile);
+			
+			// The hash is only known once the image is written, so a
+			// duplicate from a new URL is finalized and then deleted rather
+			// than left behind as an unfinished file.  Buffering the image to
+			// hash it first would hold every image in memory to save a write
+			// that only happens the first time a URL is seen.
+			ImageBlob existing = imageBlobService.acquire(hash, imageUrl);
+			if (existing != null) {
+				logger.info("The image was already stored: " + imageUrl);
+				if (!blobKey.equals(existing.getBlobKey())) {
+					blobstoreService.delete(blobKey);
+				}
+				return existing;
+			}
+			return imageBlobService.register(hash, blobKey, imageUrl);
 		} catch (IOException e) {
-			logger.log(Level.SEVERE, "Failed to create the image blob", e);
+			logger.log(Level.SEVERE, "Failed to create the image blob for " + imageUrl, e);
+		} catch (IllegalArgumentException e) {
+			logger.log(Level.SEVERE, "The image can't be served: " + imageUrl, e);
+			if (blobKey != null) {
+				imageBlobService.release(blobKey);
+			}
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+				// The image is either written or already failed.
+			}
 		}
 		return null;
 	}
 	
+	/**
+	 * Gets the content hash of an image that is already in blob store.
+	 * @param blobKey The key of the image blob.
+	 * @return The MD5 of the image in hex.
+	 * @throws IOException Thrown if the blob can't be read.
+	 */
+	public static String getImageHash(BlobKey blobKey) throws IOException {
+		
+		// Uploads usually have the hash already.
+		BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
+		if (blobInfo != null && blobInfo.getMd5Hash() != null) {
+			return blobInfo.getMd5Hash().toLowerCase();
+		}
+		
+		MessageDigest digest = newDigest();
+		InputStream is = new BlobstoreInputStream(blobKey);
+		try {
+			byte[] chunk = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = is.read(chunk)) != -1) {
+				digest.update(chunk, 0, n);
+			}
+		} finally {
+			is.close();
+		}
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * Copies everything from the image stream into the blob.
+	 * @param in The image stream.
+	 * @param out The blob write channel.
+	 * @param digest The digest to update with the image contents.
+	 * @throws IOException Thrown if reading or writing fails.
+	 */
+	private static void copy(ReadableByteChannel in, FileWriteChannel out,
+			MessageDigest digest) throws IOException {
+		ByteBuffer buffer = buffers.get();
+		buffer.clear();
+		while (in.read(buffer) != -1) {
+			buffer.flip();
+			digest.update(buffer);
+			buffer.rewind();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM has to support MD5.
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String toHex(byte[] digest) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+	
 	/**
 	 * Gets the image's mime type based on the URL (which will be treated like
 	 * a file name).
@@ -71,26 +211,4 @@ public class ImageUtil {
 		}
 		return MIME_TYPE_JPEG;
 	}
-	
-	/**
-	 * Gets the image bytes for the image at the URL.
-	 * @param imageUrl The URL of the image.
-	 * @return The bytes representing the image.
-	 */
-	private static byte[] getImageBytes(String imageUrl) {
-		try {
-			ByteArrayOutputStream bais = new ByteArrayOutputStream();
-			URL url = new URL(imageUrl);
-			InputStream is = url.openStream();
-			byte[] byteChunk = new byte[4096];
-			int n;
-			while ((n = is.read(byteChunk)) > 0) {
-				bais.write(byteChunk, 0, n);
-			}
-			return bais.toByteArray();
-		} catch (Exception e) {
-			logger.log(Level.SEVERE, "Failed to get this URL: " + imageUrl, e);
-		}
-		return null;
-	}
 }
@@ -1,15 +1,101 @@
 package yugi.crawl;
 
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import yugi.model.auto.PageValidator;
+
 public class PageUtil {
 
 	private static final Logger logger = Logger.getLogger(PageUtil.class.getName());
 	
+	/**
+	 * The result of a conditional request.  A full response keeps the
+	 * connection open until its body is parsed, so the body is streamed
+	 * straight into the parser and only read as far as the parser needs.
+	 */
+	public static class PageResponse {
+		
+		private final HttpURLConnection connection;
+		private final String etag;
+		private final String lastModified;
+		private String bodyHash;
+		
+		private PageResponse(HttpURLConnection connection, String etag,
+				String lastModified) {
+			this.connection = connection;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+		
+		/**
+		 * @return True if the server said the page hasn't changed.  There is
+		 *     no body to parse in this case.
+		 */
+		public boolean isNotModified() {
+			return connection == null;
+		}
+		
+		public String getEtag() {
+			return etag;
+		}
+		
+		public String getLastModified() {
+			return lastModified;
+		}
+		
+		/**
+		 * @return The SHA-1 in hex of the part of the body that was parsed, or
+		 *     null if it wasn't parsed.
+		 */
+		public String getBodyHash() {
+			return bodyHash;
+		}
+		
+		/**
+		 * Streams the body into the card page and closes the connection.  The
+		 * page stops reading once it has the card table, and only that much of
+		 * the body is hashed, so a change further down the page doesn't count
+		 * as a change to the card.
+		 * @param cardPage The page to parse the body into.
+		 * @throws ParseException Thrown if the body can't be read or parsed.
+		 */
+		public void parse(CardPage cardPage) throws ParseException {
+			if (connection == null) {
+				throw new ParseException("There is no body for an unmodified page.");
+			}
+			Reader reader = null;
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-1");
+				reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+				cardPage.parse(reader, digest);
+				bodyHash = toHex(digest.digest());
+			} catch (IOException e) {
+				throw new ParseException("Failed to read the page contents.");
+			} catch (NoSuchAlgorithmException e) {
+				throw new ParseException("Failed to hash the page contents.");
+			} finally {
+				if (reader != null) {
+					try {
+						reader.close();
+					} catch (IOException e) {
+						// Nothing more to read anyway.
+					}
+				}
+				connection.disconnect();
+			}
+		}
+	}
+	
 	/**
 	 * Makes an HTTP GET request at the URL and waits synchronously for the
 	 * response.  The response is then fully read into memory and the result
@@ -20,17 +106,86 @@ public class PageUtil {
 	public static String get(String urlString) {
 		try {
 			URL url = new URL(urlString);
-			BufferedReader reader = new BufferedReader(
-					new InputStreamReader(url.openStream()));
+			return readContents(url.openStream());
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to get this URL: " + urlString, e);
+		}
+		return null;
+	}
+	
+	/**
+	 * Makes a conditional HTTP GET request at the URL using the validators
+	 * from the last visit.  If the server says the page is unchanged, nothing
+	 * is downloaded.
+	 * @param urlString The URL for which to make the request.
+	 * @param validator The validator from the last visit or null if there was
+	 *     no last visit.
+	 * @return The response or null if the request failed.  The body of a
+	 *     full response is read by {@link PageResponse#parse}, which also
+	 *     closes it.
+	 */
+	public static PageResponse getConditional(String urlString, PageValidator validator) {
+		try {
+			URL url = new URL(urlString);
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			if (validator != null) {
+				if (validator.getEtag() != null) {
+					connection.setRequestProperty("If-None-Match", validator.getEtag());
+				}
+				if (validator.getLastModified() != null) {
+					connection.setRequestProperty("If-Modified-Since", validator.getLastModified());
+				}
+			}
+			
+			int responseCode = connection.getResponseCode();
+			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				connection.disconnect();
+				return new PageResponse(null, null, null);
+			}
+			if (responseCode != HttpURLConnection.HTTP_OK) {
+				logger.severe("Got a " + responseCode + " for this URL: " + urlString);
+				connection.disconnect();
+				return null;
+			}
+			
+			return new PageResponse(connection,
+					connection.getHeaderField("ETag"),
+					connection.getHeaderField("Last-Modified"));
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to get this URL: " + urlString, e);
+		}
+		return null;
+	}
+	
+	/**
+	 * Reads the stream as lines and joins them without the line breaks.
+	 * @param in The stream to read.  It is closed when done.
+	 * @return The joined lines.
+	 * @throws IOException Thrown if reading fails.
+	 */
+	private static String readContents(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		try {
 			String line;
 			StringBuilder sb = new StringBuilder();
 			while ((line = reader.readLine()) != null) {
 				sb.append(line);
 			}
 			return sb.toString();
-		} catch (Exception e) {
-			logger.log(Level.SEVERE, "Failed to get this URL: " + urlString, e);
+		} finally {
+			reader.close();
 		}
-		return null;
+	}
+	
+	/**
+	 * @param digest The digest bytes.
+	 * @return The digest in hex.
+	 */
+	private static String toHex(byte[] digest) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
 	}
 }
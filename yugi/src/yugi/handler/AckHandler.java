@@ -0,0 +1,31 @@
+package yugi.handler;
+
+import yugi.message.MessageEnvelope;
+import yugi.model.GameSession;
+import yugi.service.GameStateService;
+
+/**
+ * Records the last sequence number a player received, so a reconnect only
+ * replays what the player is missing.  Acknowledgements are only for the
+ * server, so they are never reflected.
+ */
+public class AckHandler implements Handler {
+
+	private static final String SEQUENCE = "sequence";
+
+	private static GameStateService gameStateService = GameStateService.getInstance();
+
+	@Override
+	public void handle(GameSession game, MessageEnvelope envelope) throws Exception {
+
+		// Spectators are never synchronized, so their acknowledgements don't
+		// matter.
+		String user = envelope.getUser();
+		if (!user.equals(game.getPlayer1()) && !user.equals(game.getPlayer2())) {
+			return;
+		}
+
+		long sequence = envelope.getMessageJson().getLong(SEQUENCE);
+		gameStateService.acknowledge(game, user, sequence);
+	}
+}
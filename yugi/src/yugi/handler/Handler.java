@@ -1,7 +1,6 @@
 package yugi.handler;
 
-import org.json.JSONObject;
-
+import yugi.message.MessageEnvelope;
 import yugi.model.GameSession;
 
 /**
@@ -12,8 +11,9 @@ public interface Handler {
 	/**
 	 * Handles the message.
 	 * @param game The game for which this message pertains.
-	 * @param user The user that sent the message.
-	 * @param messageJson The raw message to handle.
+	 * @param envelope The message envelope holding the sender and the raw
+	 *     message to handle.
+	 * @throws Exception Thrown if the message could not be handled.
 	 */
-	void handle(GameSession game, String user, JSONObject messageJson);
+	void handle(GameSession game, MessageEnvelope envelope) throws Exception;
 }
@@ -2,28 +2,52 @@ package yugi.handler;
 
 import java.util.logging.Logger;
 
-import org.json.JSONObject;
-
+import yugi.message.MessageEnvelope;
 import yugi.model.GameSession;
+import yugi.net.ChannelBroadcaster;
 import yugi.net.ChannelUtil;
+import yugi.service.GameStateService;
 
 /**
- * Blindly reflects a message from one client to another.
+ * Blindly reflects a message from one client to another and to any
+ * spectators.  Each reflected message is also recorded so the server can
+ * synchronize reconnected clients.
+ * The message is forwarded as the raw text the client posted, so it is never
+ * parsed here.
  */
 public class ReflectorHandler implements Handler {
 
 	private static final Logger logger = Logger.getLogger(ReflectorHandler.class.getName());
 
+	private static GameStateService gameStateService = GameStateService.getInstance();
+	private static ChannelBroadcaster broadcaster = ChannelBroadcaster.getInstance();
+
 	@Override
-	public void handle(GameSession game, String user, JSONObject messageJson) {
-		
-		// Just send the message to the other player.
+	public void handle(GameSession game, MessageEnvelope envelope) {
+		String user = envelope.getUser();
+		String otherClientId;
 		if (user.equals(game.getPlayer1())) {
-			ChannelUtil.sendToPlayer(game, game.getPlayer2(), messageJson);
+			otherClientId = game.getPlayer2ClientId();
 		} else if (user.equals(game.getPlayer2())) {
-			ChannelUtil.sendToPlayer(game, game.getPlayer1(), messageJson);
+			otherClientId = game.getPlayer1ClientId();
 		} else {
 			logger.severe("Did not know what to do with a message from " + user);
+			return;
+		}
+
+		// Remember the message for synchronization later.  The sequence
+		// number goes out with the message so the clients can acknowledge it.
+		String message = envelope.getMessage();
+		Long sequence = gameStateService.record(game, user, envelope.getType(), message);
+		if (sequence != null) {
+			message = GameStateService.stamp(message, sequence);
 		}
+
+		// Just send the message to the other player.  A player that isn't
+		// connected doesn't get it, and has it replayed when it reconnects.
+		ChannelUtil.sendToClient(otherClientId, message);
+
+		// Let the spectators see it too.
+		broadcaster.broadcast(game.getSpectatorClientIds(), message);
 	}
 }
@@ -0,0 +1,513 @@
+package yugi.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import yugi.model.Card;
+
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * A snapshot of every card in one compact file, so an instance or an offline
+ * tool can have the whole catalog without reading each card entity.
+ *
+ * The cards are sorted by ID and stored column by column: the IDs, then one
+ * primitive array per field, then the names and descriptions.  After them
+ * come the name and description token postings the search index is built
+ * from, sorted by token, each a token and the delta coded positions of its
+ * cards.  Enums are stored by ordinal, so reordering one needs a new format
+ * version.
+ *
+ * Reading copies the columns deck stats use into arrays and skips the rest.
+ * Names and postings stay in the buffer and are only decoded when asked for,
+ * so the buffer is kept.  Reading works on any byte buffer, including a
+ * memory mapped file.
+ */
+public class CardCatalog {
+
+	/**
+	 * "YCAT", the first four bytes of every catalog.
+	 */
+	private static final int MAGIC = 0x59434154;
+
+	private static final int FORMAT_VERSION = 3;
+
+	/**
+	 * Stored for an enum or number the card doesn't have.
+	 */
+	public static final int NONE = Integer.MIN_VALUE;
+
+	private static final byte NO_ORDINAL = -1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String CARD_KIND = Card.class.getSimpleName();
+
+	private final ByteBuffer buffer;
+	private final long created;
+	private final long[] ids;
+	private final byte[] types;
+	private final byte[] attributes;
+	private final int[] levels;
+	private final int[] attacks;
+	private final int[] defenses;
+
+	/**
+	 * Where each name starts in the buffer.
+	 */
+	private final int[] nameOffsets;
+
+	private final Postings namePostings;
+	private final Postings descriptionPostings;
+
+	private CardCatalog(ByteBuffer buffer) {
+		if (buffer.getInt() != MAGIC) {
+			throw new IllegalArgumentException("Not a card catalog.");
+		}
+		int version = buffer.getInt();
+		if (version != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unknown card catalog version: " + version);
+		}
+		created = buffer.getLong();
+		int size = buffer.getInt();
+
+		ids = new long[size];
+		buffer.asLongBuffer().get(ids);
+		buffer.position(buffer.position() + size * 8);
+		types = getBytes(buffer, size);
+		attributes = getBytes(buffer, size);
+		// The spell, trap, monster, extra monster type and effect columns.
+		buffer.position(buffer.position() + size * 5);
+		levels = getInts(buffer, size);
+		attacks = getInts(buffer, size);
+		defenses = getInts(buffer, size);
+		nameOffsets = skipStrings(buffer, size);
+		skipStrings(buffer, size); // The descriptions.
+		this.buffer = buffer;
+		namePostings = new Postings(buffer, skipPostings(buffer));
+		descriptionPostings = new Postings(buffer, skipPostings(buffer));
+	}
+
+	/**
+	 * Reads a catalog.
+	 * @param buffer The catalog, from its first byte.  The catalog reads its
+	 *     strings from it later, so it must not change.
+	 * @return The catalog.
+	 * @throws IllegalArgumentException Thrown if the bytes aren't a catalog
+	 *     this version can read.
+	 */
+	public static CardCatalog read(ByteBuffer buffer) {
+		return new CardCatalog(buffer);
+	}
+
+	/**
+	 * Reads a catalog file by mapping it into memory, for offline tools.
+	 * App Engine can't map a blob, so instances use
+	 * {@link #read(ByteBuffer)}.
+	 * @param file The catalog file.
+	 * @return The catalog.
+	 * @throws IOException Thrown if the file can't be read.
+	 */
+	public static CardCatalog read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a catalog of the cards.  Cards without a numeric ID are left
+	 * out.
+	 * @param cards The cards.
+	 * @param out Where to write the catalog.  It isn't closed.
+	 * @return The number of cards written.
+	 * @throws IOException Thrown if writing fails.
+	 */
+	public static int write(List<Card> cards, OutputStream out) throws IOException {
+		List<Card> sorted = new ArrayList<Card>(cards.size());
+		for (Card card : cards) {
+			if (card.getKey() != null && card.getKey().getId() > 0) {
+				sorted.add(card);
+			}
+		}
+		Collections.sort(sorted, new Comparator<Card>() {
+			@Override
+			public int compare(Card a, Card b) {
+				long idA = a.getKey().getId();
+				long idB = b.getKey().getId();
+				return idA < idB ? -1 : (idA == idB ? 0 : 1);
+			}
+		});
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(FORMAT_VERSION);
+		data.writeLong(System.currentTimeMillis());
+		data.writeInt(sorted.size());
+
+		for (Card card : sorted) {
+			data.writeLong(card.getKey().getId());
+		}
+		for (Card card : sorted) {
+			data.writeByte(getOrdinal(card.getType()));
+		}
+		for (Card card : sorted) {
+			data.writeByte(getOrdinal(card.getAttribute()));
+		}
+		for (Card card : sorted) {
+			data.writeByte(getOrdinal(card.getSpellType()));
+		}
+		for (Card card : sorted) {
+			data.writeByte(getOrdinal(card.getTrapType()));
+		}
+		for (Card card : sorted) {
+			data.writeByte(getOrdinal(card.getMonsterType()));
+		}
+		for (Card card : sorted) {
+			data.writeByte(getOrdinal(card.getExtraMonsterType()));
+		}
+		for (Card card : sorted) {
+			Boolean effect = card.isEffect();
+			data.writeByte(effect == null ? NO_ORDINAL : (effect ? 1 : 0));
+		}
+		for (Card card : sorted) {
+			data.writeInt(orNone(card.getLevel()));
+		}
+		for (Card card : sorted) {
+			data.writeInt(orNone(card.getAttack()));
+		}
+		for (Card card : sorted) {
+			data.writeInt(orNone(card.getDefense()));
+		}
+		for (Card card : sorted) {
+			writeString(data, card.getName());
+		}
+		for (Card card : sorted) {
+			writeString(data, card.getDescription());
+		}
+
+		// The postings refer to cards by their position in the catalog.
+		Map<String, List<Integer>> nameTokens = new TreeMap<String, List<Integer>>();
+		Map<String, List<Integer>> descriptionTokens = new TreeMap<String, List<Integer>>();
+		for (int i = 0; i < sorted.size(); i++) {
+			Card card = sorted.get(i);
+			addPostings(nameTokens, Indexer.tokenizeName(card.getName()), i);
+			addPostings(descriptionTokens, Indexer.tokenizeText(card.getDescription()), i);
+		}
+		writePostings(data, nameTokens);
+		writePostings(data, descriptionTokens);
+		data.flush();
+		return sorted.size();
+	}
+
+	/**
+	 * @return When the catalog was written, in milliseconds.
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Finds a card by its key.
+	 * @param cardKey The web safe card key.
+	 * @return The card's position or -1 if it isn't in the catalog.
+	 */
+	public int indexOf(String cardKey) {
+		long id;
+		try {
+			id = KeyFactory.stringToKey(cardKey).getId();
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+		int index = Arrays.binarySearch(ids, id);
+		return index >= 0 ? index : -1;
+	}
+
+	public String getCardKey(int index) {
+		return KeyFactory.keyToString(KeyFactory.createKey(CARD_KIND, ids[index]));
+	}
+
+	public String getName(int index) {
+		return getString(nameOffsets[index]);
+	}
+
+	/**
+	 * @return The name token postings, as
+	 *     {@link Indexer#tokenizeName(String)} makes the tokens.
+	 */
+	public Postings getNamePostings() {
+		return namePostings;
+	}
+
+	/**
+	 * @return The description token postings, as
+	 *     {@link Indexer#tokenizeText(String)} makes the tokens.
+	 */
+	public Postings getDescriptionPostings() {
+		return descriptionPostings;
+	}
+
+	/**
+	 * The type ordinal, for callers that count by type without the enum.
+	 * @return The ordinal or -1 if the card has no type.
+	 */
+	public int getTypeOrdinal(int index) {
+		return types[index];
+	}
+
+	/**
+	 * @return The attribute ordinal or -1 if the card has no attribute.
+	 */
+	public int getAttributeOrdinal(int index) {
+		return attributes[index];
+	}
+
+	/**
+	 * @return The level or {@link #NONE}.
+	 */
+	public int getLevel(int index) {
+		return levels[index];
+	}
+
+	/**
+	 * @return The attack, -1 for "?", or {@link #NONE}.
+	 */
+	public int getAttack(int index) {
+		return attacks[index];
+	}
+
+	/**
+	 * @return The defense, -1 for "?", or {@link #NONE}.
+	 */
+	public int getDefense(int index) {
+		return defenses[index];
+	}
+
+	private static byte getOrdinal(Enum<?> value) {
+		return value == null ? NO_ORDINAL : (byte) value.ordinal();
+	}
+
+	private static int orNone(Integer value) {
+		return value == null ? NONE : value;
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		if (value == null) {
+			data.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF_8);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static void addPostings(Map<String, List<Integer>> postings, String[] tokens,
+			int index) {
+		for (String token : tokens) {
+			List<Integer> cards = postings.get(token);
+			if (cards == null) {
+				cards = new ArrayList<Integer>();
+				postings.put(token, cards);
+			}
+			cards.add(index);
+		}
+	}
+
+	/**
+	 * Writes each token and its card positions as varint gaps.  The positions
+	 * only go up, since cards are added in order.
+	 */
+	private static void writePostings(DataOutputStream data,
+			Map<String, List<Integer>> postings) throws IOException {
+		data.writeInt(postings.size());
+		ByteArrayOutputStream gaps = new ByteArrayOutputStream();
+		for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+			writeString(data, entry.getKey());
+			gaps.reset();
+			int previous = 0;
+			for (int index : entry.getValue()) {
+				writeVarint(gaps, index - previous);
+				previous = index;
+			}
+			data.writeInt(entry.getValue().size());
+			data.writeInt(gaps.size());
+			gaps.writeTo(data);
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static byte[] getBytes(ByteBuffer buffer, int size) {
+		byte[] values = new byte[size];
+		buffer.get(values);
+		return values;
+	}
+
+	private static int[] getInts(ByteBuffer buffer, int size) {
+		int[] values = new int[size];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + size * 4);
+		return values;
+	}
+
+	/**
+	 * Steps over a string column, noting where each string starts.
+	 */
+	private static int[] skipStrings(ByteBuffer buffer, int size) {
+		int[] offsets = new int[size];
+		for (int i = 0; i < size; i++) {
+			offsets[i] = buffer.position();
+			int length = buffer.getInt();
+			if (length > 0) {
+				buffer.position(buffer.position() + length);
+			}
+		}
+		return offsets;
+	}
+
+	/**
+	 * Steps over a postings section, noting where each token starts.
+	 */
+	private static int[] skipPostings(ByteBuffer buffer) {
+		int[] offsets = new int[buffer.getInt()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = buffer.position();
+			int length = buffer.getInt();
+			buffer.position(buffer.position() + length + 4); // The token and count.
+			length = buffer.getInt();
+			buffer.position(buffer.position() + length); // The gaps.
+		}
+		return offsets;
+	}
+
+	private String getString(int offset) {
+		return getString(buffer, offset);
+	}
+
+	/**
+	 * Decodes a string from the buffer.  A duplicate of the buffer is read so
+	 * any number of threads can read at once.
+	 */
+	private static String getString(ByteBuffer buffer, int offset) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		int length = view.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		view.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		while (true) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+
+	/**
+	 * The tokens of one field, sorted, and the positions of the cards that
+	 * have each one.  A token and its cards are decoded from the buffer each
+	 * time they are asked for.
+	 */
+	public static class Postings {
+
+		private final ByteBuffer buffer;
+
+		/**
+		 * Where each token starts in the buffer.
+		 */
+		private final int[] offsets;
+
+		private Postings(ByteBuffer buffer, int[] offsets) {
+			this.buffer = buffer;
+			this.offsets = offsets;
+		}
+
+		/**
+		 * @return The number of tokens.
+		 */
+		public int size() {
+			return offsets.length;
+		}
+
+		public String getToken(int index) {
+			return getString(buffer, offsets[index]);
+		}
+
+		/**
+		 * @return The positions of the cards with the token, in order.
+		 */
+		public int[] getCards(int index) {
+			ByteBuffer view = buffer.duplicate();
+			view.position(offsets[index]);
+			int length = view.getInt();
+			view.position(view.position() + length); // The token.
+			int[] cards = new int[view.getInt()];
+			view.getInt(); // The length of the gaps.
+			int previous = 0;
+			for (int i = 0; i < cards.length; i++) {
+				previous += getVarint(view);
+				cards[i] = previous;
+			}
+			return cards;
+		}
+
+		/**
+		 * Finds a token with a binary search.
+		 * @param token The token.
+		 * @return The positions of the cards with the token, in order.
+		 */
+		public int[] find(String token) {
+			int low = 0;
+			int high = offsets.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int compare = getToken(mid).compareTo(token);
+				if (compare < 0) {
+					low = mid + 1;
+				} else if (compare > 0) {
+					high = mid - 1;
+				} else {
+					return getCards(mid);
+				}
+			}
+			return new int[0];
+		}
+	}
+}
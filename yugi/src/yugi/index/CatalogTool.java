@@ -0,0 +1,36 @@
+package yugi.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Looks up cards in a card catalog file downloaded from blob store.
+ *
+ * Usage: CatalogTool catalog-file [name-token]
+ */
+public class CatalogTool {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: CatalogTool catalog-file [name-token]");
+			System.exit(1);
+		}
+
+		long start = System.currentTimeMillis();
+		CardCatalog catalog = CardCatalog.read(new File(args[0]));
+		System.out.println("Read a catalog of " + catalog.size() + " cards from " +
+				new Date(catalog.getCreated()) + " in " +
+				(System.currentTimeMillis() - start) + " ms.");
+		if (args.length < 2) {
+			return;
+		}
+
+		String token = args[1].toUpperCase();
+		int[] cards = catalog.getNamePostings().find(token);
+		System.out.println(cards.length + " cards have " + token + " in their name:");
+		for (int card : cards) {
+			System.out.println(catalog.getCardKey(card) + " " + catalog.getName(card));
+		}
+	}
+}
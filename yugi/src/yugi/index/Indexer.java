@@ -1,11 +1,15 @@
 package yugi.index;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jdo.PersistenceManager;
 
+import yugi.model.Card;
 import yugi.model.index.DescriptionToCard;
 import yugi.model.index.NameToCard;
 
@@ -153,6 +157,48 @@ public class Indexer {
 		pm.makePersistentAll(descriptionToCards);
 	}
 	
+	/**
+	 * Creates the name and description indices for many new cards at once.
+	 * Each token entry is read and written once no matter how many of the
+	 * cards share it.
+	 * @param cards The saved cards, which must have keys.
+	 * @param pm The persistence manager.
+	 */
+	public static void createIndices(List<Card> cards, PersistenceManager pm) {
+		Map<String, NameToCard> nameToCards = new HashMap<String, NameToCard>();
+		Map<String, DescriptionToCard> descriptionToCards =
+				new HashMap<String, DescriptionToCard>();
+		for (Card card : cards) {
+			String cardKey = card.getKeyAsString();
+			for (String token : Indexer.tokenizeName(card.getName())) {
+				NameToCard nameToCard = nameToCards.get(token);
+				if (nameToCard == null) {
+					nameToCard = getNameToCard(token, pm);
+					if (nameToCard == null) {
+						nameToCard = new NameToCard();
+						nameToCard.setNameToken(token);
+					}
+					nameToCards.put(token, nameToCard);
+				}
+				nameToCard.addCardKey(cardKey);
+			}
+			for (String token : Indexer.tokenizeText(card.getDescription())) {
+				DescriptionToCard descriptionToCard = descriptionToCards.get(token);
+				if (descriptionToCard == null) {
+					descriptionToCard = getDescriptionToCard(token, pm);
+					if (descriptionToCard == null) {
+						descriptionToCard = new DescriptionToCard();
+						descriptionToCard.setDescriptionToken(token);
+					}
+					descriptionToCards.put(token, descriptionToCard);
+				}
+				descriptionToCard.addCardKey(cardKey);
+			}
+		}
+		pm.makePersistentAll(nameToCards.values());
+		pm.makePersistentAll(descriptionToCards.values());
+	}
+	
 	/**
 	 * Updates the name index by first deleting the reference to the card key in
 	 * all the tokens that match, then adding the card key to all the new tokens.
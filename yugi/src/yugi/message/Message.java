@@ -11,9 +11,12 @@ public class Message {
 	 * The set of message types that the server cares about.
 	 */
 	public enum Type {
+		ACK,
 		CONNECTED,
 		DISCONNECTED,
+		STATE,
 		SYNC_REQUEST,
+		SYNC_RESPONSE,
 		WAIT_FOR_SYNC
 	}
 
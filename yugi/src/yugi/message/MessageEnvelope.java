@@ -0,0 +1,315 @@
+package yugi.message;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * The wrapper every client message is posted in.  Only the type and user are
+ * read out of the envelope; the inner message is kept as the raw JSON text so
+ * it can be forwarded to the other client without being parsed and
+ * re-serialized.  Handlers that need the inner message as JSON can ask for it
+ * and it will be parsed once on demand.
+ */
+public class MessageEnvelope {
+
+	private static final String TYPE = "type";
+	private static final String USER = "user";
+	private static final String MESSAGE = "message";
+
+	/**
+	 * Maps the type string clients send to the message type.  Clients use the
+	 * lower case names, so that is what the table holds.
+	 */
+	private static final Map<String, Message.Type> typeTable;
+	static {
+		typeTable = new HashMap<String, Message.Type>();
+		for (Message.Type type : Message.Type.values()) {
+			typeTable.put(type.name().toLowerCase(), type);
+		}
+	}
+
+	private final String typeName;
+	private final Message.Type type;
+	private final String user;
+	private final String message;
+	private JSONObject messageJson;
+
+	private MessageEnvelope(String typeName, String user, String message) {
+		this.typeName = typeName;
+		this.type = lookupType(typeName);
+		this.user = user;
+		this.message = message;
+	}
+
+	/**
+	 * @return The type string exactly as the client sent it.
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+
+	/**
+	 * @return The message type or null if the server doesn't know the type.
+	 */
+	public Message.Type getType() {
+		return type;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * @return The inner message as raw JSON text.
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Parses the inner message the first time it is needed.
+	 * @return The inner message as a JSON object.
+	 * @throws ParseException Thrown if the inner message is not valid JSON.
+	 */
+	public JSONObject getMessageJson() throws ParseException {
+		if (messageJson == null) {
+			messageJson = new JSONObject(message);
+		}
+		return messageJson;
+	}
+
+	/**
+	 * Looks up the message type in the type table.
+	 * @param typeName The type string from the client.
+	 * @return The message type or null if it isn't one the server knows.
+	 */
+	private static Message.Type lookupType(String typeName) {
+		Message.Type type = typeTable.get(typeName);
+		if (type == null) {
+			type = typeTable.get(typeName.toLowerCase());
+		}
+		return type;
+	}
+
+	/**
+	 * Reads the envelope out of the posted JSON.  Only the top level object is
+	 * scanned; nested values are skipped over without being parsed.
+	 * @param json The posted JSON.
+	 * @return The envelope.
+	 * @throws ParseException Thrown if the JSON is malformed or a field is
+	 *     missing.
+	 */
+	public static MessageEnvelope parse(String json) throws ParseException {
+		Scanner scanner = new Scanner(json);
+		String typeName = null;
+		String user = null;
+		String message = null;
+
+		scanner.expect('{');
+		if (!scanner.consume('}')) {
+			do {
+				String key = scanner.readString();
+				scanner.expect(':');
+				if (TYPE.equals(key)) {
+					typeName = scanner.readString();
+				} else if (USER.equals(key)) {
+					user = scanner.readString();
+				} else if (MESSAGE.equals(key)) {
+					message = scanner.readRawObject();
+				} else {
+					scanner.skipValue();
+				}
+			} while (scanner.consume(','));
+			scanner.expect('}');
+		}
+
+		// Sanity check.
+		if (typeName == null) {
+			throw new ParseException("The message had no type.", 0);
+		}
+		if (user == null) {
+			throw new ParseException("The message with type=" + typeName +
+					" had no user.", 0);
+		}
+		if (message == null) {
+			throw new ParseException("The message with type=" + typeName +
+					" had no payload.", 0);
+		}
+
+		return new MessageEnvelope(typeName, user, message);
+	}
+
+	/**
+	 * A minimal forward-only JSON scanner over the envelope text.
+	 */
+	private static class Scanner {
+
+		private final String json;
+		private int position;
+
+		Scanner(String json) {
+			this.json = json;
+			this.position = 0;
+		}
+
+		/**
+		 * Consumes the given character if it is next.
+		 * @param c The character.
+		 * @return True if the character was consumed.
+		 */
+		boolean consume(char c) {
+			skipWhitespace();
+			if (position < json.length() && json.charAt(position) == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Consumes the given character or fails.
+		 * @param c The character.
+		 * @throws ParseException Thrown if the character isn't next.
+		 */
+		void expect(char c) throws ParseException {
+			if (!consume(c)) {
+				throw new ParseException("Expected '" + c + "'", position);
+			}
+		}
+
+		/**
+		 * Reads a string value and decodes its escapes.
+		 * @return The string.
+		 * @throws ParseException Thrown if the next value isn't a string.
+		 */
+		String readString() throws ParseException {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (position < json.length()) {
+				char c = json.charAt(position++);
+				if (c == '"') {
+					return sb.toString();
+				}
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				if (position >= json.length()) {
+					break;
+				}
+				char escaped = json.charAt(position++);
+				switch (escaped) {
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					if (position + 4 > json.length()) {
+						throw new ParseException("Bad unicode escape", position);
+					}
+					try {
+						sb.append((char) Integer.parseInt(
+								json.substring(position, position + 4), 16));
+					} catch (NumberFormatException e) {
+						throw new ParseException("Bad unicode escape", position);
+					}
+					position += 4;
+					break;
+				default: sb.append(escaped); break;
+				}
+			}
+			throw new ParseException("Unterminated string", position);
+		}
+
+		/**
+		 * Reads an object value as raw text.
+		 * @return The raw object JSON.
+		 * @throws ParseException Thrown if the next value isn't an object.
+		 */
+		String readRawObject() throws ParseException {
+			skipWhitespace();
+			if (position >= json.length() || json.charAt(position) != '{') {
+				throw new ParseException("Expected an object", position);
+			}
+			int start = position;
+			skipValue();
+			return json.substring(start, position);
+		}
+
+		/**
+		 * Skips over the next value without interpreting it.
+		 * @throws ParseException Thrown if the value is malformed.
+		 */
+		void skipValue() throws ParseException {
+			skipWhitespace();
+			if (position >= json.length()) {
+				throw new ParseException("Expected a value", position);
+			}
+
+			char c = json.charAt(position);
+			if (c == '"') {
+				skipString();
+			} else if (c == '{' || c == '[') {
+				int depth = 0;
+				while (position < json.length()) {
+					c = json.charAt(position);
+					if (c == '"') {
+						skipString();
+						continue;
+					}
+					position++;
+					if (c == '{' || c == '[') {
+						depth++;
+					} else if (c == '}' || c == ']') {
+						depth--;
+						if (depth == 0) {
+							return;
+						}
+					}
+				}
+				throw new ParseException("Unterminated value", position);
+			} else {
+				// A number, true, false or null.
+				int start = position;
+				while (position < json.length()) {
+					c = json.charAt(position);
+					if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+						break;
+					}
+					position++;
+				}
+				if (start == position) {
+					throw new ParseException("Expected a value", position);
+				}
+			}
+		}
+
+		/**
+		 * Skips over a string without decoding it.
+		 * @throws ParseException Thrown if the string never ends.
+		 */
+		private void skipString() throws ParseException {
+			position++;
+			while (position < json.length()) {
+				char c = json.charAt(position++);
+				if (c == '\\') {
+					position++;
+				} else if (c == '"') {
+					return;
+				}
+			}
+			throw new ParseException("Unterminated string", position);
+		}
+
+		private void skipWhitespace() {
+			while (position < json.length() &&
+					Character.isWhitespace(json.charAt(position))) {
+				position++;
+			}
+		}
+	}
+}
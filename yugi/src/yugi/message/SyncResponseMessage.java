@@ -0,0 +1,30 @@
+package yugi.message;
+
+import org.json.JSONObject;
+
+/**
+ * The message containing the full game data a reconnected client needs in
+ * order to synchronize.  Normally the other client sends this, but the server
+ * will build it from its own game state when it can.
+ */
+public class SyncResponseMessage extends Message {
+
+	private static final String GAME = "game";
+	private final JSONObject game;
+
+	public SyncResponseMessage(JSONObject game) {
+		super(Message.Type.SYNC_RESPONSE);
+		this.game = game;
+	}
+
+	public JSONObject getGame() {
+		return game;
+	}
+
+	@Override
+	public JSONObject toJson() {
+		JSONObject json = super.toJson();
+		json.put(GAME, game);
+		return json;
+	}
+}
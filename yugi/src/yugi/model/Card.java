@@ -101,7 +101,7 @@ public class Card {
 	}
 	
 	public String getDescription() {
-		return description.getValue();
+		return description != null ? description.getValue() : null;
 	}
 	public void setDescription(String description) {
 		this.description = new Text(description);
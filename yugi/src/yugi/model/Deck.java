@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.NotPersistent;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
@@ -11,6 +12,7 @@ import javax.jdo.annotations.PrimaryKey;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 
@@ -33,15 +35,61 @@ public class Deck {
 	@Persistent
 	private String mainCardKey;
 
+	/**
+	 * The card lists, packed with {@link PackedCardKeys}.
+	 */
 	@Persistent
-	private List<String> mainCardKeys = new ArrayList<String>();
+	private Blob packedMainCardKeys;
 
 	@Persistent
-	private List<String> extraCardKeys = new ArrayList<String>();
+	private Blob packedExtraCardKeys;
+
+	@Persistent
+	private Blob packedSideCardKeys;
+
+	/**
+	 * The card lists as they were stored before they were packed.  A deck
+	 * that was saved before then still has these, and a list with a key that
+	 * can't be packed is stored this way too.
+	 */
+	@Persistent
+	private List<String> mainCardKeys;
+
+	@Persistent
+	private List<String> extraCardKeys;
 	
 	@Persistent
-	private List<String> sideCardKeys = new ArrayList<String>();
+	private List<String> sideCardKeys;
 	
+	/**
+	 * The unpacked card lists, filled in the first time they're asked for.
+	 */
+	@NotPersistent
+	private List<String> mainCards;
+
+	@NotPersistent
+	private List<String> extraCards;
+
+	@NotPersistent
+	private List<String> sideCards;
+
+	/**
+	 * Goes up by one every time the deck is saved, so an editor can tell
+	 * whether the deck changed since it read it.
+	 */
+	@Persistent
+	private Long version;
+
+	/**
+	 * A copied deck uses the card lists of this version of its source deck
+	 * until it's first saved, instead of a copy of its own.
+	 */
+	@Persistent
+	private String contentDeckKey;
+
+	@Persistent
+	private Long contentVersion;
+
 	/**
 	 * The types of subsets of cards within the deck.
 	 */
@@ -54,6 +102,9 @@ public class Deck {
 	public Key getKey() {
 		return key;
 	}
+	public void setKey(Key key) {
+		this.key = key;
+	}
 	
 	public String getUserId() {
 		return userId;
@@ -83,25 +134,122 @@ public class Deck {
 		this.mainCardKey = mainCardKey;
 	}
 
+	/*
+	 * The card key lists are packed when they're set, so changing a list that
+	 * was returned won't be saved.  Set a new list instead.
+	 */
+
 	public List<String> getMainCardKeys() {
-		return mainCardKeys;
+		if (mainCards == null) {
+			mainCards = unpack(packedMainCardKeys, mainCardKeys);
+		}
+		return mainCards;
 	}
 	public void setMainCardKeys(List<String> mainCardKeys) {
-		this.mainCardKeys = mainCardKeys;
+		mainCards = orEmpty(mainCardKeys);
+		packedMainCardKeys = PackedCardKeys.pack(mainCards);
+		this.mainCardKeys = packedMainCardKeys == null ? mainCards : null;
 	}
 	
 	public List<String> getExtraCardKeys() {
-		return extraCardKeys;
+		if (extraCards == null) {
+			extraCards = unpack(packedExtraCardKeys, extraCardKeys);
+		}
+		return extraCards;
 	}
 	public void setExtraCardKeys(List<String> extraCardKeys) {
-		this.extraCardKeys = extraCardKeys;
+		extraCards = orEmpty(extraCardKeys);
+		packedExtraCardKeys = PackedCardKeys.pack(extraCards);
+		this.extraCardKeys = packedExtraCardKeys == null ? extraCards : null;
 	}
 	
 	public List<String> getSideCardKeys() {
-		return sideCardKeys;
+		if (sideCards == null) {
+			sideCards = unpack(packedSideCardKeys, sideCardKeys);
+		}
+		return sideCards;
 	}
 	public void setSideCardKeys(List<String> sideCardKeys) {
-		this.sideCardKeys = sideCardKeys;
+		sideCards = orEmpty(sideCardKeys);
+		packedSideCardKeys = PackedCardKeys.pack(sideCards);
+		this.sideCardKeys = packedSideCardKeys == null ? sideCards : null;
+	}
+	
+	/**
+	 * @param type The part of the deck.
+	 * @return The keys of the cards in that part.
+	 */
+	public List<String> getCardKeys(Type type) {
+		switch (type) {
+		case EXTRA:
+			return getExtraCardKeys();
+		case SIDE:
+			return getSideCardKeys();
+		default:
+			return getMainCardKeys();
+		}
+	}
+	public void setCardKeys(Type type, List<String> cardKeys) {
+		switch (type) {
+		case EXTRA:
+			setExtraCardKeys(cardKeys);
+			break;
+		case SIDE:
+			setSideCardKeys(cardKeys);
+			break;
+		default:
+			setMainCardKeys(cardKeys);
+			break;
+		}
+	}
+	
+	public long getVersion() {
+		return version != null ? version : 0L;
+	}
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	
+	public String getContentDeckKey() {
+		return contentDeckKey;
+	}
+	public long getContentVersion() {
+		return contentVersion != null ? contentVersion : 0L;
+	}
+	public boolean isSharingContent() {
+		return contentDeckKey != null;
+	}
+	
+	/**
+	 * Makes this deck use another deck's card lists instead of its own.
+	 * @param deckKey The key of the deck with the card lists.
+	 * @param version The version of that deck's lists.
+	 */
+	public void shareContent(String deckKey, long version) {
+		this.contentDeckKey = deckKey;
+		this.contentVersion = version;
+	}
+	
+	/**
+	 * Makes the card lists this deck has now its own.
+	 */
+	public void stopSharingContent() {
+		this.contentDeckKey = null;
+		this.contentVersion = null;
+	}
+	
+	/**
+	 * @return The packed list if there is one, else the old style list.
+	 */
+	private static List<String> unpack(Blob packed, List<String> cardKeys) {
+		if (packed != null) {
+			return PackedCardKeys.unpack(packed);
+		}
+		return orEmpty(cardKeys);
+	}
+	
+	private static List<String> orEmpty(List<String> cardKeys) {
+		return cardKeys == null ? new ArrayList<String>() : cardKeys;
 	}
 	
 	public void merge(Deck deck) {
@@ -126,13 +274,12 @@ public class Deck {
 		JSONObject json = new JSONObject();
 		json.put("key", KeyFactory.keyToString(key));
 		json.put("user-id", userId);
-		// TODO: Remove this once all decks have this flag set.
-		if (isStructure == null) {
-			json.put("is-structure", false);
-		} else {
-			json.put("is-structure", isStructure);
-		}
+		json.put("is-structure", Boolean.TRUE.equals(isStructure));
 		json.put("name", name);
+		if (version != null) {
+			// Deck summaries aren't read with a version.
+			json.put("version", version);
+		}
 		
 		if (mainCard != null) {
 			json.put("main-card", mainCard.toJson());
@@ -171,22 +318,20 @@ public class Deck {
 			setMainCardKey(mainCard.getKeyAsString());
 		}
 
-		// Clear the existing key lists.
-		mainCardKeys = new ArrayList<String>();
-		extraCardKeys = new ArrayList<String>();
-		sideCardKeys = new ArrayList<String>();
-
-		// Set the new cards.
-		addCardKeys(json.getJSONArray("main-cards"), mainCardKeys);
-		addCardKeys(json.getJSONArray("extra-cards"), extraCardKeys);
-		addCardKeys(json.getJSONArray("side-cards"), sideCardKeys);
+		// Replace the existing key lists.
+		setMainCardKeys(getCardKeys(json.getJSONArray("main-cards")));
+		setExtraCardKeys(getCardKeys(json.getJSONArray("extra-cards")));
+		setSideCardKeys(getCardKeys(json.getJSONArray("side-cards")));
 	}
 	
-	private void addCardKeys(JSONArray array, List<String> cardKeys) {
+	/**
+	 * Reads just the key of each card; the rest of the card is ignored.
+	 */
+	private List<String> getCardKeys(JSONArray array) {
+		List<String> cardKeys = new ArrayList<String>(array.length());
 		for (int i = 0; i < array.length(); i++) {
-			Card card = new Card();
-			card.setFromJson(array.getJSONObject(i));
-			cardKeys.add(card.getKeyAsString());
+			cardKeys.add(array.getJSONObject(i).getString("key"));
 		}
+		return cardKeys;
 	}
 }
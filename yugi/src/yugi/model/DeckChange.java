@@ -0,0 +1,156 @@
+package yugi.model;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * One edit to a deck's card lists, as sent by the deck editor:
+ *
+ * <pre>
+ * {"op": "add", "list": "main", "card": key, "index": 3}
+ * {"op": "remove", "list": "side", "card": key, "index": 0}
+ * {"op": "move", "list": "main", "card": key, "index": 5, "to": "side", "to-index": 0}
+ * </pre>
+ *
+ * The index is optional everywhere.  An add or move without a destination
+ * index goes to the end of the list.  A remove or move without a source index
+ * takes the first copy of the card; with one, the card at that index has to
+ * be the given card, so a stale edit can't take out the wrong card.
+ */
+public class DeckChange {
+
+	public enum Op {
+		ADD,
+		REMOVE,
+		MOVE
+	}
+
+	private static final int NO_INDEX = -1;
+
+	private final Op op;
+	private final Deck.Type list;
+	private final String cardKey;
+	private final int index;
+	private final Deck.Type toList;
+	private final int toIndex;
+
+	private DeckChange(Op op, Deck.Type list, String cardKey, int index,
+			Deck.Type toList, int toIndex) {
+		this.op = op;
+		this.list = list;
+		this.cardKey = cardKey;
+		this.index = index;
+		this.toList = toList;
+		this.toIndex = toIndex;
+	}
+
+	public Op getOp() {
+		return op;
+	}
+
+	public String getCardKey() {
+		return cardKey;
+	}
+
+	/**
+	 * Reads a change.
+	 * @param json The change as JSON.
+	 * @return The change.
+	 * @throws IllegalArgumentException Thrown if the change is missing a field
+	 *     or has an unknown op or list.
+	 */
+	public static DeckChange fromJson(JSONObject json) {
+		Op op = parseEnum(Op.class, json.optString("op", null), "op");
+		Deck.Type list = parseEnum(Deck.Type.class, json.optString("list", null), "list");
+		String cardKey = json.optString("card", null);
+		if (cardKey == null || cardKey.isEmpty()) {
+			throw new IllegalArgumentException("A deck change needs a card.");
+		}
+		int index = json.optInt("index", NO_INDEX);
+
+		Deck.Type toList = null;
+		int toIndex = NO_INDEX;
+		if (op == Op.MOVE) {
+			toList = parseEnum(Deck.Type.class, json.optString("to", null), "to");
+			toIndex = json.optInt("to-index", NO_INDEX);
+		}
+		return new DeckChange(op, list, cardKey, index, toList, toIndex);
+	}
+
+	/**
+	 * Applies the changes, in order, to the deck's card lists.  Nothing on the
+	 * deck changes unless every change applies.
+	 * @param deck The deck.
+	 * @param changes The changes.
+	 * @throws IllegalArgumentException Thrown if a change doesn't fit the deck,
+	 *     like removing a card that isn't there.
+	 */
+	public static void applyAll(Deck deck, List<DeckChange> changes) {
+		Map<Deck.Type, List<String>> lists = new EnumMap<Deck.Type, List<String>>(Deck.Type.class);
+		for (Deck.Type type : Deck.Type.values()) {
+			lists.put(type, new ArrayList<String>(deck.getCardKeys(type)));
+		}
+		for (DeckChange change : changes) {
+			change.apply(lists);
+		}
+		for (Deck.Type type : Deck.Type.values()) {
+			deck.setCardKeys(type, lists.get(type));
+		}
+	}
+
+	private void apply(Map<Deck.Type, List<String>> lists) {
+		switch (op) {
+		case ADD:
+			insert(lists.get(list), index);
+			break;
+		case REMOVE:
+			take(lists.get(list));
+			break;
+		case MOVE:
+			take(lists.get(list));
+			insert(lists.get(toList), toIndex);
+			break;
+		}
+	}
+
+	private void insert(List<String> cardKeys, int at) {
+		if (at == NO_INDEX) {
+			cardKeys.add(cardKey);
+		} else if (at >= 0 && at <= cardKeys.size()) {
+			cardKeys.add(at, cardKey);
+		} else {
+			throw new IllegalArgumentException("Index " + at + " is outside the " +
+					cardKeys.size() + " card list.");
+		}
+	}
+
+	private void take(List<String> cardKeys) {
+		if (index == NO_INDEX) {
+			if (!cardKeys.remove(cardKey)) {
+				throw new IllegalArgumentException("The card isn't in the list: " + cardKey);
+			}
+		} else if (index >= 0 && index < cardKeys.size() &&
+				cardKey.equals(cardKeys.get(index))) {
+			cardKeys.remove(index);
+		} else {
+			throw new IllegalArgumentException("The card isn't at index " + index +
+					": " + cardKey);
+		}
+	}
+
+	private static <E extends Enum<E>> E parseEnum(Class<E> enumClass, String value,
+			String field) {
+		if (value == null) {
+			throw new IllegalArgumentException("A deck change needs a " + field + ".");
+		}
+		try {
+			return Enum.valueOf(enumClass, value.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown " + field + ": " + value);
+		}
+	}
+}
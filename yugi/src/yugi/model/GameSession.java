@@ -1,5 +1,9 @@
 package yugi.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import javax.jdo.annotations.IdGeneratorStrategy;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
@@ -84,13 +88,31 @@ public class GameSession {
 	@Persistent
 	private boolean player2WasConnected;
 	
+	/**
+	 * The client IDs of everyone watching the game.  Spectators receive every
+	 * message the players send but can't send any of their own.
+	 */
+	@Persistent
+	private List<String> spectatorClientIds;
+	
+	/**
+	 * The last time, in milliseconds, anything happened in this game.  The
+	 * reaper uses this to find games that were abandoned.
+	 */
+	@Persistent
+	private Long lastActivity;
+	
 	public GameSession(String name) {
 		this.name = name;
+		touch();
 	}
 
 	public Key getKey() {
 		return key;
 	}
+	public void setKey(Key key) {
+		this.key = key;
+	}
 	public String getKeyAsString() {
 		return KeyFactory.keyToString(key);
 	}
@@ -158,6 +180,41 @@ public class GameSession {
 		this.player2WasConnected = player2WasConnected;
 	}
 	
+	public List<String> getSpectatorClientIds() {
+		if (spectatorClientIds == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(spectatorClientIds);
+	}
+	public boolean isSpectator(String clientId) {
+		return spectatorClientIds != null && spectatorClientIds.contains(clientId);
+	}
+	public void addSpectator(String clientId) {
+		if (spectatorClientIds == null) {
+			spectatorClientIds = new ArrayList<String>();
+		}
+		spectatorClientIds.add(clientId);
+	}
+	public void removeSpectator(String clientId) {
+		if (spectatorClientIds != null) {
+			spectatorClientIds.remove(clientId);
+		}
+	}
+	
+	public long getLastActivity() {
+		return lastActivity != null ? lastActivity : 0L;
+	}
+	public void setLastActivity(long lastActivity) {
+		this.lastActivity = lastActivity;
+	}
+	
+	/**
+	 * Marks the game as active right now.
+	 */
+	public void touch() {
+		this.lastActivity = System.currentTimeMillis();
+	}
+	
 	/**
 	 * Converts this object to JSON.
 	 * @return The JSON format of the game model.
@@ -0,0 +1,120 @@
+package yugi.model;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * The server's snapshot of a game's state.  The snapshot holds the most recent
+ * player state each client has sent and the sequence number of the last delta
+ * that was folded into it.  Everything after that sequence number lives in the
+ * delta log (see {@link GameStateDelta}).
+ */
+@PersistenceCapable
+public class GameState {
+
+	/**
+	 * The game key this state belongs to.
+	 */
+	@PrimaryKey
+	@Persistent
+	private String gameKey;
+
+	/**
+	 * The sequence number of the last delta folded into this snapshot.
+	 */
+	@Persistent
+	private Long sequence;
+
+	/**
+	 * The last player state JSON sent by player 1.
+	 */
+	@Persistent
+	private Text player1State;
+
+	/**
+	 * The sequence number at which player 1's state was last sent.
+	 */
+	@Persistent
+	private Long player1Sequence;
+
+	/**
+	 * The last player state JSON sent by player 2.
+	 */
+	@Persistent
+	private Text player2State;
+
+	/**
+	 * The sequence number at which player 2's state was last sent.
+	 */
+	@Persistent
+	private Long player2Sequence;
+
+	/**
+	 * The last sequence number player 1 acknowledged receiving, as of the
+	 * snapshot.  Newer acknowledgements are kept in memcache.
+	 */
+	@Persistent
+	private Long player1Ack;
+
+	/**
+	 * The last sequence number player 2 acknowledged receiving, as of the
+	 * snapshot.
+	 */
+	@Persistent
+	private Long player2Ack;
+
+	public GameState(String gameKey) {
+		this.gameKey = gameKey;
+		this.sequence = 0L;
+	}
+
+	public String getGameKey() {
+		return gameKey;
+	}
+
+	public long getSequence() {
+		return sequence != null ? sequence : 0L;
+	}
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public String getPlayer1State() {
+		return player1State != null ? player1State.getValue() : null;
+	}
+	public long getPlayer1Sequence() {
+		return player1Sequence != null ? player1Sequence : 0L;
+	}
+	public void setPlayer1State(String player1State, long player1Sequence) {
+		this.player1State = new Text(player1State);
+		this.player1Sequence = player1Sequence;
+	}
+
+	public String getPlayer2State() {
+		return player2State != null ? player2State.getValue() : null;
+	}
+	public long getPlayer2Sequence() {
+		return player2Sequence != null ? player2Sequence : 0L;
+	}
+	public void setPlayer2State(String player2State, long player2Sequence) {
+		this.player2State = new Text(player2State);
+		this.player2Sequence = player2Sequence;
+	}
+
+	public long getPlayer1Ack() {
+		return player1Ack != null ? player1Ack : 0L;
+	}
+	public void setPlayer1Ack(long player1Ack) {
+		this.player1Ack = player1Ack;
+	}
+
+	public long getPlayer2Ack() {
+		return player2Ack != null ? player2Ack : 0L;
+	}
+	public void setPlayer2Ack(long player2Ack) {
+		this.player2Ack = player2Ack;
+	}
+}
@@ -0,0 +1,81 @@
+package yugi.model;
+
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * A single relayed message in a game's append-only delta log.
+ */
+@PersistenceCapable
+public class GameStateDelta {
+
+	@PrimaryKey
+	@Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
+	private Key key;
+
+	@Persistent
+	private String gameKey;
+
+	/**
+	 * The position of this message in the game's log.
+	 */
+	@Persistent
+	private Long sequence;
+
+	/**
+	 * The name of the player that sent the message.
+	 */
+	@Persistent
+	private String player;
+
+	/**
+	 * True if the message carried player or game state that can be folded into
+	 * the snapshot.
+	 */
+	@Persistent
+	private Boolean state;
+
+	/**
+	 * The raw message JSON exactly as it was relayed.
+	 */
+	@Persistent
+	private Text message;
+
+	public GameStateDelta(String gameKey, long sequence, String player,
+			boolean state, String message) {
+		this.gameKey = gameKey;
+		this.sequence = sequence;
+		this.player = player;
+		this.state = state;
+		this.message = new Text(message);
+	}
+
+	public Key getKey() {
+		return key;
+	}
+
+	public String getGameKey() {
+		return gameKey;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public String getPlayer() {
+		return player;
+	}
+
+	public boolean isState() {
+		return state != null && state;
+	}
+
+	public String getMessage() {
+		return message.getValue();
+	}
+}
@@ -0,0 +1,83 @@
+package yugi.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+import com.google.appengine.api.blobstore.BlobKey;
+
+/**
+ * An entry in the index of card image blobs, keyed by the MD5 of the image
+ * contents.  Identical images share one blob and serving URL.
+ */
+@PersistenceCapable
+public class ImageBlob {
+
+	/**
+	 * The MD5 of the image contents in hex.
+	 */
+	@PrimaryKey
+	@Persistent
+	private String hash;
+
+	@Persistent
+	private BlobKey blobKey;
+
+	@Persistent
+	private String servingUrl;
+
+	/**
+	 * When a card last took the blob, in milliseconds.  A blob taken recently
+	 * is kept even if no saved card uses it yet.
+	 */
+	@Persistent
+	private Long acquired;
+
+	/**
+	 * The URLs the image was downloaded from, so a card from the same URL can
+	 * take the blob without downloading the image again.
+	 */
+	@Persistent
+	private List<String> sourceUrls;
+
+	public ImageBlob(String hash, BlobKey blobKey, String servingUrl) {
+		this.hash = hash;
+		this.blobKey = blobKey;
+		this.servingUrl = servingUrl;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public BlobKey getBlobKey() {
+		return blobKey;
+	}
+
+	public String getServingUrl() {
+		return servingUrl;
+	}
+
+	public long getAcquired() {
+		return acquired != null ? acquired : 0L;
+	}
+	public void setAcquired(long acquired) {
+		this.acquired = acquired;
+	}
+
+	/**
+	 * Remembers a URL the image was downloaded from.
+	 * @param sourceUrl The URL.
+	 */
+	public void addSourceUrl(String sourceUrl) {
+		if (sourceUrls == null) {
+			sourceUrls = new ArrayList<String>();
+		}
+		if (!sourceUrls.contains(sourceUrl)) {
+			sourceUrls.add(sourceUrl);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package yugi.model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * Packs a list of card keys into a few bytes for storing on a deck.
+ *
+ * Every card key is a root key with a numeric ID, so only the ID is kept.
+ * Each run of copies of the same card is written as a pair of varints: the
+ * ID and the length of the run.  A 40 card deck with its copies next to each
+ * other takes about a hundred bytes instead of the 1600 or so its web safe
+ * key strings take.
+ *
+ * Unpacking gives back the list in exactly the same order, since the deck
+ * editor's changes address cards by position.  The first format wrote one
+ * pair per distinct card, grouping copies together; its pairs read as runs
+ * too, so it unpacks the same way.
+ */
+public class PackedCardKeys {
+
+	/**
+	 * The first byte of every packed list, so the format can change later.
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * The format that grouped every copy of a card into one pair.
+	 */
+	private static final int GROUPED_VERSION = 1;
+
+	private static final String CARD_KIND = Card.class.getSimpleName();
+
+	private PackedCardKeys() {
+
+	}
+
+	/**
+	 * Packs the card keys.
+	 * @param cardKeys The web safe card keys.
+	 * @return The packed keys or null if a key can't be packed, in which case
+	 *     the list has to be stored as it is.
+	 */
+	public static Blob pack(List<String> cardKeys) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1 + cardKeys.size() * 5);
+		out.write(VERSION);
+		long runId = 0;
+		int runLength = 0;
+		for (String cardKey : cardKeys) {
+			Long id = getId(cardKey);
+			if (id == null) {
+				return null;
+			}
+			if (id == runId) {
+				runLength++;
+				continue;
+			}
+			if (runLength > 0) {
+				writeVarint(out, runId);
+				writeVarint(out, runLength);
+			}
+			runId = id;
+			runLength = 1;
+		}
+		if (runLength > 0) {
+			writeVarint(out, runId);
+			writeVarint(out, runLength);
+		}
+		return new Blob(out.toByteArray());
+	}
+
+	/**
+	 * Unpacks the card keys.
+	 * @param packed The packed keys.
+	 * @return The web safe card keys.
+	 * @throws IllegalArgumentException Thrown if the bytes aren't a packed
+	 *     list.
+	 */
+	public static List<String> unpack(Blob packed) {
+		byte[] bytes = packed.getBytes();
+		if (bytes.length == 0 || (bytes[0] != VERSION && bytes[0] != GROUPED_VERSION)) {
+			throw new IllegalArgumentException("Unknown packed card key format.");
+		}
+
+		List<String> cardKeys = new ArrayList<String>();
+		int[] position = {1};
+		while (position[0] < bytes.length) {
+			long id = readVarint(bytes, position);
+			long runLength = readVarint(bytes, position);
+			String cardKey = KeyFactory.keyToString(KeyFactory.createKey(CARD_KIND, id));
+			for (long i = 0; i < runLength; i++) {
+				cardKeys.add(cardKey);
+			}
+		}
+		return cardKeys;
+	}
+
+	/**
+	 * @return The card's numeric ID or null if the key isn't a root card key
+	 *     with one.
+	 */
+	private static Long getId(String cardKey) {
+		Key key;
+		try {
+			key = KeyFactory.stringToKey(cardKey);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (key.getParent() != null || !CARD_KIND.equals(key.getKind()) || key.getId() <= 0) {
+			return null;
+		}
+		return key.getId();
+	}
+
+	/**
+	 * Writes seven bits per byte, low bits first, with the high bit set on
+	 * every byte but the last.
+	 */
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readVarint(byte[] bytes, int[] position) {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			if (position[0] >= bytes.length || shift > 63) {
+				throw new IllegalArgumentException("Truncated packed card keys.");
+			}
+			byte b = bytes[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+}
@@ -39,6 +39,13 @@ public class AutoUploadCard {
 	@Persistent
 	private String error;
 	
+	/**
+	 * When the batch worker's claim on this entry runs out, in milliseconds.
+	 * Other workers leave the entry alone until then.
+	 */
+	@Persistent
+	private Long leaseExpires;
+	
 	public Key getKey() {
 		return key;
 	}
@@ -80,4 +87,19 @@ public class AutoUploadCard {
 	public void setError(String error) {
 		this.error = error;
 	}
+	
+	public Long getLeaseExpires() {
+		return leaseExpires;
+	}
+	public void setLeaseExpires(Long leaseExpires) {
+		this.leaseExpires = leaseExpires;
+	}
+	
+	/**
+	 * @param now The current time in milliseconds.
+	 * @return True if a worker holds an unexpired claim on this entry.
+	 */
+	public boolean isLeased(long now) {
+		return leaseExpires != null && leaseExpires > now;
+	}
 }
@@ -0,0 +1,147 @@
+package yugi.model.auto;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * The checkpoint of a category crawl.  The crawl task saves this after every
+ * category page, so the next task can pick up where the last one stopped.
+ */
+@PersistenceCapable
+public class CrawlState {
+
+	/**
+	 * The various statuses of a crawl.
+	 */
+	public enum Status {
+		COMPLETE,
+		ERROR,
+		RUNNING
+	}
+
+	/**
+	 * The name of the one crawl there is.
+	 */
+	public static final String NAME = "tcg_cards";
+
+	@PrimaryKey
+	@Persistent
+	private String name;
+
+	/**
+	 * When the run started.  Tasks carry this so a task from an old run
+	 * doesn't touch a newer one.
+	 */
+	@Persistent
+	private Long started;
+
+	@Persistent
+	private Status status;
+
+	/**
+	 * The next category page to crawl or null once the last page is done.
+	 */
+	@Persistent
+	private String nextPageUrl;
+
+	@Persistent
+	private Integer pagesCrawled;
+
+	@Persistent
+	private Integer urlsFound;
+
+	/**
+	 * The number of tasks in a row that failed to crawl the next page.
+	 */
+	@Persistent
+	private Integer failures;
+
+	/**
+	 * When the claim of the task working on the crawl runs out, in
+	 * milliseconds.
+	 */
+	@Persistent
+	private Long leaseExpires;
+
+	public CrawlState(String name, String startUrl, long started) {
+		this.name = name;
+		restart(startUrl, started);
+	}
+
+	/**
+	 * Starts a new run from the first page.
+	 * @param startUrl The first category page.
+	 * @param started When the run started.
+	 */
+	public void restart(String startUrl, long started) {
+		this.started = started;
+		this.status = Status.RUNNING;
+		this.nextPageUrl = startUrl;
+		this.pagesCrawled = 0;
+		this.urlsFound = 0;
+		this.failures = 0;
+		this.leaseExpires = null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Long getStarted() {
+		return started;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public String getNextPageUrl() {
+		return nextPageUrl;
+	}
+
+	public int getPagesCrawled() {
+		return pagesCrawled;
+	}
+
+	public int getUrlsFound() {
+		return urlsFound;
+	}
+
+	/**
+	 * Records a crawled page.
+	 * @param urls The number of card URLs found on the page.
+	 * @param nextPageUrl The page after it or null if it was the last.
+	 */
+	public void pageCrawled(int urls, String nextPageUrl) {
+		this.pagesCrawled++;
+		this.urlsFound += urls;
+		this.nextPageUrl = nextPageUrl;
+		this.failures = 0;
+	}
+
+	public int getFailures() {
+		return failures;
+	}
+	public void setFailures(int failures) {
+		this.failures = failures;
+	}
+
+	public Long getLeaseExpires() {
+		return leaseExpires;
+	}
+	public void setLeaseExpires(Long leaseExpires) {
+		this.leaseExpires = leaseExpires;
+	}
+
+	/**
+	 * @param now The current time in milliseconds.
+	 * @return True if a task holds an unexpired claim on the crawl.
+	 */
+	public boolean isLeased(long now) {
+		return leaseExpires != null && leaseExpires > now;
+	}
+}
@@ -0,0 +1,66 @@
+package yugi.model.auto;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * What the crawler remembers about a page so it can tell whether the page
+ * changed since the last crawl without downloading and parsing it again.
+ */
+@PersistenceCapable
+public class PageValidator {
+
+	@PrimaryKey
+	@Persistent
+	private String url;
+
+	/**
+	 * The ETag header from the last full response, if there was one.
+	 */
+	@Persistent
+	private String etag;
+
+	/**
+	 * The Last-Modified header from the last full response, if there was one.
+	 */
+	@Persistent
+	private String lastModified;
+
+	/**
+	 * The hash of the last response body up to the end of the card table,
+	 * which is as far as the parser reads.  This catches unchanged cards when
+	 * the server ignores the conditional headers.
+	 */
+	@Persistent
+	private String bodyHash;
+
+	public PageValidator(String url) {
+		this.url = url;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	public String getBodyHash() {
+		return bodyHash;
+	}
+	public void setBodyHash(String bodyHash) {
+		this.bodyHash = bodyHash;
+	}
+}
@@ -0,0 +1,254 @@
+package yugi.net;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.channel.ChannelMessage;
+import com.google.appengine.api.channel.ChannelService;
+import com.google.appengine.api.channel.ChannelServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+/**
+ * Sends the same message to many clients, such as the spectators of a game.
+ *
+ * A broadcast only adds a task to the broadcast queue, so the request that
+ * broadcast never waits on the sends.  The task puts the message on a small
+ * bounded queue per client and drains the queues in parallel for a limited
+ * time.  If a client falls behind, its oldest messages are dropped, and
+ * anything not sent before the deadline goes out with the next broadcast on
+ * that instance.  Either way a slow client never holds up the others.
+ *
+ * Tasks can run out of order, on different instances, or more than once.
+ * Every relayed message carries its game's sequence number, so spectator
+ * clients put messages back in order and drop the repeats.
+ */
+public class ChannelBroadcaster {
+
+	private static final Logger logger = Logger.getLogger(ChannelBroadcaster.class.getName());
+
+	private static final String QUEUE = "broadcast";
+	private static final String TASK_URL = "/tasks/broadcast";
+
+	/**
+	 * The task parameter holding the message.
+	 */
+	public static final String MESSAGE_PARAM = "message";
+
+	/**
+	 * The task parameter, repeated, holding each client ID.
+	 */
+	public static final String CLIENT_ID_PARAM = "client_id";
+
+	/**
+	 * The number of messages held for a single client.
+	 */
+	private static final int QUEUE_CAPACITY = 64;
+
+	/**
+	 * The most threads a single broadcast will use.
+	 */
+	private static final int MAX_THREADS = 8;
+
+	/**
+	 * How long, in milliseconds, a broadcast spends sending before it gives up
+	 * and leaves the rest queued.
+	 */
+	private static final long SEND_DEADLINE = 1000;
+
+	private static ChannelService channelService = ChannelServiceFactory.getChannelService();
+	private static ChannelBroadcaster instance;
+
+	private final ConcurrentMap<String, ClientQueue> queues =
+			new ConcurrentHashMap<String, ClientQueue>();
+
+	/**
+	 * Singleton accessor.
+	 * @return The channel broadcaster.
+	 */
+	public static ChannelBroadcaster getInstance() {
+		if (instance == null) {
+			instance = new ChannelBroadcaster();
+		}
+		return instance;
+	}
+
+	private ChannelBroadcaster() {
+
+	}
+
+	/**
+	 * Queues the message to be sent to every client.
+	 * @param clientIds The clients that will receive the message.
+	 * @param json The message as JSON text.  It is sent as is to every client.
+	 */
+	public void broadcast(List<String> clientIds, String json) {
+
+		// Sanity check.
+		if (json == null) {
+			logger.severe("No JSON to broadcast.");
+			return;
+		}
+		if (clientIds == null || clientIds.isEmpty()) {
+			return;
+		}
+
+		TaskOptions task = withUrl(TASK_URL).method(Method.POST).param(MESSAGE_PARAM, json);
+		for (String clientId : clientIds) {
+			task.param(CLIENT_ID_PARAM, clientId);
+		}
+		try {
+			QueueFactory.getQueue(QUEUE).add(task);
+		} catch (Exception e) {
+			// Spectators miss this message, the players don't.
+			logger.log(Level.WARNING, "Failed to queue a broadcast to " +
+					clientIds.size() + " clients", e);
+		}
+	}
+
+	/**
+	 * Sends the message to every client.  Called by the broadcast task.  The
+	 * message is queued for everyone first, then the queues are drained in
+	 * parallel until the deadline.
+	 * @param clientIds The clients that will receive the message.
+	 * @param json The message as JSON text.
+	 * @return The number of clients with nothing left queued.
+	 */
+	public int send(String[] clientIds, String json) {
+		final List<ClientQueue> targets = new ArrayList<ClientQueue>(clientIds.length);
+		for (String clientId : clientIds) {
+			ClientQueue queue = getQueue(clientId);
+			queue.offer(json);
+			targets.add(queue);
+		}
+
+		final long deadline = System.currentTimeMillis() + SEND_DEADLINE;
+		int threads = Math.min(targets.size(), MAX_THREADS);
+		ExecutorService executor = Executors.newFixedThreadPool(
+				threads, ThreadManager.currentRequestThreadFactory());
+		try {
+			for (final ClientQueue queue : targets) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						queue.drain(deadline);
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// Request threads can't outlive the request, so wait for them.  Each
+		// one stops sending at the deadline.
+		try {
+			executor.awaitTermination(SEND_DEADLINE * 4, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Forget the caught up clients so the map doesn't keep every client
+		// this instance has ever sent to.
+		int caughtUp = 0;
+		for (ClientQueue queue : targets) {
+			if (queue.isEmpty()) {
+				queues.remove(queue.clientId, queue);
+				caughtUp++;
+			}
+		}
+		return caughtUp;
+	}
+
+	/**
+	 * Gets the queue for the client, creating it if needed.
+	 * @param clientId The client's ID.
+	 * @return The client's queue.
+	 */
+	private ClientQueue getQueue(String clientId) {
+		ClientQueue queue = queues.get(clientId);
+		if (queue == null) {
+			ClientQueue newQueue = new ClientQueue(clientId);
+			queue = queues.putIfAbsent(clientId, newQueue);
+			if (queue == null) {
+				queue = newQueue;
+			}
+		}
+		return queue;
+	}
+
+	/**
+	 * The messages waiting to be sent to one client.
+	 */
+	private static class ClientQueue {
+
+		private final String clientId;
+		private final ArrayBlockingQueue<String> messages =
+				new ArrayBlockingQueue<String>(QUEUE_CAPACITY);
+
+		/**
+		 * Only one thread sends to a client at a time so its messages stay in
+		 * order.
+		 */
+		private final ReentrantLock sendLock = new ReentrantLock();
+
+		ClientQueue(String clientId) {
+			this.clientId = clientId;
+		}
+
+		boolean isEmpty() {
+			return messages.isEmpty();
+		}
+
+		/**
+		 * Queues the message, dropping the oldest messages if the queue is full.
+		 * @param json The message.
+		 */
+		void offer(String json) {
+			while (!messages.offer(json)) {
+				if (messages.poll() != null) {
+					logger.warning("Dropped a message for slow client " + clientId);
+				}
+			}
+		}
+
+		/**
+		 * Sends queued messages until the queue is empty or the deadline passes.
+		 * A message that fails to send is dropped so the rest still go out.
+		 * @param deadline The time, in milliseconds, to stop sending.
+		 */
+		void drain(long deadline) {
+			// Someone else is already sending to this client.
+			if (!sendLock.tryLock()) {
+				return;
+			}
+			try {
+				while (System.currentTimeMillis() < deadline) {
+					String json = messages.poll();
+					if (json == null) {
+						return;
+					}
+					try {
+						channelService.sendMessage(new ChannelMessage(clientId, json));
+					} catch (Exception e) {
+						logger.log(Level.WARNING, "Failed to send to " + clientId, e);
+					}
+				}
+			} finally {
+				sendLock.unlock();
+			}
+		}
+	}
+}
@@ -29,7 +29,37 @@ public class ChannelUtil {
 		}
 		sendMessage(clientId, message.toJson());
 	}
-	
+
+	/**
+	 * Sends raw JSON to the given client.
+	 * @param clientId The client's ID.
+	 * @param json The JSON object to send.
+	 */
+	public static void sendToClient(String clientId, JSONObject json) {
+		// This is okay - fail silently in case the other client doesn't exist.
+		if (clientId == null) {
+			return;
+		}
+		sendMessage(clientId, json);
+	}
+
+	/**
+	 * Sends raw JSON text to the given client as is.
+	 * @param clientId The client's ID.
+	 * @param json The JSON text to send.
+	 */
+	public static void sendToClient(String clientId, String json) {
+		// This is okay - fail silently in case the other client doesn't exist.
+		if (clientId == null) {
+			return;
+		}
+		if (json == null) {
+			logger.severe("No JSON to send to the client.");
+			return;
+		}
+		channelService.sendMessage(new ChannelMessage(clientId, json));
+	}
+
 	/**
 	 * Sends the message to the given player.
 	 * @param game The game the player belongs to.
@@ -0,0 +1,102 @@
+package yugi.repository;
+
+import yugi.model.Card;
+import yugi.model.Card.Attribute;
+import yugi.model.Card.ExtraMonsterType;
+import yugi.model.Card.MonsterType;
+import yugi.model.Card.SpellType;
+import yugi.model.Card.TrapType;
+import yugi.model.Card.Type;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
+
+/**
+ * Reads and writes cards with the low-level datastore API.
+ */
+public class CardRepository extends Repository<Card> {
+
+	private static CardRepository instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The card repository.
+	 */
+	public static CardRepository getInstance() {
+		if (instance == null) {
+			instance = new CardRepository();
+		}
+		return instance;
+	}
+
+	private CardRepository() {
+		super(Card.class);
+	}
+
+	@Override
+	protected Entity toEntity(Card card) {
+		Entity entity = newEntity(card.getKey());
+		entity.setProperty("name", card.getName());
+		entity.setProperty("upperName", card.getUpperName());
+		entity.setProperty("description", new Text(card.getDescription()));
+		entity.setProperty("type", getName(card.getType()));
+		entity.setProperty("imageBlobKey", card.getImageBlobKey());
+		entity.setProperty("imageSource", card.getImageSource());
+		entity.setProperty("spellType", getName(card.getSpellType()));
+		entity.setProperty("trapType", getName(card.getTrapType()));
+		entity.setProperty("attribute", getName(card.getAttribute()));
+		entity.setProperty("monsterType", getName(card.getMonsterType()));
+		entity.setProperty("extraMonsterType", getName(card.getExtraMonsterType()));
+		entity.setProperty("attack", card.getAttack());
+		entity.setProperty("defense", card.getDefense());
+		entity.setProperty("level", card.getLevel());
+		entity.setProperty("effect", card.isEffect());
+		return entity;
+	}
+
+	@Override
+	protected Card fromEntity(Entity entity) {
+		Card card = new Card();
+		card.setKey(entity.getKey());
+		card.setName((String) entity.getProperty("name"));
+		card.setUpperName((String) entity.getProperty("upperName"));
+		Object description = entity.getProperty("description");
+		if (description instanceof Text) {
+			card.setDescription(((Text) description).getValue());
+		} else if (description != null) {
+			card.setDescription((String) description);
+		}
+		card.setType(getEnum(entity, "type", Type.class));
+		card.setImageBlobKey((BlobKey) entity.getProperty("imageBlobKey"));
+		card.setImageSource((String) entity.getProperty("imageSource"));
+		card.setSpellType(getEnum(entity, "spellType", SpellType.class));
+		card.setTrapType(getEnum(entity, "trapType", TrapType.class));
+		card.setAttribute(getEnum(entity, "attribute", Attribute.class));
+		card.setMonsterType(getEnum(entity, "monsterType", MonsterType.class));
+		card.setExtraMonsterType(getEnum(entity, "extraMonsterType", ExtraMonsterType.class));
+		Integer attack = getInteger(entity, "attack");
+		if (attack != null) {
+			card.setAttack(attack);
+		}
+		Integer defense = getInteger(entity, "defense");
+		if (defense != null) {
+			card.setDefense(defense);
+		}
+		Integer level = getInteger(entity, "level");
+		if (level != null) {
+			card.setLevel(level);
+		}
+		Boolean effect = (Boolean) entity.getProperty("effect");
+		if (effect != null) {
+			card.setEffect(effect);
+		}
+		return card;
+	}
+
+	@Override
+	protected void setKey(Card card, Key key) {
+		card.setKey(key);
+	}
+}
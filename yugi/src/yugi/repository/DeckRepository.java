@@ -0,0 +1,637 @@
+package yugi.repository;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.logging.Logger;
+
+import yugi.model.Deck;
+import yugi.model.DeckChange;
+import yugi.model.PackedCardKeys;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * Reads and writes decks with the low-level datastore API.
+ *
+ * A copied deck shares its source's card lists until it's first saved.  The
+ * copy only holds the source's key and version.  The source records the
+ * latest version a copy shares and how many copies share it.  Only when that
+ * version is changed or deleted are its card lists kept in a content
+ * snapshot, which takes over the count, so the copies still find them.
+ *
+ * A copy gives its reference back once it's saved with lists of its own or
+ * deleted.  When the count of a version reaches zero, the source stops
+ * counting it or its snapshot is deleted.  Versions shared before the count
+ * existed have no count, so they're kept for good.
+ */
+public class DeckRepository extends Repository<Deck> {
+
+	private static final Logger logger = Logger.getLogger(DeckRepository.class.getName());
+
+	/**
+	 * The kind of the content snapshots, kept as children of the source deck.
+	 */
+	private static final String CONTENT_KIND = "DeckContent";
+
+	private static final String[] CARD_LIST_PROPERTIES = {
+		"mainCardKeys", "packedMainCardKeys",
+		"extraCardKeys", "packedExtraCardKeys",
+		"sideCardKeys", "packedSideCardKeys"
+	};
+
+	/**
+	 * The properties a deck summary is read from, straight out of the index.
+	 */
+	private static final String[] SUMMARY_PROPERTIES = {"name", "mainCardKey"};
+
+	/**
+	 * The latest version of a deck some copy shares.
+	 */
+	private static final String SHARED_VERSION = "sharedVersion";
+
+	/**
+	 * The number of copies sharing a version, on the deck for its shared
+	 * version and on a snapshot for its own.  Missing if it isn't known.
+	 */
+	private static final String COPIES = "copies";
+
+	/**
+	 * How many times giving back a reference is tried before the count is
+	 * left too high, which only keeps a snapshot longer than needed.
+	 */
+	private static final int RELEASE_ATTEMPTS = 3;
+
+	private static DeckRepository instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The deck repository.
+	 */
+	public static DeckRepository getInstance() {
+		if (instance == null) {
+			instance = new DeckRepository();
+		}
+		return instance;
+	}
+
+	private DeckRepository() {
+		super(Deck.class);
+
+		// 1: Decks saved before the structure flag existed are user decks.
+		addMigration(new Migration() {
+			@Override
+			public void migrate(Entity entity) {
+				if (entity.getProperty("isStructure") == null) {
+					entity.setProperty("isStructure", false);
+				}
+			}
+		});
+
+		// 2: Decks are listed with a projection query, which skips entities
+		// that don't store every projected property, even as null.
+		addMigration(new Migration() {
+			@Override
+			public void migrate(Entity entity) {
+				for (String property : SUMMARY_PROPERTIES) {
+					if (!entity.hasProperty(property)) {
+						entity.setProperty(property, null);
+					}
+				}
+			}
+		});
+
+		// 3: Shared decks record the version they share instead of a flag.
+		// Which version the copies use isn't known, but every older version
+		// was snapshotted on save, so only the current one needs keeping.
+		// The number of copies isn't known either, so it stays missing.
+		addMigration(new Migration() {
+			@Override
+			public void migrate(Entity entity) {
+				if (Boolean.TRUE.equals(entity.getProperty("shared"))) {
+					entity.setUnindexedProperty(SHARED_VERSION, getVersion(entity));
+				}
+				entity.removeProperty("shared");
+			}
+		});
+	}
+
+	/**
+	 * Finds a page of structure deck summaries, ordered by name.
+	 * @param cursor The cursor from the previous page or null for the first.
+	 * @param limit The most decks on the page.
+	 * @return The page.
+	 * @throws IllegalArgumentException Thrown if the cursor is invalid.
+	 */
+	public Page<Deck> findStructureDeckSummaries(String cursor, int limit) {
+		return findSummaries(new FilterPredicate("isStructure", FilterOperator.EQUAL, true),
+				null, true, cursor, limit);
+	}
+
+	/**
+	 * Finds a page of summaries of the user's own decks, not counting
+	 * structure decks, ordered by name.
+	 * @param userId The user's ID.
+	 * @param cursor The cursor from the previous page or null for the first.
+	 * @param limit The most decks on the page.
+	 * @return The page.
+	 * @throws IllegalArgumentException Thrown if the cursor is invalid.
+	 */
+	public Page<Deck> findUserDeckSummaries(String userId, String cursor, int limit) {
+		return findSummaries(CompositeFilterOperator.and(
+				new FilterPredicate("userId", FilterOperator.EQUAL, userId),
+				new FilterPredicate("isStructure", FilterOperator.EQUAL, false)),
+				userId, false, cursor, limit);
+	}
+
+	/**
+	 * Applies the changes to the deck's card lists in one transaction, as
+	 * long as nobody saved the deck since the expected version.
+	 * @param key The deck's key.
+	 * @param expectedVersion The version the changes were made against.
+	 * @param changes The changes.
+	 * @return The deck as saved, with its new version.
+	 * @throws EntityNotFoundException Thrown if the deck was deleted.
+	 * @throws ConcurrentModificationException Thrown if the deck isn't at the
+	 *     expected version or was saved while the transaction ran.
+	 * @throws IllegalArgumentException Thrown if a change doesn't fit the deck.
+	 */
+	public Deck applyChanges(Key key, long expectedVersion, List<DeckChange> changes)
+			throws EntityNotFoundException {
+		Transaction tx = datastore.beginTransaction();
+		try {
+			Entity current = datastore.get(tx, key);
+			Deck deck = load(current);
+			if (deck.getVersion() != expectedVersion) {
+				throw new ConcurrentModificationException("Deck is at version " +
+						deck.getVersion() + ", not " + expectedVersion);
+			}
+			loadContent(deck);
+			deck.stopSharingContent();
+			DeckChange.applyAll(deck, changes);
+			deck.setVersion(expectedVersion + 1);
+			snapshotIfShared(tx, current);
+			datastore.put(tx, toEntity(deck));
+			tx.commit();
+			releaseIfChanged(current, deck);
+			return deck;
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	/**
+	 * Saves the deck.  If a copy shares its stored version, those card lists
+	 * are snapshotted first, in the same transaction.  The deck gets the
+	 * version after the stored one, assigned in the transaction too, so no
+	 * two saves ever write the same version and a version's card lists never
+	 * change.
+	 */
+	@Override
+	public void put(Deck deck) {
+		if (deck.getKey() == null) {
+			super.put(deck);
+			return;
+		}
+		put(deck, null);
+	}
+
+	/**
+	 * Saves the deck as long as nobody saved it since the expected version.
+	 * @param deck The deck.
+	 * @param expectedVersion The version the deck was changed against.
+	 * @throws ConcurrentModificationException Thrown if the deck isn't at the
+	 *     expected version or was saved while the transaction ran.
+	 */
+	public void put(Deck deck, long expectedVersion) {
+		put(deck, Long.valueOf(expectedVersion));
+	}
+
+	/**
+	 * @param expectedVersion The version the deck has to be at or null to
+	 *     save it whatever its version.
+	 */
+	private void put(Deck deck, Long expectedVersion) {
+		Transaction tx = datastore.beginTransaction();
+		try {
+			Entity current = null;
+			try {
+				current = datastore.get(tx, deck.getKey());
+				if (expectedVersion != null && getVersion(current) != expectedVersion) {
+					throw new ConcurrentModificationException("Deck is at version " +
+							getVersion(current) + ", not " + expectedVersion);
+				}
+				snapshotIfShared(tx, current);
+				deck.setVersion(getVersion(current) + 1);
+			} catch (EntityNotFoundException e) {
+				// Deleted since it was read, so this save brings it back.
+				deck.setVersion(deck.getVersion() + 1);
+			}
+			datastore.put(tx, toEntity(deck));
+			tx.commit();
+			if (current != null) {
+				releaseIfChanged(current, deck);
+			}
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the deck.  If a copy shares its card lists, they're snapshotted
+	 * first.  If the deck is itself a copy, it gives back its reference.
+	 * @param key The deck's key.
+	 */
+	public void delete(Key key) {
+		Transaction tx = datastore.beginTransaction();
+		try {
+			Entity current = datastore.get(tx, key);
+			snapshotIfShared(tx, current);
+			datastore.delete(tx, key);
+			tx.commit();
+			releaseIfChanged(current, null);
+		} catch (EntityNotFoundException e) {
+			// Already gone.
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	/**
+	 * Counts a new copy of the deck's current version, so its card lists are
+	 * kept when it changes.
+	 * @param key The key of the deck being copied.
+	 * @return The deck as it was counted.  A deck that is itself sharing
+	 *     another deck's lists isn't counted; the version it shares is, since
+	 *     copies go to the original.
+	 * @throws EntityNotFoundException Thrown if the deck doesn't exist.
+	 * @throws IllegalStateException Thrown if the deck shares card lists that
+	 *     are gone.
+	 */
+	public Deck share(Key key) throws EntityNotFoundException {
+		Deck deck;
+		Transaction tx = datastore.beginTransaction();
+		try {
+			Entity entity = datastore.get(tx, key);
+			deck = load(entity);
+			if (!deck.isSharingContent()) {
+				if (getSharedVersion(entity) != getVersion(entity)) {
+					entity.setUnindexedProperty(SHARED_VERSION, getVersion(entity));
+					entity.setUnindexedProperty(COPIES, 0L);
+				}
+				countCopies(entity, 1);
+				datastore.put(tx, entity);
+			}
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+		}
+
+		// The deck's own reference keeps the shared version around until this
+		// one is counted.
+		if (deck.isSharingContent()) {
+			addCopy(KeyFactory.stringToKey(deck.getContentDeckKey()), deck.getContentVersion());
+		}
+		return deck;
+	}
+
+	/**
+	 * Fills in the card lists of a deck that shares another deck's lists.
+	 * The source is read outside of any transaction; the lists for a version
+	 * never change, so that's safe.
+	 * @param deck The deck.  Does nothing unless it's sharing.
+	 * @throws IllegalStateException Thrown if the shared version is gone.  The
+	 *     deck can't be used then, since saving it would store empty lists.
+	 */
+	public void loadContent(Deck deck) {
+		if (!deck.isSharingContent()) {
+			return;
+		}
+
+		Key sourceKey = KeyFactory.stringToKey(deck.getContentDeckKey());
+		Entity content = null;
+		try {
+			Entity source = datastore.get(sourceKey);
+			if (getVersion(source) == deck.getContentVersion()) {
+				content = source;
+			}
+		} catch (EntityNotFoundException e) {
+			// Deleted, so it left a snapshot.
+		}
+		if (content == null) {
+			try {
+				content = datastore.get(getContentKey(sourceKey, deck.getContentVersion()));
+			} catch (EntityNotFoundException e) {
+				throw new IllegalStateException("Missing content version " +
+						deck.getContentVersion() + " of deck " + sourceKey +
+						" for deck " + deck.getKey());
+			}
+		}
+
+		deck.setMainCardKeys(getCardKeys(content, "mainCardKeys", "packedMainCardKeys"));
+		deck.setExtraCardKeys(getCardKeys(content, "extraCardKeys", "packedExtraCardKeys"));
+		deck.setSideCardKeys(getCardKeys(content, "sideCardKeys", "packedSideCardKeys"));
+	}
+
+	@Override
+	protected Entity toEntity(Deck deck) {
+		Entity entity = newEntity(deck.getKey());
+		entity.setProperty("userId", deck.getUserId());
+		entity.setProperty("isStructure", deck.isStructure());
+		entity.setProperty("name", deck.getName());
+		entity.setProperty("mainCardKey", deck.getMainCardKey());
+		if (deck.isSharingContent()) {
+			entity.setUnindexedProperty("contentDeckKey", deck.getContentDeckKey());
+			entity.setUnindexedProperty("contentVersion", deck.getContentVersion());
+		} else {
+			setCardKeys(entity, "mainCardKeys", "packedMainCardKeys", deck.getMainCardKeys());
+			setCardKeys(entity, "extraCardKeys", "packedExtraCardKeys", deck.getExtraCardKeys());
+			setCardKeys(entity, "sideCardKeys", "packedSideCardKeys", deck.getSideCardKeys());
+		}
+		entity.setUnindexedProperty("version", deck.getVersion());
+		return entity;
+	}
+
+	@Override
+	protected Deck fromEntity(Entity entity) {
+		Deck deck = new Deck();
+		deck.setKey(entity.getKey());
+		deck.setUserId((String) entity.getProperty("userId"));
+		deck.setStructure((Boolean) entity.getProperty("isStructure"));
+		deck.setName((String) entity.getProperty("name"));
+		deck.setMainCardKey((String) entity.getProperty("mainCardKey"));
+		deck.setMainCardKeys(getCardKeys(entity, "mainCardKeys", "packedMainCardKeys"));
+		deck.setExtraCardKeys(getCardKeys(entity, "extraCardKeys", "packedExtraCardKeys"));
+		deck.setSideCardKeys(getCardKeys(entity, "sideCardKeys", "packedSideCardKeys"));
+		deck.setVersion(getVersion(entity));
+		String contentDeckKey = (String) entity.getProperty("contentDeckKey");
+		if (contentDeckKey != null) {
+			deck.shareContent(contentDeckKey, (Long) entity.getProperty("contentVersion"));
+		}
+		return deck;
+	}
+
+	@Override
+	protected void setKey(Deck deck, Key key) {
+		deck.setKey(key);
+	}
+
+	/**
+	 * Runs a projection query for the deck summaries, so a page costs one
+	 * small read per deck and none of the card lists are read.
+	 * @param userId The owner of every matching deck, if they share one.
+	 * @param structure Whether the matching decks are structure decks.
+	 */
+	private Page<Deck> findSummaries(Filter filter, String userId, boolean structure,
+			String cursor, int limit) {
+		Query query = new Query(getKind()).setFilter(filter);
+		for (String property : SUMMARY_PROPERTIES) {
+			query.addProjection(new PropertyProjection(property, String.class));
+		}
+		query.addSort("name");
+
+		FetchOptions options = FetchOptions.Builder.withLimit(limit);
+		if (cursor != null) {
+			options.startCursor(Cursor.fromWebSafeString(cursor));
+		}
+		QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(options);
+
+		List<Deck> decks = new ArrayList<Deck>(results.size());
+		for (Entity entity : results) {
+			Deck deck = new Deck();
+			deck.setKey(entity.getKey());
+			deck.setUserId(userId);
+			deck.setStructure(structure);
+			deck.setName((String) entity.getProperty("name"));
+			deck.setMainCardKey((String) entity.getProperty("mainCardKey"));
+			decks.add(deck);
+		}
+
+		// A short page is the last one.
+		String next = results.size() < limit ? null : results.getCursor().toWebSafeString();
+		return new Page<Deck>(decks, next);
+	}
+
+	private static long getVersion(Entity entity) {
+		Long version = (Long) entity.getProperty("version");
+		return version != null ? version : 0L;
+	}
+
+	/**
+	 * @return The version some copy shares or -1 if none does.
+	 */
+	private static long getSharedVersion(Entity entity) {
+		Long version = (Long) entity.getProperty(SHARED_VERSION);
+		return version != null ? version : -1L;
+	}
+
+	private static Key getContentKey(Key deckKey, long version) {
+		return KeyFactory.createKey(deckKey, CONTENT_KIND, "v" + version);
+	}
+
+	/**
+	 * Changes the number of copies, if it's known.
+	 * @param entity The deck or snapshot.
+	 * @param delta The change.
+	 * @return The new number or null if it isn't known.
+	 */
+	private static Long countCopies(Entity entity, long delta) {
+		Long copies = (Long) entity.getProperty(COPIES);
+		if (copies == null) {
+			return null;
+		}
+		copies += delta;
+		entity.setUnindexedProperty(COPIES, copies);
+		return copies;
+	}
+
+	/**
+	 * Keeps the card lists of a deck's stored version before it's overwritten
+	 * or deleted, if a copy shares that version.  The snapshot takes over the
+	 * number of copies.
+	 * @param tx The transaction the deck is being written in.
+	 * @param current The deck as it's stored now.
+	 */
+	private void snapshotIfShared(Transaction tx, Entity current) {
+		upgrade(current);
+		if (getSharedVersion(current) != getVersion(current)) {
+			return;
+		}
+		Entity content = new Entity(getContentKey(current.getKey(), getVersion(current)));
+		for (String property : CARD_LIST_PROPERTIES) {
+			Object value = current.getProperty(property);
+			if (value != null) {
+				content.setUnindexedProperty(property, value);
+			}
+		}
+		Object copies = current.getProperty(COPIES);
+		if (copies != null) {
+			content.setUnindexedProperty(COPIES, copies);
+		}
+		datastore.put(tx, content);
+	}
+
+	/**
+	 * Counts another copy of a version that copies already share.  The
+	 * version is either still the deck's current one or in a snapshot.
+	 * @param deckKey The key of the deck with the card lists.
+	 * @param version The version.
+	 * @throws IllegalStateException Thrown if the version is gone.
+	 */
+	private void addCopy(Key deckKey, long version) {
+		Transaction tx = datastore.beginTransaction();
+		try {
+			Entity entity = getSharedContent(tx, deckKey, version);
+			if (entity == null) {
+				throw new IllegalStateException("Missing content version " + version +
+						" of deck " + deckKey);
+			}
+			countCopies(entity, 1);
+			datastore.put(tx, entity);
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	/**
+	 * Gives back the reference the deck as stored held, if it no longer
+	 * shares the same card lists.  This runs after the deck's own write
+	 * committed, since the source is in another entity group.  If it fails,
+	 * the count stays too high, which only keeps a snapshot around.
+	 * @param stored The deck as it was stored before the write.
+	 * @param written The deck as written or null if it was deleted.
+	 */
+	private void releaseIfChanged(Entity stored, Deck written) {
+		String contentDeckKey = (String) stored.getProperty("contentDeckKey");
+		if (contentDeckKey == null) {
+			return;
+		}
+		long contentVersion = (Long) stored.getProperty("contentVersion");
+		if (written != null && contentDeckKey.equals(written.getContentDeckKey()) &&
+				contentVersion == written.getContentVersion()) {
+			return;
+		}
+
+		Key deckKey = KeyFactory.stringToKey(contentDeckKey);
+		for (int attempt = 1; attempt <= RELEASE_ATTEMPTS; attempt++) {
+			try {
+				releaseCopy(deckKey, contentVersion);
+				return;
+			} catch (ConcurrentModificationException e) {
+				logger.info("Retrying the release of version " + contentVersion +
+						" of deck " + deckKey + " after a conflict.");
+			}
+		}
+		logger.severe("Failed to release version " + contentVersion + " of deck " +
+				deckKey + ", so its card lists are kept.");
+	}
+
+	/**
+	 * Counts one copy fewer of the version.  Once no copy shares it, the
+	 * deck stops counting it or its snapshot is deleted.
+	 * @throws ConcurrentModificationException Thrown if the deck or the
+	 *     snapshot changed while the transaction ran.
+	 */
+	private void releaseCopy(Key deckKey, long version) {
+		Transaction tx = datastore.beginTransaction();
+		try {
+			Entity entity = getSharedContent(tx, deckKey, version);
+			if (entity == null) {
+				return;
+			}
+			Long copies = countCopies(entity, -1);
+			if (copies == null) {
+				return; // Shared before copies were counted, so it's kept.
+			}
+			if (copies > 0) {
+				datastore.put(tx, entity);
+			} else if (entity.getKind().equals(CONTENT_KIND)) {
+				datastore.delete(tx, entity.getKey());
+			} else {
+				entity.removeProperty(SHARED_VERSION);
+				entity.removeProperty(COPIES);
+				datastore.put(tx, entity);
+			}
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	/**
+	 * Gets whatever holds the shared card lists of the version.
+	 * @return The deck if that version is its shared one, else the snapshot,
+	 *     or null if neither is there.
+	 */
+	private Entity getSharedContent(Transaction tx, Key deckKey, long version) {
+		try {
+			Entity deck = datastore.get(tx, deckKey);
+			upgrade(deck);
+			if (getVersion(deck) == version && getSharedVersion(deck) == version) {
+				return deck;
+			}
+		} catch (EntityNotFoundException e) {
+			// Deleted, so the version is in a snapshot if anywhere.
+		}
+		try {
+			return datastore.get(tx, getContentKey(deckKey, version));
+		} catch (EntityNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the card list packed, the same way {@link Deck} does, unless it
+	 * has a key that can't be packed.  Whichever property isn't used is
+	 * cleared so an old list can't shadow a new one.
+	 */
+	private static void setCardKeys(Entity entity, String listProperty,
+			String packedProperty, List<String> cardKeys) {
+		Blob packed = PackedCardKeys.pack(cardKeys);
+		entity.setProperty(packedProperty, packed);
+		entity.setProperty(listProperty, packed == null ? nullIfEmpty(cardKeys) : null);
+	}
+
+	/**
+	 * @return The packed card list if there is one, else the old style list.
+	 */
+	private static List<String> getCardKeys(Entity entity, String listProperty,
+			String packedProperty) {
+		Blob packed = (Blob) entity.getProperty(packedProperty);
+		if (packed != null) {
+			return PackedCardKeys.unpack(packed);
+		}
+		return getStringList(entity, listProperty);
+	}
+
+	private static List<String> nullIfEmpty(List<String> values) {
+		return values == null || values.isEmpty() ? null : values;
+	}
+}
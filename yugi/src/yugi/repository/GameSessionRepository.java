@@ -0,0 +1,104 @@
+package yugi.repository;
+
+import java.util.ConcurrentModificationException;
+
+import yugi.model.GameSession;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+
+/**
+ * Reads and writes games with the low-level datastore API.
+ */
+public class GameSessionRepository extends Repository<GameSession> {
+
+	private static GameSessionRepository instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The game session repository.
+	 */
+	public static GameSessionRepository getInstance() {
+		if (instance == null) {
+			instance = new GameSessionRepository();
+		}
+		return instance;
+	}
+
+	private GameSessionRepository() {
+		super(GameSession.class);
+	}
+
+	/**
+	 * Saves only the game's last activity.  The rest of the entity is left
+	 * alone, so a join or connection saved since the game was read isn't
+	 * overwritten by this copy.
+	 * @param game The game.
+	 * @throws EntityNotFoundException Thrown if the game was deleted.
+	 * @throws ConcurrentModificationException Thrown if the game kept
+	 *     changing underneath the transaction.
+	 */
+	public void saveLastActivity(GameSession game) throws EntityNotFoundException {
+		Transaction tx = datastore.beginTransaction();
+		try {
+			Entity entity = datastore.get(tx, game.getKey());
+			entity.setProperty("lastActivity", game.getLastActivity());
+			datastore.put(tx, entity);
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+
+	@Override
+	protected Entity toEntity(GameSession game) {
+		Entity entity = newEntity(game.getKey());
+		entity.setProperty("name", game.getName());
+		entity.setProperty("player1", game.getPlayer1());
+		entity.setProperty("player1ClientId", game.getPlayer1ClientId());
+		entity.setProperty("player1Connected", game.isPlayer1Connected());
+		entity.setProperty("player1WasConnected", game.wasPlayer1Connected());
+		entity.setProperty("player2", game.getPlayer2());
+		entity.setProperty("player2ClientId", game.getPlayer2ClientId());
+		entity.setProperty("player2Connected", game.isPlayer2Connected());
+		entity.setProperty("player2WasConnected", game.wasPlayer2Connected());
+		entity.setProperty("spectatorClientIds", game.getSpectatorClientIds().isEmpty() ?
+				null : game.getSpectatorClientIds());
+		entity.setProperty("lastActivity", game.getLastActivity());
+		return entity;
+	}
+
+	@Override
+	protected GameSession fromEntity(Entity entity) {
+		GameSession game = new GameSession((String) entity.getProperty("name"));
+		game.setKey(entity.getKey());
+		game.setPlayer1((String) entity.getProperty("player1"));
+		game.setPlayer1ClientId((String) entity.getProperty("player1ClientId"));
+		game.setPlayer1Connected(getBoolean(entity, "player1Connected"));
+		game.setPlayer1WasConnected(getBoolean(entity, "player1WasConnected"));
+		game.setPlayer2((String) entity.getProperty("player2"));
+		game.setPlayer2ClientId((String) entity.getProperty("player2ClientId"));
+		game.setPlayer2Connected(getBoolean(entity, "player2Connected"));
+		game.setPlayer2WasConnected(getBoolean(entity, "player2WasConnected"));
+		for (String clientId : getStringList(entity, "spectatorClientIds")) {
+			game.addSpectator(clientId);
+		}
+		Long lastActivity = (Long) entity.getProperty("lastActivity");
+		game.setLastActivity(lastActivity != null ? lastActivity : 0L);
+		return game;
+	}
+
+	@Override
+	protected void setKey(GameSession game, Key key) {
+		game.setKey(key);
+	}
+
+	private static boolean getBoolean(Entity entity, String property) {
+		Boolean value = (Boolean) entity.getProperty(property);
+		return value != null && value;
+	}
+}
@@ -0,0 +1,415 @@
+package yugi.repository;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withMethod;
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import yugi.model.GameSession;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+/**
+ * Saves games behind the request instead of during it.  The join and channel
+ * presence paths change a game several times in a few seconds, and each of
+ * those used to be a full datastore write with all of its index updates.
+ *
+ * A save puts the game in memcache, which every instance reads first, and
+ * appends it to a journal kept in a pull queue.  A flush task, scheduled at
+ * most once per flush interval, leases the journal in batches, keeps only
+ * the newest copy of each game and writes them with one batch put.  Journal
+ * entries are only deleted once they're written, so a save survives both a
+ * memcache eviction and the instance going away.
+ *
+ * The journal entry is added on a request thread, so the request carries on
+ * while the task queue works.  Request threads can't outlive the request, so
+ * {@link #awaitSaves()} waits for them before the response is finished.
+ *
+ * A deleted game leaves a marker in memcache in its place.  Saves replace the
+ * cached game with compare-and-set and never replace the marker, so a save
+ * racing a delete can't bring the game back.
+ */
+public class GameSessionStore {
+
+	private static final Logger logger = Logger.getLogger(GameSessionStore.class.getName());
+
+	/**
+	 * The pull queue holding the journal.
+	 */
+	private static final String JOURNAL_QUEUE = "game-journal";
+
+	/**
+	 * How long, in milliseconds, saves are collected before they're flushed.
+	 */
+	private static final long FLUSH_INTERVAL = 10 * 1000;
+
+	/**
+	 * The number of journal entries flushed per batch.
+	 */
+	private static final int BATCH_SIZE = 100;
+
+	/**
+	 * How long a flush holds its journal entries before another may take them.
+	 */
+	private static final long LEASE_SECONDS = 60;
+
+	private static final String GAME_PREFIX = "game-session-";
+	private static final String CLIENT_PREFIX = "game-client-";
+	private static final Expiration EXPIRATION = Expiration.byDeltaSeconds(60 * 60);
+
+	/**
+	 * Cached in place of a deleted game.
+	 */
+	private static final String DELETED = "deleted";
+
+	/**
+	 * How many times a save tries to replace the cached game before it gives
+	 * up on the cache.  The journal still has the save.
+	 */
+	private static final int CAS_ATTEMPTS = 3;
+
+	private static final GameSessionRepository gameSessionRepository =
+			GameSessionRepository.getInstance();
+	private static final AsyncMemcacheService memcache =
+			MemcacheServiceFactory.getAsyncMemcacheService();
+
+	/**
+	 * The last flush interval this instance scheduled a flush for, so it
+	 * doesn't ask the task queue again for every save in the interval.
+	 */
+	private volatile long scheduledInterval = -1;
+
+	/**
+	 * The threads adding the current request's saves to the journal.
+	 */
+	private final ThreadLocal<List<Thread>> journalThreads = new ThreadLocal<List<Thread>>() {
+		@Override
+		protected List<Thread> initialValue() {
+			return new ArrayList<Thread>();
+		}
+	};
+
+	private static GameSessionStore instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The game session store.
+	 */
+	public static GameSessionStore getInstance() {
+		if (instance == null) {
+			instance = new GameSessionStore();
+		}
+		return instance;
+	}
+
+	private GameSessionStore() {
+
+	}
+
+	/**
+	 * Gets the newest copy of the game, saved or not.
+	 * @param gameKey The game's key.
+	 * @return The game or null if the key is invalid or the game is gone.
+	 */
+	public GameSession get(String gameKey) {
+		if (gameKey == null || gameKey.isEmpty()) {
+			return null;
+		}
+		Object cached = getQuietly(GAME_PREFIX + gameKey);
+		if (DELETED.equals(cached)) {
+			return null;
+		}
+		if (cached != null) {
+			return gameSessionRepository.load((Entity) cached);
+		}
+		return gameSessionRepository.get(gameKey);
+	}
+
+	/**
+	 * Gets the newest copy of each game, saved or not.
+	 * @param gameKeys The games' keys.
+	 * @return The games that still exist, in no particular order.
+	 */
+	public List<GameSession> getAll(Collection<String> gameKeys) {
+		List<String> cacheKeys = new ArrayList<String>(gameKeys.size());
+		for (String gameKey : gameKeys) {
+			cacheKeys.add(GAME_PREFIX + gameKey);
+		}
+		Map<String, Object> cached;
+		try {
+			cached = memcache.getAll(cacheKeys).get();
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to read games from memcache", e);
+			cached = new HashMap<String, Object>();
+		}
+
+		List<GameSession> games = new ArrayList<GameSession>(gameKeys.size());
+		List<String> uncached = new ArrayList<String>();
+		for (String gameKey : gameKeys) {
+			Object value = cached.get(GAME_PREFIX + gameKey);
+			if (DELETED.equals(value)) {
+				continue;
+			}
+			if (value != null) {
+				games.add(gameSessionRepository.load((Entity) value));
+			} else {
+				uncached.add(gameKey);
+			}
+		}
+		if (!uncached.isEmpty()) {
+			games.addAll(gameSessionRepository.getAll(uncached));
+		}
+		return games;
+	}
+
+	/**
+	 * Finds the game a client joined through a save that may not be flushed
+	 * yet.
+	 * @param clientId The client ID of a player or spectator.
+	 * @return The game or null if no recent save has the client.
+	 */
+	public GameSession getForClientId(String clientId) {
+		String gameKey = (String) getQuietly(CLIENT_PREFIX + clientId);
+		return gameKey != null ? get(gameKey) : null;
+	}
+
+	/**
+	 * Saves the game.  Every instance sees the change right away, and it
+	 * reaches the datastore with the next flush.  Nothing is saved if the
+	 * game was deleted.
+	 * @param game The game, which must already have a key.
+	 */
+	public void save(GameSession game) {
+		final Entity entity = gameSessionRepository.toEntity(game);
+		String gameKey = game.getKeyAsString();
+
+		// The copy everyone reads.
+		if (!putCached(gameKey, entity)) {
+			logger.info("Not saving this deleted game: " + gameKey);
+			return;
+		}
+		Map<String, Object> clientKeys = new HashMap<String, Object>();
+		for (String clientId : getClientIds(game)) {
+			clientKeys.put(CLIENT_PREFIX + clientId, gameKey);
+		}
+		memcache.putAll(clientKeys, EXPIRATION);
+
+		// The journal entry, which is what makes the save durable.
+		Thread thread = ThreadManager.createThreadForCurrentRequest(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					QueueFactory.getQueue(JOURNAL_QUEUE).add(withMethod(Method.PULL)
+							.payload(EntityTranslator.convertToPb(entity).toByteArray()));
+					scheduleFlush();
+				} catch (RuntimeException e) {
+					// Only the cached copy has the save now.
+					logger.log(Level.SEVERE, "Failed to journal a save of this game: " +
+							entity.getKey(), e);
+				}
+			}
+		});
+		thread.start();
+		journalThreads.get().add(thread);
+	}
+
+	/**
+	 * Waits until this request's saves are in the journal.  Called once the
+	 * request has been handled.
+	 */
+	public void awaitSaves() {
+		List<Thread> threads = journalThreads.get();
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			threads.clear();
+		}
+	}
+
+	/**
+	 * Deletes the game right away.  Journal entries still waiting for it are
+	 * dropped by the flush, since it only writes games that exist.
+	 * @param game The game.
+	 */
+	public void delete(GameSession game) {
+		deleteAll(Collections.singletonList(game));
+	}
+
+	/**
+	 * Deletes the games right away with one batch delete.
+	 * @param games The games, as read with {@link #getAll(Collection)} so the
+	 *     client IDs of unflushed saves are dropped too.
+	 */
+	public void deleteAll(List<GameSession> games) {
+		Map<String, Object> markers = new HashMap<String, Object>();
+		List<String> clientKeys = new ArrayList<String>();
+		List<Key> keys = new ArrayList<Key>(games.size());
+		for (GameSession game : games) {
+			markers.put(GAME_PREFIX + game.getKeyAsString(), DELETED);
+			for (String clientId : getClientIds(game)) {
+				clientKeys.add(CLIENT_PREFIX + clientId);
+			}
+			keys.add(game.getKey());
+		}
+		memcache.putAll(markers, EXPIRATION);
+		memcache.deleteAll(clientKeys);
+		Repository.datastore.delete(keys);
+	}
+
+	/**
+	 * Writes one batch of the journal.
+	 * @return The number of journal entries flushed.  Fewer than a full batch
+	 *     means the journal is empty.
+	 */
+	public int flush() {
+		Queue journal = QueueFactory.getQueue(JOURNAL_QUEUE);
+		List<TaskHandle> tasks = journal.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, BATCH_SIZE);
+		if (tasks.isEmpty()) {
+			return 0;
+		}
+
+		// Later saves replace earlier ones, and the cached copy is the newest.
+		Map<Key, Entity> newest = new LinkedHashMap<Key, Entity>();
+		for (TaskHandle task : tasks) {
+			Entity entity = EntityTranslator.createFromPbBytes(task.getPayload());
+			newest.put(entity.getKey(), entity);
+		}
+		for (Key key : newest.keySet()) {
+			Entity cached = getCached(KeyFactory.keyToString(key));
+			if (cached != null) {
+				newest.put(key, cached);
+			}
+		}
+
+		// Deleted games stay deleted.  Activity recorded directly on the
+		// stored game is kept if it's newer.
+		Map<Key, Entity> stored = Repository.datastore.get(newest.keySet());
+		List<Entity> writes = new ArrayList<Entity>(stored.size());
+		for (Entity entity : newest.values()) {
+			Entity current = stored.get(entity.getKey());
+			if (current == null) {
+				continue;
+			}
+			Long storedActivity = (Long) current.getProperty("lastActivity");
+			Long activity = (Long) entity.getProperty("lastActivity");
+			if (storedActivity != null && (activity == null || storedActivity > activity)) {
+				entity.setProperty("lastActivity", storedActivity);
+			}
+			writes.add(entity);
+		}
+		Repository.datastore.put(writes);
+		journal.deleteTask(tasks);
+
+		logger.info("Flushed " + tasks.size() + " journaled saves as " +
+				writes.size() + " game writes.");
+		return tasks.size();
+	}
+
+	/**
+	 * Makes sure a flush runs after this interval.  The task is named after
+	 * the interval, so instances racing to schedule it make only one.
+	 */
+	private void scheduleFlush() {
+		long interval = System.currentTimeMillis() / FLUSH_INTERVAL;
+		if (interval == scheduledInterval) {
+			return;
+		}
+		try {
+			QueueFactory.getDefaultQueue().add(withUrl("/tasks/flush_games")
+					.taskName("flush-games-" + interval)
+					.countdownMillis(FLUSH_INTERVAL)
+					.method(Method.GET));
+		} catch (TaskAlreadyExistsException e) {
+			// Another instance got there first.
+		}
+		scheduledInterval = interval;
+	}
+
+	/**
+	 * @return The cached game or null if it isn't cached or was deleted.
+	 */
+	private Entity getCached(String gameKey) {
+		Object cached = getQuietly(GAME_PREFIX + gameKey);
+		return cached instanceof Entity ? (Entity) cached : null;
+	}
+
+	/**
+	 * Replaces the cached game with compare-and-set, unless it was deleted.
+	 * If memcache fails or others keep replacing it, the cache is left as it
+	 * is; the journal still has the save.
+	 * @return False if the game was deleted.
+	 */
+	private boolean putCached(String gameKey, Entity entity) {
+		String cacheKey = GAME_PREFIX + gameKey;
+		try {
+			for (int attempt = 0; attempt < CAS_ATTEMPTS; attempt++) {
+				IdentifiableValue current = memcache.getIdentifiable(cacheKey).get();
+				if (current == null) {
+					if (memcache.put(cacheKey, entity, EXPIRATION,
+							SetPolicy.ADD_ONLY_IF_NOT_PRESENT).get()) {
+						return true;
+					}
+				} else if (DELETED.equals(current.getValue())) {
+					return false;
+				} else if (memcache.putIfUntouched(cacheKey, current, entity, EXPIRATION).get()) {
+					return true;
+				}
+			}
+			logger.warning("Gave up caching this game after " + CAS_ATTEMPTS +
+					" attempts: " + gameKey);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to cache this game: " + gameKey, e);
+		}
+		return true;
+	}
+
+	/**
+	 * Memcache is only a shortcut here, so a failure is treated as a miss.
+	 */
+	private Object getQuietly(String key) {
+		try {
+			return memcache.get(key).get();
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to read " + key + " from memcache", e);
+			return null;
+		}
+	}
+
+	private static List<String> getClientIds(GameSession game) {
+		List<String> clientIds = new ArrayList<String>(game.getSpectatorClientIds());
+		if (game.getPlayer1ClientId() != null) {
+			clientIds.add(game.getPlayer1ClientId());
+		}
+		if (game.getPlayer2ClientId() != null) {
+			clientIds.add(game.getPlayer2ClientId());
+		}
+		return clientIds;
+	}
+}
@@ -0,0 +1,20 @@
+package yugi.repository;
+
+import com.google.appengine.api.datastore.Entity;
+
+/**
+ * One step of a kind's schema.  A repository lists its migrations in order,
+ * and an entity's schema version is the number of them it has been through.
+ *
+ * A migration may run on an entity written by JDO, which doesn't record the
+ * schema version, so it must leave an entity that's already in the new shape
+ * alone.
+ */
+public interface Migration {
+
+	/**
+	 * Upgrades the entity from the previous schema version, in place.
+	 * @param entity The entity.
+	 */
+	void migrate(Entity entity);
+}
@@ -0,0 +1,241 @@
+package yugi.repository;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+/**
+ * Writes back the entities of a kind that are behind its schema, so the ones
+ * nobody reads get upgraded too.  It walks the kind one batch per task on the
+ * migration queue, which runs one task at a time, slowly, so a migration
+ * never competes with user traffic.  A batch is read with one batch get,
+ * upgraded in memory and the entities that were behind are written with one
+ * batch put.  That isn't transactional, so a save landing between the get and
+ * the put is overwritten; the window is one batch.  Running a batch again is
+ * safe, since an entity already at the schema version isn't written.
+ *
+ * The progress of each kind is kept in a MigrationProgress entity named
+ * after the kind.  Every start bumps the run number stored there, and each
+ * task carries the run it belongs to, so a chain left over from an earlier
+ * start stops instead of running alongside the new one.
+ */
+public class Migrator {
+
+	private static final Logger logger = Logger.getLogger(Migrator.class.getName());
+
+	/**
+	 * The number of entities looked at per task.
+	 */
+	private static final int BATCH_SIZE = 100;
+
+	private static final String QUEUE = "migration";
+	private static final String PROGRESS_KIND = "MigrationProgress";
+
+	// Progress properties.
+	private static final String SCHEMA_VERSION = "schemaVersion";
+	private static final String SCANNED = "scanned";
+	private static final String UPGRADED = "upgraded";
+	private static final String CURSOR = "cursor";
+	private static final String DONE = "done";
+	private static final String UPDATED = "updated";
+	private static final String RUN = "run";
+
+	private final List<Repository<?>> repositories = new ArrayList<Repository<?>>();
+
+	private static Migrator instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The migrator.
+	 */
+	public static Migrator getInstance() {
+		if (instance == null) {
+			instance = new Migrator();
+		}
+		return instance;
+	}
+
+	private Migrator() {
+		repositories.add(CardRepository.getInstance());
+		repositories.add(DeckRepository.getInstance());
+		repositories.add(GameSessionRepository.getInstance());
+	}
+
+	/**
+	 * @return The repositories the migrator knows about.
+	 */
+	public List<Repository<?>> getRepositories() {
+		return repositories;
+	}
+
+	/**
+	 * Starts migrating the kind from the beginning.
+	 * @param kind The kind.
+	 * @return False if the kind is unknown or has no migrations.
+	 */
+	public boolean start(String kind) {
+		Repository<?> repository = getRepository(kind);
+		if (repository == null || repository.getSchemaVersion() == 0) {
+			return false;
+		}
+
+		long run = 1;
+		try {
+			run = getLong(Repository.datastore.get(getProgressKey(kind)), RUN) + 1;
+		} catch (EntityNotFoundException e) {
+			// Never migrated before.
+		}
+
+		Entity progress = new Entity(getProgressKey(kind));
+		progress.setUnindexedProperty(RUN, run);
+		progress.setUnindexedProperty(SCHEMA_VERSION, (long) repository.getSchemaVersion());
+		progress.setUnindexedProperty(SCANNED, 0L);
+		progress.setUnindexedProperty(UPGRADED, 0L);
+		progress.setUnindexedProperty(DONE, false);
+		progress.setUnindexedProperty(UPDATED, System.currentTimeMillis());
+		Repository.datastore.put(progress);
+		queue(kind, run);
+		logger.info("Started run " + run + " migrating " + kind + " to schema version " +
+				repository.getSchemaVersion());
+		return true;
+	}
+
+	/**
+	 * Upgrades the next batch of the kind and queues the one after it.
+	 * @param kind The kind.
+	 * @param run The run the task belongs to.  Tasks queued before runs were
+	 *     numbered belong to run 0.
+	 */
+	public void runBatch(String kind, long run) {
+		Repository<?> repository = getRepository(kind);
+		Entity progress;
+		try {
+			progress = Repository.datastore.get(getProgressKey(kind));
+		} catch (EntityNotFoundException e) {
+			logger.severe("No migration was started for " + kind);
+			return;
+		}
+		if (repository == null || Boolean.TRUE.equals(progress.getProperty(DONE))) {
+			return;
+		}
+		if (getLong(progress, RUN) != run) {
+			logger.info("Stopping run " + run + " of the " + kind + " migration, " +
+					"since run " + getLong(progress, RUN) + " replaced it.");
+			return;
+		}
+
+		FetchOptions options = FetchOptions.Builder.withLimit(BATCH_SIZE);
+		String cursor = (String) progress.getProperty(CURSOR);
+		if (cursor != null) {
+			options.startCursor(Cursor.fromWebSafeString(cursor));
+		}
+		QueryResultList<Entity> results = Repository.datastore.prepare(
+				new Query(kind).setKeysOnly()).asQueryResultList(options);
+
+		List<Key> keys = new ArrayList<Key>(results.size());
+		for (Entity result : results) {
+			keys.add(result.getKey());
+		}
+		int upgraded = upgrade(repository, keys);
+
+		boolean done = results.size() < BATCH_SIZE;
+		progress.setUnindexedProperty(SCANNED, getLong(progress, SCANNED) + results.size());
+		progress.setUnindexedProperty(UPGRADED, getLong(progress, UPGRADED) + upgraded);
+		progress.setUnindexedProperty(CURSOR, results.getCursor().toWebSafeString());
+		progress.setUnindexedProperty(DONE, done);
+		progress.setUnindexedProperty(UPDATED, System.currentTimeMillis());
+		Repository.datastore.put(progress);
+
+		if (!done) {
+			queue(kind, run);
+		}
+		logger.info("Migrated " + kind + ": " + progress.getProperty(SCANNED) +
+				" scanned, " + progress.getProperty(UPGRADED) + " upgraded" +
+				(done ? ", done." : "."));
+	}
+
+	/**
+	 * Describes how far each kind's migration has gotten.
+	 * @return One line per kind.
+	 */
+	public List<String> getProgress() {
+		List<String> lines = new ArrayList<String>();
+		for (Repository<?> repository : repositories) {
+			String kind = repository.getKind();
+			StringBuilder line = new StringBuilder(kind);
+			line.append(": schema version ").append(repository.getSchemaVersion());
+			try {
+				Entity progress = Repository.datastore.get(getProgressKey(kind));
+				line.append(", run ").append(getLong(progress, RUN));
+				line.append(" migrating to ").append(progress.getProperty(SCHEMA_VERSION));
+				line.append(", ").append(progress.getProperty(SCANNED)).append(" scanned");
+				line.append(", ").append(progress.getProperty(UPGRADED)).append(" upgraded");
+				if (Boolean.TRUE.equals(progress.getProperty(DONE))) {
+					line.append(", done");
+				}
+			} catch (EntityNotFoundException e) {
+				line.append(", never migrated");
+			}
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	/**
+	 * Upgrades the stored entities that are behind.  Entities deleted since
+	 * the query are left out of the get.
+	 * @return The number of entities upgraded.
+	 */
+	private int upgrade(Repository<?> repository, List<Key> keys) {
+		Map<Key, Entity> entities = Repository.datastore.get(keys);
+		List<Entity> upgraded = new ArrayList<Entity>(entities.size());
+		for (Entity entity : entities.values()) {
+			if (repository.upgrade(entity)) {
+				upgraded.add(entity);
+			}
+		}
+		if (!upgraded.isEmpty()) {
+			Repository.datastore.put(upgraded);
+		}
+		return upgraded.size();
+	}
+
+	private Repository<?> getRepository(String kind) {
+		for (Repository<?> repository : repositories) {
+			if (repository.getKind().equals(kind)) {
+				return repository;
+			}
+		}
+		return null;
+	}
+
+	private static void queue(String kind, long run) {
+		QueueFactory.getQueue(QUEUE).add(withUrl("/tasks/migrate")
+				.param("kind", kind)
+				.param(RUN, Long.toString(run))
+				.method(Method.GET));
+	}
+
+	private static Key getProgressKey(String kind) {
+		return KeyFactory.createKey(PROGRESS_KIND, kind);
+	}
+
+	private static long getLong(Entity entity, String property) {
+		Long value = (Long) entity.getProperty(property);
+		return value != null ? value : 0L;
+	}
+}
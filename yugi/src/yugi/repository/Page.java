@@ -0,0 +1,35 @@
+package yugi.repository;
+
+import java.util.List;
+
+/**
+ * One page of a query's results.
+ * @param <T> The model class.
+ */
+public class Page<T> {
+
+	private final List<T> items;
+	private final String cursor;
+
+	/**
+	 * @param items The objects on the page.
+	 * @param cursor The web safe cursor for the next page or null if this is
+	 *     the last one.
+	 */
+	public Page(List<T> items, String cursor) {
+		this.items = items;
+		this.cursor = cursor;
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	/**
+	 * @return The web safe cursor for the next page or null if this is the
+	 *     last one.
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+}
@@ -0,0 +1,331 @@
+package yugi.repository;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.jdo.annotations.Persistent;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.Filter;
+
+/**
+ * Reads and writes one model class with the low-level datastore API instead
+ * of JDO.  Subclasses map the object to and from its entity by hand, using
+ * the same kind and property names the JDO mapping uses, so both see the same
+ * data.
+ *
+ * A subclass that changes its entity's shape adds a {@link Migration}.  Every
+ * entity read is upgraded before it's mapped, and every entity written is
+ * stamped with the current schema version, so old entities are upgraded as
+ * they're used.  The {@link Migrator} writes back the ones nobody touches.
+ *
+ * Objects read here are plain objects, not JDO managed ones, so they must be
+ * saved with {@link #put(Object)} rather than a persistence manager.
+ *
+ * The first entity each repository writes is checked against the model
+ * class's JDO fields, and any property JDO doesn't know is logged, so a typo
+ * in a mapper shows up in the logs the first time it runs.
+ * @param <T> The model class.
+ */
+public abstract class Repository<T> {
+
+	private static final Logger logger = Logger.getLogger(Repository.class.getName());
+
+	protected static final DatastoreService datastore =
+			DatastoreServiceFactory.getDatastoreService();
+
+	/**
+	 * The property holding the number of migrations an entity has been
+	 * through.
+	 */
+	static final String SCHEMA_VERSION = "schemaVersion";
+
+	private final Class<T> modelClass;
+	private final String kind;
+
+	private final List<Migration> migrations = new ArrayList<Migration>();
+
+	private volatile boolean checked;
+
+	/**
+	 * @param modelClass The model class, whose simple name is the kind.
+	 */
+	protected Repository(Class<T> modelClass) {
+		this.modelClass = modelClass;
+		this.kind = modelClass.getSimpleName();
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return The number of migrations, which is the version every entity is
+	 *     upgraded to.
+	 */
+	public int getSchemaVersion() {
+		return migrations.size();
+	}
+
+	/**
+	 * Gets the object for the key.
+	 * @param keyString The web safe key.
+	 * @return The object or null if the key is empty, invalid or missing.
+	 */
+	public T get(String keyString) {
+		Key key = toKey(keyString);
+		return key == null ? null : get(key);
+	}
+
+	/**
+	 * Gets the object for the key.
+	 * @param key The key.
+	 * @return The object or null if it doesn't exist.
+	 */
+	public T get(Key key) {
+		try {
+			return load(datastore.get(key));
+		} catch (EntityNotFoundException e) {
+			logger.severe("Failed to find a " + kind + " with this key: " + key);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets many objects with one batch get.
+	 * @param keyStrings The web safe keys.  Keys may repeat.
+	 * @return The objects in the order of the keys, with an entry for every
+	 *     repeat.  Empty, invalid and missing keys are left out.
+	 */
+	public List<T> getAll(List<String> keyStrings) {
+		List<Key> keys = new ArrayList<Key>(keyStrings.size());
+		for (String keyString : keyStrings) {
+			Key key = toKey(keyString);
+			if (key != null) {
+				keys.add(key);
+			}
+		}
+
+		Map<Key, Entity> entities = datastore.get(keys);
+		List<T> objects = new ArrayList<T>(keys.size());
+		for (Key key : keys) {
+			Entity entity = entities.get(key);
+			if (entity == null) {
+				logger.severe("Failed to find a " + kind + " with this key: " + key);
+				continue;
+			}
+
+			// Each repeat gets its own object, just like separate gets.
+			objects.add(load(entity));
+		}
+		return objects;
+	}
+
+	/**
+	 * Saves the object.  A new object gets its key set.
+	 * @param object The object to save.
+	 */
+	public void put(T object) {
+		Entity entity = toEntity(object);
+		check(entity);
+		setKey(object, datastore.put(entity));
+	}
+
+	/**
+	 * Saves many objects with one batch put.  New objects get their keys set.
+	 * @param objects The objects to save.
+	 */
+	public void putAll(List<T> objects) {
+		List<Entity> entities = new ArrayList<Entity>(objects.size());
+		for (T object : objects) {
+			entities.add(toEntity(object));
+		}
+		if (!entities.isEmpty()) {
+			check(entities.get(0));
+		}
+		List<Key> keys = datastore.put(entities);
+		for (int i = 0; i < objects.size(); i++) {
+			setKey(objects.get(i), keys.get(i));
+		}
+	}
+
+	/**
+	 * Finds the keys of the matching objects without loading them.
+	 * @param filter The filter or null for every object.
+	 * @return The keys.
+	 */
+	public List<Key> findKeys(Filter filter) {
+		Query query = new Query(kind).setKeysOnly();
+		if (filter != null) {
+			query.setFilter(filter);
+		}
+		List<Key> keys = new ArrayList<Key>();
+		for (Entity entity : datastore.prepare(query).asIterable()) {
+			keys.add(entity.getKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Finds the matching objects.
+	 * @param filter The filter or null for every object.
+	 * @return The objects.
+	 */
+	public List<T> find(Filter filter) {
+		Query query = new Query(kind);
+		if (filter != null) {
+			query.setFilter(filter);
+		}
+		List<T> objects = new ArrayList<T>();
+		for (Entity entity : datastore.prepare(query).asIterable(
+				FetchOptions.Builder.withChunkSize(100))) {
+			objects.add(load(entity));
+		}
+		return objects;
+	}
+
+	/**
+	 * Upgrades the entity to the current schema and maps it.
+	 * @param entity The entity as read.
+	 * @return The object.
+	 */
+	protected T load(Entity entity) {
+		upgrade(entity);
+		return fromEntity(entity);
+	}
+
+	/**
+	 * Runs the migrations the entity hasn't been through.
+	 * @param entity The entity, which is changed in place.
+	 * @return True if the entity was behind the current schema.
+	 */
+	boolean upgrade(Entity entity) {
+		Long stored = (Long) entity.getProperty(SCHEMA_VERSION);
+		int version = stored != null ? stored.intValue() : 0;
+		if (version >= migrations.size()) {
+			return false;
+		}
+		for (int i = version; i < migrations.size(); i++) {
+			migrations.get(i).migrate(entity);
+		}
+		entity.setUnindexedProperty(SCHEMA_VERSION, (long) migrations.size());
+		return true;
+	}
+
+	/**
+	 * Adds the next migration.  Subclasses add theirs in their constructor,
+	 * oldest first, and never remove or reorder them.
+	 * @param migration The migration.
+	 */
+	protected void addMigration(Migration migration) {
+		migrations.add(migration);
+	}
+
+	/**
+	 * Logs every property of the entity that isn't a JDO persistent field of
+	 * the model class.  Only the first entity written is checked.
+	 * @param entity An entity made by {@link #toEntity(Object)}.
+	 */
+	private void check(Entity entity) {
+		if (checked) {
+			return;
+		}
+		checked = true;
+
+		Set<String> fields = new HashSet<String>();
+		for (Field field : modelClass.getDeclaredFields()) {
+			if (field.isAnnotationPresent(Persistent.class)) {
+				fields.add(field.getName());
+			}
+		}
+		for (String property : entity.getProperties().keySet()) {
+			if (!property.equals(SCHEMA_VERSION) && !fields.contains(property)) {
+				logger.severe("The " + kind + " mapper writes " + property +
+						", which isn't a JDO field, so JDO won't see it.");
+			}
+		}
+	}
+
+	/**
+	 * Maps the object to a new entity with every persistent field.
+	 * @param object The object.
+	 * @return The entity, keyed by the object's key or by kind if it is new.
+	 */
+	protected abstract Entity toEntity(T object);
+
+	/**
+	 * Maps the entity to a new object.
+	 * @param entity The entity.
+	 * @return The object with its key set.
+	 */
+	protected abstract T fromEntity(Entity entity);
+
+	protected abstract void setKey(T object, Key key);
+
+	/**
+	 * Starts a new entity for the object, at the current schema version.
+	 * @param key The object's key or null if it is new.
+	 */
+	protected Entity newEntity(Key key) {
+		Entity entity = key == null ? new Entity(kind) : new Entity(key);
+		if (!migrations.isEmpty()) {
+			entity.setUnindexedProperty(SCHEMA_VERSION, (long) migrations.size());
+		}
+		return entity;
+	}
+
+	/**
+	 * The datastore keeps every integer as a long.
+	 */
+	protected static Integer getInteger(Entity entity, String property) {
+		Long value = (Long) entity.getProperty(property);
+		return value == null ? null : value.intValue();
+	}
+
+	/**
+	 * Enums are stored by name.
+	 */
+	protected static <E extends Enum<E>> E getEnum(
+			Entity entity, String property, Class<E> enumClass) {
+		String value = (String) entity.getProperty(property);
+		return value == null ? null : Enum.valueOf(enumClass, value);
+	}
+
+	protected static String getName(Enum<?> value) {
+		return value == null ? null : value.name();
+	}
+
+	/**
+	 * Empty lists aren't stored, so a missing list comes back empty.
+	 */
+	@SuppressWarnings("unchecked")
+	protected static List<String> getStringList(Entity entity, String property) {
+		Collection<String> values = (Collection<String>) entity.getProperty(property);
+		return values == null ? new ArrayList<String>() : new ArrayList<String>(values);
+	}
+
+	private static Key toKey(String keyString) {
+		if (keyString == null || keyString.isEmpty()) {
+			return null;
+		}
+		try {
+			return KeyFactory.stringToKey(keyString);
+		} catch (IllegalArgumentException e) {
+			logger.severe("Invalid key: " + keyString);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package yugi.scraper;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import yugi.crawl.CardImportFile;
+import yugi.crawl.CardPage;
+import yugi.crawl.ParseException;
+
+/**
+ * Builds an import file from a local copy of the wiki.  The pages are
+ * streamed out of the archive by one thread and parsed by a pool of workers,
+ * which write every new card to the import file as they go.  The file is
+ * then uploaded to the card import page, and a single chain of bulk import
+ * tasks creates the cards.
+ */
+public class BulkImporter {
+
+	/**
+	 * Pages waiting per worker.  When the queue is full the reading thread
+	 * parses a page itself, so reading never gets far ahead of parsing.
+	 */
+	private static final int PAGES_PER_WORKER = 4;
+
+	private final int workers;
+
+	private final AtomicInteger pages = new AtomicInteger();
+	private final AtomicInteger duplicates = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	/**
+	 * The upper case names already written, so a card saved under several
+	 * page names is only imported once.
+	 */
+	private final ConcurrentHashMap<String, Boolean> names =
+			new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Constructs the importer with a worker per processor.
+	 */
+	public BulkImporter() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs the importer.
+	 * @param workers The number of pages parsed at once.
+	 */
+	public BulkImporter(int workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * Parses every card page in the archive into the import file.
+	 * @param archive A directory, zip or tar of saved pages.
+	 * @param importFile The import file to write.
+	 * @return The number of cards written.
+	 * @throws IOException Thrown if the archive can't be read or the file
+	 *     can't be written.
+	 */
+	public int importArchive(File archive, File importFile) throws IOException {
+		long start = System.currentTimeMillis();
+		System.out.println("Reading pages from " + archive + " with " + workers + " workers...");
+
+		PageArchive pageArchive = new PageArchive(archive);
+		final CardImportFile.Writer writer =
+				new CardImportFile.Writer(new FileOutputStream(importFile));
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(workers * PAGES_PER_WORKER),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			PageArchive.Page page;
+			while ((page = pageArchive.next()) != null) {
+				pages.incrementAndGet();
+				final PageArchive.Page current = page;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						parse(current, writer);
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			pageArchive.close();
+			writer.close();
+		}
+
+		long finish = System.currentTimeMillis();
+		System.out.println("Finished.  Wrote " + writer.getCount() + " cards from " +
+				pages.get() + " pages in " + ((finish - start) / 1000.0) + " seconds.  " +
+				duplicates.get() + " duplicates and " + skipped.get() +
+				" pages without a card were skipped.");
+		return writer.getCount();
+	}
+
+	/**
+	 * Parses one page and writes its card unless the card was already
+	 * written.
+	 * @param page The saved page.
+	 * @param writer The import file.
+	 */
+	private void parse(PageArchive.Page page, CardImportFile.Writer writer) {
+		CardPage cardPage = new CardPage(page.getName());
+		try {
+			cardPage.parse(new InputStreamReader(
+					new ByteArrayInputStream(page.getContents()), "UTF-8"));
+		} catch (ParseException e) {
+			// Most pages in a wiki dump aren't cards.
+			skipped.incrementAndGet();
+			return;
+		} catch (IOException e) {
+			skipped.incrementAndGet();
+			return;
+		}
+
+		CardImportFile.Entry entry = new CardImportFile.Entry(
+				cardPage.getParsedCard(), cardPage.getParsedImageUrl());
+		if (!entry.isComplete()) {
+			System.out.println("Skipping an incomplete card: " + page.getName());
+			skipped.incrementAndGet();
+			return;
+		}
+		if (names.putIfAbsent(entry.getCard().getUpperName(), Boolean.TRUE) != null) {
+			duplicates.incrementAndGet();
+			return;
+		}
+
+		try {
+			writer.write(entry);
+		} catch (IOException e) {
+			System.out.println("Failed to write this card: " + entry.getCard().getName());
+			e.printStackTrace();
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package yugi.scraper;
 
+import java.io.File;
+
 /**
  * Harness for the program.
  */
@@ -17,12 +19,20 @@ public class Main {
 	
 	/**
 	 * Entry point to the program.
-	 * @param args ignored.
+	 * @param args Either the import file to write, which scrapes the site,
+	 *     or a directory, zip or tar of saved pages followed by the import
+	 *     file, which imports the saved pages.
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		if (args.length == 2) {
+			new BulkImporter().importArchive(new File(args[0]), new File(args[1]));
+			return;
+		}
+		
 		Scraper scraper = new Scraper();
+		File importFile = new File(args.length == 1 ? args[0] : "cards.json.gz");
 		
 		// The scraper should be able to pull 4,940 cards from the site.
-		scraper.scrape("http://yugioh.wikia.com/wiki/Category:TCG_cards");
+		scraper.scrape("http://yugioh.wikia.com/wiki/Category:TCG_cards", importFile);
 	}
 }
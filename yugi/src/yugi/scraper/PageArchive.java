@@ -0,0 +1,284 @@
+package yugi.scraper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams the saved pages out of a local copy of the wiki.  The copy can be a
+ * directory of pages, a zip file or a tar file, gzipped or not.  Pages are
+ * read one at a time in the order they are stored, so the archive is never
+ * unpacked and only the current page is held in memory.
+ */
+public class PageArchive {
+
+	private static final int TAR_BLOCK = 512;
+
+	/**
+	 * A saved page.
+	 */
+	public static class Page {
+
+		private final String name;
+		private final byte[] contents;
+
+		Page(String name, byte[] contents) {
+			this.name = name;
+			this.contents = contents;
+		}
+
+		/**
+		 * @return The path of the page within the archive.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public byte[] getContents() {
+			return contents;
+		}
+	}
+
+	private final Source source;
+
+	/**
+	 * Opens the archive.
+	 * @param file A directory, or a .zip, .tar, .tar.gz or .tgz file.
+	 * @throws IOException Thrown if the file can't be opened.
+	 */
+	public PageArchive(File file) throws IOException {
+		String name = file.getName().toLowerCase();
+		if (file.isDirectory()) {
+			source = new DirectorySource(file);
+		} else if (name.endsWith(".zip")) {
+			source = new ZipSource(open(file));
+		} else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+			source = new TarSource(new GZIPInputStream(open(file)));
+		} else if (name.endsWith(".tar")) {
+			source = new TarSource(open(file));
+		} else {
+			throw new IOException("Expected a directory, zip or tar: " + file);
+		}
+	}
+
+	/**
+	 * @return The next page or null once every page has been read.
+	 */
+	public Page next() throws IOException {
+		return source.next();
+	}
+
+	public void close() throws IOException {
+		source.close();
+	}
+
+	private static InputStream open(File file) throws IOException {
+		return new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+	}
+
+	private static byte[] readFully(InputStream in, long size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				size > 0 ? (int) size : 16 * 1024);
+		byte[] buffer = new byte[8 * 1024];
+		long remaining = size < 0 ? Long.MAX_VALUE : size;
+		while (remaining > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (read < 0) {
+				if (size >= 0) {
+					throw new EOFException("The archive ended in the middle of a page.");
+				}
+				break;
+			}
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+		return out.toByteArray();
+	}
+
+	private interface Source {
+		Page next() throws IOException;
+		void close() throws IOException;
+	}
+
+	/**
+	 * Walks a directory tree, listing each directory only when it is reached.
+	 */
+	private static class DirectorySource implements Source {
+
+		private final File root;
+		private final LinkedList<File> pending = new LinkedList<File>();
+
+		DirectorySource(File root) {
+			this.root = root;
+			pending.add(root);
+		}
+
+		@Override
+		public Page next() throws IOException {
+			while (!pending.isEmpty()) {
+				File file = pending.removeFirst();
+				if (file.isDirectory()) {
+					File[] children = file.listFiles();
+					if (children != null) {
+						Arrays.sort(children);
+						pending.addAll(0, Arrays.asList(children));
+					}
+					continue;
+				}
+				InputStream in = open(file);
+				try {
+					String name = file.getPath().substring(root.getPath().length());
+					return new Page(name, readFully(in, file.length()));
+				} finally {
+					in.close();
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void close() {
+			pending.clear();
+		}
+	}
+
+	private static class ZipSource implements Source {
+
+		private final ZipInputStream in;
+
+		ZipSource(InputStream stream) {
+			this.in = new ZipInputStream(stream);
+		}
+
+		@Override
+		public Page next() throws IOException {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					return new Page(entry.getName(), readFully(in, entry.getSize()));
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the ustar format: a 512 byte header per file followed by the
+	 * file's bytes padded to a whole block.  Only regular files are returned.
+	 */
+	private static class TarSource implements Source {
+
+		private final InputStream in;
+		private final byte[] header = new byte[TAR_BLOCK];
+
+		TarSource(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public Page next() throws IOException {
+			while (readHeader()) {
+				String name = getString(0, 100);
+				String prefix = getString(345, 155);
+				if (!prefix.isEmpty()) {
+					name = prefix + "/" + name;
+				}
+				long size = getOctal(124, 12);
+				byte type = header[156];
+
+				if (type == '0' || type == 0) {
+					byte[] contents = readFully(in, size);
+					skipPadding(size);
+					return new Page(name, contents);
+				}
+				skipFully(size);
+				skipPadding(size);
+			}
+			return null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/**
+		 * @return False at the end of the archive, which is marked by an
+		 *     empty block.
+		 */
+		private boolean readHeader() throws IOException {
+			int offset = 0;
+			while (offset < TAR_BLOCK) {
+				int read = in.read(header, offset, TAR_BLOCK - offset);
+				if (read < 0) {
+					if (offset == 0) {
+						return false;
+					}
+					throw new EOFException("The archive ended in the middle of a header.");
+				}
+				offset += read;
+			}
+			for (byte b : header) {
+				if (b != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private String getString(int offset, int length) throws IOException {
+			int end = offset;
+			while (end < offset + length && header[end] != 0) {
+				end++;
+			}
+			return new String(header, offset, end - offset, "UTF-8");
+		}
+
+		private long getOctal(int offset, int length) {
+			long value = 0;
+			for (int i = offset; i < offset + length; i++) {
+				byte b = header[i];
+				if (b >= '0' && b <= '7') {
+					value = value * 8 + (b - '0');
+				} else if (value > 0 || (b != ' ' && b != 0)) {
+					break;
+				}
+			}
+			return value;
+		}
+
+		private void skipPadding(long size) throws IOException {
+			long remainder = size % TAR_BLOCK;
+			if (remainder != 0) {
+				skipFully(TAR_BLOCK - remainder);
+			}
+		}
+
+		private void skipFully(long bytes) throws IOException {
+			while (bytes > 0) {
+				long skipped = in.skip(bytes);
+				if (skipped <= 0) {
+					if (in.read() < 0) {
+						throw new EOFException("The archive ended in the middle of a page.");
+					}
+					skipped = 1;
+				}
+				bytes -= skipped;
+			}
+		}
+	}
+}
@@ -1,11 +1,13 @@
 package yugi.scraper;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
-import yugi.model.Card;
+import yugi.crawl.CardImportFile;
+import yugi.crawl.CardPage;
 
 public class Scraper {
 
@@ -13,7 +15,12 @@ public class Scraper {
 		
 	}
 	
-	public void scrape(String mainUrl) {
+	/**
+	 * Scrapes every card linked from the main URL into an import file.
+	 * @param mainUrl The first page of card links.
+	 * @param importFile The import file to write.
+	 */
+	public void scrape(String mainUrl, File importFile) {
 		
 		// Parse all potential card links from the main URL.
 		long start = System.currentTimeMillis();
@@ -27,36 +34,41 @@ public class Scraper {
 		long finish = System.currentTimeMillis();
 		System.out.println("Finished.  Found " + cardLinks.size() + " card links in " + ((finish - start) / 1000.0) + " seconds.");
 		
+		CardImportFile.Writer writer;
 		try {
-			CardProcessor cardProcessor = new CardProcessor();
-			Card card = cardProcessor.process(
-					"file:///home/james/Downloads/yugioh.wikia.com/Arcana_Force_XIV_-_Temperance");
-			System.out.println("Here's the card:");
-			System.out.println(card.toString());
-		} catch (Exception e) {
+			writer = new CardImportFile.Writer(new FileOutputStream(importFile));
+		} catch (IOException e) {
 			e.printStackTrace();
+			return;
 		}
 		
-		// Try to create cards from all of the parsed links.
-		List<Card> cards = new ArrayList<Card>();
-		for (String cardLink : cardLinks) {
-			try {
-				cards.add(scrapeCard(cardLink));
-			} catch (Exception e) {
-				System.out.println("Failed to parse a card from this link: " + cardLink);
-				e.printStackTrace();
+		// Try to create cards from all of the parsed links and add them to
+		// the import file for upload to appengine.
+		try {
+			for (String cardLink : cardLinks) {
+				CardImportFile.Entry entry;
+				try {
+					entry = scrapeCard(cardLink);
+				} catch (Exception e) {
+					System.out.println("Failed to parse a card from this link: " + cardLink);
+					e.printStackTrace();
+					continue;
+				}
+				try {
+					uploadCard(entry, writer);
+				} catch (Exception e) {
+					System.out.println("Failed to upload this card: " + entry.getCard().getName());
+					e.printStackTrace();
+				}
 			}
-		}
-
-		// Upload the cards to appengine.
-		for (Card card : cards) {
+		} finally {
 			try {
-				uploadCard(card);
-			} catch (Exception e) {
-				System.out.println("Failed to upload this card: " + card.toString());
+				writer.close();
+			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
+		System.out.println("Wrote " + writer.getCount() + " cards to " + importFile);
 	}
 	
 	/**
@@ -104,16 +116,25 @@ public class Scraper {
 		return cardLinks;
 	}
 	
-	private Card scrapeCard(String cardLink) {
-		Card card = new Card();
-		// TODO
-		return card;
+	private CardImportFile.Entry scrapeCard(String cardLink) throws Exception {
+		if (!cardLink.startsWith(Main.HOST) && !cardLink.startsWith("file:")) {
+			cardLink = Main.HOST + cardLink;
+		}
+		CardPage cardPage = new CardPage(cardLink);
+		cardPage.requestAndParse();
+		return new CardImportFile.Entry(
+				cardPage.getParsedCard(), cardPage.getParsedImageUrl());
 	}
 	
-	private void uploadCard(Card card) throws Exception {
-		if (!card.isValid()) {
+	/**
+	 * Adds the card to the import file.  The bulk import task creates the
+	 * card and copies its image once the file is uploaded.
+	 */
+	private void uploadCard(CardImportFile.Entry entry, CardImportFile.Writer writer)
+			throws Exception {
+		if (!entry.isComplete()) {
 			throw new Exception("Card was not valid.");
 		}
-		// TODO
+		writer.write(entry);
 	}
 }
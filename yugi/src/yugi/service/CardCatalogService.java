@@ -0,0 +1,278 @@
+package yugi.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import yugi.index.CardCatalog;
+import yugi.model.Card;
+import yugi.repository.CardRepository;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.files.AppEngineFile;
+import com.google.appengine.api.files.FileService;
+import com.google.appengine.api.files.FileServiceFactory;
+import com.google.appengine.api.files.FileWriteChannel;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Keeps a {@link CardCatalog} of every card in blob store and in memory.
+ *
+ * A periodic task exports a new catalog and records it as the latest one.
+ * Each instance loads the latest catalog with one blob read the first time it
+ * is needed, and checks now and then whether a newer one was exported.
+ *
+ * Cards edited or deleted after an export are recorded as changes under the
+ * latest catalog's entity, and a change version in memcache is bumped.
+ * Readers check the version on every use and read the changed cards from the
+ * datastore instead of the catalog.  Changes are kept until the catalog after
+ * the one that includes them is exported, so an instance still holding the
+ * previous catalog sees them too.
+ */
+public class CardCatalogService {
+
+	private static final Logger logger = Logger.getLogger(CardCatalogService.class.getName());
+
+	/**
+	 * How often, in milliseconds, an instance checks for a newer catalog.
+	 */
+	private static final long CHECK_INTERVAL = 5 * 60 * 1000;
+
+	private static final Key LATEST_KEY = KeyFactory.createKey("CardCatalogSnapshot", "latest");
+	private static final String CHANGE_KIND = "CardCatalogChange";
+	private static final String CHANGE_VERSION_KEY = "card-catalog-change-version";
+
+	private static final DatastoreService datastore =
+			DatastoreServiceFactory.getDatastoreService();
+	private static final BlobstoreService blobstoreService =
+			BlobstoreServiceFactory.getBlobstoreService();
+	private static final FileService fileService = FileServiceFactory.getFileService();
+	private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+	private static final CardRepository cardRepository = CardRepository.getInstance();
+
+	private volatile CardCatalog catalog;
+	private volatile BlobKey catalogBlobKey;
+	private volatile long lastCheck;
+	private volatile Set<String> changedCardKeys = Collections.emptySet();
+	private volatile long changeVersion = -1;
+
+	private static CardCatalogService instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The card catalog service.
+	 */
+	public static CardCatalogService getInstance() {
+		if (instance == null) {
+			instance = new CardCatalogService();
+		}
+		return instance;
+	}
+
+	private CardCatalogService() {
+
+	}
+
+	/**
+	 * Writes a catalog of every card to blob store and makes it the latest.
+	 * The catalog it replaces is deleted.
+	 * @return The new catalog, which this instance uses from now on.
+	 * @throws IOException Thrown if the catalog can't be written.
+	 */
+	public CardCatalog export() throws IOException {
+		List<Card> cards = cardRepository.find(null);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int count = CardCatalog.write(cards, bytes);
+
+		AppEngineFile file = fileService.createNewBlobFile("application/octet-stream",
+				"card-catalog-" + System.currentTimeMillis());
+		FileWriteChannel channel = fileService.openWriteChannel(file, true);
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+		bytes.writeTo(out);
+		out.flush();
+		channel.closeFinally();
+		BlobKey blobKey = fileService.getBlobKey(file);
+
+		Entity previous = readLatestEntity();
+		Entity latest = new Entity(LATEST_KEY);
+		latest.setUnindexedProperty("blobKey", blobKey);
+		latest.setUnindexedProperty("cards", (long) count);
+		latest.setUnindexedProperty("created", System.currentTimeMillis());
+		datastore.put(latest);
+		if (previous != null) {
+			blobstoreService.delete((BlobKey) previous.getProperty("blobKey"));
+			deleteChangesBefore((Long) previous.getProperty("created"));
+		}
+
+		CardCatalog exported = CardCatalog.read(ByteBuffer.wrap(bytes.toByteArray()));
+		use(exported, blobKey);
+		logger.info("Exported a catalog of " + count + " cards: " + blobKey.getKeyString());
+		return exported;
+	}
+
+	/**
+	 * Loads the catalog if this instance doesn't have it yet.  The warmup
+	 * request calls this so no user request waits on the load.
+	 * @return The number of cards in the catalog.
+	 */
+	public int preload() {
+		CardCatalog current = getCatalog();
+		return current != null ? current.size() : 0;
+	}
+
+	/**
+	 * Gets the latest catalog, loading it if this instance doesn't have it
+	 * yet or a newer one was exported.
+	 * @return The catalog or null if none was ever exported.
+	 */
+	public CardCatalog getCatalog() {
+		CardCatalog current = catalog;
+		long now = System.currentTimeMillis();
+		if (current != null && now - lastCheck < CHECK_INTERVAL) {
+			return current;
+		}
+		lastCheck = now;
+
+		BlobKey latest = readLatest();
+		if (latest == null || latest.equals(catalogBlobKey)) {
+			return current;
+		}
+		return load(latest);
+	}
+
+	private synchronized CardCatalog load(BlobKey blobKey) {
+		if (blobKey.equals(catalogBlobKey)) {
+			return catalog; // Another thread just loaded it.
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+			BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
+			byte[] bytes = new byte[(int) blobInfo.getSize()];
+			DataInputStream in = new DataInputStream(new BlobstoreInputStream(blobKey));
+			try {
+				in.readFully(bytes);
+			} finally {
+				in.close();
+			}
+			catalog = CardCatalog.read(ByteBuffer.wrap(bytes));
+			catalogBlobKey = blobKey;
+			logger.info("Loaded a catalog of " + catalog.size() + " cards in " +
+					(System.currentTimeMillis() - start) + " ms.");
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to load the card catalog " +
+					blobKey.getKeyString(), e);
+		}
+		return catalog;
+	}
+
+	private synchronized void use(CardCatalog exported, BlobKey blobKey) {
+		catalog = exported;
+		catalogBlobKey = blobKey;
+		lastCheck = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records that the card was edited or deleted, so readers stop trusting
+	 * the catalog's copy of it.
+	 * @param cardKey The card key.
+	 */
+	public void markChanged(String cardKey) {
+		Entity change = new Entity(CHANGE_KIND, cardKey, LATEST_KEY);
+		change.setUnindexedProperty("changed", System.currentTimeMillis());
+		datastore.put(change);
+		memcache.increment(CHANGE_VERSION_KEY, 1L, System.currentTimeMillis());
+	}
+
+	/**
+	 * @return The current change version.  If memcache lost it, a new version
+	 *     is started so every reader reloads the changes.
+	 */
+	public long getChangeVersion() {
+		Long version = memcache.increment(CHANGE_VERSION_KEY, 0L, System.currentTimeMillis());
+		return version == null ? -1 : version;
+	}
+
+	/**
+	 * Gets the cards that changed since they were exported.
+	 * @param version The change version, from {@link #getChangeVersion()}.
+	 * @return The keys of the changed cards.
+	 */
+	public Set<String> getChangedCardKeys(long version) {
+		if (version == changeVersion && version != -1) {
+			return changedCardKeys;
+		}
+
+		// An ancestor query, so a change just made is always there.
+		Set<String> cardKeys = new HashSet<String>();
+		Query query = new Query(CHANGE_KIND).setAncestor(LATEST_KEY).setKeysOnly();
+		for (Entity change : datastore.prepare(query).asIterable()) {
+			cardKeys.add(change.getKey().getName());
+		}
+		changedCardKeys = cardKeys;
+		changeVersion = version;
+		return cardKeys;
+	}
+
+	/**
+	 * Deletes the changes made before the given time, which every catalog
+	 * still in use includes.
+	 */
+	private void deleteChangesBefore(Long time) {
+		if (time == null) {
+			return;
+		}
+		Query query = new Query(CHANGE_KIND).setAncestor(LATEST_KEY);
+		List<Key> keys = new ArrayList<Key>();
+		for (Entity change : datastore.prepare(query).asIterable(
+				FetchOptions.Builder.withChunkSize(500))) {
+			Long changed = (Long) change.getProperty("changed");
+			if (changed == null || changed < time) {
+				keys.add(change.getKey());
+			}
+		}
+		datastore.delete(keys);
+		memcache.increment(CHANGE_VERSION_KEY, 1L, System.currentTimeMillis());
+	}
+
+	/**
+	 * @return The blob key of the latest catalog or null if there is none.
+	 */
+	private BlobKey readLatest() {
+		Entity latest = readLatestEntity();
+		return latest != null ? (BlobKey) latest.getProperty("blobKey") : null;
+	}
+
+	private Entity readLatestEntity() {
+		try {
+			return datastore.get(LATEST_KEY);
+		} catch (EntityNotFoundException e) {
+			return null;
+		}
+	}
+}
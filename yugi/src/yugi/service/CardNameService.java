@@ -0,0 +1,372 @@
+package yugi.service;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import yugi.model.Card;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Keeps the upper case name of every card in memory so existence checks don't
+ * need a query.  The names are kept in a map of name to card key.
+ *
+ * The map is per instance.  It is loaded with one projection query the first
+ * time it is needed, and the card create, edit and delete paths keep it up to
+ * date.  Every change also bumps a version in memcache and logs the change
+ * under the new version.  When another instance has changed the cards, this
+ * instance sees a different version and applies the logged changes since its
+ * own version, in order.
+ *
+ * Only if part of the log is gone, or the instance is too far behind, is the
+ * map reloaded with the query.  The query is eventually consistent, so it can
+ * miss cards that were just created.  A reload is merged into the map instead
+ * of replacing it, and a name the query didn't return is only dropped once a
+ * get by key, which is strongly consistent, shows its card was deleted or
+ * renamed.
+ */
+public class CardNameService {
+
+	private static final Logger logger = Logger.getLogger(CardNameService.class.getName());
+
+	private static final String VERSION_KEY = "card_names_version";
+	private static final String CHANGE_KEY_PREFIX = "card_names_change_";
+
+	/**
+	 * The most logged changes applied at once.  An instance further behind
+	 * reloads instead.
+	 */
+	private static final int MAX_CHANGES = 200;
+
+	private static final Expiration CHANGE_EXPIRATION = Expiration.byDeltaSeconds(60 * 60);
+
+	/**
+	 * How often, in milliseconds, the memcache version is checked.  Lookups in
+	 * between are memory only.
+	 */
+	private static final long VERSION_CHECK_INTERVAL = 1000;
+
+	private static final DatastoreService datastore =
+			DatastoreServiceFactory.getDatastoreService();
+	private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+	private volatile Names names;
+	private volatile long version;
+	private volatile long lastVersionCheck;
+
+	private static CardNameService instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The card name service.
+	 */
+	public static CardNameService getInstance() {
+		if (instance == null) {
+			instance = new CardNameService();
+		}
+		return instance;
+	}
+
+	private CardNameService() {
+
+	}
+
+	/**
+	 * Loads the names if this instance doesn't have them yet.  The warmup
+	 * request calls this so no user request waits on the load.
+	 * @return The number of names.
+	 */
+	public int preload() {
+		return getNames().size();
+	}
+
+	/**
+	 * Finds the card with the name.
+	 * @param name The card name in any case.
+	 * @return The card key or null if no card has the name.
+	 */
+	public String getCardKey(String name) {
+		return getNames().get(name.toUpperCase());
+	}
+
+	/**
+	 * Adds the card after it was created.
+	 * @param card The saved card.
+	 */
+	public void add(Card card) {
+		List<NameChange> changes = new ArrayList<NameChange>(1);
+		changes.add(new NameChange(card.getUpperName(), card.getKeyAsString(), false));
+		change(changes);
+	}
+
+	/**
+	 * Adds the cards after they were created.
+	 * @param cards The saved cards.
+	 */
+	public void addAll(Collection<Card> cards) {
+		List<NameChange> changes = new ArrayList<NameChange>(cards.size());
+		for (Card card : cards) {
+			changes.add(new NameChange(card.getUpperName(), card.getKeyAsString(), false));
+		}
+		change(changes);
+	}
+
+	/**
+	 * Updates the name after the card was renamed.
+	 * @param oldName The old name in any case.
+	 * @param newName The new name in any case.
+	 * @param cardKey The card key.
+	 */
+	public void rename(String oldName, String newName, String cardKey) {
+		List<NameChange> changes = new ArrayList<NameChange>(2);
+		changes.add(new NameChange(oldName.toUpperCase(), cardKey, true));
+		changes.add(new NameChange(newName.toUpperCase(), cardKey, false));
+		change(changes);
+	}
+
+	/**
+	 * Removes the card after it was deleted.
+	 * @param name The card name in any case.
+	 * @param cardKey The card key.
+	 */
+	public void remove(String name, String cardKey) {
+		List<NameChange> changes = new ArrayList<NameChange>(1);
+		changes.add(new NameChange(name.toUpperCase(), cardKey, true));
+		change(changes);
+	}
+
+	/**
+	 * Applies the changes here and logs them for the other instances.
+	 * @param changes The changes in the order they were made.
+	 */
+	private void change(List<NameChange> changes) {
+		Names current = names;
+		if (current != null) {
+			for (NameChange change : changes) {
+				change.applyTo(current);
+			}
+		}
+		bumpVersion(changes);
+	}
+
+	/**
+	 * Gets the names, loading them if this instance doesn't have them yet or
+	 * catching up if another instance changed the cards.
+	 */
+	private Names getNames() {
+		Names current = names;
+		long now = System.currentTimeMillis();
+		if (current != null && now - lastVersionCheck < VERSION_CHECK_INTERVAL) {
+			return current;
+		}
+		lastVersionCheck = now;
+
+		long latest = readVersion();
+		if (current != null && latest == version) {
+			return current;
+		}
+		return load(latest);
+	}
+
+	private synchronized Names load(long latest) {
+		if (names != null && version == latest) {
+			return names; // Another thread just loaded it.
+		}
+		if (names != null && latest > version && latest - version <= MAX_CHANGES &&
+				applyChanges(names, version, latest)) {
+			version = latest;
+			return names;
+		}
+
+		Query query = new Query(Card.class.getSimpleName());
+		query.addProjection(new PropertyProjection("upperName", String.class));
+		Map<String, String> cardKeys = new HashMap<String, String>();
+		for (Entity entity : datastore.prepare(query).asIterable(
+				FetchOptions.Builder.withChunkSize(1000))) {
+			cardKeys.put((String) entity.getProperty("upperName"),
+					KeyFactory.keyToString(entity.getKey()));
+		}
+		logger.info("Loaded " + cardKeys.size() + " card names.");
+
+		if (names == null) {
+			names = new Names(cardKeys);
+		} else {
+			merge(names, cardKeys);
+		}
+		version = latest;
+		return names;
+	}
+
+	/**
+	 * Applies the logged changes after one version up to another, in order.
+	 * @param current The names to change.
+	 * @param from The version the names are at.
+	 * @param to The version to catch up to.
+	 * @return False if part of the log is missing, in which case nothing was
+	 *     applied.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean applyChanges(Names current, long from, long to) {
+		List<String> keys = new ArrayList<String>((int) (to - from));
+		for (long v = from + 1; v <= to; v++) {
+			keys.add(CHANGE_KEY_PREFIX + v);
+		}
+
+		// A change is logged just after its version is bumped, so it can also
+		// be missing because it's still being written.  Reloading is safe
+		// either way.
+		Map<String, Object> logged = memcache.getAll(keys);
+		if (logged.size() < keys.size()) {
+			logger.info("Missing " + (keys.size() - logged.size()) +
+					" logged card name changes, so reloading.");
+			return false;
+		}
+		for (String key : keys) {
+			for (NameChange change : (List<NameChange>) logged.get(key)) {
+				change.applyTo(current);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Merges reloaded names into the current ones.  Names the reload didn't
+	 * return are checked with a get by key and only dropped if the card is
+	 * gone or has another name now.
+	 */
+	private static void merge(Names current, Map<String, String> cardKeys) {
+		Map<Key, String> unconfirmed = new HashMap<Key, String>();
+		for (Map.Entry<String, String> entry : current.entrySet()) {
+			if (!entry.getValue().equals(cardKeys.get(entry.getKey()))) {
+				unconfirmed.put(KeyFactory.stringToKey(entry.getValue()), entry.getKey());
+			}
+		}
+
+		for (Map.Entry<String, String> entry : cardKeys.entrySet()) {
+			current.put(entry.getKey(), entry.getValue());
+		}
+
+		if (unconfirmed.isEmpty()) {
+			return;
+		}
+		Map<Key, Entity> entities = datastore.get(unconfirmed.keySet());
+		List<String> dropped = new ArrayList<String>();
+		for (Map.Entry<Key, String> entry : unconfirmed.entrySet()) {
+			Entity entity = entities.get(entry.getKey());
+			String upperName = entry.getValue();
+			if (entity == null || !upperName.equals(entity.getProperty("upperName"))) {
+				current.remove(upperName, KeyFactory.keyToString(entry.getKey()));
+				dropped.add(upperName);
+			} else {
+				// The card is still there, so the query was just behind.
+				current.put(upperName, KeyFactory.keyToString(entry.getKey()));
+			}
+		}
+		logger.info("Kept " + (unconfirmed.size() - dropped.size()) +
+				" names the reload missed and dropped " + dropped.size() + ".");
+	}
+
+	/**
+	 * @return The current version.  If memcache lost it, a new version is
+	 *     started so every instance reloads.
+	 */
+	private long readVersion() {
+		Long latest = (Long) memcache.get(VERSION_KEY);
+		if (latest == null) {
+			latest = memcache.increment(VERSION_KEY, 0L, System.currentTimeMillis());
+		}
+		return latest == null ? -1 : latest;
+	}
+
+	/**
+	 * Bumps the version and logs the changes under it for the other
+	 * instances.  This instance already has the changes, so it keeps its
+	 * names unless someone else changed them too.
+	 * @param changes The changes in the order they were made.
+	 */
+	private void bumpVersion(List<NameChange> changes) {
+		Long latest = memcache.increment(VERSION_KEY, 1L, System.currentTimeMillis());
+		if (latest == null) {
+			return;
+		}
+		memcache.put(CHANGE_KEY_PREFIX + latest, new ArrayList<NameChange>(changes),
+				CHANGE_EXPIRATION);
+		if (latest == version + 1) {
+			version = latest;
+		}
+	}
+
+	/**
+	 * One logged change to a name.
+	 */
+	private static class NameChange implements Serializable {
+
+		private static final long serialVersionUID = 5281947305716428390L;
+
+		final String upperName;
+		final String cardKey;
+		final boolean removed;
+
+		NameChange(String upperName, String cardKey, boolean removed) {
+			this.upperName = upperName;
+			this.cardKey = cardKey;
+			this.removed = removed;
+		}
+
+		void applyTo(Names names) {
+			if (removed) {
+				names.remove(upperName, cardKey);
+			} else {
+				names.put(upperName, cardKey);
+			}
+		}
+	}
+
+	/**
+	 * The map of upper case name to card key.
+	 */
+	private static class Names {
+
+		private final ConcurrentHashMap<String, String> cardKeys;
+
+		Names(Map<String, String> cardKeys) {
+			this.cardKeys = new ConcurrentHashMap<String, String>(cardKeys);
+		}
+
+		int size() {
+			return cardKeys.size();
+		}
+
+		Iterable<Map.Entry<String, String>> entrySet() {
+			return new ArrayList<Map.Entry<String, String>>(cardKeys.entrySet());
+		}
+
+		String get(String upperName) {
+			return cardKeys.get(upperName);
+		}
+
+		void put(String upperName, String cardKey) {
+			cardKeys.put(upperName, cardKey);
+		}
+
+		void remove(String upperName, String cardKey) {
+			cardKeys.remove(upperName, cardKey);
+		}
+	}
+}
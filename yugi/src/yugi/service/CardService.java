@@ -1,15 +1,16 @@
 package yugi.service;
 
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
-import javax.jdo.Query;
 
 import yugi.PMF;
 import yugi.index.Indexer;
 import yugi.model.Card;
+import yugi.repository.CardRepository;
 
 import com.google.appengine.api.datastore.KeyFactory;
 
@@ -20,6 +21,9 @@ public class CardService {
 
 	private static final Logger logger = Logger.getLogger(CardService.class.getName());
 
+	private static final CardNameService cardNameService = CardNameService.getInstance();
+	private static final CardRepository cardRepository = CardRepository.getInstance();
+
 	private static CardService instance;
 	
 	/**
@@ -38,17 +42,24 @@ public class CardService {
 	}
 
 	/**
-	 * Fetches the card's information for the given key.
+	 * Fetches the card's information for the given key.  This reads through
+	 * the {@link CardRepository}, so the card isn't managed by JDO.
 	 * @param cardKey The card's key.
 	 * @return The card for the given key or null if the key is invalid.
 	 */
 	public Card getCard(String cardKey) {
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		try {
-			return getCard(pm, cardKey);
-		} finally {
-			pm.close();
-		}
+		return cardRepository.get(cardKey);
+	}
+	
+	/**
+	 * Fetches many cards with one batch get through the
+	 * {@link CardRepository}.
+	 * @param cardKeys The card keys.  Keys may repeat.
+	 * @return The cards in the order of the keys, with a card for every
+	 *     repeat.  Invalid keys are left out.
+	 */
+	public List<Card> getCards(List<String> cardKeys) {
+		return cardRepository.getAll(cardKeys);
 	}
 	
 	/**
@@ -70,26 +81,13 @@ public class CardService {
 	}
 	
 	/**
-	 * Checks to see if the given card already exists.
+	 * Checks to see if the given card already exists.  This is a memory lookup
+	 * in the {@link CardNameService}.
 	 * @param name The name to check.
 	 * @return The existing card key or null if no card was found.
 	 */
 	public String getExistingCardKey(String name) {
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		try {
-			Query query = pm.newQuery(Card.class);
-			query.setFilter("upperName == nameParam");
-			query.declareParameters("String nameParam");
-
-			@SuppressWarnings("unchecked")
-			List<Card> cards = (List<Card>) query.execute(name.toUpperCase());
-			if (!cards.isEmpty()) {
-				return cards.get(0).getKeyAsString();
-			}
-			return null;
-		} finally {
-			pm.close();
-		}
+		return cardNameService.getCardKey(name);
 	}
 	
 	/**
@@ -117,5 +115,60 @@ public class CardService {
 		} finally {
 			pm.close();
 		}
+		cardNameService.add(card);
+	}
+	
+	/**
+	 * Persists many new cards with one batch put and builds their indices
+	 * together.  If the indices fail, the cards are deleted again so nothing
+	 * is left half saved.  Should that delete fail too, the cards that are
+	 * still there can be found with {@link #getCard(String)}.
+	 * @param cards The new cards to persist.
+	 * @throws Exception Thrown if any card is invalid or the save failed.
+	 */
+	public void createNewCards(List<Card> cards) throws Exception {
+		for (Card card : cards) {
+			if (!card.isValid()) {
+				throw new Exception("Failed to create " + card.getName() +
+						" because something was invalid.");
+			}
+		}
+		if (cards.isEmpty()) {
+			return;
+		}
+		
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			pm.makePersistentAll(cards);
+			try {
+				Indexer.createIndices(cards, pm);
+			} catch (RuntimeException e) {
+				deleteNewCards(cards, pm);
+				throw e;
+			}
+		} finally {
+			pm.close();
+		}
+		cardNameService.addAll(cards);
+	}
+	
+	/**
+	 * Deletes cards whose indices couldn't be built, along with any index
+	 * entries that were written for them.
+	 * @param cards The cards that were just persisted.
+	 * @param pm The persistence manager.
+	 */
+	private void deleteNewCards(List<Card> cards, PersistenceManager pm) {
+		for (Card card : cards) {
+			String cardKey = card.getKeyAsString();
+			try {
+				Indexer.deleteNameIndex(card.getName(), cardKey, pm);
+				Indexer.deleteDescriptionIndex(card.getDescription(), cardKey, pm);
+				pm.deletePersistent(card);
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "Failed to delete the unindexed card " +
+						card.getName() + " (" + cardKey + ")", e);
+			}
+		}
 	}
 }
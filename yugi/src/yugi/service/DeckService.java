@@ -1,15 +1,18 @@
 package yugi.service;
 
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.logging.Logger;
 
-import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
-import javax.jdo.Query;
 
 import yugi.PMF;
 import yugi.model.Deck;
+import yugi.model.DeckChange;
+import yugi.repository.DeckRepository;
+import yugi.repository.Page;
 
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
@@ -22,7 +25,13 @@ public class DeckService {
 
 	private static final Logger logger = Logger.getLogger(DeckService.class.getName());
 
+	/**
+	 * The most decks listed per request.
+	 */
+	private static final int PAGE_SIZE = 50;
+
 	private static UserService userService = UserServiceFactory.getUserService();
+	private static DeckRepository deckRepository = DeckRepository.getInstance();
 	private static DeckService instance;
 	
 	/**
@@ -37,76 +46,115 @@ public class DeckService {
 	}
 	
 	/**
-	 * Fetches the deck's information for the given key.
+	 * Fetches the deck's information for the given key.  This reads through
+	 * the {@link DeckRepository}, so save the deck with
+	 * {@link #saveDeck(Deck, long)}.
 	 * @param deckKey The deck's key.
 	 * @return The deck for the given key or null if the key is invalid.
+	 * @throws IllegalStateException Thrown if the deck shares card lists that
+	 *     are gone.
 	 */
 	public Deck getDeck(String deckKey) {
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		try {
-			return getDeck(pm, deckKey);
-		} finally {
-			pm.close();
+		Deck deck = deckRepository.get(deckKey);
+		if (deck != null) {
+			deckRepository.loadContent(deck);
 		}
+		return deck;
 	}
 	
 	/**
-	 * Fetches the deck's information for the given key.
-	 * @param pm The persistence manager.
-	 * @param deckKey The deck's key.
-	 * @return The deck for the given key or null if the key is invalid.
+	 * Gets a page of the structure decks, ordered by name.  Like
+	 * {@link #getDecks(User, String)}, each deck only has its summary.
+	 * @param cursor The cursor from the previous page or null for the first.
+	 * @return The page.
+	 * @throws IllegalArgumentException Thrown if the cursor is invalid.
 	 */
-	public Deck getDeck(PersistenceManager pm, String deckKey) {
-		if (deckKey != null && !deckKey.isEmpty()) {
-			try {
-				return pm.getObjectById(Deck.class, KeyFactory.stringToKey(deckKey));
-			} catch (JDOObjectNotFoundException e) {
-				logger.severe("Failed to find a deck with this key: " + deckKey);
-				return null;
-			}
-		}
-		return null;
+	public Page<Deck> getStructureDecks(String cursor) {
+		return deckRepository.findStructureDeckSummaries(cursor, PAGE_SIZE);
+	}
+
+	/**
+	 * Gets a page of the decks for the given user, ordered by name.  Each
+	 * deck only has its summary: its key, owner, name and main card key.  The
+	 * card lists and the version are absent in order to keep this query fast.
+	 * @param user The user for which to fetch the decks.
+	 * @param cursor The cursor from the previous page or null for the first.
+	 * @return The page.
+	 * @throws IllegalArgumentException Thrown if the cursor is invalid.
+	 */
+	public Page<Deck> getDecks(User user, String cursor) {
+		return deckRepository.findUserDeckSummaries(user.getUserId(), cursor, PAGE_SIZE);
 	}
 	
 	/**
-	 * Gets all of the structure decks.
-	 * @param pm The persistence manager to use.
-	 * @return The list of structure decks.
+	 * Saves a deck that was read with {@link #getDeck(String)}, as long as
+	 * nobody saved it since the version the changes were made against.
+	 * @param deck The deck to save.
+	 * @param expectedVersion The version the changes were made against.
+	 * @throws ConcurrentModificationException Thrown if the deck was saved
+	 *     since the expected version.
 	 */
-	@SuppressWarnings("unchecked")
-	public List<Deck> getStructureDecks(PersistenceManager pm) {
-
-		Query query = pm.newQuery(Deck.class);
-		query.setFilter("isStructure == isStructureParam");
-		query.declareParameters("Boolean isStructureParam");
-
-		try {
-			return (List<Deck>) query.execute(true);
-		} finally {
-			query.closeAll();
-		}
+	public void saveDeck(Deck deck, long expectedVersion) {
+		deck.stopSharingContent();
+		deckRepository.put(deck, expectedVersion);
 	}
-
+	
 	/**
-	 * Gets the decks for the given user.  The resulting list of decks is a top
-	 * level fetch.  All of the information for each card in the deck is absent
-	 * in order to keep this query fast.
-	 * @param pm The persistence manager.
-	 * @param user The user for which to fetch the decks.
-	 * @return The top level information for each deck the user has access to.
+	 * Deletes a deck.  Copies that still share its card lists keep them.
+	 * @param deck The deck to delete.
 	 */
-	@SuppressWarnings("unchecked")
-	public List<Deck> getDecks(PersistenceManager pm, User user) {
-
-		Query query = pm.newQuery(Deck.class);
-		query.setFilter("userId == userIdParam && isStructure == false");
-		query.declareParameters("String userIdParam");
-
+	public void deleteDeck(Deck deck) {
+		deckRepository.delete(deck.getKey());
+	}
+	
+	/**
+	 * Copies a deck into the user's decks.  The copy shares the card lists of
+	 * the deck's current version until it's first saved, so copying only
+	 * writes the new deck's name and owner.
+	 * @param deckKey The key of the deck to copy.
+	 * @param user The user getting the copy.
+	 * @return The copy or null if there's no deck for the key.
+	 */
+	public Deck copyDeck(String deckKey, User user) {
+		Deck source;
 		try {
-			return (List<Deck>) query.execute(user.getUserId());
-		} finally {
-			query.closeAll();
+			source = deckRepository.share(KeyFactory.stringToKey(deckKey));
+		} catch (IllegalArgumentException e) {
+			logger.severe("Invalid deck key to copy: " + deckKey);
+			return null;
+		} catch (EntityNotFoundException e) {
+			logger.severe("Failed to find a deck with this key: " + deckKey);
+			return null;
+		}
+		
+		Deck deckCopy = new Deck();
+		deckCopy.setUserId(user.getUserId());
+		deckCopy.setStructure(false);
+		deckCopy.setName("Copy of " + source.getName());
+		deckCopy.setMainCardKey(source.getMainCardKey());
+		if (source.isSharingContent()) {
+			deckCopy.shareContent(source.getContentDeckKey(), source.getContentVersion());
+		} else {
+			deckCopy.shareContent(KeyFactory.keyToString(source.getKey()), source.getVersion());
 		}
+		deckRepository.put(deckCopy);
+		return deckCopy;
+	}
+	
+	/**
+	 * Applies the deck editor's changes atomically.
+	 * @param deck The deck, as read with {@link #getDeck(String)}.
+	 * @param expectedVersion The version the editor made the changes against.
+	 * @param changes The changes, in order.
+	 * @return The deck as saved, with its new version.
+	 * @throws EntityNotFoundException Thrown if the deck was deleted.
+	 * @throws ConcurrentModificationException Thrown if the deck was saved
+	 *     since the expected version.
+	 * @throws IllegalArgumentException Thrown if a change doesn't fit the deck.
+	 */
+	public Deck updateDeck(Deck deck, long expectedVersion, List<DeckChange> changes)
+			throws EntityNotFoundException {
+		return deckRepository.applyChanges(deck.getKey(), expectedVersion, changes);
 	}
 	
 	/**
@@ -0,0 +1,262 @@
+package yugi.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import yugi.index.CardCatalog;
+import yugi.model.Card;
+import yugi.model.Deck;
+
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Computes deck breakdowns: how many monsters, spells and traps each part of
+ * a deck has, its attribute and level curves and its average ATK and DEF.
+ *
+ * The stats are counted straight from the {@link CardCatalog} columns, one
+ * pass per card list, without building any cards.  Cards crawled, edited or
+ * deleted since the catalog was exported are read from the datastore and
+ * counted the same way.  The result is cached in memcache by the version of
+ * the deck's card lists and the catalog's change version, so a deck is only
+ * counted again after it or one of the cards changes.
+ */
+public class DeckStatsService {
+
+	private static final Logger logger = Logger.getLogger(DeckStatsService.class.getName());
+
+	private static final String CACHE_PREFIX = "deck-stats-";
+	private static final Expiration EXPIRATION = Expiration.byDeltaSeconds(24 * 60 * 60);
+
+	/**
+	 * The highest level a monster can have.
+	 */
+	private static final int MAX_LEVEL = 12;
+
+	private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+	private static final CardCatalogService cardCatalogService = CardCatalogService.getInstance();
+	private static final CardService cardService = CardService.getInstance();
+
+	private static DeckStatsService instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The deck stats service.
+	 */
+	public static DeckStatsService getInstance() {
+		if (instance == null) {
+			instance = new DeckStatsService();
+		}
+		return instance;
+	}
+
+	private DeckStatsService() {
+
+	}
+
+	/**
+	 * Gets the stats for each part of the deck.
+	 * @param deck The deck, as read with {@link DeckService#getDeck(String)}.
+	 * @return The stats as JSON, with one object each for the main, extra and
+	 *     side decks.
+	 */
+	public JSONObject getStats(Deck deck) {
+		CardCatalog catalog = cardCatalogService.getCatalog();
+		long changeVersion = cardCatalogService.getChangeVersion();
+		Set<String> changed = cardCatalogService.getChangedCardKeys(changeVersion);
+		String cacheKey = getCacheKey(deck, catalog, changeVersion);
+		String cached = (String) memcache.get(cacheKey);
+		if (cached != null) {
+			try {
+				return new JSONObject(cached);
+			} catch (ParseException e) {
+				logger.warning("Ignoring unreadable cached stats: " + cacheKey);
+			}
+		}
+
+		List<String> mainCardKeys = deck.getMainCardKeys();
+		List<String> extraCardKeys = deck.getExtraCardKeys();
+		List<String> sideCardKeys = deck.getSideCardKeys();
+		List<String> cardKeys = new ArrayList<String>(mainCardKeys);
+		cardKeys.addAll(extraCardKeys);
+		cardKeys.addAll(sideCardKeys);
+		CardCatalog missing = getMissingCards(catalog, changed, cardKeys);
+
+		JSONObject json = new JSONObject();
+		json.put("main", count(catalog, changed, missing, mainCardKeys).toJson());
+		json.put("extra", count(catalog, changed, missing, extraCardKeys).toJson());
+		json.put("side", count(catalog, changed, missing, sideCardKeys).toJson());
+		memcache.put(cacheKey, json.toString(), EXPIRATION);
+		return json;
+	}
+
+	/**
+	 * Counts one card list.  A card that's in neither catalog was deleted,
+	 * and is left out.
+	 */
+	private static Tally count(CardCatalog catalog, Set<String> changed, CardCatalog missing,
+			List<String> cardKeys) {
+		Tally tally = new Tally();
+		for (String cardKey : cardKeys) {
+			int index = indexOf(catalog, changed, cardKey);
+			if (index >= 0) {
+				tally.add(catalog, index);
+				continue;
+			}
+			index = missing != null ? missing.indexOf(cardKey) : -1;
+			if (index >= 0) {
+				tally.add(missing, index);
+			}
+		}
+		return tally;
+	}
+
+	/**
+	 * Finds the card in the exported catalog, unless it changed since.
+	 * @return The card's position or -1 if the catalog's copy can't be used.
+	 */
+	private static int indexOf(CardCatalog catalog, Set<String> changed, String cardKey) {
+		if (catalog == null || changed.contains(cardKey)) {
+			return -1;
+		}
+		return catalog.indexOf(cardKey);
+	}
+
+	/**
+	 * Builds a small catalog of the deck's cards that aren't in the exported
+	 * one or changed since, so they're counted the same way.
+	 * @return The catalog or null if every card is in the exported one.
+	 */
+	private static CardCatalog getMissingCards(CardCatalog catalog, Set<String> changed,
+			List<String> cardKeys) {
+		Set<String> missingKeys = new LinkedHashSet<String>();
+		for (String cardKey : cardKeys) {
+			if (indexOf(catalog, changed, cardKey) < 0) {
+				missingKeys.add(cardKey);
+			}
+		}
+		if (missingKeys.isEmpty()) {
+			return null;
+		}
+
+		List<Card> cards = cardService.getCards(new ArrayList<String>(missingKeys));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			CardCatalog.write(cards, out);
+			return CardCatalog.read(ByteBuffer.wrap(out.toByteArray()));
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Failed to catalog " + cards.size() + " cards", e);
+			return null;
+		}
+	}
+
+	/**
+	 * The cache key names the card lists being counted rather than the deck.
+	 * A copy that still shares its source's lists uses the source's key and
+	 * version, so every copy of a deck shares its stats.  It also names the
+	 * catalog and its change version, so stats are counted again once a new
+	 * catalog is exported or a card is edited or deleted.
+	 */
+	private static String getCacheKey(Deck deck, CardCatalog catalog, long changeVersion) {
+		String contentKey;
+		long contentVersion;
+		if (deck.isSharingContent()) {
+			contentKey = deck.getContentDeckKey();
+			contentVersion = deck.getContentVersion();
+		} else {
+			contentKey = KeyFactory.keyToString(deck.getKey());
+			contentVersion = deck.getVersion();
+		}
+		long catalogCreated = catalog != null ? catalog.getCreated() : 0L;
+		return CACHE_PREFIX + contentKey + "-" + contentVersion + "-" + catalogCreated +
+				"-" + changeVersion;
+	}
+
+	/**
+	 * The counts for one card list, kept in arrays indexed by ordinal and
+	 * level.
+	 */
+	private static class Tally {
+
+		private int cards;
+		private final int[] types = new int[Card.Type.values().length];
+		private final int[] attributes = new int[Card.Attribute.values().length];
+		private final int[] levels = new int[MAX_LEVEL + 1];
+		private long attackTotal;
+		private int attackCount;
+		private long defenseTotal;
+		private int defenseCount;
+
+		void add(CardCatalog catalog, int index) {
+			cards++;
+			int type = catalog.getTypeOrdinal(index);
+			if (type >= 0) {
+				types[type]++;
+			}
+			int attribute = catalog.getAttributeOrdinal(index);
+			if (attribute >= 0) {
+				attributes[attribute]++;
+			}
+			int level = catalog.getLevel(index);
+			if (level >= 0 && level <= MAX_LEVEL) {
+				levels[level]++;
+			}
+
+			// "?" is stored as -1 and left out of the averages.
+			int attack = catalog.getAttack(index);
+			if (attack >= 0) {
+				attackTotal += attack;
+				attackCount++;
+			}
+			int defense = catalog.getDefense(index);
+			if (defense >= 0) {
+				defenseTotal += defense;
+				defenseCount++;
+			}
+		}
+
+		JSONObject toJson() {
+			JSONObject json = new JSONObject();
+			json.put("cards", cards);
+			json.put("monsters", types[Card.Type.MONSTER.ordinal()]);
+			json.put("spells", types[Card.Type.SPELL.ordinal()]);
+			json.put("traps", types[Card.Type.TRAP.ordinal()]);
+
+			JSONObject attributeJson = new JSONObject();
+			for (Card.Attribute attribute : Card.Attribute.values()) {
+				if (attributes[attribute.ordinal()] > 0) {
+					attributeJson.put(attribute.name(), attributes[attribute.ordinal()]);
+				}
+			}
+			json.put("attributes", attributeJson);
+
+			JSONObject levelJson = new JSONObject();
+			for (int level = 0; level <= MAX_LEVEL; level++) {
+				if (levels[level] > 0) {
+					levelJson.put(String.valueOf(level), levels[level]);
+				}
+			}
+			json.put("levels", levelJson);
+
+			if (attackCount > 0) {
+				json.put("average-attack", (double) attackTotal / attackCount);
+			}
+			if (defenseCount > 0) {
+				json.put("average-defense", (double) defenseTotal / defenseCount);
+			}
+			return json;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package yugi.service;
 
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.jdo.JDOObjectNotFoundException;
@@ -9,6 +10,8 @@ import javax.jdo.Query;
 
 import yugi.PMF;
 import yugi.model.GameSession;
+import yugi.repository.GameSessionRepository;
+import yugi.repository.GameSessionStore;
 
 import com.google.appengine.api.datastore.KeyFactory;
 
@@ -19,6 +22,17 @@ public class GameService {
 
 	private static final Logger logger = Logger.getLogger(GameService.class.getName());
 	
+	/**
+	 * Activity is only saved this often, in milliseconds, so busy games don't
+	 * write the game on every message.
+	 */
+	private static final long ACTIVITY_RESOLUTION = 5 * 60 * 1000;
+	
+	private static final GameSessionRepository gameSessionRepository =
+			GameSessionRepository.getInstance();
+	private static final GameSessionStore gameSessionStore =
+			GameSessionStore.getInstance();
+	
 	private static GameService instance;
 	
 	/**
@@ -44,12 +58,43 @@ public class GameService {
 			logger.info("Creating a new game.");
 			game = new GameSession(gameName);
 			pm.makePersistent(game);
+			LobbyService.getInstance().update(game);
 			return game;
 		} finally {
 			pm.close();
 		}
 	}
 	
+	/**
+	 * Fetches the game information for the given key.  This reads through the
+	 * {@link GameSessionStore}, so it sees saves that haven't been flushed
+	 * yet and the game isn't managed by JDO.
+	 * @param gameKey The game's key.
+	 * @return The game for the given key or null if the key is invalid.
+	 */
+	public GameSession getGame(String gameKey) {
+		return gameSessionStore.get(gameKey);
+	}
+	
+	/**
+	 * Saves a game that was read with {@link #getGame(String)} or
+	 * {@link #getForClientId(String)}.  The save is written behind the
+	 * request.
+	 * @param game The game to save.
+	 */
+	public void saveGame(GameSession game) {
+		game.touch();
+		gameSessionStore.save(game);
+	}
+	
+	/**
+	 * Deletes a game.
+	 * @param game The game to delete.
+	 */
+	public void deleteGame(GameSession game) {
+		gameSessionStore.delete(game);
+	}
+	
 	/**
 	 * Fetches the game information for the given key.
 	 * @param pm The persistence manager.
@@ -68,6 +113,24 @@ public class GameService {
 		return null;
 	}
 	
+	/**
+	 * Records that something happened in the game.  The game is saved only if
+	 * the last recorded activity is older than the activity resolution.
+	 * @param game The game.
+	 */
+	public void recordActivity(GameSession game) {
+		if (System.currentTimeMillis() - game.getLastActivity() < ACTIVITY_RESOLUTION) {
+			return;
+		}
+		try {
+			game.touch();
+			gameSessionRepository.saveLastActivity(game);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to record activity for " +
+					game.getKeyAsString(), e);
+		}
+	}
+	
 	/**
 	 * Gets all the games.
 	 * @param pm The persistence manager.
@@ -84,22 +147,32 @@ public class GameService {
 	}
 	
 	/**
-	 * Finds the game that has one of the players using this client ID.
+	 * Finds the game that has one of the players using this client ID.  A
+	 * recently saved game is found without a query.
 	 * @param clientId The player's client ID.
 	 * @return The game to which the client ID is associated, if any.
 	 */
 	public GameSession getForClientId(String clientId) {
+		GameSession game = gameSessionStore.getForClientId(clientId);
+		if (game != null) {
+			return game;
+		}
+		
 		PersistenceManager pm = PMF.get().getPersistenceManager();
-		GameSession game = null;
 		try {
 			game = queryByClientId(pm, "player1ClientId", clientId);
 			if (game == null) {
 				game = queryByClientId(pm, "player2ClientId", clientId);
 			}
+			if (game == null) {
+				game = queryByClientId(pm, "spectatorClientIds", clientId);
+			}
 		} finally {
 			pm.close();
 		}
-		return game;
+		
+		// The stored game may be behind a save that hasn't been flushed.
+		return game != null ? gameSessionStore.get(game.getKeyAsString()) : null;
 	}
 	
 	/**
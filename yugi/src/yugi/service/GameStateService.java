@@ -0,0 +1,489 @@
+package yugi.service;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+
+import org.json.JSONObject;
+
+import yugi.Config;
+import yugi.PMF;
+import yugi.message.Message;
+import yugi.message.SyncResponseMessage;
+import yugi.model.GameSession;
+import yugi.model.GameState;
+import yugi.model.GameStateDelta;
+import yugi.net.ChannelUtil;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+/**
+ * Maintains the server's copy of each game's state.  Every relayed message is
+ * given the game's next sequence number, which is stamped on the message the
+ * clients receive, and appended to a delta log.  Clients acknowledge the
+ * sequence numbers they've received.  Every so often a task folds the state
+ * carrying deltas into a snapshot and drops every delta nobody can need
+ * anymore.
+ *
+ * A message is needed until its receiver acknowledges it or until its sender
+ * sends its state again, since that state already includes the message's
+ * effect.  When a player reconnects, the server sends the snapshot plus the
+ * messages that are still needed instead of asking the other client to upload
+ * its game.
+ */
+public class GameStateService {
+
+	private static final Logger logger = Logger.getLogger(GameStateService.class.getName());
+
+	/**
+	 * The number of deltas between snapshots.
+	 */
+	private static final int SNAPSHOT_INTERVAL = 25;
+
+	/**
+	 * The prefix for the memcache key holding a game's sequence counter.
+	 */
+	private static final String SEQUENCE_PREFIX = "game-state-sequence-";
+
+	/**
+	 * The prefix for the memcache key holding the last sequence number a
+	 * player acknowledged.
+	 */
+	private static final String ACK_PREFIX = "game-state-ack-";
+
+	/**
+	 * How long, in milliseconds, a snapshot waits so the delta writes before
+	 * it have landed.
+	 */
+	private static final long SNAPSHOT_DELAY = 10 * 1000;
+
+	/**
+	 * The field stamped on every relayed message with its sequence number.
+	 */
+	public static final String SEQUENCE = "sq";
+
+	// Message JSON fields this service understands.
+	private static final String TYPE = "type";
+	private static final String DATA_TYPE = "dt";
+	private static final String DATA = "d";
+	private static final String GAME = "game";
+	private static final String GAME_KEY = "k";
+	private static final String PLAYER = "p";
+	private static final String OPPONENT = "o";
+	private static final String OPPONENT_JOINED = "oj";
+
+	// The state message data types.
+	private static final String DATA_TYPE_GAME = "g";
+	private static final String DATA_TYPE_PLAYER = "p";
+
+	private static MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+	private static AsyncMemcacheService asyncMemcache =
+			MemcacheServiceFactory.getAsyncMemcacheService();
+	private static AsyncDatastoreService datastore =
+			DatastoreServiceFactory.getAsyncDatastoreService();
+	private static GameStateService instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The game state service.
+	 */
+	public static GameStateService getInstance() {
+		if (instance == null) {
+			instance = new GameStateService();
+		}
+		return instance;
+	}
+
+	private GameStateService() {
+
+	}
+
+	/**
+	 * Appends a relayed message to the game's delta log and schedules a
+	 * snapshot if enough deltas have accumulated.  This runs for every move,
+	 * so the delta write isn't waited on and the snapshot runs in a task.
+	 * @param game The game the message belongs to.
+	 * @param user The player that sent the message.
+	 * @param type The message type or null if the server doesn't know it.
+	 * @param message The raw message JSON that was relayed.
+	 * @return The message's sequence number or null if it couldn't be
+	 *     recorded.
+	 */
+	public Long record(GameSession game, String user, Message.Type type, String message) {
+		String gameKey = game.getKeyAsString();
+		Long sequence = nextSequence(gameKey);
+		if (sequence == null) {
+			logger.severe("Failed to get a sequence number for a delta of " + gameKey);
+			return null;
+		}
+
+		// The same kind and properties JDO uses for a GameStateDelta.
+		Entity delta = new Entity(GameStateDelta.class.getSimpleName());
+		delta.setProperty("gameKey", gameKey);
+		delta.setProperty("sequence", sequence);
+		delta.setProperty("player", user);
+		delta.setProperty("state", isState(type));
+		delta.setProperty("message", new Text(message));
+		datastore.put(delta);
+
+		if (sequence % SNAPSHOT_INTERVAL == 0) {
+			try {
+				QueueFactory.getDefaultQueue().add(withUrl("/tasks/snapshot_game")
+						.param(Config.UrlParameter.GAME_KEY.name().toLowerCase(), gameKey)
+						.countdownMillis(SNAPSHOT_DELAY)
+						.method(Method.GET));
+			} catch (Exception e) {
+				// The next interval's snapshot folds these deltas too.
+				logger.log(Level.WARNING, "Failed to schedule a snapshot of " + gameKey, e);
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * Records the last sequence number the player received.  Clients send
+	 * these in batches, and nothing waits on the write.
+	 * @param game The game.
+	 * @param user The player that acknowledged.
+	 * @param sequence The sequence number of the last message it received.
+	 */
+	public void acknowledge(GameSession game, String user, long sequence) {
+		asyncMemcache.put(
+				ACK_PREFIX + game.getKeyAsString() + "-" + user, sequence);
+	}
+
+	/**
+	 * Stamps the message with its sequence number so the client can
+	 * acknowledge it.
+	 * @param message The raw message JSON object.
+	 * @param sequence The message's sequence number.
+	 * @return The message with the sequence number as its first field.
+	 */
+	public static String stamp(String message, long sequence) {
+		int start = message.indexOf('{') + 1;
+		String field = "\"" + SEQUENCE + "\":" + sequence;
+		if (message.substring(start).trim().startsWith("}")) {
+			return message.substring(0, start) + field + message.substring(start);
+		}
+		return message.substring(0, start) + field + "," + message.substring(start);
+	}
+
+	/**
+	 * Sends the reconnected player everything it needs to synchronize: the
+	 * game data built from the snapshot followed by each message from the
+	 * other player that it still needs.
+	 * @param game The game.
+	 * @param reconnectedClientId The client ID of the player that reconnected.
+	 * @return True if the server synchronized the player, false if there was
+	 *     not enough state and the other client has to be asked instead.
+	 */
+	public boolean synchronize(GameSession game, String reconnectedClientId) {
+		String gameKey = game.getKeyAsString();
+		boolean isPlayer1 = reconnectedClientId.equals(game.getPlayer1ClientId());
+		String otherPlayer = isPlayer1 ? game.getPlayer2() : game.getPlayer1();
+
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			// The whole log, since needed deltas can be older than the
+			// snapshot.  Only the newer state deltas still need folding.
+			GameState state = getState(pm, gameKey);
+			List<GameStateDelta> deltas = getDeltas(pm, gameKey, 0L);
+			for (GameStateDelta delta : deltas) {
+				if (delta.isState() && delta.getSequence() > state.getSequence()) {
+					fold(game, state, delta);
+				}
+			}
+			updateAcks(game, state);
+
+			// The messages the other player sent that this one still needs.
+			long replayStart = getReplayStart(state, isPlayer1);
+			List<GameStateDelta> missed = new ArrayList<GameStateDelta>();
+			for (GameStateDelta delta : deltas) {
+				if (!delta.isState() && delta.getSequence() > replayStart &&
+						delta.getPlayer().equals(otherPlayer)) {
+					missed.add(delta);
+				}
+			}
+
+			return synchronize(game, state, isPlayer1, reconnectedClientId, missed);
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Sends the snapshot and the missed messages to the reconnected player.
+	 * @return False if there isn't enough state to synchronize from.
+	 */
+	private boolean synchronize(GameSession game, GameState state, boolean isPlayer1,
+			String reconnectedClientId, List<GameStateDelta> missed) {
+		String gameKey = game.getKeyAsString();
+
+		// Both players must have sent their state at least once.
+		String playerState = isPlayer1 ? state.getPlayer1State() : state.getPlayer2State();
+		String otherState = isPlayer1 ? state.getPlayer2State() : state.getPlayer1State();
+		if (playerState == null || otherState == null) {
+			logger.info("Not enough state to synchronize " + reconnectedClientId);
+			return false;
+		}
+
+		// The client expects the game from the other player's point of view.
+		JSONObject gameJson = new JSONObject();
+		try {
+			gameJson.put(GAME_KEY, gameKey);
+			gameJson.put(PLAYER, new JSONObject(otherState));
+			gameJson.put(OPPONENT, new JSONObject(playerState));
+			gameJson.put(OPPONENT_JOINED, true);
+		} catch (java.text.ParseException e) {
+			logger.log(Level.SEVERE, "Failed to parse the stored state for " + gameKey, e);
+			return false;
+		}
+
+		ChannelUtil.sendToClient(reconnectedClientId, new Message(Message.Type.WAIT_FOR_SYNC));
+		ChannelUtil.sendToClient(reconnectedClientId, new SyncResponseMessage(gameJson));
+
+		// Replay what the other player sent that this one still needs.  They
+		// keep their sequence numbers so the client acknowledges them.
+		for (GameStateDelta delta : missed) {
+			ChannelUtil.sendToClient(reconnectedClientId,
+					stamp(delta.getMessage(), delta.getSequence()));
+		}
+		logger.info("Synchronized " + reconnectedClientId + " from the snapshot and " +
+				missed.size() + " replayed messages.");
+		return true;
+	}
+
+	/**
+	 * Deletes the snapshot and delta log for the game.
+	 * @param gameKey The key of the game being deleted.
+	 */
+	public void delete(String gameKey) {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		Query query = pm.newQuery(GameStateDelta.class);
+		query.setFilter("gameKey == gameKeyParam");
+		query.declareParameters("String gameKeyParam");
+		try {
+			query.deletePersistentAll(gameKey);
+			try {
+				pm.deletePersistent(pm.getObjectById(GameState.class, gameKey));
+			} catch (JDOObjectNotFoundException e) {
+				// The game never got far enough to have a snapshot.
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to delete the state for " + gameKey, e);
+		} finally {
+			query.closeAll();
+			pm.close();
+		}
+		memcache.delete(SEQUENCE_PREFIX + gameKey);
+	}
+
+	/**
+	 * Folds the state carrying deltas into the snapshot and drops the deltas
+	 * that neither player needs anymore.  Run by the snapshot task.
+	 * @param game The game to snapshot.
+	 */
+	public void snapshot(GameSession game) {
+		String gameKey = game.getKeyAsString();
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			GameState state = getState(pm, gameKey);
+			List<GameStateDelta> deltas = getDeltas(pm, gameKey, 0L);
+			if (deltas.isEmpty()) {
+				return;
+			}
+
+			for (GameStateDelta delta : deltas) {
+				if (delta.isState() && delta.getSequence() > state.getSequence()) {
+					fold(game, state, delta);
+				}
+			}
+			state.setSequence(Math.max(state.getSequence(),
+					deltas.get(deltas.size() - 1).getSequence()));
+			updateAcks(game, state);
+			pm.makePersistent(state);
+
+			// State deltas now live in the snapshot.  Everything else can go
+			// once its receiver has it or its sender's state covers it.
+			long player1Start = getReplayStart(state, true);
+			long player2Start = getReplayStart(state, false);
+			List<GameStateDelta> toDelete = new ArrayList<GameStateDelta>();
+			for (GameStateDelta delta : deltas) {
+				boolean toPlayer1 = !delta.getPlayer().equals(game.getPlayer1());
+				long replayStart = toPlayer1 ? player1Start : player2Start;
+				if (delta.isState() || delta.getSequence() <= replayStart) {
+					toDelete.add(delta);
+				}
+			}
+			pm.deletePersistentAll(toDelete);
+			logger.info("Snapshot of " + gameKey + " at " + state.getSequence() +
+					" dropped " + toDelete.size() + " deltas.");
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to snapshot " + gameKey, e);
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Applies a state carrying delta to the snapshot.
+	 * @param game The game.
+	 * @param state The snapshot to update.
+	 * @param delta The delta to apply.
+	 */
+	private void fold(GameSession game, GameState state, GameStateDelta delta) {
+		JSONObject messageJson;
+		try {
+			messageJson = new JSONObject(delta.getMessage());
+		} catch (java.text.ParseException e) {
+			logger.log(Level.SEVERE, "Failed to parse a stored delta.", e);
+			return;
+		}
+
+		boolean fromPlayer1 = delta.getPlayer().equals(game.getPlayer1());
+		long sequence = delta.getSequence();
+
+		// Game data carries both players from the sender's point of view.
+		JSONObject gameJson = null;
+		if (Message.Type.SYNC_RESPONSE.name().equalsIgnoreCase(messageJson.optString(TYPE))) {
+			gameJson = messageJson.optJSONObject(GAME);
+		} else if (DATA_TYPE_GAME.equals(messageJson.optString(DATA_TYPE))) {
+			gameJson = messageJson.optJSONObject(DATA);
+		}
+
+		if (gameJson != null) {
+			JSONObject sender = gameJson.optJSONObject(PLAYER);
+			JSONObject other = gameJson.optJSONObject(OPPONENT);
+			if (sender != null) {
+				setState(state, fromPlayer1, sender.toString(), sequence);
+			}
+			if (other != null) {
+				setState(state, !fromPlayer1, other.toString(), sequence);
+			}
+		} else if (DATA_TYPE_PLAYER.equals(messageJson.optString(DATA_TYPE))) {
+			JSONObject sender = messageJson.optJSONObject(DATA);
+			if (sender != null) {
+				setState(state, fromPlayer1, sender.toString(), sequence);
+			}
+		}
+	}
+
+	/**
+	 * Sets a single player's state on the snapshot.
+	 * @param state The snapshot.
+	 * @param player1 True to set player 1's state, false for player 2.
+	 * @param playerState The player state JSON.
+	 * @param sequence The sequence number the state was sent at.
+	 */
+	private void setState(GameState state, boolean player1, String playerState, long sequence) {
+		if (player1) {
+			state.setPlayer1State(playerState, sequence);
+		} else {
+			state.setPlayer2State(playerState, sequence);
+		}
+	}
+
+	/**
+	 * Copies the acknowledgements in memcache onto the snapshot.  An
+	 * acknowledgement memcache lost falls back to the one in the snapshot.
+	 * @param game The game.
+	 * @param state The snapshot to update.
+	 */
+	private void updateAcks(GameSession game, GameState state) {
+		String prefix = ACK_PREFIX + game.getKeyAsString() + "-";
+		Long player1Ack = (Long) memcache.get(prefix + game.getPlayer1());
+		if (player1Ack != null && player1Ack > state.getPlayer1Ack()) {
+			state.setPlayer1Ack(player1Ack);
+		}
+		Long player2Ack = (Long) memcache.get(prefix + game.getPlayer2());
+		if (player2Ack != null && player2Ack > state.getPlayer2Ack()) {
+			state.setPlayer2Ack(player2Ack);
+		}
+	}
+
+	/**
+	 * Gets the sequence number after which the other player's messages still
+	 * have to be replayed to a player.  The player already has everything it
+	 * acknowledged, and the other player's state in the snapshot already
+	 * includes the effect of everything that player sent before it.
+	 * @param state The snapshot with its acknowledgements updated.
+	 * @param toPlayer1 True for messages to player 1, false for player 2.
+	 * @return The sequence number.
+	 */
+	private long getReplayStart(GameState state, boolean toPlayer1) {
+		if (toPlayer1) {
+			return Math.max(state.getPlayer1Ack(), state.getPlayer2Sequence());
+		}
+		return Math.max(state.getPlayer2Ack(), state.getPlayer1Sequence());
+	}
+
+	/**
+	 * Checks to see if the message carries state the snapshot cares about.
+	 * @param type The message type.
+	 * @return True if the message carries player or game state.
+	 */
+	private boolean isState(Message.Type type) {
+		return type == Message.Type.STATE || type == Message.Type.SYNC_RESPONSE;
+	}
+
+	/**
+	 * Gets the next sequence number for the game.  If memcache loses the
+	 * counter, it restarts from the current time which keeps it increasing.
+	 * @param gameKey The game key.
+	 * @return The next sequence number or null if memcache failed.
+	 */
+	private Long nextSequence(String gameKey) {
+		return memcache.increment(SEQUENCE_PREFIX + gameKey, 1L,
+				System.currentTimeMillis() * 1000);
+	}
+
+	/**
+	 * Fetches the game's snapshot or an empty one if none exists yet.
+	 * @param pm The persistence manager.
+	 * @param gameKey The game key.
+	 * @return The snapshot.
+	 */
+	private GameState getState(PersistenceManager pm, String gameKey) {
+		try {
+			return pm.getObjectById(GameState.class, gameKey);
+		} catch (JDOObjectNotFoundException e) {
+			return new GameState(gameKey);
+		}
+	}
+
+	/**
+	 * Fetches the deltas after the given sequence number in order.
+	 * @param pm The persistence manager.
+	 * @param gameKey The game key.
+	 * @param sequence The sequence number after which to fetch.
+	 * @return The deltas in sequence order.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<GameStateDelta> getDeltas(PersistenceManager pm, String gameKey, long sequence) {
+		Query query = pm.newQuery(GameStateDelta.class);
+		query.setFilter("gameKey == gameKeyParam && sequence > sequenceParam");
+		query.declareParameters("String gameKeyParam, Long sequenceParam");
+		query.setOrdering("sequence asc");
+		try {
+			return new ArrayList<GameStateDelta>(
+					(List<GameStateDelta>) query.execute(gameKey, sequence));
+		} finally {
+			query.closeAll();
+		}
+	}
+}
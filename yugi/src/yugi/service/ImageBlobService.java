@@ -0,0 +1,259 @@
+package yugi.service;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+
+import yugi.PMF;
+import yugi.model.Card;
+import yugi.model.ImageBlob;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.ServingUrlOptions;
+
+/**
+ * Service for the index of card image blobs by content hash.  Cards with the
+ * same image share a single blob and serving URL.
+ *
+ * A card takes a blob with {@link #acquire(String, String)},
+ * {@link #acquireBySource(String)} or
+ * {@link #register(String, BlobKey, String)}, which stamp the index entry in a
+ * transaction.  {@link #release(BlobKey)} deletes the entry in a transaction
+ * on the same entity and leaves it alone if it was stamped recently, so a
+ * blob can't be deleted out from under a card that is still being saved.
+ */
+public class ImageBlobService {
+
+	private static final Logger logger = Logger.getLogger(ImageBlobService.class.getName());
+
+	/**
+	 * How long, in milliseconds, a blob is kept after a card took it.  This
+	 * is longer than any request or task takes to save the card.
+	 */
+	private static final long ACQUIRE_GRACE = 30 * 60 * 1000;
+
+	private static final BlobstoreService blobstoreService =
+			BlobstoreServiceFactory.getBlobstoreService();
+	private static final ImagesService imagesService =
+			ImagesServiceFactory.getImagesService();
+
+	private static ImageBlobService instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The image blob service.
+	 */
+	public static ImageBlobService getInstance() {
+		if (instance == null) {
+			instance = new ImageBlobService();
+		}
+		return instance;
+	}
+
+	private ImageBlobService() {
+
+	}
+
+	/**
+	 * Takes the image blob for the content hash for a card that is about to
+	 * use it.
+	 * @param hash The MD5 of the image in hex.
+	 * @return The image blob or null if no image has this hash.
+	 */
+	public ImageBlob acquire(String hash) {
+		return acquire(hash, null);
+	}
+
+	/**
+	 * Takes the image blob that was downloaded from the URL before, so the
+	 * image doesn't have to be downloaded and written again to find out.
+	 * @param sourceUrl The URL of the image.
+	 * @return The image blob or null if no image came from this URL.
+	 */
+	public ImageBlob acquireBySource(String sourceUrl) {
+		String hash;
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			// Queries can't run in the transaction, so find the entry first and
+			// take it in the transaction.  If it was released in between, the
+			// transaction doesn't find it and the image is stored again.
+			Query query = pm.newQuery(ImageBlob.class);
+			query.setFilter("sourceUrls == sourceUrlParam");
+			query.declareParameters("String sourceUrlParam");
+			query.setRange(0, 1);
+			@SuppressWarnings("unchecked")
+			List<ImageBlob> entries = (List<ImageBlob>) query.execute(sourceUrl);
+			if (entries.isEmpty()) {
+				return null;
+			}
+			hash = entries.get(0).getHash();
+		} finally {
+			pm.close();
+		}
+		return acquire(hash, null);
+	}
+
+	/**
+	 * Takes the image blob for the content hash for a card that is about to
+	 * use it.
+	 * @param hash The MD5 of the image in hex.
+	 * @param sourceUrl The URL the image was downloaded from, or null.
+	 * @return The image blob or null if no image has this hash.
+	 */
+	public ImageBlob acquire(String hash, String sourceUrl) {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			ImageBlob imageBlob = pm.getObjectById(ImageBlob.class, hash);
+			imageBlob.setAcquired(System.currentTimeMillis());
+			if (sourceUrl != null) {
+				imageBlob.addSourceUrl(sourceUrl);
+			}
+			tx.commit();
+			return imageBlob;
+		} catch (JDOObjectNotFoundException e) {
+			return null;
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+			pm.close();
+		}
+	}
+
+	/**
+	 * Adds a newly written blob to the index.  If another request indexed the
+	 * same image first, its entry is returned and the new blob is deleted.
+	 * @param hash The MD5 of the image in hex.
+	 * @param blobKey The key of the new blob.
+	 * @return The indexed image blob.
+	 * @throws IllegalArgumentException Thrown if the blob can't be served as
+	 *     an image.
+	 */
+	public ImageBlob register(String hash, BlobKey blobKey) {
+		return register(hash, blobKey, null);
+	}
+
+	/**
+	 * Adds a newly written blob to the index.  If another request indexed the
+	 * same image first, its entry is returned and the new blob is deleted.
+	 * @param hash The MD5 of the image in hex.
+	 * @param blobKey The key of the new blob.
+	 * @param sourceUrl The URL the image was downloaded from, or null.
+	 * @return The indexed image blob.
+	 * @throws IllegalArgumentException Thrown if the blob can't be served as
+	 *     an image.
+	 */
+	public ImageBlob register(String hash, BlobKey blobKey, String sourceUrl) {
+		ServingUrlOptions options = ServingUrlOptions.Builder.withBlobKey(blobKey);
+		String servingUrl = imagesService.getServingUrl(options);
+
+		ImageBlob imageBlob = null;
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			try {
+				imageBlob = pm.getObjectById(ImageBlob.class, hash);
+			} catch (JDOObjectNotFoundException e) {
+				imageBlob = new ImageBlob(hash, blobKey, servingUrl);
+			}
+			imageBlob.setAcquired(System.currentTimeMillis());
+			if (sourceUrl != null) {
+				imageBlob.addSourceUrl(sourceUrl);
+			}
+			pm.makePersistent(imageBlob);
+			tx.commit();
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+			pm.close();
+		}
+
+		if (!blobKey.equals(imageBlob.getBlobKey())) {
+			logger.info("The image was already stored, so deleting the duplicate blob.");
+			blobstoreService.delete(blobKey);
+		}
+		return imageBlob;
+	}
+
+	/**
+	 * Deletes the blob unless a card still uses it.  Since identical images
+	 * share a blob, callers must release blobs this way instead of deleting
+	 * them.
+	 *
+	 * Cards can only be found with a query, which can't run in the
+	 * transaction, so the transaction on the index entry checks the stamp
+	 * instead.  A card that took the blob after the query ran stamped the
+	 * entry, and either the stamp keeps the blob or the deleted entry makes
+	 * that card store the image again.
+	 * @param blobKey The key of the blob that is no longer needed.
+	 */
+	public void release(BlobKey blobKey) {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			Query cardQuery = pm.newQuery(Card.class);
+			cardQuery.setFilter("imageBlobKey == blobKeyParam");
+			cardQuery.declareParameters("com.google.appengine.api.blobstore.BlobKey blobKeyParam");
+			cardQuery.setRange(0, 1);
+			@SuppressWarnings("unchecked")
+			List<Card> cards = (List<Card>) cardQuery.execute(blobKey);
+			if (!cards.isEmpty()) {
+				logger.info("A card still uses the blob, so keeping it: " + blobKey);
+				return;
+			}
+
+			Query indexQuery = pm.newQuery(ImageBlob.class);
+			indexQuery.setFilter("blobKey == blobKeyParam");
+			indexQuery.declareParameters("com.google.appengine.api.blobstore.BlobKey blobKeyParam");
+			@SuppressWarnings("unchecked")
+			List<ImageBlob> entries = (List<ImageBlob>) indexQuery.execute(blobKey);
+			for (ImageBlob entry : entries) {
+				if (!deleteEntry(pm, entry.getHash(), blobKey)) {
+					logger.info("A card just took the blob, so keeping it: " + blobKey);
+					return;
+				}
+			}
+		} finally {
+			pm.close();
+		}
+		blobstoreService.delete(blobKey);
+	}
+
+	/**
+	 * Deletes the index entry for the blob unless a card took it recently.
+	 * @return False if the entry was kept.
+	 */
+	private boolean deleteEntry(PersistenceManager pm, String hash, BlobKey blobKey) {
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			ImageBlob imageBlob = pm.getObjectById(ImageBlob.class, hash);
+			if (!blobKey.equals(imageBlob.getBlobKey())) {
+				return true; // The entry is for another copy of the image.
+			}
+			if (System.currentTimeMillis() - imageBlob.getAcquired() < ACQUIRE_GRACE) {
+				return false;
+			}
+			pm.deletePersistent(imageBlob);
+			tx.commit();
+			return true;
+		} catch (JDOObjectNotFoundException e) {
+			return true; // Already deleted.
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+		}
+	}
+}
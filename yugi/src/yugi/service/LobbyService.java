@@ -0,0 +1,449 @@
+package yugi.service;
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import yugi.model.GameSession;
+import yugi.repository.GameSessionRepository;
+import yugi.repository.GameSessionStore;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Keeps an index of the games that can still be joined so the lobby doesn't
+ * have to load every game on every refresh.  Games are added when they are
+ * created and removed once they fill up or are deleted.
+ *
+ * The index lives in memcache so every instance serves the same lobby and the
+ * same change feed versions.  Changes are made with compare-and-set, so
+ * concurrent changes from different instances aren't lost.  Since memcache
+ * can drop the index, or miss a change made while it was gone, the index is
+ * rebuilt when it's missing and refreshed every refresh interval.  Both only
+ * query the games with an empty seat, and the newest copy of each game
+ * decides whether it's open, since joins reach the datastore behind the
+ * request.
+ */
+public class LobbyService {
+
+	private static final Logger logger = Logger.getLogger(LobbyService.class.getName());
+
+	/**
+	 * The number of games returned per page.
+	 */
+	public static final int PAGE_SIZE = 20;
+
+	/**
+	 * The number of changes kept for the change feed.  Clients further behind
+	 * than this have to reload the lobby.
+	 */
+	private static final int MAX_CHANGES = 200;
+
+	/**
+	 * How often, in milliseconds, the index is refreshed from the datastore.
+	 */
+	private static final long REFRESH_INTERVAL = 60 * 1000;
+
+	/**
+	 * Matches the games with an empty seat.  Each side is an equality filter
+	 * on a single property, so no composite index is needed.
+	 */
+	private static final Filter OPEN_FILTER = CompositeFilterOperator.or(
+			new FilterPredicate("player1ClientId", FilterOperator.EQUAL, null),
+			new FilterPredicate("player2ClientId", FilterOperator.EQUAL, null));
+
+	/**
+	 * How many times a change is retried when another instance changed the
+	 * index at the same time.
+	 */
+	private static final int MAX_ATTEMPTS = 10;
+
+	private static final String LOBBY_KEY = "lobby";
+	private static final String REFRESH_LOCK_KEY = "lobby-refresh";
+	private static final Expiration REFRESH_LOCK_EXPIRATION =
+			Expiration.byDeltaMillis((int) REFRESH_INTERVAL);
+
+	private static final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+	private static final GameSessionRepository gameSessionRepository =
+			GameSessionRepository.getInstance();
+	private static final GameSessionStore gameSessionStore = GameSessionStore.getInstance();
+
+	private static LobbyService instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The lobby service.
+	 */
+	public static LobbyService getInstance() {
+		if (instance == null) {
+			instance = new LobbyService();
+		}
+		return instance;
+	}
+
+	private LobbyService() {
+
+	}
+
+	/**
+	 * Updates the index after the game was created or joined.
+	 * @param game The game that changed.
+	 */
+	public void update(final GameSession game) {
+		final String gameKey = game.getKeyAsString();
+		if (!isOpen(game)) {
+			remove(gameKey);
+			return;
+		}
+		final String json = game.toJson().toString();
+		change(new Change() {
+			@Override
+			public void apply(Lobby lobby, long now) {
+				if (!json.equals(lobby.games.put(gameKey, json))) {
+					lobby.record(gameKey, json, now);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Removes the game from the index, typically because it was deleted.
+	 * @param gameKey The key of the game.
+	 */
+	public void remove(final String gameKey) {
+		change(new Change() {
+			@Override
+			public void apply(Lobby lobby, long now) {
+				if (lobby.games.remove(gameKey) != null) {
+					lobby.record(gameKey, null, now);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets a page of open games.
+	 * @param cursor The key of the last game on the previous page or null for
+	 *     the first page.
+	 * @return The page as JSON with the games, the cursor for the next page if
+	 *     there is one and the current version for the change feed.
+	 */
+	public JSONObject getPage(String cursor) {
+		Lobby lobby = read();
+
+		Map<String, String> tail = (cursor == null) ?
+				lobby.games : lobby.games.tailMap(cursor, false);
+		List<JSONObject> games = new ArrayList<JSONObject>(PAGE_SIZE);
+		String lastKey = null;
+		boolean more = false;
+		for (Map.Entry<String, String> entry : tail.entrySet()) {
+			if (games.size() == PAGE_SIZE) {
+				more = true;
+				break;
+			}
+			games.add(parse(entry.getValue()));
+			lastKey = entry.getKey();
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("games", new JSONArray(games));
+		if (more) {
+			json.put("cursor", lastKey);
+		}
+		json.put("version", lobby.version);
+		return json;
+	}
+
+	/**
+	 * Gets the changes since the given version.
+	 * @param since The version the client last saw.
+	 * @return The changes as JSON, or a reset flag if the changes are no longer
+	 *     available and the client must reload.
+	 */
+	public JSONObject getChanges(long since) {
+		Lobby lobby = read();
+
+		JSONObject json = new JSONObject();
+		json.put("version", lobby.version);
+
+		Entry oldest = lobby.changes.peek();
+		if (since > lobby.version || (oldest != null && oldest.version > since + 1) ||
+				(oldest == null && since < lobby.version)) {
+			json.put("reset", true);
+			return json;
+		}
+
+		// Only the last change to each game counts.
+		Map<String, String> latest = new LinkedHashMap<String, String>();
+		for (Entry entry : lobby.changes) {
+			if (entry.version > since) {
+				latest.remove(entry.gameKey);
+				latest.put(entry.gameKey, entry.game);
+			}
+		}
+		List<JSONObject> added = new ArrayList<JSONObject>();
+		List<String> removed = new ArrayList<String>();
+		for (Map.Entry<String, String> change : latest.entrySet()) {
+			if (change.getValue() != null) {
+				added.add(parse(change.getValue()));
+			} else {
+				removed.add(change.getKey());
+			}
+		}
+		json.put("added", new JSONArray(added));
+		json.put("removed", new JSONArray(removed));
+		return json;
+	}
+
+	/**
+	 * Checks to see if the game has a seat left.
+	 * @param game The game.
+	 * @return True if another player can join.
+	 */
+	private static boolean isOpen(GameSession game) {
+		return game.getPlayer1ClientId() == null || game.getPlayer2ClientId() == null;
+	}
+
+	/**
+	 * Reads the index, refreshing it first if it's missing or due.  Only one instance at a time refreshes a stale index; the
+	 * others serve it as it is.
+	 */
+	private Lobby read() {
+		Lobby lobby = (Lobby) getQuietly(LOBBY_KEY);
+		Change change;
+		if (lobby == null) {
+			// Rebuilt by change().
+			change = new Change() {
+				@Override
+				public void apply(Lobby lobby, long now) {
+				}
+			};
+		} else {
+			boolean due = System.currentTimeMillis() - lobby.refreshed > REFRESH_INTERVAL;
+			if (!due || !memcache.put(REFRESH_LOCK_KEY, true,
+					REFRESH_LOCK_EXPIRATION, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+				return lobby;
+			}
+			final long started = System.currentTimeMillis();
+			final Map<String, String> open = loadOpenGames(lobby.games.keySet());
+			change = new Change() {
+				@Override
+				public void apply(Lobby lobby, long now) {
+					lobby.refresh(open, started, now);
+				}
+			};
+		}
+
+		Lobby changed = change(change);
+		if (changed != null) {
+			return changed;
+		}
+		if (lobby != null) {
+			return lobby;
+		}
+
+		// Memcache is down, so serve a lobby built for this request.
+		Lobby loaded = new Lobby();
+		loaded.games.putAll(loadOpenGames(new ArrayList<String>()));
+		return loaded;
+	}
+
+	/**
+	 * Applies the change to the index with compare-and-set, retrying when
+	 * another instance changed it first.  A missing index is rebuilt before
+	 * the change is applied.
+	 * @return The index as changed or null if it couldn't be written.
+	 */
+	private Lobby change(Change change) {
+		try {
+			for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+				IdentifiableValue current = memcache.getIdentifiable(LOBBY_KEY);
+				long now = System.currentTimeMillis();
+				if (current == null) {
+					Lobby lobby = new Lobby();
+					lobby.games.putAll(loadOpenGames(new ArrayList<String>()));
+					lobby.refreshed = now;
+					change.apply(lobby, now);
+					if (memcache.put(LOBBY_KEY, lobby, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+						return lobby;
+					}
+					continue;
+				}
+
+				Lobby lobby = (Lobby) current.getValue();
+				change.apply(lobby, now);
+				if (memcache.putIfUntouched(LOBBY_KEY, current, lobby)) {
+					return lobby;
+				}
+			}
+			logger.warning("Gave up changing the lobby after " + MAX_ATTEMPTS + " attempts.");
+		} catch (Exception e) {
+			// The next refresh picks the change up from the datastore.
+			logger.log(Level.WARNING, "Failed to change the lobby.", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Loads the open games.  The query only finds games the datastore has as
+	 * open, so the games already in the index are checked too, and each
+	 * game's newest copy decides.
+	 * @param indexed The keys of the games in the index.
+	 * @return The JSON of every open game, by game key.
+	 */
+	private static Map<String, String> loadOpenGames(Collection<String> indexed) {
+		Set<String> gameKeys = new HashSet<String>(indexed);
+		for (Key key : gameSessionRepository.findKeys(OPEN_FILTER)) {
+			gameKeys.add(KeyFactory.keyToString(key));
+		}
+
+		Map<String, String> games = new TreeMap<String, String>();
+		for (GameSession game : gameSessionStore.getAll(gameKeys)) {
+			if (isOpen(game)) {
+				games.put(game.getKeyAsString(), game.toJson().toString());
+			}
+		}
+		return games;
+	}
+
+	private static Object getQuietly(String key) {
+		try {
+			return memcache.get(key);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to read " + key + " from memcache", e);
+			return null;
+		}
+	}
+
+	private static JSONObject parse(String json) {
+		try {
+			return new JSONObject(json);
+		} catch (ParseException e) {
+			// Only ever written from a JSONObject.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A change to the index.
+	 */
+	private interface Change {
+		void apply(Lobby lobby, long now);
+	}
+
+	/**
+	 * The index as it's kept in memcache.
+	 */
+	private static class Lobby implements Serializable {
+
+		private static final long serialVersionUID = 6024918310512876441L;
+
+		/**
+		 * The JSON of the open games ordered by game key so pages have a
+		 * stable cursor.
+		 */
+		final TreeMap<String, String> games = new TreeMap<String, String>();
+
+		/**
+		 * The recent changes to the open games, oldest first.
+		 */
+		final LinkedList<Entry> changes = new LinkedList<Entry>();
+
+		/**
+		 * Incremented on every change to the open games.  A rebuilt index
+		 * starts from the clock, so it's ahead of any version handed out
+		 * before and those clients reset.
+		 */
+		long version = System.currentTimeMillis();
+
+		/**
+		 * When the index was last refreshed from the datastore.
+		 */
+		long refreshed;
+
+		/**
+		 * Appends a change to the change feed and trims the oldest.
+		 * @param gameKey The key of the game that changed.
+		 * @param game The game JSON if it was added, null if it was removed.
+		 */
+		void record(String gameKey, String game, long now) {
+			changes.add(new Entry(++version, gameKey, game, now));
+			while (changes.size() > MAX_CHANGES) {
+				changes.removeFirst();
+			}
+		}
+
+		/**
+		 * Brings the index in line with the loaded open games.  Games changed
+		 * here since the load started are left alone, since the load may
+		 * have missed their change.
+		 * @param open The open games.
+		 * @param started When the load started.
+		 */
+		void refresh(Map<String, String> open, long started, long now) {
+			Set<String> recent = new HashSet<String>();
+			for (Entry entry : changes) {
+				if (entry.time >= started) {
+					recent.add(entry.gameKey);
+				}
+			}
+
+			for (String gameKey : new ArrayList<String>(games.keySet())) {
+				if (!open.containsKey(gameKey) && !recent.contains(gameKey)) {
+					games.remove(gameKey);
+					record(gameKey, null, now);
+				}
+			}
+			for (Map.Entry<String, String> game : open.entrySet()) {
+				if (!games.containsKey(game.getKey()) && !recent.contains(game.getKey())) {
+					games.put(game.getKey(), game.getValue());
+					record(game.getKey(), game.getValue(), now);
+				}
+			}
+			refreshed = now;
+		}
+	}
+
+	/**
+	 * A single entry in the change feed.
+	 */
+	private static class Entry implements Serializable {
+
+		private static final long serialVersionUID = -2719465021877390523L;
+
+		final long version;
+		final String gameKey;
+		final String game;
+		final long time;
+
+		Entry(long version, String gameKey, String game, long time) {
+			this.version = version;
+			this.gameKey = gameKey;
+			this.game = game;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package yugi.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+
+import yugi.PMF;
+import yugi.crawl.PageUtil.PageResponse;
+import yugi.model.auto.PageValidator;
+
+/**
+ * Service for the validators the crawler keeps for each page it visits.
+ */
+public class PageValidatorService {
+
+	private static final Logger logger = Logger.getLogger(PageValidatorService.class.getName());
+
+	private static final CardService cardService = CardService.getInstance();
+
+	private static PageValidatorService instance;
+
+	/**
+	 * Singleton accessor.
+	 * @return The page validator service.
+	 */
+	public static PageValidatorService getInstance() {
+		if (instance == null) {
+			instance = new PageValidatorService();
+		}
+		return instance;
+	}
+
+	private PageValidatorService() {
+
+	}
+
+	/**
+	 * Fetches the validator for a card page.  An unchanged page is only
+	 * skipped while the card it made is still there, so if that card was
+	 * deleted there's no validator and the page is fetched in full.
+	 * @param url The page URL.
+	 * @param cardKey The key of the card the page made or matched last time,
+	 *     or null if it never did.
+	 * @return The validator or null if the page was never visited or its card
+	 *     is gone.
+	 */
+	public PageValidator get(String url, String cardKey) {
+		if (cardKey == null || cardService.getCard(cardKey) == null) {
+			return null;
+		}
+
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			return pm.getObjectById(PageValidator.class, url);
+		} catch (JDOObjectNotFoundException e) {
+			return null;
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Checks to see if the response shows the page is unchanged since the
+	 * validator was saved.
+	 * @param validator The saved validator, which may be null.
+	 * @param response The response to the conditional request.
+	 * @return True if the page didn't change.
+	 */
+	public boolean isUnchanged(PageValidator validator, PageResponse response) {
+		if (response.isNotModified()) {
+			return true;
+		}
+		return validator != null && response.getBodyHash() != null &&
+				response.getBodyHash().equals(validator.getBodyHash());
+	}
+
+	/**
+	 * Saves the validators from a full response.
+	 * @param url The page URL.
+	 * @param response The full response for the page.
+	 */
+	public void save(String url, PageResponse response) {
+		PageValidator validator = newValidator(url, response);
+
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			pm.makePersistent(validator);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to save the validator for " + url, e);
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Saves the validators from many full responses with one batch put.
+	 * @param responses The full responses by page URL.
+	 */
+	public void saveAll(Map<String, PageResponse> responses) {
+		if (responses.isEmpty()) {
+			return;
+		}
+		List<PageValidator> validators = new ArrayList<PageValidator>(responses.size());
+		for (Map.Entry<String, PageResponse> entry : responses.entrySet()) {
+			validators.add(newValidator(entry.getKey(), entry.getValue()));
+		}
+
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			pm.makePersistentAll(validators);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to save " + validators.size() + " validators", e);
+		} finally {
+			pm.close();
+		}
+	}
+
+	private PageValidator newValidator(String url, PageResponse response) {
+		PageValidator validator = new PageValidator(url);
+		validator.setEtag(response.getEtag());
+		validator.setLastModified(response.getLastModified());
+		validator.setBodyHash(response.getBodyHash());
+		return validator;
+	}
+}
@@ -0,0 +1,42 @@
+package yugi.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import yugi.repository.GameSessionStore;
+
+/**
+ * Waits for the request's game saves to reach the journal once the servlet
+ * is done.  The saves are journaled on request threads, which can't outlive
+ * the request.  Mapped to the servlets that save games.
+ */
+public class GameSaveFilter implements Filter {
+
+	private static final GameSessionStore gameSessionStore = GameSessionStore.getInstance();
+
+	@Override
+	public void init(FilterConfig config) {
+
+	}
+
+	@Override
+	public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+			throws IOException, ServletException {
+		try {
+			chain.doFilter(req, resp);
+		} finally {
+			gameSessionStore.awaitSaves();
+		}
+	}
+
+	@Override
+	public void destroy() {
+
+	}
+}
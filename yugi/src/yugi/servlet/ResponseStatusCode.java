@@ -5,6 +5,7 @@ package yugi.servlet;
  */
 public enum ResponseStatusCode {
 	BAD_REQUEST(400),
+	CONFLICT(409),
 	INTERNAL_SERVER_ERROR(500);
 
 	private int code;
@@ -3,10 +3,10 @@ package yugi.servlet;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.nio.CharBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -26,6 +26,24 @@ public class ServletUtil {
 	
 	private static UserService userService = UserServiceFactory.getUserService();
 
+	/**
+	 * The HTML of each screen by path.  The files never change once deployed,
+	 * so each is read once per instance.
+	 */
+	private static final ConcurrentHashMap<String, String> htmlCache =
+			new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Reads the HTML of every screen into the cache.  The warmup request calls
+	 * this so no user request waits on the files.
+	 * @throws IOException Thrown if any of the files can't be read.
+	 */
+	public static void preloadScreens() throws IOException {
+		for (Screen screen : Screen.values()) {
+			getHtml(screen.getHtmlPath());
+		}
+	}
+
 	/**
 	 * Writes a standard web page back to the client.
 	 * @param req The request.
@@ -61,12 +79,9 @@ public class ServletUtil {
 			htmlPath = screen.getDevHtmlPath();
 		}
 		
-		// Read in the HTML.
-		FileReader reader = new FileReader(htmlPath);
-	    CharBuffer buffer = CharBuffer.allocate(16384);
-	    reader.read(buffer);
-	    reader.close();
-		String html = new String(buffer.array());
+		// Read in the HTML.  Raw mode is for development, so it always reads
+		// the file in case it changed.
+		String html = rawMode ? readHtml(htmlPath) : getHtml(htmlPath);
 
 		// Maybe replace the JS file path.
 		if (rawMode != true) {
@@ -104,6 +119,42 @@ public class ServletUtil {
 	    resp.getWriter().write(html);
 	}
 	
+	/**
+	 * Gets the HTML from the cache, reading it if this is the first time.
+	 * @param htmlPath The path of the HTML file.
+	 * @return The HTML.
+	 * @throws IOException Thrown if the file can't be read.
+	 */
+	private static String getHtml(String htmlPath) throws IOException {
+		String html = htmlCache.get(htmlPath);
+		if (html == null) {
+			html = readHtml(htmlPath);
+			htmlCache.put(htmlPath, html);
+		}
+		return html;
+	}
+
+	/**
+	 * Reads the whole HTML file.
+	 * @param htmlPath The path of the HTML file.
+	 * @return The HTML.
+	 * @throws IOException Thrown if the file can't be read.
+	 */
+	private static String readHtml(String htmlPath) throws IOException {
+		FileReader reader = new FileReader(htmlPath);
+		try {
+			StringBuilder sb = new StringBuilder(16384);
+			char[] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) >= 0) {
+				sb.append(buffer, 0, read);
+			}
+			return sb.toString();
+		} finally {
+			reader.close();
+		}
+	}
+	
 	/**
 	 * Writes the login screen to the response.
 	 * @param resp The HTTP response.
@@ -13,6 +13,8 @@ import yugi.Config;
 import yugi.PMF;
 import yugi.index.Indexer;
 import yugi.model.Card;
+import yugi.service.CardCatalogService;
+import yugi.service.CardNameService;
 import yugi.servlet.ResponseStatusCode;
 
 import com.google.appengine.api.datastore.KeyFactory;
@@ -21,6 +23,9 @@ public class CardDeleteServlet extends HttpServlet {
 
 	private static final long serialVersionUID = -5452573357537811882L;
 	private static final Logger logger = Logger.getLogger(CardDeleteServlet.class.getName());
+	private static final CardNameService cardNameService = CardNameService.getInstance();
+	private static final CardCatalogService cardCatalogService =
+			CardCatalogService.getInstance();
 	
 	/**
 	 * Just deletes cards with the given key.
@@ -49,6 +54,8 @@ public class CardDeleteServlet extends HttpServlet {
 
 			// Delete the card.
 			pm.deletePersistent(card);
+			cardNameService.remove(card.getName(), cardKey);
+			cardCatalogService.markChanged(cardKey);
 			
 		} catch (JDOObjectNotFoundException e) {
 			logger.severe(e.getMessage());
@@ -19,8 +19,13 @@ import yugi.Config.Mode;
 import yugi.PMF;
 import yugi.Screen;
 import yugi.index.Indexer;
+import yugi.crawl.ImageUtil;
 import yugi.model.Card;
+import yugi.model.ImageBlob;
+import yugi.service.CardCatalogService;
+import yugi.service.CardNameService;
 import yugi.service.CardService;
+import yugi.service.ImageBlobService;
 import yugi.servlet.ResponseStatusCode;
 import yugi.servlet.ServletUtil;
 
@@ -28,9 +33,6 @@ import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.ServingUrlOptions;
 
 public class CardEditorServlet extends HttpServlet {
 
@@ -56,9 +58,12 @@ public class CardEditorServlet extends HttpServlet {
 
 	private static final BlobstoreService blobstoreService =
 			BlobstoreServiceFactory.getBlobstoreService();
-	private static final ImagesService imagesService =
-			ImagesServiceFactory.getImagesService();
 	private static final CardService cardService = CardService.getInstance();
+	private static final CardNameService cardNameService = CardNameService.getInstance();
+	private static final CardCatalogService cardCatalogService =
+			CardCatalogService.getInstance();
+	private static final ImageBlobService imageBlobService =
+			ImageBlobService.getInstance();
 	
 	/**
 	 * This is request for the application.  This only writes back the HTML.
@@ -105,8 +110,8 @@ public class CardEditorServlet extends HttpServlet {
 			logger.severe("Failed to save the card: " + e.getMessage());
 			e.printStackTrace();
 			if (blobKey != null) {
-				logger.severe("Deleting the blob that was uploaded.");
-				blobstoreService.delete(blobKey);
+				logger.severe("Releasing the blob that was uploaded.");
+				imageBlobService.release(blobKey);
 			}
 		}
 
@@ -151,6 +156,24 @@ public class CardEditorServlet extends HttpServlet {
 		return null;
 	}
 	
+	/**
+	 * Finds the stored image for the uploaded blob.  If the same image was
+	 * uploaded before, the new blob is deleted and the existing one is used.
+	 * @param blobKey The key to the uploaded blob.
+	 * @return The image blob to use for the card.
+	 * @throws Exception Thrown if the blob can't be read.
+	 */
+	private ImageBlob getImageBlob(BlobKey blobKey) throws Exception {
+		String hash = ImageUtil.getImageHash(blobKey);
+		ImageBlob existing = imageBlobService.acquire(hash);
+		if (existing != null && !existing.getBlobKey().equals(blobKey)) {
+			logger.info("The uploaded image was already stored, so deleting the new blob.");
+			blobstoreService.delete(blobKey);
+			return existing;
+		}
+		return imageBlobService.register(hash, blobKey);
+	}
+	
 	/**
 	 * Parses the rest of the request data and saves the card.
 	 * @param req The request.
@@ -179,10 +202,9 @@ public class CardEditorServlet extends HttpServlet {
 		if (blobKey != null) {
 			
 			// Try to get the image serving URL.
-			String imageServingUrl = null;
+			ImageBlob imageBlob = null;
 			try {
-				ServingUrlOptions options = ServingUrlOptions.Builder.withBlobKey(blobKey);
-				imageServingUrl = imagesService.getServingUrl(options);
+				imageBlob = getImageBlob(blobKey);
 			} catch (IllegalArgumentException iae) {
 				// This exception is expected when there is no image being
 				// uploaded.  This is allowed to happen on an edit, so business
@@ -192,11 +214,11 @@ public class CardEditorServlet extends HttpServlet {
 			}
 
 			// Use the image serving URL as the signal for a successful upload.
-			if (imageServingUrl != null) {
+			if (imageBlob != null) {
 				logger.info("There was an image uploaded, so setting the blob key to this: " +
-						blobKey.toString());
-				newCard.setImageBlobKey(blobKey);
-				newCard.setImageSource(imageServingUrl);
+						imageBlob.getBlobKey().toString());
+				newCard.setImageBlobKey(imageBlob.getBlobKey());
+				newCard.setImageSource(imageBlob.getServingUrl());
 			}
 		}
 		
@@ -339,7 +361,7 @@ public class CardEditorServlet extends HttpServlet {
 			
 			// Look up the existing card.
 			Card existingCard = pm.getObjectById(Card.class, KeyFactory.stringToKey(cardKey));
-			if (newBlobKey != null) {
+			if (newBlobKey != null && !newBlobKey.equals(existingCard.getImageBlobKey())) {
 				blobKeyToDelete = existingCard.getImageBlobKey();
 			}
 			
@@ -368,14 +390,18 @@ public class CardEditorServlet extends HttpServlet {
 			
 			// Persist the changes.
 			pm.makePersistent(existingCard);
+			if (!newName.equals(oldName)) {
+				cardNameService.rename(oldName, newName, cardKey);
+			}
+			cardCatalogService.markChanged(cardKey);
 			
 			// Now clean up the old image blobstore entry if a new image was uploaded.
 			// If it isn't cleaned up, it is now orphaned and space is permanently wasted.
+			// Other cards may share the same image, so it is only released.
 			if (blobKeyToDelete != null) {
-				logger.info("A new image was uploaded, so the old blobstore entry is being deleted: " +
+				logger.info("A new image was uploaded, so the old blobstore entry is being released: " +
 						blobKeyToDelete.toString());
-				BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-				blobstoreService.delete(blobKeyToDelete);
+				imageBlobService.release(blobKeyToDelete);
 			}
 			
 			return existingCard.getKeyAsString();
@@ -1,11 +1,8 @@
 package yugi.servlet.admin;
 
 import java.io.IOException;
-import java.util.List;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
-import javax.jdo.Query;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -13,13 +10,14 @@ import javax.servlet.http.HttpServletResponse;
 import org.json.JSONObject;
 
 import yugi.Config;
-import yugi.PMF;
 import yugi.model.Card;
+import yugi.service.CardService;
 
 public class CardExistsServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 3021060432233658648L;
 	private static final Logger logger = Logger.getLogger(CardExistsServlet.class.getName());
+	private static final CardService cardService = CardService.getInstance();
 	
 	public void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws IOException {
@@ -33,21 +31,17 @@ public class CardExistsServlet extends HttpServlet {
 		jsonObject.put("name", name);
 		jsonObject.put("card", null);
 
-		PersistenceManager pm = PMF.get().getPersistenceManager();
+		// Only load the card if the name set says it exists.
 		try {
-			Query query = pm.newQuery(Card.class);
-			query.setFilter("upperName == nameParam");
-			query.declareParameters("String nameParam");
-
-			@SuppressWarnings("unchecked")
-			List<Card> cards = (List<Card>) query.execute(name.toUpperCase());
-			if (!cards.isEmpty()) {
-				jsonObject.put("card", cards.get(0).toJson());
+			String cardKey = cardService.getExistingCardKey(name);
+			if (cardKey != null) {
+				Card card = cardService.getCard(cardKey);
+				if (card != null) {
+					jsonObject.put("card", card.toJson());
+				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
-		} finally {
-			pm.close();
 		}
 
 		resp.setContentType("text/json");
@@ -0,0 +1,73 @@
+package yugi.servlet.admin;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.Config;
+import yugi.servlet.ResponseStatusCode;
+import yugi.servlet.admin.task.BulkImportTaskServlet;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+
+/**
+ * Takes an import file written by the offline importer in
+ * {@link yugi.scraper.BulkImporter} and starts the bulk import task for it.
+ */
+public class CardImportServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -3411524097254865173L;
+	private static final Logger logger = Logger.getLogger(CardImportServlet.class.getName());
+
+	private static final String FILE = "file";
+
+	private static final BlobstoreService blobstoreService =
+			BlobstoreServiceFactory.getBlobstoreService();
+
+	/**
+	 * Writes a bare form for uploading the import file to blob store.
+	 */
+	@Override
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		String uploadUrl = blobstoreService.createUploadUrl(
+				Config.Servlet.ADMIN_CARD_IMPORT.getPath());
+
+		resp.setContentType("text/html");
+		PrintWriter writer = resp.getWriter();
+		writer.write("<html><body>");
+		writer.write("<form action=\"" + uploadUrl + "\" method=\"post\" enctype=\"multipart/form-data\">");
+		writer.write("<input type=\"file\" name=\"" + FILE + "\">");
+		writer.write("<input type=\"submit\" value=\"Import\">");
+		writer.write("</form>");
+		writer.write("</body></html>");
+	}
+
+	/**
+	 * This servlet gets hit after the import file was uploaded to blob store.
+	 */
+	@Override
+	public void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(req);
+		List<BlobKey> blobKeys = blobs.get(FILE);
+		if (blobKeys == null || blobKeys.isEmpty()) {
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			resp.getWriter().write("No import file was uploaded.");
+			return;
+		}
+
+		BlobKey blobKey = blobKeys.get(0);
+		BulkImportTaskServlet.start(blobKey);
+		logger.info("Started the bulk import of this file: " + blobKey.getKeyString());
+		resp.getWriter().write("Started the bulk import.  The cards will show up as the task works through the file.");
+	}
+}
@@ -0,0 +1,64 @@
+package yugi.servlet.admin;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.repository.Migrator;
+import yugi.repository.Repository;
+import yugi.servlet.ResponseStatusCode;
+
+/**
+ * Shows how far each kind's schema migration has gotten and starts new ones.
+ * A GET lists the progress and a POST with a kind starts writing back that
+ * kind's old entities.
+ */
+public class MigrationServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -5273964160845370418L;
+	private static final Logger logger = Logger.getLogger(MigrationServlet.class.getName());
+
+	private static final String KIND = "kind";
+
+	private static final Migrator migrator = Migrator.getInstance();
+
+	@Override
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		resp.setContentType("text/html");
+		PrintWriter writer = resp.getWriter();
+		writer.write("<html><body><pre>");
+		for (String line : migrator.getProgress()) {
+			writer.write(line + "\n");
+		}
+		writer.write("</pre>");
+		for (Repository<?> repository : migrator.getRepositories()) {
+			if (repository.getSchemaVersion() > 0) {
+				writer.write("<form method=\"post\">");
+				writer.write("<input type=\"hidden\" name=\"" + KIND + "\" value=\"" +
+						repository.getKind() + "\">");
+				writer.write("<input type=\"submit\" value=\"Migrate " +
+						repository.getKind() + "\">");
+				writer.write("</form>");
+			}
+		}
+		writer.write("</body></html>");
+	}
+
+	@Override
+	public void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		String kind = req.getParameter(KIND);
+		if (!migrator.start(kind)) {
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			resp.getWriter().write("Nothing to migrate for " + kind + ".");
+			return;
+		}
+		logger.info("Started the migration of " + kind);
+		resp.sendRedirect(req.getRequestURI());
+	}
+}
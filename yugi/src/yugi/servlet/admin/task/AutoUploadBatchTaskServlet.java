@@ -0,0 +1,559 @@
+package yugi.servlet.admin.task;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Transaction;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.PMF;
+import yugi.crawl.CardPage;
+import yugi.crawl.HostRateLimiter;
+import yugi.crawl.ImageIngester;
+import yugi.crawl.PageUtil;
+import yugi.crawl.PageUtil.PageResponse;
+import yugi.model.Card;
+import yugi.model.ImageBlob;
+import yugi.model.auto.AutoUploadCard;
+import yugi.model.auto.AutoUploadCard.Status;
+import yugi.model.auto.PageValidator;
+import yugi.service.CardNameService;
+import yugi.service.CardService;
+import yugi.service.ImageBlobService;
+import yugi.service.PageValidatorService;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+/**
+ * Processes the auto upload card entries a chunk at a time.  Each task claims
+ * a lease on a chunk of INITIAL entries and fetches and parses their pages in
+ * parallel.  As each parsed page comes in, it is checked against the in-memory
+ * card names and the image for a new card starts copying right away.  The new
+ * cards and their indices are then saved together.  The task queues itself
+ * again with a cursor until it reaches the last chunk.
+ *
+ * Entries another task held a lease on, or that were handed back unfinished,
+ * fall behind the cursor.  So once a pass reaches the end while entries are
+ * still waiting, another pass is queued from the start after a lease has had
+ * time to run out, up to a few passes.
+ */
+public class AutoUploadBatchTaskServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -2935017562317350484L;
+
+	private static final Logger logger = Logger.getLogger(
+			AutoUploadBatchTaskServlet.class.getName());
+
+	/**
+	 * The number of entries claimed per task.
+	 */
+	private static final int BATCH_SIZE = 50;
+
+	/**
+	 * The number of card pages fetched at once.
+	 */
+	private static final int PAGE_WORKERS = 8;
+
+	/**
+	 * The number of images copied at once.
+	 */
+	private static final int IMAGE_WORKERS = 4;
+
+	/**
+	 * How long, in milliseconds, a claim on an entry lasts.  This is longer
+	 * than a task can run, so an entry is only picked up again if the task
+	 * that claimed it died.
+	 */
+	private static final long LEASE_TIME = 15 * 60 * 1000;
+
+	/**
+	 * The minimum time, in milliseconds, between requests to the wiki.
+	 */
+	private static final long MIN_HOST_INTERVAL = 100;
+
+	/**
+	 * The most passes over the entries a chain makes.
+	 */
+	private static final int MAX_PASSES = 3;
+
+	private static final String CURSOR = "cursor";
+	private static final String PASS = "pass";
+
+	private static final DatastoreService datastore =
+			DatastoreServiceFactory.getDatastoreService();
+	private static final CardService cardService = CardService.getInstance();
+	private static final CardNameService cardNameService = CardNameService.getInstance();
+	private static final ImageBlobService imageBlobService =
+			ImageBlobService.getInstance();
+	private static final PageValidatorService pageValidatorService =
+			PageValidatorService.getInstance();
+
+	/**
+	 * Processes one chunk of entries and queues the next chunk if there is
+	 * one.
+	 */
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+
+		// Mark the task as successful.  Failures are recorded on the entries
+		// themselves, just like the single card upload task.
+		resp.setStatus(200);
+
+		Query query = getWaitingQuery();
+		FetchOptions options = FetchOptions.Builder.withLimit(BATCH_SIZE);
+		String cursorParam = req.getParameter(CURSOR);
+		if (cursorParam != null) {
+			options.startCursor(Cursor.fromWebSafeString(cursorParam));
+		}
+
+		QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(options);
+		List<Key> keys = new ArrayList<Key>(results.size());
+		for (Entity entity : results) {
+			keys.add(entity.getKey());
+		}
+
+		int claimed;
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			List<AutoUploadCard> entries = claim(pm, keys);
+			claimed = entries.size();
+			process(entries, ThreadManager.currentRequestThreadFactory());
+			pm.makePersistentAll(entries);
+		} finally {
+			pm.close();
+		}
+
+		// Keep going if this chunk was full.
+		int pass = getPass(req);
+		boolean more = keys.size() == BATCH_SIZE;
+		String next = "";
+		if (more) {
+			QueueFactory.getDefaultQueue().add(
+					withUrl("/tasks/auto_upload_batch")
+					.param(CURSOR, results.getCursor().toWebSafeString())
+					.param(PASS, String.valueOf(pass))
+					.method(Method.GET));
+			next = "  Queued the next chunk.";
+		} else if (pass < MAX_PASSES && isWaiting()) {
+			// Start over for the entries this pass left behind.
+			QueueFactory.getDefaultQueue().add(
+					withUrl("/tasks/auto_upload_batch")
+					.param(PASS, String.valueOf(pass + 1))
+					.countdownMillis(LEASE_TIME)
+					.method(Method.GET));
+			next = "  Queued pass " + (pass + 1) + " for the entries left behind.";
+		}
+
+		String message = "Processed " + claimed + " of " + keys.size() +
+				" auto upload cards." + next;
+		logger.info(message);
+		resp.getWriter().write(message);
+	}
+
+	private static Query getWaitingQuery() {
+		return new Query(AutoUploadCard.class.getSimpleName())
+				.setFilter(new FilterPredicate(
+						"status", FilterOperator.EQUAL, Status.INITIAL.name()))
+				.setKeysOnly();
+	}
+
+	/**
+	 * @return True if any entry is still waiting to be handled.
+	 */
+	private static boolean isWaiting() {
+		return !datastore.prepare(getWaitingQuery()).asList(
+				FetchOptions.Builder.withLimit(1)).isEmpty();
+	}
+
+	/**
+	 * @return The pass this task belongs to, starting from 1.
+	 */
+	private static int getPass(HttpServletRequest req) {
+		String pass = req.getParameter(PASS);
+		try {
+			return pass != null ? Integer.parseInt(pass) : 1;
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Claims the entries that are still waiting and that no other task holds.
+	 * @param pm The persistence manager.
+	 * @param keys The keys of the entries to claim.
+	 * @return The claimed entries.
+	 */
+	private List<AutoUploadCard> claim(PersistenceManager pm, List<Key> keys) {
+		long now = System.currentTimeMillis();
+		List<AutoUploadCard> claimed = new ArrayList<AutoUploadCard>(keys.size());
+		for (Key key : keys) {
+			Transaction tx = pm.currentTransaction();
+			try {
+				tx.begin();
+				AutoUploadCard autoUploadCard = pm.getObjectById(AutoUploadCard.class, key);
+				if (autoUploadCard.getStatus() == Status.INITIAL &&
+						!autoUploadCard.isLeased(now)) {
+					autoUploadCard.setLeaseExpires(now + LEASE_TIME);
+					tx.commit();
+					claimed.add(autoUploadCard);
+				}
+			} catch (JDOObjectNotFoundException e) {
+				// Deleted since the query ran.
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Failed to claim this entry: " + key, e);
+			} finally {
+				if (tx.isActive()) {
+					tx.rollback();
+				}
+			}
+		}
+		return claimed;
+	}
+
+	/**
+	 * Uploads the cards for the claimed entries and records the outcome on
+	 * each entry.
+	 * @param entries The claimed entries.
+	 * @param threadFactory The factory for the worker threads.
+	 */
+	private void process(List<AutoUploadCard> entries, ThreadFactory threadFactory) {
+		ImageIngester imageIngester = new ImageIngester(threadFactory, IMAGE_WORKERS);
+		try {
+			Batch batch = new Batch(imageIngester);
+
+			// Fetch and parse every page in parallel, handling them as they
+			// finish.
+			HostRateLimiter rateLimiter = new HostRateLimiter(MIN_HOST_INTERVAL);
+			ExecutorService executor = Executors.newFixedThreadPool(PAGE_WORKERS, threadFactory);
+			CompletionService<Upload> pages = new ExecutorCompletionService<Upload>(executor);
+			Map<Future<Upload>, Upload> jobs = new HashMap<Future<Upload>, Upload>();
+			try {
+				for (AutoUploadCard autoUploadCard : entries) {
+					Upload upload = new Upload(autoUploadCard);
+					jobs.put(pages.submit(new PageJob(upload, rateLimiter)), upload);
+				}
+				for (int i = 0; i < entries.size(); i++) {
+					Future<Upload> page = pages.take();
+					Upload upload = jobs.get(page);
+					try {
+						page.get();
+					} catch (ExecutionException e) {
+						// Only this entry fails, the rest are still handled.
+						logger.log(Level.SEVERE, "The card page job failed for " +
+								upload.getUrl(), e.getCause());
+						upload.error = "Failed to fetch the card page.";
+					}
+					batch.add(upload);
+				}
+			} catch (InterruptedException e) {
+				logger.warning("Interrupted while fetching card pages.");
+				Thread.currentThread().interrupt();
+			} finally {
+				executor.shutdownNow();
+			}
+
+			batch.finish();
+		} finally {
+			imageIngester.shutdown();
+		}
+
+		// Anything left unfinished is handed to the next task.
+		for (AutoUploadCard autoUploadCard : entries) {
+			if (autoUploadCard.getStatus() == Status.INITIAL) {
+				autoUploadCard.setLeaseExpires(null);
+			}
+		}
+	}
+
+	/**
+	 * One entry on its way through the batch.
+	 */
+	private static class Upload {
+
+		private final AutoUploadCard autoUploadCard;
+		private final String url;
+		private final String cardKey;
+		private PageResponse response;
+		private CardPage cardPage;
+		private String error;
+		private boolean unchanged;
+		private Future<ImageBlob> image;
+
+		/**
+		 * Only the request thread touches the entry, so the URL and card key
+		 * are read here for the page workers.
+		 */
+		Upload(AutoUploadCard autoUploadCard) {
+			this.autoUploadCard = autoUploadCard;
+			this.url = autoUploadCard.getUrl();
+			this.cardKey = autoUploadCard.getCardKey();
+		}
+
+		String getUrl() {
+			return url;
+		}
+
+		String getUpperName() {
+			return cardPage.getParsedCard().getUpperName();
+		}
+	}
+
+	/**
+	 * Fetches the page for an entry, unless it is unchanged, and parses it.
+	 */
+	private static class PageJob implements Callable<Upload> {
+
+		private final Upload upload;
+		private final HostRateLimiter rateLimiter;
+
+		PageJob(Upload upload, HostRateLimiter rateLimiter) {
+			this.upload = upload;
+			this.rateLimiter = rateLimiter;
+		}
+
+		@Override
+		public Upload call() throws Exception {
+			String url = upload.getUrl();
+			PageValidator validator = pageValidatorService.get(url, upload.cardKey);
+			rateLimiter.acquire(url);
+			PageResponse response = PageUtil.getConditional(url, validator);
+			if (response == null) {
+				upload.error = "Failed to get the page contents.";
+				return upload;
+			}
+
+			// The body is parsed straight off the connection, and the hash of
+			// what was read tells an unchanged card apart when the server
+			// ignores the conditional headers.
+			CardPage cardPage = new CardPage(url);
+			if (!response.isNotModified()) {
+				try {
+					response.parse(cardPage);
+				} catch (Exception e) {
+					logger.log(Level.SEVERE, "Failed to parse the card page: " + url, e);
+					upload.error = e.getMessage();
+					return upload;
+				}
+			}
+			if (pageValidatorService.isUnchanged(validator, response)) {
+				upload.unchanged = true;
+				return upload;
+			}
+			upload.response = response;
+			upload.cardPage = cardPage;
+			return upload;
+		}
+	}
+
+	/**
+	 * Collects the parsed pages, checks each one for an existing card and
+	 * saves the new cards at the end.
+	 */
+	private static class Batch {
+
+		private final ImageIngester imageIngester;
+
+		/**
+		 * The new cards by upper case name.  The first entry for a name
+		 * creates the card.
+		 */
+		private final Map<String, Upload> creating = new HashMap<String, Upload>();
+
+		/**
+		 * Entries for a card that another entry in this batch is creating.
+		 */
+		private final List<Upload> duplicates = new ArrayList<Upload>();
+
+		/**
+		 * The validators to save for pages that were handled.
+		 */
+		private final Map<String, PageResponse> validated = new HashMap<String, PageResponse>();
+
+		Batch(ImageIngester imageIngester) {
+			this.imageIngester = imageIngester;
+		}
+
+		/**
+		 * Adds a fetched page to the batch.
+		 * @param upload The entry with its page.
+		 */
+		void add(Upload upload) {
+			if (upload.error != null) {
+				fail(upload.autoUploadCard, upload.error);
+			} else if (upload.unchanged) {
+				logger.info("The page has not changed since the last crawl: " + upload.getUrl());
+				markUnchanged(upload.autoUploadCard);
+			} else {
+				checkExisting(upload);
+			}
+		}
+
+		/**
+		 * Waits for the images and saves the new cards.
+		 */
+		void finish() {
+			List<Card> cards = new ArrayList<Card>(creating.size());
+			List<Upload> uploads = new ArrayList<Upload>(creating.size());
+			for (Upload upload : creating.values()) {
+				ImageBlob imageBlob = getImage(upload);
+				if (imageBlob == null) {
+					fail(upload.autoUploadCard, "Failed to create the image blob.");
+					continue;
+				}
+				Card card = upload.cardPage.getParsedCard();
+				card.setImageBlobKey(imageBlob.getBlobKey());
+				card.setImageSource(imageBlob.getServingUrl());
+				if (!card.isValid()) {
+					fail(upload.autoUploadCard, "Failed to create the card because something was invalid.");
+					imageBlobService.release(imageBlob.getBlobKey());
+					continue;
+				}
+				cards.add(card);
+				uploads.add(upload);
+			}
+
+			// Save every new card and its indices together.
+			try {
+				cardService.createNewCards(cards);
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Failed to save the cards.  Reconciling", e);
+				uploads = reconcile(uploads, e.getMessage());
+			}
+			for (Upload upload : uploads) {
+				Card card = upload.cardPage.getParsedCard();
+				markSuccessful(upload.autoUploadCard, card.getKeyAsString());
+				validated.put(upload.getUrl(), upload.response);
+				logger.info("Successfully added this card: " + card.getName());
+			}
+
+			// Entries for the same card point at the one that was created.
+			for (Upload duplicate : duplicates) {
+				Upload creator = creating.get(duplicate.getUpperName());
+				if (creator.autoUploadCard.getStatus() == Status.COMPLETE) {
+					markExisted(duplicate.autoUploadCard, creator.autoUploadCard.getCardKey());
+					validated.put(duplicate.getUrl(), duplicate.response);
+				} else {
+					fail(duplicate.autoUploadCard, creator.autoUploadCard.getError());
+				}
+			}
+
+			pageValidatorService.saveAll(validated);
+		}
+
+		/**
+		 * Checks the page for an existing card and starts copying the image
+		 * if the card is new.
+		 * @param upload The entry with its parsed page.
+		 */
+		private void checkExisting(Upload upload) {
+			String upperName = upload.getUpperName();
+			String existingCardKey = cardService.getExistingCardKey(upperName);
+			if (existingCardKey != null) {
+				logger.info("The card already existed.  Card Name: " +
+						upload.cardPage.getParsedCard().getName());
+				markExisted(upload.autoUploadCard, existingCardKey);
+				validated.put(upload.getUrl(), upload.response);
+			} else if (creating.containsKey(upperName)) {
+				duplicates.add(upload);
+			} else {
+				creating.put(upperName, upload);
+				upload.image = imageIngester.submit(upload.cardPage.getParsedImageUrl());
+			}
+		}
+
+		/**
+		 * Sorts out the entries after the cards failed to save.  A card that
+		 * was saved anyway, because it couldn't be deleted again, is kept as
+		 * created.  The other entries fail and release their blobs.
+		 * @param uploads The entries whose cards were being saved.
+		 * @param error The save error.
+		 * @return The entries whose cards exist.
+		 */
+		private List<Upload> reconcile(List<Upload> uploads, String error) {
+			List<Upload> saved = new ArrayList<Upload>();
+			for (Upload upload : uploads) {
+				Card card = upload.cardPage.getParsedCard();
+				String cardKey = card.getKey() != null ? card.getKeyAsString() : null;
+				if (cardKey != null && cardService.getCard(cardKey) != null) {
+					logger.severe("Kept " + card.getName() + " after the failed save, " +
+							"but it may be missing from the search index.");
+					cardNameService.add(card);
+					saved.add(upload);
+				} else {
+					fail(upload.autoUploadCard, error);
+					imageBlobService.release(card.getImageBlobKey());
+				}
+			}
+			return saved;
+		}
+
+		private ImageBlob getImage(Upload upload) {
+			try {
+				return upload.image.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				logger.log(Level.SEVERE, "Failed to copy the image.", e.getCause());
+			}
+			return null;
+		}
+	}
+
+	private static void markSuccessful(AutoUploadCard autoUploadCard, String cardKey) {
+		autoUploadCard.setExists(false);
+		autoUploadCard.setCardKey(cardKey);
+		autoUploadCard.setStatus(Status.COMPLETE);
+		autoUploadCard.setLeaseExpires(null);
+	}
+
+	private static void markExisted(AutoUploadCard autoUploadCard, String existingCardKey) {
+		autoUploadCard.setExists(true);
+		autoUploadCard.setCardKey(existingCardKey);
+		autoUploadCard.setStatus(Status.COMPLETE);
+		autoUploadCard.setLeaseExpires(null);
+	}
+
+	private static void markUnchanged(AutoUploadCard autoUploadCard) {
+		autoUploadCard.setError(null);
+		autoUploadCard.setStatus(Status.COMPLETE);
+		autoUploadCard.setLeaseExpires(null);
+	}
+
+	private static void fail(AutoUploadCard autoUploadCard, String message) {
+		logger.severe(message);
+		autoUploadCard.setError(message);
+		autoUploadCard.setStatus(Status.ERROR);
+		autoUploadCard.setLeaseExpires(null);
+	}
+}
@@ -30,8 +30,9 @@ public class AutoUploadTaskMakerServlet extends HttpServlet {
 			AutoUploadTaskMakerServlet.class.getName());
 	
 	/**
-	 * This will query for the first 100 incomplete auto upload card entries
-	 * and queue tasks for them.
+	 * This will start the batch upload task if there are incomplete auto
+	 * upload card entries.  The batch task works through all of them a chunk
+	 * at a time, so only one task is queued here.
 	 */
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException {
@@ -46,16 +47,12 @@ public class AutoUploadTaskMakerServlet extends HttpServlet {
 				writer.write("Didn't find any entries.");
 				return;
 			}
-			logger.info("Found " + incompleteEntries.size() + " entries.");
 			
 			Queue queue = QueueFactory.getDefaultQueue();
-			for (AutoUploadCard autoUploadCard : incompleteEntries) {
-				queue.add(
-						withUrl("/tasks/auto_upload")
-						.param("key", autoUploadCard.getKeyAsString())
-						.method(Method.GET));
-			}
-			logger.info("Created " + incompleteEntries.size() + " tasks.");
+			queue.add(
+					withUrl("/tasks/auto_upload_batch")
+					.method(Method.GET));
+			logger.info("Created the batch upload task.");
 		} finally {
 			pm.close();
 		}
@@ -74,7 +71,7 @@ public class AutoUploadTaskMakerServlet extends HttpServlet {
 		// The ":" here is an implicit type.  Declaring the import for the
 		// status enum doesn't seem to work.
 		query.setFilter("status == :statusParam");
-		query.setRange(0, 100);
+		query.setRange(0, 1);
 		
 		try {
 			return (List<AutoUploadCard>) query.execute(Status.INITIAL);
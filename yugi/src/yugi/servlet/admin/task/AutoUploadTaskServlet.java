@@ -13,18 +13,18 @@ import javax.servlet.http.HttpServletResponse;
 import yugi.PMF;
 import yugi.crawl.CardPage;
 import yugi.crawl.ImageUtil;
+import yugi.crawl.PageUtil;
+import yugi.crawl.PageUtil.PageResponse;
 import yugi.model.Card;
+import yugi.model.ImageBlob;
 import yugi.model.auto.AutoUploadCard;
 import yugi.model.auto.AutoUploadCard.Status;
+import yugi.model.auto.PageValidator;
 import yugi.service.CardService;
+import yugi.service.ImageBlobService;
+import yugi.service.PageValidatorService;
 
-import com.google.appengine.api.blobstore.BlobKey;
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.ServingUrlOptions;
 
 public class AutoUploadTaskServlet extends HttpServlet {
 
@@ -33,11 +33,11 @@ public class AutoUploadTaskServlet extends HttpServlet {
 	private static final Logger logger = Logger.getLogger(
 			AutoUploadTaskServlet.class.getName());
 	
-	private static final BlobstoreService blobstoreService =
-			BlobstoreServiceFactory.getBlobstoreService();
-	private static final ImagesService imagesService =
-			ImagesServiceFactory.getImagesService();
 	private static final CardService cardService = CardService.getInstance();
+	private static final ImageBlobService imageBlobService =
+			ImageBlobService.getInstance();
+	private static final PageValidatorService pageValidatorService =
+			PageValidatorService.getInstance();
 	
 	/**
 	 * This will visit the card URL and create the card entry if the card did
@@ -87,13 +87,31 @@ public class AutoUploadTaskServlet extends HttpServlet {
 		String url = autoUploadCard.getUrl();
 		logger.info("Starting auto card upload task for this URL: " + url);
 		
-		// Parse the page for card information.
+		// Only download the page if it changed since the last visit, or if
+		// its card was deleted since.
+		PageValidator validator = pageValidatorService.get(url, autoUploadCard.getCardKey());
+		PageResponse response = PageUtil.getConditional(url, validator);
+		if (response == null) {
+			fail(pm, autoUploadCard, "Failed to get the page contents.");
+			return;
+		}
+		
+		// Parse the page for card information straight off the connection.
+		// The hash of what was read tells an unchanged card apart when the
+		// server ignores the conditional headers.
 		CardPage cardPage = new CardPage(url);
-		try {
-			cardPage.requestAndParse();
-		} catch (Exception e) {
-			logger.log(Level.SEVERE, "Failed to parse the card page.", e);
-			fail(pm, autoUploadCard, e.getMessage());
+		if (!response.isNotModified()) {
+			try {
+				response.parse(cardPage);
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Failed to parse the card page.", e);
+				fail(pm, autoUploadCard, e.getMessage());
+				return;
+			}
+		}
+		if (pageValidatorService.isUnchanged(validator, response)) {
+			logger.info("The page has not changed since the last crawl.");
+			markUnchanged(pm, autoUploadCard);
 			return;
 		}
 		Card card = cardPage.getParsedCard();
@@ -103,33 +121,35 @@ public class AutoUploadTaskServlet extends HttpServlet {
 		if (existingCardKey != null) {
 			logger.info("The card already existed.  Card Name: " + card.getName());
 			markExisted(pm, autoUploadCard, existingCardKey);
+			pageValidatorService.save(url, response);
 			return;
 		}
 		
-		// Create the image blob from the parsed image URL.
-		BlobKey blobKey = ImageUtil.createImage(cardPage.getParsedImageUrl());
-		if (blobKey == null) {
+		// Create the image blob from the parsed image URL.  An image that was
+		// stored before reuses the same blob and serving URL.
+		ImageBlob imageBlob = ImageUtil.createImage(cardPage.getParsedImageUrl());
+		if (imageBlob == null) {
 			fail(pm, autoUploadCard, "Failed to create the image blob.");
 			return;
 		}
 		
 		// Try to save the new card.
 		try {
-			ServingUrlOptions options = ServingUrlOptions.Builder.withBlobKey(blobKey);
-			String imageServingUrl = imagesService.getServingUrl(options);
-			card.setImageBlobKey(blobKey);
-			card.setImageSource(imageServingUrl);
+			card.setImageBlobKey(imageBlob.getBlobKey());
+			card.setImageSource(imageBlob.getServingUrl());
 			cardService.createNewCard(card);
 		} catch (Exception e) {
-			// If any exception occurs, delete the blob that was just created.
-			logger.log(Level.SEVERE, "Failed to save the card.  Deleting blob", e);
+			// If any exception occurs, release the blob unless another card
+			// shares it.
+			logger.log(Level.SEVERE, "Failed to save the card.  Releasing blob", e);
 			fail(pm, autoUploadCard, e.getMessage());
-			blobstoreService.delete(blobKey);
+			imageBlobService.release(imageBlob.getBlobKey());
 			return;
 		}
 		
 		// Everything finished successfully, so mark complete.
 		markSuccessful(pm, autoUploadCard, card);
+		pageValidatorService.save(url, response);
 		logger.info("Successfully added this card: " + card.getName());
 	}
 	
@@ -161,6 +181,18 @@ public class AutoUploadTaskServlet extends HttpServlet {
 		pm.makePersistent(autoUploadCard);
 	}
 	
+	/**
+	 * Marks the auto upload card complete without touching the card because
+	 * the page hasn't changed since it was last processed.
+	 * @param pm The persistence manager.
+	 * @param autoUploadCard The auto upload card.
+	 */
+	private void markUnchanged(PersistenceManager pm, AutoUploadCard autoUploadCard) {
+		autoUploadCard.setError(null);
+		autoUploadCard.setStatus(Status.COMPLETE);
+		pm.makePersistent(autoUploadCard);
+	}
+	
 	/**
 	 * Fails the upload and sets the error message and status on the auto upload
 	 * card.
@@ -0,0 +1,41 @@
+package yugi.servlet.admin.task;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.net.ChannelBroadcaster;
+
+/**
+ * Sends a broadcast message to the clients it was queued for.  Failed sends
+ * are logged rather than retried.  Clients drop repeated messages, but a
+ * retry would still resend to every client that already got it.
+ */
+public class BroadcastTaskServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 4127659380157203366L;
+
+	private static final Logger logger = Logger.getLogger(
+			BroadcastTaskServlet.class.getName());
+
+	private static final ChannelBroadcaster broadcaster = ChannelBroadcaster.getInstance();
+
+	public void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		String json = req.getParameter(ChannelBroadcaster.MESSAGE_PARAM);
+		String[] clientIds = req.getParameterValues(ChannelBroadcaster.CLIENT_ID_PARAM);
+		if (json == null || clientIds == null) {
+			logger.severe("Dropped a broadcast without a message or clients.");
+			return;
+		}
+
+		int caughtUp = broadcaster.send(clientIds, json);
+		if (caughtUp < clientIds.length) {
+			logger.warning((clientIds.length - caughtUp) + " of " + clientIds.length +
+					" clients still have broadcasts queued.");
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package yugi.servlet.admin.task;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.crawl.CardImportFile;
+import yugi.crawl.ImageIngester;
+import yugi.model.Card;
+import yugi.model.ImageBlob;
+import yugi.service.CardService;
+import yugi.service.ImageBlobService;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreInputStream;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.files.AppEngineFile;
+import com.google.appengine.api.files.FileService;
+import com.google.appengine.api.files.FileServiceFactory;
+import com.google.appengine.api.files.FileWriteChannel;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+/**
+ * Creates the cards in an uploaded import file.  The first task splits the
+ * file into chunk files of a fixed number of cards.  The chunks are then
+ * imported in order by one chain of tasks.  Each chunk is streamed out of blob
+ * store and its cards are saved a batch at a time, with the images for a
+ * batch copied in parallel.
+ *
+ * A task works for a few minutes and then queues the next task with the
+ * number of cards it got through in the current chunk.  A gzip stream can
+ * only be read from its start, so the next task skips those cards again, but
+ * it never skips more than one chunk.  Cards that already exist are skipped,
+ * which makes a retried task safe.
+ */
+public class BulkImportTaskServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 4711915387204372158L;
+
+	private static final Logger logger = Logger.getLogger(
+			BulkImportTaskServlet.class.getName());
+
+	/**
+	 * How long, in milliseconds, a task imports before handing off to the
+	 * next one.
+	 */
+	private static final long TIME_BUDGET = 5 * 60 * 1000;
+
+	/**
+	 * The number of cards saved together.
+	 */
+	private static final int BATCH_SIZE = 100;
+
+	/**
+	 * The number of images copied at once.
+	 */
+	private static final int IMAGE_WORKERS = 8;
+
+	/**
+	 * The number of cards in each chunk file.
+	 */
+	private static final int CHUNK_SIZE = 1000;
+
+	private static final String CHUNK_MIME_TYPE = "application/x-gzip";
+
+	private static final String UPLOAD = "upload";
+	private static final String CHUNK = "chunk";
+	private static final String OFFSET = "offset";
+
+	private static final BlobstoreService blobstoreService =
+			BlobstoreServiceFactory.getBlobstoreService();
+	private static final FileService fileService = FileServiceFactory.getFileService();
+	private static final CardService cardService = CardService.getInstance();
+	private static final ImageBlobService imageBlobService =
+			ImageBlobService.getInstance();
+
+	/**
+	 * Queues the task that splits the file and starts the import.
+	 * @param blobKey The uploaded import file.
+	 */
+	public static void start(BlobKey blobKey) {
+		QueueFactory.getDefaultQueue().add(
+				withUrl("/tasks/bulk_import")
+				.param(UPLOAD, blobKey.getKeyString())
+				.method(Method.GET));
+	}
+
+	/**
+	 * Splits an uploaded file, or imports cards from the offset in the first
+	 * of the chunks until the chunk ends or the time is up.
+	 */
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		String upload = req.getParameter(UPLOAD);
+		String message;
+		if (upload != null) {
+			message = split(new BlobKey(upload));
+		} else {
+			message = importChunk(Arrays.asList(req.getParameterValues(CHUNK)),
+					Integer.parseInt(req.getParameter(OFFSET)));
+		}
+		logger.info(message);
+		resp.getWriter().write(message);
+	}
+
+	/**
+	 * Copies the uploaded file into chunk files and queues the import of the
+	 * first chunk.  The cards are copied as lines without being parsed.
+	 * @param upload The uploaded import file.
+	 * @return The message for the log.
+	 * @throws IOException Thrown if the file can't be read or a chunk can't be
+	 *     written.
+	 */
+	private String split(BlobKey upload) throws IOException {
+		List<String> chunks = new ArrayList<String>();
+		int cards = 0;
+		CardImportFile.Reader reader =
+				new CardImportFile.Reader(new BlobstoreInputStream(upload));
+		try {
+			String line = reader.nextLine();
+			while (line != null) {
+				AppEngineFile file = fileService.createNewBlobFile(CHUNK_MIME_TYPE);
+				FileWriteChannel channel = fileService.openWriteChannel(file, true);
+				CardImportFile.Writer writer =
+						new CardImportFile.Writer(Channels.newOutputStream(channel));
+				while (line != null && writer.getCount() < CHUNK_SIZE) {
+					writer.writeLine(line);
+					line = reader.nextLine();
+				}
+				writer.finish();
+				channel.closeFinally();
+				chunks.add(fileService.getBlobKey(file).getKeyString());
+				cards += writer.getCount();
+			}
+		} catch (IOException e) {
+			// The retry splits the file again, so drop what was written.
+			for (String chunk : chunks) {
+				blobstoreService.delete(new BlobKey(chunk));
+			}
+			throw e;
+		} finally {
+			reader.close();
+		}
+
+		if (!chunks.isEmpty()) {
+			queue(chunks, 0);
+		}
+		// The chunks have everything now.
+		blobstoreService.delete(upload);
+		return "Split the " + cards + " cards in the import file into " +
+				chunks.size() + " chunks.";
+	}
+
+	/**
+	 * Imports cards from the first chunk and queues the next task.
+	 * @param chunks The keys of the chunks left to import, in order.
+	 * @param offset The number of cards in the first chunk that are done.
+	 * @return The message for the log.
+	 * @throws IOException Thrown if the chunk can't be read or the cards
+	 *     can't be saved.
+	 */
+	private String importChunk(List<String> chunks, int offset) throws IOException {
+		long deadline = System.currentTimeMillis() + TIME_BUDGET;
+		BlobKey blobKey = new BlobKey(chunks.get(0));
+
+		int created = 0;
+		int read = 0;
+		boolean done = false;
+		CardImportFile.Reader reader =
+				new CardImportFile.Reader(new BlobstoreInputStream(blobKey));
+		try {
+			if (reader.skip(offset) < offset) {
+				done = true;
+			}
+			while (!done && System.currentTimeMillis() < deadline) {
+				List<CardImportFile.Entry> entries = new ArrayList<CardImportFile.Entry>(BATCH_SIZE);
+				CardImportFile.Entry entry = null;
+				while (entries.size() < BATCH_SIZE && (entry = reader.next()) != null) {
+					entries.add(entry);
+				}
+				done = entry == null;
+				created += importBatch(entries);
+				read += entries.size();
+			}
+		} finally {
+			reader.close();
+		}
+
+		String message = "Created " + created + " of the " + read +
+				" cards after card " + offset + " in this chunk of the import file.";
+		if (!done) {
+			queue(chunks, offset + read);
+			message += "  Queued the next task.";
+		} else {
+			// The chunk has served its purpose.
+			List<String> rest = chunks.subList(1, chunks.size());
+			if (!rest.isEmpty()) {
+				queue(rest, 0);
+				message += "  Queued the next chunk.";
+			} else {
+				message += "  The import is finished.";
+			}
+			blobstoreService.delete(blobKey);
+		}
+		return message;
+	}
+
+	/**
+	 * Creates the cards that don't exist yet.
+	 * @param entries The entries read from the file.
+	 * @return The number of cards created.
+	 * @throws IOException Thrown if the cards couldn't be saved.
+	 */
+	private int importBatch(List<CardImportFile.Entry> entries) throws IOException {
+		List<Card> valid = new ArrayList<Card>(entries.size());
+		ImageIngester imageIngester = new ImageIngester(
+				ThreadManager.currentRequestThreadFactory(), IMAGE_WORKERS);
+		try {
+			List<Card> cards = new ArrayList<Card>(entries.size());
+			List<Future<ImageBlob>> images = new ArrayList<Future<ImageBlob>>(entries.size());
+			Set<String> names = new HashSet<String>();
+			for (CardImportFile.Entry entry : entries) {
+				Card card = entry.getCard();
+				if (!names.add(card.getUpperName()) ||
+						cardService.getExistingCardKey(card.getUpperName()) != null) {
+					continue;
+				}
+				cards.add(card);
+				images.add(imageIngester.submit(entry.getImageUrl()));
+			}
+
+			for (int i = 0; i < cards.size(); i++) {
+				Card card = cards.get(i);
+				ImageBlob imageBlob = getImage(images.get(i));
+				if (imageBlob == null) {
+					logger.severe("Failed to create the image blob for " + card.getName());
+					continue;
+				}
+				card.setImageBlobKey(imageBlob.getBlobKey());
+				card.setImageSource(imageBlob.getServingUrl());
+				if (!card.isValid()) {
+					logger.severe("Skipping this card because something was invalid: " + card.getName());
+					imageBlobService.release(imageBlob.getBlobKey());
+					continue;
+				}
+				valid.add(card);
+			}
+		} finally {
+			imageIngester.shutdown();
+		}
+
+		try {
+			cardService.createNewCards(valid);
+		} catch (Exception e) {
+			// Fail the task so the queue retries it.  The cards saved by the
+			// earlier batches exist by then, so they are skipped.
+			for (Card card : valid) {
+				imageBlobService.release(card.getImageBlobKey());
+			}
+			throw new IOException("Failed to save the cards.", e);
+		}
+		return valid.size();
+	}
+
+	private ImageBlob getImage(Future<ImageBlob> image) {
+		try {
+			return image.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.log(Level.SEVERE, "Failed to copy the image.", e.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * Queues the import of the chunks.
+	 * @param chunks The keys of the chunks left to import, in order.
+	 * @param offset The number of cards in the first chunk that are done.
+	 */
+	private static void queue(List<String> chunks, int offset) {
+		TaskOptions task = withUrl("/tasks/bulk_import")
+				.param(OFFSET, Integer.toString(offset))
+				.method(Method.GET);
+		for (String chunk : chunks) {
+			task.param(CHUNK, chunk);
+		}
+		QueueFactory.getDefaultQueue().add(task);
+	}
+}
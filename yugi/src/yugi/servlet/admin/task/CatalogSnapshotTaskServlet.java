@@ -0,0 +1,35 @@
+package yugi.servlet.admin.task;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.service.CardCatalogService;
+
+/**
+ * Exports a new card catalog so instances pick up cards crawled since the
+ * last one.  Cron runs it daily; run it by hand after a crawl to see the new
+ * cards sooner.  Rebuilding the search index also exports one.
+ */
+public class CatalogSnapshotTaskServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 4126683590173356128L;
+
+	private static final Logger logger = Logger.getLogger(
+			CatalogSnapshotTaskServlet.class.getName());
+
+	private static final CardCatalogService cardCatalogService =
+			CardCatalogService.getInstance();
+
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		int cards = cardCatalogService.export().size();
+
+		String message = "Exported a catalog of " + cards + " cards.";
+		logger.info(message);
+		resp.getWriter().write(message);
+	}
+}
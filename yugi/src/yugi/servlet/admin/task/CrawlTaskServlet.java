@@ -1,63 +1,385 @@
 package yugi.servlet.admin.task;
 
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.jdo.JDOObjectNotFoundException;
 import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import yugi.PMF;
+import yugi.crawl.CategoryPage;
+import yugi.crawl.ConcurrentCrawler.CategoryPageListener;
 import yugi.crawl.Crawler;
 import yugi.model.auto.AutoUploadCard;
 import yugi.model.auto.AutoUploadCard.Status;
+import yugi.model.auto.CrawlState;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
 
+/**
+ * Crawls the category pages to create the auto upload card entries.  The
+ * crawl is checkpointed after every page: the entries for the page's card
+ * URLs are saved along with the next page to visit.  A task crawls for a few
+ * minutes and then queues the next task to carry on from the checkpoint, so
+ * no single request has to crawl every page or hold every URL.
+ */
 public class CrawlTaskServlet extends HttpServlet {
 
 	private static final long serialVersionUID = -8988647333132967590L;
-	
+
 	private static final Logger logger = Logger.getLogger(CrawlTaskServlet.class.getName());
 
 	/**
-	 * This task will crawl to create the auto upload card entries.  This can be
-	 * made as a regular request and does not have to be a task because it
-	 * completes in less than 60 seconds (the time limit for a regular use
-	 * request).
+	 * How long, in milliseconds, a task crawls before handing off to the next
+	 * one.  This leaves plenty of room in the ten minute task deadline.
+	 */
+	private static final long TIME_BUDGET = 5 * 60 * 1000;
+
+	/**
+	 * How long, in milliseconds, a task's claim on the crawl lasts.  Every
+	 * checkpoint extends it.
+	 */
+	private static final long LEASE_TIME = 2 * 60 * 1000;
+
+	/**
+	 * The number of tasks in a row that may fail on the same page before the
+	 * crawl gives up.
+	 */
+	private static final int MAX_FAILURES = 3;
+
+	/**
+	 * The most values the datastore allows in one IN filter.
+	 */
+	private static final int MAX_IN_VALUES = 30;
+
+	private static final String RUN = "run";
+
+	/**
+	 * Without a run parameter this starts a new crawl.  Otherwise it continues
+	 * the given run from its checkpoint.
 	 */
 	public void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws IOException {
-		long startTime = System.currentTimeMillis();
-		logger.info("Starting crawler");
-		
-		Crawler crawler = new Crawler();
-		crawler.start();
-		
-		long totalTime = (System.currentTimeMillis() - startTime) / 1000;
-		logger.info("Finished crawling");
-		logger.info("Found " + crawler.getCardUrls().size() + " card URLs.");
-
-		logger.info("Creating the auto upload card objects.");
-		List<AutoUploadCard> autoUploadCards = new ArrayList<AutoUploadCard>();
-		for (String cardUrl : crawler.getCardUrls()) {
-			AutoUploadCard autoUploadCard = new AutoUploadCard();
-			autoUploadCard.setUrl(cardUrl);
-			autoUploadCard.setStatus(Status.INITIAL);
-			autoUploadCard.setExists(false);
-			autoUploadCards.add(autoUploadCard);
-		}
-		
-		logger.info("Persisting the auto upload cards.");
-		PersistenceManager pm = PMF.get().getPersistenceManager();			
+		long now = System.currentTimeMillis();
+		long run;
+		String runParam = req.getParameter(RUN);
+		if (runParam == null) {
+			run = now;
+			if (!start(run, now)) {
+				write(resp, "A crawl is already running.");
+				return;
+			}
+		} else {
+			run = Long.parseLong(runParam);
+		}
+
+		// Make sure no other task is working on this run.
+		CrawlState state = getState(run);
+		if (state == null) {
+			write(resp, "Nothing to do for this run.");
+			return;
+		}
+		if (!claim(run, now)) {
+			// Another task holds the crawl and queues the next task itself, so
+			// this one just ends.  If that task died, its lease runs out and
+			// the next crawl that is started takes over.
+			write(resp, "Another task is crawling.");
+			return;
+		}
+
+		Checkpointer checkpointer = new Checkpointer(run, now + TIME_BUDGET);
+		Crawler crawler = new Crawler(ThreadManager.currentRequestThreadFactory());
+		crawler.crawlFrom(state.getNextPageUrl(), checkpointer);
+
+		state = finish(run, checkpointer.isStopped());
+		if (state == null) {
+			write(resp, "The crawl was restarted, so this run is over.");
+			return;
+		}
+		if (state.getStatus() == CrawlState.Status.RUNNING) {
+			QueueFactory.getDefaultQueue().add(
+					withUrl("/tasks/crawl")
+					.param(RUN, Long.toString(run))
+					.method(Method.GET));
+		}
+
+		write(resp, "Crawled " + checkpointer.getPages() + " pages this task.  " +
+				state.getPagesCrawled() + " pages and " + state.getUrlsFound() +
+				" card URLs so far.  The crawl is " + state.getStatus() + ".");
+	}
+
+	/**
+	 * Starts a new run unless one is already going.
+	 * @param run When the run started.
+	 * @param now The current time.
+	 * @return True if the run was started.
+	 */
+	private boolean start(long run, long now) {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			CrawlState state = getState(pm);
+			if (state == null) {
+				pm.makePersistent(new CrawlState(CrawlState.NAME, Crawler.START_POINT, run));
+			} else if (state.getStatus() == CrawlState.Status.RUNNING && state.isLeased(now)) {
+				return false;
+			} else {
+				state.restart(Crawler.START_POINT, run);
+			}
+			tx.commit();
+			logger.info("Starting a new crawl.");
+			return true;
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+			pm.close();
+		}
+	}
+
+	/**
+	 * Gets the state of the run.
+	 * @param run The run the task belongs to.
+	 * @return The state or null if the run is over or was replaced by a newer
+	 *     one.
+	 */
+	private CrawlState getState(long run) {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			CrawlState state = getState(pm);
+			if (state == null || state.getStarted() != run ||
+					state.getStatus() != CrawlState.Status.RUNNING) {
+				return null;
+			}
+			return state;
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Claims the run for this task.
+	 * @param run The run the task belongs to.
+	 * @param now The current time.
+	 * @return True if the claim worked, false if another task holds the run.
+	 */
+	private boolean claim(long run, long now) {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
+		try {
+			tx.begin();
+			CrawlState state = getState(pm);
+			if (state == null || state.getStarted() != run || state.isLeased(now)) {
+				return false;
+			}
+			state.setLeaseExpires(now + LEASE_TIME);
+			tx.commit();
+			return true;
+		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
+			pm.close();
+		}
+	}
+
+	/**
+	 * Records the outcome of this task and releases the crawl.
+	 * @param run The run the task belongs to.
+	 * @param stopped True if the task stopped because its time was up.
+	 * @return The final state for this task or null if the crawl was restarted.
+	 */
+	private CrawlState finish(long run, boolean stopped) {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		Transaction tx = pm.currentTransaction();
 		try {
-			pm.makePersistentAll(autoUploadCards);
+			tx.begin();
+			CrawlState state = getState(pm);
+			if (state == null || state.getStarted() != run) {
+				return null;
+			}
+			state.setLeaseExpires(null);
+			if (state.getNextPageUrl() == null) {
+				state.setStatus(CrawlState.Status.COMPLETE);
+				logger.info("Finished crawling.  Found " + state.getUrlsFound() +
+						" card URLs on " + state.getPagesCrawled() + " pages.");
+			} else if (!stopped) {
+				// The crawl ended early because a page failed.
+				state.setFailures(state.getFailures() + 1);
+				if (state.getFailures() >= MAX_FAILURES) {
+					logger.severe("Giving up on the crawl at " + state.getNextPageUrl());
+					state.setStatus(CrawlState.Status.ERROR);
+				}
+			}
+			tx.commit();
+			return state;
 		} finally {
+			if (tx.isActive()) {
+				tx.rollback();
+			}
 			pm.close();
 		}
-		logger.info("Finished persisting.");
-		
-		logger.info("It all took " + totalTime + " seconds to complete");
+	}
+
+	private static CrawlState getState(PersistenceManager pm) {
+		try {
+			return pm.getObjectById(CrawlState.class, CrawlState.NAME);
+		} catch (JDOObjectNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static void write(HttpServletResponse resp, String message) throws IOException {
+		logger.info(message);
+		resp.getWriter().write(message);
+	}
+
+	/**
+	 * Saves the entries and the checkpoint after each category page and stops
+	 * the crawl once the task's time is up.
+	 */
+	private static class Checkpointer implements CategoryPageListener {
+
+		private final long run;
+		private final long deadline;
+		private int pages = 0;
+		private boolean stopped = false;
+
+		Checkpointer(long run, long deadline) {
+			this.run = run;
+			this.deadline = deadline;
+		}
+
+		int getPages() {
+			return pages;
+		}
+
+		boolean isStopped() {
+			return stopped;
+		}
+
+		@Override
+		public boolean onParsed(CategoryPage page) {
+			try {
+				saveEntries(page.getCardUrls());
+			} catch (Exception e) {
+				// The checkpoint stays on this page so the next task retries it.
+				logger.log(Level.SEVERE, "Failed to save the entries for " + page.getUrl(), e);
+				return false;
+			}
+
+			String nextPageUrl = page.getNextPage() == null ?
+					null : page.getNextPage().getUrl();
+			if (!checkpoint(page.getCardUrls().size(), nextPageUrl)) {
+				return false;
+			}
+			pages++;
+
+			if (nextPageUrl != null && System.currentTimeMillis() >= deadline) {
+				stopped = true;
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Moves the checkpoint past the page and extends the lease.
+		 * @return False if this task no longer owns the run.
+		 */
+		private boolean checkpoint(int urls, String nextPageUrl) {
+			PersistenceManager pm = PMF.get().getPersistenceManager();
+			Transaction tx = pm.currentTransaction();
+			try {
+				tx.begin();
+				CrawlState state = getState(pm);
+				if (state == null || state.getStarted() != run) {
+					logger.warning("The crawl was restarted, so stopping this run.");
+					return false;
+				}
+				state.pageCrawled(urls, nextPageUrl);
+				state.setLeaseExpires(System.currentTimeMillis() + LEASE_TIME);
+				tx.commit();
+				return true;
+			} finally {
+				if (tx.isActive()) {
+					tx.rollback();
+				}
+				pm.close();
+			}
+		}
+
+		/**
+		 * Creates or resets the auto upload card entries for one page's card
+		 * URLs.  Entries from earlier crawls are reused so each URL has only
+		 * one.  The upload task sends a conditional request for them, so pages
+		 * that haven't changed are skipped, unless the entry's card was deleted
+		 * since.
+		 * @param cardUrls The card URLs found on the page.
+		 */
+		private void saveEntries(Set<String> cardUrls) {
+			PersistenceManager pm = PMF.get().getPersistenceManager();
+			try {
+				Map<String, AutoUploadCard> existing = findExistingEntries(pm, cardUrls);
+				List<AutoUploadCard> autoUploadCards = new ArrayList<AutoUploadCard>();
+				for (String cardUrl : cardUrls) {
+					AutoUploadCard autoUploadCard = existing.get(cardUrl);
+					if (autoUploadCard == null) {
+						autoUploadCard = new AutoUploadCard();
+						autoUploadCard.setUrl(cardUrl);
+						autoUploadCard.setExists(false);
+					} else if (autoUploadCard.getStatus() == Status.INITIAL) {
+						continue; // Already waiting to be processed.
+					}
+					autoUploadCard.setStatus(Status.INITIAL);
+					autoUploadCards.add(autoUploadCard);
+				}
+				pm.makePersistentAll(autoUploadCards);
+			} finally {
+				pm.close();
+			}
+		}
+
+		/**
+		 * Finds the auto upload card entries from earlier crawls.
+		 * @param pm The persistence manager.
+		 * @param cardUrls The card URLs to look for.
+		 * @return The entries by URL.
+		 */
+		@SuppressWarnings("unchecked")
+		private Map<String, AutoUploadCard> findExistingEntries(
+				PersistenceManager pm, Set<String> cardUrls) {
+			Map<String, AutoUploadCard> entries = new HashMap<String, AutoUploadCard>();
+			List<String> urls = new ArrayList<String>(cardUrls);
+			for (int i = 0; i < urls.size(); i += MAX_IN_VALUES) {
+				Query query = pm.newQuery(AutoUploadCard.class);
+				query.setFilter(":urlsParam.contains(url)");
+				try {
+					List<String> chunk = urls.subList(i, Math.min(i + MAX_IN_VALUES, urls.size()));
+					for (AutoUploadCard autoUploadCard :
+							(List<AutoUploadCard>) query.execute(chunk)) {
+						entries.put(autoUploadCard.getUrl(), autoUploadCard);
+					}
+				} finally {
+					query.closeAll();
+				}
+			}
+			return entries;
+		}
 	}
 }
@@ -0,0 +1,46 @@
+package yugi.servlet.admin.task;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.repository.GameSessionStore;
+
+/**
+ * Writes the games saved since the last flush to the datastore.  Saves
+ * schedule this task, and cron runs it too in case a scheduled flush was
+ * lost.  It flushes batches until the journal is empty or its time is up; a
+ * journal left over is picked up by the next flush.
+ */
+public class FlushGamesTaskServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -1880367417207961582L;
+
+	private static final Logger logger = Logger.getLogger(
+			FlushGamesTaskServlet.class.getName());
+
+	/**
+	 * How long, in milliseconds, a flush keeps taking new batches.
+	 */
+	private static final long TIME_BUDGET = 60 * 1000;
+
+	private static final GameSessionStore gameSessionStore = GameSessionStore.getInstance();
+
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		long deadline = System.currentTimeMillis() + TIME_BUDGET;
+		int total = 0;
+		int flushed;
+		do {
+			flushed = gameSessionStore.flush();
+			total += flushed;
+		} while (flushed > 0 && System.currentTimeMillis() < deadline);
+
+		String message = "Flushed " + total + " journaled game saves.";
+		logger.info(message);
+		resp.getWriter().write(message);
+	}
+}
@@ -0,0 +1,26 @@
+package yugi.servlet.admin.task;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.repository.Migrator;
+
+/**
+ * Upgrades one batch of a kind to its current schema and queues the next.
+ * Started from the migration admin page.
+ */
+public class MigrateTaskServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 6635094115826270948L;
+
+	private static final Migrator migrator = Migrator.getInstance();
+
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		String run = req.getParameter("run");
+		migrator.runBatch(req.getParameter("kind"), run != null ? Long.parseLong(run) : 0L);
+	}
+}
@@ -0,0 +1,209 @@
+package yugi.servlet.admin.task;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.model.GameSession;
+import yugi.repository.GameSessionStore;
+import yugi.service.GameStateService;
+import yugi.service.LobbyService;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+
+/**
+ * Deletes games that have had no activity for a while.  Normally a game is
+ * deleted when both players disconnect, but a missed presence event leaves the
+ * game behind forever.  Cron runs this task and it queues itself again with a
+ * cursor until every stale game has been deleted.
+ *
+ * Games saved before activity was tracked have no lastActivity, so the query
+ * never finds them.  Once, after a run, a second pass walks every game and
+ * deletes the ones without it, as though their last activity was 0.
+ */
+public class ReapGamesTaskServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 3216085914338522190L;
+
+	private static final Logger logger = Logger.getLogger(
+			ReapGamesTaskServlet.class.getName());
+
+	/**
+	 * Games idle for longer than this, in milliseconds, are deleted.
+	 */
+	private static final long STALE_AGE = 6 * 60 * 60 * 1000;
+
+	/**
+	 * The number of games deleted per task.
+	 */
+	private static final int BATCH_SIZE = 100;
+
+	private static final String CURSOR = "cursor";
+	private static final String CUTOFF = "cutoff";
+	private static final String UNTRACKED = "untracked";
+
+	/**
+	 * Recorded once the pass over the untracked games has finished.
+	 */
+	private static final Key UNTRACKED_DONE_KEY =
+			KeyFactory.createKey("ReapProgress", UNTRACKED);
+
+	private static final DatastoreService datastore =
+			DatastoreServiceFactory.getDatastoreService();
+	private static final GameSessionStore gameSessionStore = GameSessionStore.getInstance();
+	private static final GameStateService gameStateService =
+			GameStateService.getInstance();
+	private static final LobbyService lobbyService = LobbyService.getInstance();
+
+	/**
+	 * Deletes one batch of stale games and queues the next batch if there is
+	 * one.
+	 */
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		if (req.getParameter(UNTRACKED) != null) {
+			reapUntracked(req, resp);
+			return;
+		}
+
+		// The cutoff is fixed for the whole run so the cursor stays valid.
+		long cutoff;
+		String cutoffParam = req.getParameter(CUTOFF);
+		if (cutoffParam != null) {
+			cutoff = Long.parseLong(cutoffParam);
+		} else {
+			cutoff = System.currentTimeMillis() - STALE_AGE;
+		}
+
+		Query query = new Query(GameSession.class.getSimpleName())
+				.setFilter(new FilterPredicate(
+						"lastActivity", FilterOperator.LESS_THAN, cutoff))
+				.setKeysOnly();
+		FetchOptions options = FetchOptions.Builder.withLimit(BATCH_SIZE);
+		String cursorParam = req.getParameter(CURSOR);
+		if (cursorParam != null) {
+			options.startCursor(Cursor.fromWebSafeString(cursorParam));
+		}
+
+		QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(options);
+		List<Key> keys = new ArrayList<Key>(results.size());
+		for (Entity entity : results) {
+			keys.add(entity.getKey());
+		}
+		reap(keys);
+
+		// Keep going if this batch was full.
+		boolean more = keys.size() == BATCH_SIZE;
+		String next = "";
+		if (more) {
+			QueueFactory.getDefaultQueue().add(
+					withUrl("/tasks/reap_games")
+					.param(CUTOFF, Long.toString(cutoff))
+					.param(CURSOR, results.getCursor().toWebSafeString())
+					.method(Method.GET));
+			next = "  Queued the next batch.";
+		} else if (!isUntrackedDone()) {
+			QueueFactory.getDefaultQueue().add(
+					withUrl("/tasks/reap_games")
+					.param(UNTRACKED, "true")
+					.method(Method.GET));
+			next = "  Queued the pass over untracked games.";
+		}
+
+		String message = "Deleted " + keys.size() + " stale games." + next;
+		logger.info(message);
+		resp.getWriter().write(message);
+	}
+
+	/**
+	 * Deletes one batch of the games that have no lastActivity and queues the
+	 * next batch, or records that the pass is done.
+	 */
+	private void reapUntracked(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		Query query = new Query(GameSession.class.getSimpleName()).setKeysOnly();
+		FetchOptions options = FetchOptions.Builder.withLimit(BATCH_SIZE);
+		String cursorParam = req.getParameter(CURSOR);
+		if (cursorParam != null) {
+			options.startCursor(Cursor.fromWebSafeString(cursorParam));
+		}
+
+		QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(options);
+		List<Key> keys = new ArrayList<Key>(results.size());
+		for (Entity entity : results) {
+			keys.add(entity.getKey());
+		}
+
+		// A keys only query can't see the property, so read the batch.
+		List<Key> untracked = new ArrayList<Key>();
+		Map<Key, Entity> games = datastore.get(keys);
+		for (Entity game : games.values()) {
+			if (!game.hasProperty("lastActivity")) {
+				untracked.add(game.getKey());
+			}
+		}
+		reap(untracked);
+
+		boolean more = keys.size() == BATCH_SIZE;
+		if (more) {
+			QueueFactory.getDefaultQueue().add(
+					withUrl("/tasks/reap_games")
+					.param(UNTRACKED, "true")
+					.param(CURSOR, results.getCursor().toWebSafeString())
+					.method(Method.GET));
+		} else {
+			datastore.put(new Entity(UNTRACKED_DONE_KEY));
+		}
+
+		String message = "Deleted " + untracked.size() + " untracked games of " +
+				keys.size() + "." + (more ? "  Queued the next batch." : "");
+		logger.info(message);
+		resp.getWriter().write(message);
+	}
+
+	private static boolean isUntrackedDone() {
+		try {
+			datastore.get(UNTRACKED_DONE_KEY);
+			return true;
+		} catch (EntityNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the games and everything else that hangs off them.  The games
+	 * go through the store, so their cached copies can't be saved again.
+	 */
+	private static void reap(List<Key> keys) {
+		List<String> gameKeys = new ArrayList<String>(keys.size());
+		for (Key key : keys) {
+			gameKeys.add(KeyFactory.keyToString(key));
+		}
+		gameSessionStore.deleteAll(gameSessionStore.getAll(gameKeys));
+		for (String gameKey : gameKeys) {
+			gameStateService.delete(gameKey);
+			lobbyService.remove(gameKey);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package yugi.servlet.admin.task;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.Config;
+import yugi.model.GameSession;
+import yugi.service.GameService;
+import yugi.service.GameStateService;
+
+/**
+ * Folds a game's delta log into its snapshot.  Relaying a message only
+ * schedules this task, so the player's request never waits on it.
+ */
+public class SnapshotGameTaskServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 2290148137706514930L;
+
+	private static final Logger logger = Logger.getLogger(
+			SnapshotGameTaskServlet.class.getName());
+
+	private static final GameService gameService = GameService.getInstance();
+	private static final GameStateService gameStateService = GameStateService.getInstance();
+
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		String gameKey = Config.getGameKey(req);
+		GameSession game = gameService.getGame(gameKey);
+		if (game == null) {
+			// The game was deleted along with its log.
+			logger.info("No game to snapshot for " + gameKey);
+			return;
+		}
+		gameStateService.snapshot(game);
+	}
+}
@@ -1,6 +1,7 @@
 package yugi.servlet.card;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Level;
@@ -18,14 +19,14 @@ import yugi.Config;
 import yugi.PMF;
 import yugi.model.Card;
 import yugi.model.index.NameToCard;
+import yugi.service.CardService;
 import yugi.servlet.ResponseStatusCode;
 
-import com.google.appengine.api.datastore.KeyFactory;
-
 public class CardSearchServlet extends HttpServlet {
 
 	private static final long serialVersionUID = -7949770734191635842L;
 	private static final Logger logger = Logger.getLogger(CardSearchServlet.class.getName());
+	private static final CardService cardService = CardService.getInstance();
 
 	/**
 	 * This handles all card search queries.
@@ -56,14 +57,12 @@ public class CardSearchServlet extends HttpServlet {
 				logger.info("No cards found for: " + token);
 			}
 			
-			// Do a lookup for each card to which the token maps.
+			// Look up every card to which the token maps in one batch get.
 			if (nameToCard != null) {
 				// TODO Enforce some sort of limit here - this could be quite large
 				// for a token like "THE"
-				for (String cardKey : nameToCard.getCardKeys()) {
-					Card card = pm.getObjectById(Card.class, KeyFactory.stringToKey(cardKey));
-					cards.add(card);
-				}
+				cards.addAll(cardService.getCards(
+						new ArrayList<String>(nameToCard.getCardKeys())));
 			}
 			
 			// Write the response back to the client.
@@ -3,8 +3,6 @@ package yugi.servlet.card;
 import java.io.IOException;
 import java.util.logging.Logger;
 
-import javax.jdo.JDOObjectNotFoundException;
-import javax.jdo.PersistenceManager;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -13,12 +11,10 @@ import javax.servlet.http.HttpServletResponse;
 import org.json.JSONObject;
 
 import yugi.Config;
-import yugi.PMF;
 import yugi.model.Card;
+import yugi.service.CardService;
 import yugi.servlet.ResponseStatusCode;
 
-import com.google.appengine.api.datastore.KeyFactory;
-
 /**
  * Retrieves card information for a given card.
  */
@@ -26,6 +22,7 @@ public class CardServlet extends HttpServlet {
 
 	private static final long serialVersionUID = -6928972420445961296L;
 	private static final Logger logger = Logger.getLogger(CardServlet.class.getName());
+	private static final CardService cardService = CardService.getInstance();
 
 	public void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException {
@@ -39,16 +36,10 @@ public class CardServlet extends HttpServlet {
 		}
 		
 		// Look up the card based on the key.
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		Card card;
-		try {
-			card = pm.getObjectById(Card.class, KeyFactory.stringToKey(cardKey));
-		} catch (JDOObjectNotFoundException e) {
-			logger.severe(e.getMessage());
+		Card card = cardService.getCard(cardKey);
+		if (card == null) {
 			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
 			return;
-		} finally {
-			pm.close();
 		}
 		
 		// Write the card back to the client.
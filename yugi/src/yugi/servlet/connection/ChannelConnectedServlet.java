@@ -4,18 +4,17 @@ import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import yugi.PMF;
 import yugi.message.ConnectedMessage;
 import yugi.message.Message;
 import yugi.message.Message.Type;
 import yugi.model.GameSession;
 import yugi.net.ChannelUtil;
 import yugi.service.GameService;
+import yugi.service.GameStateService;
 
 import com.google.appengine.api.channel.ChannelPresence;
 import com.google.appengine.api.channel.ChannelService;
@@ -29,6 +28,7 @@ public class ChannelConnectedServlet extends HttpServlet {
 	private static final Logger logger = Logger.getLogger(ChannelConnectedServlet.class.getName());
 	
 	private static GameService gameService = GameService.getInstance();
+	private static GameStateService gameStateService = GameStateService.getInstance();
 	
 	@Override
 	public void doPost(HttpServletRequest req, HttpServletResponse resp)
@@ -58,8 +58,8 @@ public class ChannelConnectedServlet extends HttpServlet {
 				
 				// See if this player was previously connected.
 				if (game.wasPlayer1Connected() && game.isPlayer2Connected()) {
-					// Player 1 needs synchronization data from Player 2.
-					sendSynchronizationMessages(game.getPlayer1ClientId(), game.getPlayer2ClientId());
+					// Player 1 needs synchronization data.
+					synchronize(game, game.getPlayer1ClientId(), game.getPlayer2ClientId());
 				}
 				
 				// Don't forget to mark this player as having been connected.
@@ -79,28 +79,41 @@ public class ChannelConnectedServlet extends HttpServlet {
 				
 				// See if this player was previously connected.
 				if (game.wasPlayer2Connected() && game.isPlayer1Connected()) {
-					// Player 2 needs synchronization data from Player 1.
-					sendSynchronizationMessages(game.getPlayer2ClientId(), game.getPlayer1ClientId());
+					// Player 2 needs synchronization data.
+					synchronize(game, game.getPlayer2ClientId(), game.getPlayer1ClientId());
 				}
 				
 				// Don't forget to mark this player as having been connected.
 				game.setPlayer2WasConnected(true);
 
 			}
+		} else if (game.isSpectator(clientId)) {
+			// Spectators just start receiving messages.
+			logger.info("A spectator connected to " + game.getKeyAsString());
 		} else {
 			logger.severe("The player didn't match any player in the game.  " +
 					"Game: " + game.toString());
 		}
 
 		// Save the game state.
-		PersistenceManager pm = PMF.get().getPersistenceManager();
 		try {
 			logger.info("Saving the game state.");
-			pm.makePersistent(game);
+			gameService.saveGame(game);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Failed to save the game", e);
-		} finally {
-			pm.close();
+		}
+	}
+
+	/**
+	 * Synchronizes the reconnected player from the server's game state if
+	 * possible, otherwise asks the connected player for its game data.
+	 * @param game The game.
+	 * @param reconnectedClientId The player that reconnected.
+	 * @param connectedClientId The player that is already connected.
+	 */
+	private void synchronize(GameSession game, String reconnectedClientId, String connectedClientId) {
+		if (!gameStateService.synchronize(game, reconnectedClientId)) {
+			sendSynchronizationMessages(reconnectedClientId, connectedClientId);
 		}
 	}
 
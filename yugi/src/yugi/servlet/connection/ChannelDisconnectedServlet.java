@@ -4,16 +4,16 @@ import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import yugi.PMF;
 import yugi.message.DisconnectedMessage;
 import yugi.model.GameSession;
 import yugi.net.ChannelUtil;
 import yugi.service.GameService;
+import yugi.service.GameStateService;
+import yugi.service.LobbyService;
 
 import com.google.appengine.api.channel.ChannelPresence;
 import com.google.appengine.api.channel.ChannelService;
@@ -27,6 +27,8 @@ public class ChannelDisconnectedServlet extends HttpServlet {
 	private static final Logger logger = Logger.getLogger(ChannelDisconnectedServlet.class.getName());
 	
 	private static GameService gameService = GameService.getInstance();
+	private static GameStateService gameStateService = GameStateService.getInstance();
+	private static LobbyService lobbyService = LobbyService.getInstance();
 	
 	@Override
 	public void doPost(HttpServletRequest req, HttpServletResponse resp)
@@ -59,6 +61,9 @@ public class ChannelDisconnectedServlet extends HttpServlet {
 				DisconnectedMessage message = new DisconnectedMessage(game.getPlayer2());
 				ChannelUtil.sendToClient(game.getPlayer1ClientId(), message);
 			}
+		} else if (game.isSpectator(clientId)) {
+			// Spectators leave without telling anyone.
+			game.removeSpectator(clientId);
 		} else {
 			logger.severe("The client ID didn't match any player client ID in " +
 		            "the game.  Game: " + game.toString());
@@ -90,14 +95,11 @@ public class ChannelDisconnectedServlet extends HttpServlet {
 	 * @param game The game to save.
 	 */
 	private void save(GameSession game) {
-		PersistenceManager pm = PMF.get().getPersistenceManager();
 		try {
 			logger.info("Saving the game state.");
-			pm.makePersistent(game);
+			gameService.saveGame(game);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Failed to save the game", e);
-		} finally {
-			pm.close();
 		}
 	}
 	
@@ -106,19 +108,15 @@ public class ChannelDisconnectedServlet extends HttpServlet {
 	 * @param game The game to delete.
 	 */
 	private void delete(GameSession game) {
-		PersistenceManager pm = PMF.get().getPersistenceManager();
 		try {
 			logger.info("Deleting a game since neither player is connected.");
-			
-			// Need to look up the game here because the game could be in a
-			// transient state otherwise.
-			game = pm.getObjectById(GameSession.class, game.getKey());
-			pm.deletePersistent(game);
-			
+			gameService.deleteGame(game);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Failed to delete the game", e);
-		} finally {
-			pm.close();
 		}
+
+		// The server's copy of the game state and its lobby entry go with it.
+		gameStateService.delete(game.getKeyAsString());
+		lobbyService.remove(game.getKeyAsString());
 	}
 }
@@ -5,8 +5,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
-import javax.jdo.JDOObjectNotFoundException;
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -14,7 +12,6 @@ import javax.servlet.http.HttpServletResponse;
 import yugi.Config;
 import yugi.Config.Servlet;
 import yugi.Config.UrlParameter;
-import yugi.PMF;
 import yugi.model.Deck;
 import yugi.service.DeckService;
 import yugi.servlet.ResponseStatusCode;
@@ -55,40 +52,19 @@ public class DeckCopyServlet extends HttpServlet {
 			return;
 		}
 		
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		try {
-			
-			// Fetch the existing deck.
-			Deck deck = deckService.getDeck(pm, deckKey);
-			
-			// Create a new deck and copy all the data.
-			logger.info("Creating a new user deck from this deck: " + deck.getKey());
-			Deck deckCopy = new Deck();
-			deckCopy.setUserId(user.getUserId());
-			deckCopy.setStructure(false);
-			deckCopy.setName("Copy of " + deck.getName());
-			deckCopy.setMainCardKey(deck.getMainCardKey());
-			deckCopy.setMainCardKeys(deck.getMainCardKeys());
-			deckCopy.setSideCardKeys(deck.getSideCardKeys());
-			deckCopy.setExtraCardKeys(deck.getExtraCardKeys());
-			
-			// Save the copy.
-			pm.makePersistent(deckCopy);
-			
-			// Now redirect the user to the deck editor.
-			Map<UrlParameter, String> params = new HashMap<UrlParameter, String>();
-			params.put(UrlParameter.DECK_KEY, KeyFactory.keyToString(deckCopy.getKey()));
-			String deckEditorUrl = ServletUtil.createUrl(
-					req, Servlet.DECK_EDITOR.getPath(), params);
-			res.sendRedirect(deckEditorUrl);
-			
-		} catch (JDOObjectNotFoundException e) {
-			e.printStackTrace();
-			logger.severe(e.getMessage());
+		// Create a new deck that shares the card lists until it's edited.
+		logger.info("Creating a new user deck from this deck: " + deckKey);
+		Deck deckCopy = deckService.copyDeck(deckKey, user);
+		if (deckCopy == null) {
 			res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
 			return;
-		} finally {
-			pm.close();
 		}
+		
+		// Now redirect the user to the deck editor.
+		Map<UrlParameter, String> params = new HashMap<UrlParameter, String>();
+		params.put(UrlParameter.DECK_KEY, KeyFactory.keyToString(deckCopy.getKey()));
+		String deckEditorUrl = ServletUtil.createUrl(
+				req, Servlet.DECK_EDITOR.getPath(), params);
+		res.sendRedirect(deckEditorUrl);
 	}
 }
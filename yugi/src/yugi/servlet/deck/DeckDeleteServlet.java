@@ -3,13 +3,11 @@ package yugi.servlet.deck;
 import java.io.IOException;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import yugi.Config;
-import yugi.PMF;
 import yugi.model.Deck;
 import yugi.service.DeckService;
 import yugi.servlet.ResponseStatusCode;
@@ -49,29 +47,25 @@ public class DeckDeleteServlet extends HttpServlet {
 			return;
 		}
 
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		try {
-			Deck deck = deckService.getDeck(pm, deckKey);
-			if (deck == null) {
-				// This should happen if there's a programming error or an evil
-				// client.
-				logger.severe("Invalid deck key when deleting: " + deckKey);
-				res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
-				return;
-			}
-
-			// Make sure the user is allowed to modify this deck.
-			if (deckService.userHasWriteAccess(deck)) {
-				logger.info("Deleting " + deck.getName() + " (" + deckKey + ")");
-				pm.deletePersistent(deck);
-			} else {
-				logger.warning("This user tried to delete a deck that they didn't have access to.  " +
-						"User: " + user.getUserId() + ", Deck: " + deckKey);
-				res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
-			}
+		// Copies may share this deck's card lists, so delete through the
+		// deck service, which keeps the lists for them.
+		Deck deck = deckService.getDeck(deckKey);
+		if (deck == null) {
+			// This should happen if there's a programming error or an evil
+			// client.
+			logger.severe("Invalid deck key when deleting: " + deckKey);
+			res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
 
-		} finally {
-			pm.close();
+		// Make sure the user is allowed to modify this deck.
+		if (deckService.userHasWriteAccess(deck)) {
+			logger.info("Deleting " + deck.getName() + " (" + deckKey + ")");
+			deckService.deleteDeck(deck);
+		} else {
+			logger.warning("This user tried to delete a deck that they didn't have access to.  " +
+					"User: " + user.getUserId() + ", Deck: " + deckKey);
+			res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
 		}
 	}
 }
@@ -3,10 +3,15 @@ package yugi.servlet.deck;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -14,7 +19,6 @@ import javax.servlet.http.HttpServletResponse;
 import org.json.JSONObject;
 
 import yugi.Config;
-import yugi.PMF;
 import yugi.model.Card;
 import yugi.model.Deck;
 import yugi.service.CardService;
@@ -52,44 +56,31 @@ public class DeckServlet extends HttpServlet {
 		}
 		
 		// Look up the deck based on the key.
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		Deck deck;
-		List<Card> mainCards = new ArrayList<Card>();
-		List<Card> extraCards = new ArrayList<Card>();
-		List<Card> sideCards = new ArrayList<Card>();
-		Card mainCard = null;
-		try {
-			logger.info("Looking up this deck: " + deckKey);
-			deck = deckService.getDeck(pm, deckKey);
-			if (deck == null) {
-				resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
-				return;
-			}
-			logger.info("Found the deck: " + deck.getName());
-			logger.info("Looking up all the cards.");
+		logger.info("Looking up this deck: " + deckKey);
+		Deck deck = deckService.getDeck(deckKey);
+		if (deck == null) {
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
+		logger.info("Found the deck: " + deck.getName());
+		logger.info("Looking up all the cards.");
 
-			// Look up all the card objects.
-			for (String cardKey : deck.getMainCardKeys()) {
-				addCard(mainCards, pm, cardKey);
-			}
-			for (String cardKey : deck.getExtraCardKeys()) {
-				addCard(extraCards, pm, cardKey);
-			}
-			for (String cardKey : deck.getSideCardKeys()) {
-				addCard(sideCards, pm, cardKey);
-			}
-			
-			// Look up the main card.
-			String mainCardKey = deck.getMainCardKey();
-			if (mainCardKey != null && !mainCardKey.isEmpty()) {
-				Card card = cardService.getCard(pm, mainCardKey);
-				if (card != null) {
-					mainCard = card;
-				}
-			}
-		} finally {
-			pm.close();
+		// Look up every distinct card in one batch get, main card included.
+		Set<String> cardKeys = new LinkedHashSet<String>(deck.getMainCardKeys());
+		cardKeys.addAll(deck.getExtraCardKeys());
+		cardKeys.addAll(deck.getSideCardKeys());
+		String mainCardKey = deck.getMainCardKey();
+		if (mainCardKey != null && !mainCardKey.isEmpty()) {
+			cardKeys.add(mainCardKey);
 		}
+		Map<String, Card> cards = new HashMap<String, Card>();
+		for (Card card : cardService.getCards(new ArrayList<String>(cardKeys))) {
+			cards.put(card.getKeyAsString(), card);
+		}
+		List<Card> mainCards = getCards(cards, deck.getMainCardKeys());
+		List<Card> extraCards = getCards(cards, deck.getExtraCardKeys());
+		List<Card> sideCards = getCards(cards, deck.getSideCardKeys());
+		Card mainCard = mainCardKey != null ? cards.get(mainCardKey) : null;
 		
 		// Write the info back to the client.
 		JSONObject json = deck.toJson(mainCard, mainCards, extraCards, sideCards);
@@ -98,7 +89,10 @@ public class DeckServlet extends HttpServlet {
 	}
 	
 	/**
-	 * This is a request to save a deck.
+	 * This is a request to save a deck.  The deck JSON has the version it was
+	 * loaded at; if the deck was saved since, the save is refused with a
+	 * conflict and the current version.  Otherwise the response has the new
+	 * version.
 	 */
 	@Override
 	public void doPost(HttpServletRequest req, HttpServletResponse resp)
@@ -125,8 +119,17 @@ public class DeckServlet extends HttpServlet {
 		}
 	    
 		Deck newDeck = new Deck();
-		newDeck.setFromJson(deckJson);
-		String deckKey = deckJson.getString("key");
+		String deckKey;
+		long expectedVersion;
+		try {
+			newDeck.setFromJson(deckJson);
+			deckKey = deckJson.getString("key");
+			expectedVersion = deckJson.getLong("version");
+		} catch (NoSuchElementException e) {
+			logger.severe("Incomplete deck JSON: " + e.getMessage());
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
 
 		// Make sure there is a deck key.
 		if (deckKey == null || deckKey.trim().isEmpty()) {
@@ -144,46 +147,57 @@ public class DeckServlet extends HttpServlet {
 
 		// Now that the deck has been validated, make sure this user is allowed
 		// to update the deck.
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		try {
-			// Always update.  The deck key can never be null or empty.
-			Deck deck = deckService.getDeck(pm, deckKey);
-			if (deck == null) {
-				// This should happen if there's a programming error or an evil
-				// client.
-				logger.severe("Invalid deck key when saving: " + deckKey);
-				resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
-				return;
-			}
-			
-			// Before actually modifying the deck, make sure the user is allowed.
-			if (deckService.userHasWriteAccess(deck)) {
-				deck.merge(newDeck);
-				logger.info("Updating an existing deck.");
-		        pm.makePersistent(deck);
-			} else {
-				User user = userService.getCurrentUser();
-				String userId = user != null ? user.getUserId() : "anonymous";
-				logger.warning("This user tried to edit a deck that they didn't have access to.  " +
-						"User: " + userId + ", Deck: " + deckKey);
-				resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
-				return;
+		// Always update.  The deck key can never be null or empty.
+		Deck deck = deckService.getDeck(deckKey);
+		if (deck == null) {
+			// This should happen if there's a programming error or an evil
+			// client.
+			logger.severe("Invalid deck key when saving: " + deckKey);
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
+		
+		// Before actually modifying the deck, make sure the user is allowed.
+		if (deckService.userHasWriteAccess(deck)) {
+			deck.merge(newDeck);
+			logger.info("Updating an existing deck.");
+			JSONObject result = new JSONObject();
+			try {
+				deckService.saveDeck(deck, expectedVersion);
+				result.put("version", deck.getVersion());
+			} catch (ConcurrentModificationException e) {
+				// Saved since the client read it, maybe by a delta save.
+				logger.info("Deck changed underneath the editor: " + e.getMessage());
+				Deck current = deckService.getDeck(deckKey);
+				result.put("version", current != null ? current.getVersion() : expectedVersion);
+				resp.setStatus(ResponseStatusCode.CONFLICT.getCode());
 			}
-	    } finally {
-	        pm.close();
-	    }
+			resp.setContentType("text/json");
+			resp.getWriter().write(result.toString());
+		} else {
+			User user = userService.getCurrentUser();
+			String userId = user != null ? user.getUserId() : "anonymous";
+			logger.warning("This user tried to edit a deck that they didn't have access to.  " +
+					"User: " + userId + ", Deck: " + deckKey);
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
 	}
 	
 	/**
-	 * Adds a card to the list of cards after the lookup is complete.
-	 * @param cards The card list to which to add the card.
-	 * @param pm The persistence manager.
-	 * @param cardKey The key of the card to lookup.
+	 * Picks the cards for one part of the deck out of the batch lookup.
+	 * @param cards The cards that were found by key.
+	 * @param cardKeys The keys of the cards in this part of the deck.
+	 * @return The cards in deck order.  Missing cards are left out.
 	 */
-	private void addCard(List<Card> cards, PersistenceManager pm, String cardKey) {
-		Card card = cardService.getCard(pm, cardKey);
-		if (card != null) {
-			cards.add(card);
+	private List<Card> getCards(Map<String, Card> cards, List<String> cardKeys) {
+		List<Card> found = new ArrayList<Card>(cardKeys.size());
+		for (String cardKey : cardKeys) {
+			Card card = cards.get(cardKey);
+			if (card != null) {
+				found.add(card);
+			}
 		}
+		return found;
 	}
 }
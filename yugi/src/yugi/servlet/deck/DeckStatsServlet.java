@@ -0,0 +1,56 @@
+package yugi.servlet.deck;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.Config;
+import yugi.model.Deck;
+import yugi.service.DeckService;
+import yugi.service.DeckStatsService;
+import yugi.servlet.ResponseStatusCode;
+
+/**
+ * Gets the breakdown of a deck without sending any of its cards:
+ *
+ * <pre>
+ * {"main": {"cards": 40, "monsters": 18, "spells": 14, "traps": 8,
+ *           "attributes": {"DARK": 10, ...}, "levels": {"4": 12, ...},
+ *           "average-attack": 1650.0, "average-defense": 1200.0},
+ *  "extra": {...}, "side": {...}}
+ * </pre>
+ *
+ * Like the deck itself, anyone with the deck key can read its stats.
+ */
+public class DeckStatsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -3391268537241908150L;
+	private static final Logger logger = Logger.getLogger(DeckStatsServlet.class.getName());
+
+	private static DeckService deckService = DeckService.getInstance();
+	private static DeckStatsService deckStatsService = DeckStatsService.getInstance();
+
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+
+		// Get the deck key from the request.
+		String deckKey = Config.getDeckKey(req);
+		if (deckKey == null) {
+			logger.severe("No deck key specified.");
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
+
+		Deck deck = deckService.getDeck(deckKey);
+		if (deck == null) {
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
+
+		resp.setContentType("text/json");
+		resp.getWriter().write(deckStatsService.getStats(deck).toString());
+	}
+}
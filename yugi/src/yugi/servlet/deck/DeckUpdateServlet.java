@@ -0,0 +1,122 @@
+package yugi.servlet.deck;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import yugi.model.Deck;
+import yugi.model.DeckChange;
+import yugi.service.DeckService;
+import yugi.servlet.ResponseStatusCode;
+
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+
+/**
+ * Saves the deck editor's changes without sending the whole deck.  The
+ * editor posts the changes made since the version it last saw:
+ *
+ * <pre>
+ * {"key": deckKey, "version": 4, "changes": [{"op": "add", ...}, ...]}
+ * </pre>
+ *
+ * See {@link DeckChange} for the changes.  They are applied all together or
+ * not at all.  The response has the deck's new version and its card keys in
+ * order, so the editor can check its lists against the server's.  If the deck was
+ * saved since that version the response is a conflict with the current
+ * version, and the editor should reload the deck.
+ */
+public class DeckUpdateServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 4173529460823816121L;
+	private static final Logger logger = Logger.getLogger(DeckUpdateServlet.class.getName());
+
+	private static DeckService deckService = DeckService.getInstance();
+	private static UserService userService = UserServiceFactory.getUserService();
+
+	@Override
+	public void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+
+		// Read in the changes.
+		BufferedReader reader = req.getReader();
+		String deckKey;
+		long expectedVersion;
+		List<DeckChange> changes = new ArrayList<DeckChange>();
+		try {
+			StringBuilder sb = new StringBuilder();
+			String line = reader.readLine();
+			while (line != null) {
+				sb.append(line + "\n");
+				line = reader.readLine();
+			}
+			JSONObject json = new JSONObject(sb.toString());
+			deckKey = json.getString("key");
+			expectedVersion = json.getLong("version");
+			JSONArray changesJson = json.getJSONArray("changes");
+			for (int i = 0; i < changesJson.length(); i++) {
+				changes.add(DeckChange.fromJson(changesJson.getJSONObject(i)));
+			}
+		} catch (Exception e) {
+			logger.severe("Failed to parse the deck changes: " + e.getMessage());
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		} finally {
+			reader.close();
+		}
+
+		Deck deck = deckService.getDeck(deckKey);
+		if (deck == null) {
+			logger.severe("Invalid deck key when updating: " + deckKey);
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
+
+		// Make sure the user is allowed to change the deck.
+		if (!deckService.userHasWriteAccess(deck)) {
+			User user = userService.getCurrentUser();
+			String userId = user != null ? user.getUserId() : "anonymous";
+			logger.warning("This user tried to edit a deck that they didn't have access to.  " +
+					"User: " + userId + ", Deck: " + deckKey);
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
+
+		JSONObject result = new JSONObject();
+		try {
+			Deck updated = deckService.updateDeck(deck, expectedVersion, changes);
+			result.put("version", updated.getVersion());
+			result.put("main-card-keys", new JSONArray(updated.getMainCardKeys()));
+			result.put("extra-card-keys", new JSONArray(updated.getExtraCardKeys()));
+			result.put("side-card-keys", new JSONArray(updated.getSideCardKeys()));
+		} catch (ConcurrentModificationException e) {
+			logger.info("Deck changed underneath the editor: " + e.getMessage());
+			Deck current = deckService.getDeck(deckKey);
+			result.put("version", current != null ? current.getVersion() : deck.getVersion());
+			resp.setStatus(ResponseStatusCode.CONFLICT.getCode());
+		} catch (IllegalArgumentException e) {
+			logger.severe("Failed to apply the deck changes: " + e.getMessage());
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		} catch (EntityNotFoundException e) {
+			logger.severe("The deck was deleted while updating: " + deckKey);
+			resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
+
+		resp.setContentType("text/json");
+		resp.getWriter().write(result.toString());
+	}
+}
@@ -2,10 +2,11 @@ package yugi.servlet.deck;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -14,9 +15,9 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import yugi.Config;
-import yugi.PMF;
 import yugi.model.Card;
 import yugi.model.Deck;
+import yugi.repository.Page;
 import yugi.service.CardService;
 import yugi.service.DeckService;
 import yugi.servlet.ResponseStatusCode;
@@ -26,6 +27,11 @@ import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 
+/**
+ * Lists decks a page at a time, ordered by name.  Each deck has its summary
+ * and main card.  A response with a cursor has more pages; pass the cursor
+ * back to get the next one.
+ */
 public class DecksServlet extends HttpServlet {
 
 	private static final long serialVersionUID = -2144543303475151703L;
@@ -41,48 +47,62 @@ public class DecksServlet extends HttpServlet {
 	public void doGet(HttpServletRequest req, HttpServletResponse res)
 			throws IOException {
 
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-
 		try {
 
-			List<Deck> decks = null;
-			if (Config.isStructureRequest(req)) {
-				// Get the structure decks.  Anyone should be allowed to view
-				// structure decks, even anonymously.
-				decks = deckService.getStructureDecks(pm);
-			} else {
-				// Make sure the user is logged in.
-				User user = userService.getCurrentUser();
-				if (user == null) {
-					ServletUtil.writeLoginScreen(req, res);
-					return;
+			String cursor = Config.getParam(req, Config.UrlParameter.CURSOR);
+			Page<Deck> page = null;
+			try {
+				if (Config.isStructureRequest(req)) {
+					// Get the structure decks.  Anyone should be allowed to
+					// view structure decks, even anonymously.
+					page = deckService.getStructureDecks(cursor);
+				} else {
+					// Make sure the user is logged in.
+					User user = userService.getCurrentUser();
+					if (user == null) {
+						ServletUtil.writeLoginScreen(req, res);
+						return;
+					}
+
+					// Get the decks for the current user.
+					page = deckService.getDecks(user, cursor);
+				}
+			} catch (IllegalArgumentException e) {
+				logger.warning("Invalid deck cursor: " + cursor);
+				res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+				return;
+			}
+			List<Deck> decks = page.getItems();
+
+			// Look up the main cards in one batch get.
+			List<String> mainCardKeys = new ArrayList<String>(decks.size());
+			for (Deck deck : decks) {
+				if (deck.getMainCardKey() != null) {
+					mainCardKeys.add(deck.getMainCardKey());
 				}
-				
-				// Get the decks for the current user.
-				decks = deckService.getDecks(pm, user);
+			}
+			Map<String, Card> mainCards = new HashMap<String, Card>();
+			for (Card card : cardService.getCards(mainCardKeys)) {
+				mainCards.put(card.getKeyAsString(), card);
 			}
 
 			// Convert the list of decks into JSON.
 			ArrayList<JSONObject> jsonDecks = new ArrayList<JSONObject>();
-			if (!decks.isEmpty()) {
-				for (Deck deck : decks) {
-					
-					// Look up the main card.
-					Card mainCard = cardService.getCard(pm, deck.getMainCardKey());
-					jsonDecks.add(deck.toJson(mainCard));
-				}
+			for (Deck deck : decks) {
+				jsonDecks.add(deck.toJson(mainCards.get(deck.getMainCardKey())));
 			}
 
 			JSONObject json = new JSONObject();
 			json.put("decks", new JSONArray(jsonDecks));
+			if (page.getCursor() != null) {
+				json.put("cursor", page.getCursor());
+			}
 			res.setContentType("text/json");
 			res.getWriter().write(json.toString());
 
 		} catch (Exception e) {
 			logger.severe("Failed to fetch the decks.");
 			res.setStatus(ResponseStatusCode.INTERNAL_SERVER_ERROR.getCode());
-		} finally {
-			pm.close();
 		}
 	}
 }
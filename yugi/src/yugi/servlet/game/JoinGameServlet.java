@@ -5,7 +5,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -14,10 +13,10 @@ import javax.servlet.http.HttpServletResponse;
 import yugi.Config;
 import yugi.Config.CookieName;
 import yugi.Config.HtmlParam;
-import yugi.PMF;
 import yugi.Screen;
 import yugi.model.GameSession;
 import yugi.service.GameService;
+import yugi.service.LobbyService;
 import yugi.servlet.ResponseStatusCode;
 import yugi.servlet.ServletUtil;
 
@@ -34,6 +33,7 @@ public class JoinGameServlet extends HttpServlet {
 	
 	private static final ChannelService channelService = ChannelServiceFactory.getChannelService();
 	private static final GameService gameService = GameService.getInstance();
+	private static final LobbyService lobbyService = LobbyService.getInstance();
 	
 	public void doGet(HttpServletRequest req, HttpServletResponse res)
 			throws IOException {
@@ -53,49 +53,51 @@ public class JoinGameServlet extends HttpServlet {
 		String existingClientId = getPlayerClientId(req);
 		
 		// See if the game exists, then join it.
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		GameSession game = null;
 		String clientId = null;
-		try {
 
-			// TODO This lookup will fail if a user refreshes the page while
-			// waiting for another player to join.  A better way to solve this
-			// might be to just delay game destruction on player disconnect.  If
-			// we do this, then we'll have to flag the game to not be destroyed
-			// once a reconnect happens.
-			game = gameService.getGame(pm, gameKey);
-			if (game == null) {
-				res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+		// TODO This lookup will fail if a user refreshes the page while
+		// waiting for another player to join.  A better way to solve this
+		// might be to just delay game destruction on player disconnect.  If
+		// we do this, then we'll have to flag the game to not be destroyed
+		// once a reconnect happens.
+		GameSession game = gameService.getGame(gameKey);
+		if (game == null) {
+			res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+			return;
+		}
+		
+		// See if the player is reconnecting.
+		if (isReconnecting(existingClientId, game)) {
+			logger.info("Player " + playerName +
+					" is reconnecting to " + game.getKeyAsString());
+			clientId = existingClientId;
+		} else if (Config.isSpectateRequest(req)) {
+			
+			// The player only wants to watch.
+			clientId = spectate(game, playerName);
+			gameService.saveGame(game);
+		} else {
+			
+			// The player is not reconnecting, just doing a simple join.
+			
+			// Make sure the game is not full.
+			if (isGameFull(game)) {
+				logger.warning("Player " + playerName + " tried to join " +
+						"the game with game key = " + gameKey + ", but it was full.");
+				// TODO Write an error page.  Don't redirect to the landing.
+				redirectWithError(req, res, Config.Error.GAME_FULL, game);
 				return;
 			}
 			
-			// See if the player is reconnecting.
-			if (isReconnecting(existingClientId, game)) {
-				logger.info("Player " + playerName +
-						" is reconnecting to " + game.getKeyAsString());
-				clientId = existingClientId;
-			} else {
-				
-				// The player is not reconnecting, just doing a simple join.
-				
-				// Make sure the game is not full.
-				if (isGameFull(game)) {
-					logger.warning("Player " + playerName + " tried to join " +
-							"the game with game key = " + gameKey + ", but it was full.");
-					// TODO Write an error page.  Don't redirect to the landing.
-					redirectWithError(req, res, Config.Error.GAME_FULL, game);
-					return;
-				}
-				
-				// Join the game and get the player ID that was generated.
-				clientId = join(game, playerName);
-				
-				// Save the game since the state changed.
-				pm.makePersistent(game);
-				logger.info("Finished saving the game.");
-			}
-		} finally {
-			pm.close();
+			// Join the game and get the player ID that was generated.
+			clientId = join(game, playerName);
+			
+			// Save the game since the state changed.
+			gameService.saveGame(game);
+			logger.info("Finished saving the game.");
+			
+			// The game may no longer be joinable.
+			lobbyService.update(game);
 		}
 		
 		// Double check that the client ID was set.
@@ -113,6 +115,7 @@ public class JoinGameServlet extends HttpServlet {
 		paramMap.put(HtmlParam.GAME_KEY, game.getKeyAsString());
 		paramMap.put(HtmlParam.CHANNEL_TOKEN, channelToken);
 		paramMap.put(HtmlParam.PLAYER_NAME, playerName);
+		paramMap.put(HtmlParam.READ_ONLY, Boolean.toString(game.isSpectator(clientId)));
 		
 		res.addCookie(new Cookie(CookieName.PLAYER_ID.name(), clientId));
 		
@@ -130,9 +133,10 @@ public class JoinGameServlet extends HttpServlet {
 		if (clientId == null) {
 			return false;
 		} else {
-			// Reconnecting if the client ID equals either existing one.
+			// Reconnecting if the client ID equals any existing one.
 			return clientId.equals(game.getPlayer1ClientId()) ||
-					clientId.equals(game.getPlayer2ClientId());
+					clientId.equals(game.getPlayer2ClientId()) ||
+					game.isSpectator(clientId);
 		}
 	}
 	
@@ -173,6 +177,20 @@ public class JoinGameServlet extends HttpServlet {
 		return null;
 	}
 	
+	/**
+	 * Adds a spectator to the game and returns its client ID.
+	 * @param game The game.
+	 * @param playerName The name of the spectator.
+	 * @return The generated client ID.
+	 */
+	private String spectate(GameSession game, String playerName) {
+		logger.info(playerName + " is spectating " + game.getKeyAsString());
+		String clientId = game.getKeyAsString() + "s" +
+				Long.toString(System.nanoTime(), 36);
+		game.addSpectator(clientId);
+		return clientId;
+	}
+	
 	/**
 	 * Gets the player's client ID from their cookie.
 	 * @param req The request from which to fetch the cookie.
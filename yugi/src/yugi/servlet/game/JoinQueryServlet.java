@@ -1,30 +1,30 @@
 package yugi.servlet.game;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 
-import yugi.PMF;
-import yugi.model.GameSession;
-import yugi.service.GameService;
+import yugi.Config;
+import yugi.service.LobbyService;
 import yugi.servlet.ResponseStatusCode;
 
+/**
+ * Lists the games that can be joined.  Results are paged with the cursor
+ * parameter.  Passing the since parameter with a version from a previous
+ * response returns only the games added and removed since then.
+ */
 public class JoinQueryServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 4279017733941892955L;
 	private static final Logger logger = Logger.getLogger(JoinQueryServlet.class.getName());
 
-	private static final GameService gameService = GameService.getInstance();
+	private static final LobbyService lobbyService = LobbyService.getInstance();
 	
 	/**
 	 * This is the request for games to join.
@@ -32,28 +32,28 @@ public class JoinQueryServlet extends HttpServlet {
 	public void doGet(HttpServletRequest req, HttpServletResponse res)
 			throws IOException {
 
-		PersistenceManager pm = PMF.get().getPersistenceManager();
-		try {
-			
-			// Query for all games.
-			List<GameSession> games = gameService.getAllGames(pm);
-			
-			// Convert the list of games into JSON games.
-			List<JSONObject> jsonGames = new ArrayList<JSONObject>();
-			for (GameSession game : games) {
-				jsonGames.add(game.toJson());
+		String since = Config.getParam(req, Config.UrlParameter.SINCE);
+		String cursor = Config.getParam(req, Config.UrlParameter.CURSOR);
+
+		JSONObject jsonObject;
+		if (since != null) {
+			try {
+				jsonObject = lobbyService.getChanges(Long.parseLong(since));
+			} catch (NumberFormatException e) {
+				logger.warning("Invalid version: " + since);
+				res.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
+				return;
 			}
-	
-			JSONObject jsonObject = new JSONObject();
-			jsonObject.put("games", new JSONArray(jsonGames));
+		} else {
+			jsonObject = lobbyService.getPage(cursor);
+		}
+
+		try {
 			res.setContentType("text/json");
 			res.getWriter().write(jsonObject.toString());
-
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Failed to write the JSON result.", e);
 			res.setStatus(ResponseStatusCode.INTERNAL_SERVER_ERROR.getCode());
-		} finally {
-			pm.close();
 		}
 	}
 }
@@ -3,28 +3,24 @@ package yugi.servlet.game;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.jdo.JDOObjectNotFoundException;
-import javax.jdo.PersistenceManager;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.json.JSONObject;
-
 import yugi.Config;
-import yugi.PMF;
+import yugi.handler.AckHandler;
 import yugi.handler.Handler;
 import yugi.handler.ReflectorHandler;
 import yugi.message.Message;
+import yugi.message.MessageEnvelope;
 import yugi.model.GameSession;
+import yugi.service.GameService;
 import yugi.servlet.ResponseStatusCode;
 
-import com.google.appengine.api.datastore.KeyFactory;
-
 /**
  * All clients post messages through this servlet.  This servlet is responsible
  * for deserializing and dispatching handling accordingly.
@@ -34,14 +30,13 @@ public class MessageServlet extends HttpServlet {
 	private static final long serialVersionUID = -7849407805778980239L;
 	private static final Logger logger = Logger.getLogger(MessageServlet.class.getName());
 
-	private static final String TYPE = "type";
-	private static final String USER = "user";
-	private static final String MESSAGE = "message";
+	private static final GameService gameService = GameService.getInstance();
 
 	/**
-	 * This maps a message type to the handler that is interested.
+	 * This maps a message type to the handler that is interested.  Every type
+	 * is filled in up front so dispatch is a single array lookup.
 	 */
-	private final HashMap<Message.Type, Handler> typeToHandler;
+	private final EnumMap<Message.Type, Handler> typeToHandler;
 
 	/**
 	 * This handler is used to reflect messages blindly from one client to the
@@ -55,15 +50,20 @@ public class MessageServlet extends HttpServlet {
 	public MessageServlet() {
 		super();
 
-		typeToHandler = new HashMap<Message.Type, Handler>();
+		typeToHandler = new EnumMap<Message.Type, Handler>(Message.Type.class);
 
 		// The reflector handler will be used for all unhandled types.
 		reflectorHandler = new ReflectorHandler();
+		for (Message.Type type : Message.Type.values()) {
+			typeToHandler.put(type, reflectorHandler);
+		}
 		
 		// Register other message handlers.
+		typeToHandler.put(Message.Type.ACK, new AckHandler());
+
 		// Future handling looks like this:
 		// typeToHandler.put(Message.Type.TYPE, new TypeHandler());
-		// where TypeHandler extends Handler.
+		// where TypeHandler implements Handler.
 	}
 
 	@Override
@@ -89,18 +89,12 @@ public class MessageServlet extends HttpServlet {
 		
 		// Make sure the game key parameter exists.
 		String gameKey = Config.getGameKey(req);
-		PersistenceManager pm = PMF.get().getPersistenceManager();
 		GameSession game = null;
 		try {
-			game = pm.getObjectById(GameSession.class, KeyFactory.stringToKey(gameKey));
-		} catch (JDOObjectNotFoundException notFoundException) {
-			logger.log(Level.WARNING, "Could not find the game with key = " +
-					gameKey, notFoundException);
+			game = gameService.getGame(gameKey);
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Failed to lookup the game with key = " +
 					gameKey, e);
-		} finally {
-			pm.close();
 		}
 
 		if (game != null) {
@@ -111,6 +105,9 @@ public class MessageServlet extends HttpServlet {
 					logger.severe("Failed to process this message: " + jsonString);
 					resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
 				}
+				
+				// Keep the game from looking abandoned.
+				gameService.recordActivity(game);
 			} catch (ParseException e) {
 				logger.log(Level.SEVERE, "Failed to parse some JSON", e);
 				resp.setStatus(ResponseStatusCode.BAD_REQUEST.getCode());
@@ -122,7 +119,8 @@ public class MessageServlet extends HttpServlet {
 	}
 
 	/**
-	 * Processes the given JSON string.
+	 * Processes the given JSON string.  Only the envelope is read; the inner
+	 * message is left as raw text for the handler.
 	 * @param game The game object.
 	 * @param jsonString The message in raw JSON format.
 	 * @return True if message was processed successfully, false otherwise.
@@ -133,53 +131,23 @@ public class MessageServlet extends HttpServlet {
 		// TODO Use the client ID in the player's cookie instead of the user
 		// field in the message.
 		
-		// Parse the JSON.
-		JSONObject jsonObject = new JSONObject(jsonString);
-
-		// Figure out the message type.
-		String type = jsonObject.getString(TYPE);
-		Message.Type messageType = null;
-		try {
-			messageType = Message.Type.valueOf(type.toUpperCase());
-		} catch (IllegalArgumentException e) {
-			// Don't throw an exception if the enum isn't found.  This is expected
-			// if the server doesn't care about the message type.
-		}
+		// Read the envelope.
+		MessageEnvelope envelope = MessageEnvelope.parse(jsonString);
 
-		// Figure out the user that sent the message.
-		String user = jsonObject.getString(USER);
-		if (user == null) {
-			logger.severe("The message with type=" + type + " had no user.");
-			return false;
-		}
-
-		// Parse the internal message.
-		JSONObject messageObject = jsonObject.getJSONObject(MESSAGE);
-		if (messageObject == null) {
-			logger.severe("The message with type=" + type + " had no payload.");
-			return false;
-		}
-
-		// Figure out the handler that should be used.  Use reflector by default.
+		// Figure out the handler that should be used.  Types the server doesn't
+		// recognize are reflected.
 		Handler handler = reflectorHandler;
-		
-		// Don't look for another handler unless the server recognizes the type
-		// of message this is.
+		Message.Type messageType = envelope.getType();
 		if (messageType != null) {
-			
-			// If there is a message handler for this type, use that instead.
-			Handler messageHandler = typeToHandler.get(messageType);
-			if (messageHandler != null) {
-				handler = messageHandler;
-			}
+			handler = typeToHandler.get(messageType);
 		}
 
 		// Try to handle the message.
 		try {
-			handler.handle(game, user, messageObject);
+			handler.handle(game, envelope);
 		} catch (Exception e) {
-			logger.log(Level.SEVERE, "Failed to handle a " + messageType +
-					" message.", e);
+			logger.log(Level.SEVERE, "Failed to handle a " +
+					envelope.getTypeName() + " message.", e);
 			return false;
 		}
 
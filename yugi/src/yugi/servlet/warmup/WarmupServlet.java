@@ -0,0 +1,161 @@
+package yugi.servlet.warmup;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import yugi.PMF;
+import yugi.model.Card;
+import yugi.model.Deck;
+import yugi.model.GameSession;
+import yugi.service.CardCatalogService;
+import yugi.service.CardNameService;
+import yugi.service.CardService;
+import yugi.service.DeckService;
+import yugi.service.GameService;
+import yugi.service.LobbyService;
+import yugi.servlet.ServletUtil;
+
+/**
+ * Handles the warmup request App Engine sends to a new instance before it
+ * gets any user traffic.  Everything a first request would otherwise pay for
+ * is done here, one phase at a time: starting JDO and loading its metadata,
+ * loading the card names and the card catalog, reading the screen HTML and
+ * creating the services.
+ *
+ * The time each phase took is kept for the life of the instance.  The warmup
+ * response lists them, and so does a request to the admin path afterwards.
+ */
+public class WarmupServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 2307715632589811438L;
+
+	private static final Logger logger = Logger.getLogger(WarmupServlet.class.getName());
+
+	/**
+	 * How long each phase took, in milliseconds, in the order they ran.
+	 */
+	private static final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+
+	private static boolean warmedUp = false;
+
+	/**
+	 * Warms the instance up if it hasn't been already and writes the phase
+	 * timings.
+	 */
+	@Override
+	public void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws IOException {
+		Map<String, Long> phases = warmUp();
+
+		resp.setContentType("text/plain");
+		PrintWriter writer = resp.getWriter();
+		long total = 0;
+		for (Entry<String, Long> phase : phases.entrySet()) {
+			writer.println(phase.getKey() + ": " + phase.getValue() + " ms");
+			total += phase.getValue();
+		}
+		writer.println("Total: " + total + " ms");
+	}
+
+	/**
+	 * Runs every phase once per instance.  A request that arrives while
+	 * another is warming up waits for it.
+	 * @return A copy of the phase timings.
+	 */
+	private static synchronized Map<String, Long> warmUp() {
+		if (!warmedUp) {
+			runPhase("JDO", new Phase() {
+				@Override
+				public void run() {
+					warmUpJdo();
+				}
+			});
+			runPhase("Card names", new Phase() {
+				@Override
+				public void run() {
+					int names = CardNameService.getInstance().preload();
+					logger.info("Preloaded " + names + " card names.");
+				}
+			});
+			runPhase("Card catalog", new Phase() {
+				@Override
+				public void run() {
+					int cards = CardCatalogService.getInstance().preload();
+					logger.info("Preloaded a catalog of " + cards + " cards.");
+				}
+			});
+			runPhase("Screens", new Phase() {
+				@Override
+				public void run() throws Exception {
+					ServletUtil.preloadScreens();
+				}
+			});
+			runPhase("Services", new Phase() {
+				@Override
+				public void run() {
+					CardService.getInstance();
+					DeckService.getInstance();
+					GameService.getInstance();
+					LobbyService.getInstance();
+				}
+			});
+			warmedUp = true;
+		}
+		return new LinkedHashMap<String, Long>(timings);
+	}
+
+	/**
+	 * Builds the persistence manager factory and runs a tiny query for each
+	 * model class on the user paths, which makes DataNucleus load and check
+	 * their metadata now instead of on a user request.
+	 */
+	private static void warmUpJdo() {
+		PersistenceManager pm = PMF.get().getPersistenceManager();
+		try {
+			for (Class<?> modelClass : new Class<?>[] {
+					Card.class, Deck.class, GameSession.class}) {
+				Query query = pm.newQuery(modelClass);
+				query.setRange(0, 1);
+				try {
+					query.execute();
+				} finally {
+					query.closeAll();
+				}
+			}
+		} finally {
+			pm.close();
+		}
+	}
+
+	/**
+	 * Runs the phase and records how long it took.  A failed phase is logged
+	 * and the rest still run, since anything left cold just loads on first
+	 * use.
+	 */
+	private static void runPhase(String name, Phase phase) {
+		long start = System.currentTimeMillis();
+		try {
+			phase.run();
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to warm up: " + name, e);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		timings.put(name, elapsed);
+		logger.info("Warmup phase \"" + name + "\" took " + elapsed + " ms");
+	}
+
+	private interface Phase {
+		void run() throws Exception;
+	}
+}